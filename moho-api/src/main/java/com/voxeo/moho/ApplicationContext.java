@@ -17,6 +17,7 @@ package com.voxeo.moho;
 import javax.servlet.ServletContext;
 
 import com.voxeo.moho.conference.ConferenceManager;
+import com.voxeo.moho.event.StateRegistry;
 
 /**
  * <p>
@@ -49,4 +50,10 @@ public interface ApplicationContext extends AttributeStore, ParameterStore {
 
   String getRealPath(String path);
 
+  /**
+   * @return the registry of the application state machines, where
+   *         {@link Application#init(ApplicationContext)} can define them.
+   */
+  StateRegistry getStateRegistry();
+
 }
@@ -186,4 +186,27 @@ public interface Call extends MultiStreamParticipant {
    * send a sendrecv SDP and resume to send media data.
    */
   void unhold();
+
+  /**
+   * asynchronous version of {@link #mute()}. The request is queued behind the
+   * hold or mute operation in progress instead of failing, and a queued
+   * request followed by its opposite are both completed without sending
+   * anything.
+   */
+  CallOperation muteAsync();
+
+  /**
+   * asynchronous version of {@link #unmute()}, queued as {@link #muteAsync()}.
+   */
+  CallOperation unmuteAsync();
+
+  /**
+   * asynchronous version of {@link #hold()}, queued as {@link #muteAsync()}.
+   */
+  CallOperation holdAsync();
+
+  /**
+   * asynchronous version of {@link #unhold()}, queued as {@link #muteAsync()}.
+   */
+  CallOperation unholdAsync();
 }
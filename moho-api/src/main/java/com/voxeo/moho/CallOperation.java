@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.util.concurrent.Future;
+
+/**
+ * A <code>CallOperation</code> represents the result of an asynchronous
+ * <code>hold</code>, <code>unhold</code>, <code>mute</code> or
+ * <code>unmute</code> of a {@link Call}. The result is the call itself once
+ * the re-INVITE has been answered.
+ * <p>
+ * An operation can only be cancelled while it is still queued behind another
+ * operation of the call, once its re-INVITE is sent it runs to completion.
+ */
+public interface CallOperation extends Future<Call> {
+
+  /**
+   * Registers a listener notified when the operation completes, as an
+   * alternative to blocking in {@link #get()}.
+   */
+  void addCompletionListener(CompletionListener<Call> listener);
+
+}
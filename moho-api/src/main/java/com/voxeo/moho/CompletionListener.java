@@ -0,0 +1,43 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+/**
+ * A callback notified when an asynchronous operation, such as a
+ * {@link Joint} or a {@link com.voxeo.moho.media.MediaOperation
+ * MediaOperation}, completes. It allows the result to be consumed without
+ * blocking a thread in <code>Future.get()</code>.
+ * <p>
+ * The callback runs on the thread that completes the operation, typically a
+ * signaling or media event thread, so it should return quickly. If the
+ * operation is already complete when the listener is added, it is notified
+ * immediately on the calling thread.
+ * 
+ * @param <T>
+ *          the type of the result of the operation.
+ */
+public interface CompletionListener<T> {
+
+  /**
+   * Invoked when the operation completes with a result.
+   */
+  void onComplete(T result);
+
+  /**
+   * Invoked when the operation fails or is cancelled.
+   */
+  void onFailure(Throwable t);
+
+}
@@ -27,4 +27,10 @@ import com.voxeo.moho.event.JoinCompleteEvent;
  */
 public interface Joint extends Future<JoinCompleteEvent> {
 
+  /**
+   * Registers a listener notified when the <code>join</code> operation
+   * completes, as an alternative to blocking in {@link #get()}.
+   */
+  void addCompletionListener(CompletionListener<JoinCompleteEvent> listener);
+
 }
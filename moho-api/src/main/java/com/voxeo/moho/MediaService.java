@@ -18,6 +18,7 @@ import java.net.URI;
 
 import javax.media.mscontrol.mediagroup.MediaGroup;
 
+import com.voxeo.moho.media.CompiledPrompt;
 import com.voxeo.moho.media.Input;
 import com.voxeo.moho.media.Output;
 import com.voxeo.moho.media.Prompt;
@@ -123,6 +124,35 @@ public interface MediaService {
    */
   Prompt prompt(OutputCommand output, InputCommand input, int repeat);
 
+  /**
+   * Prepares the parameters, RTCs and resources of a prompt once, so that it
+   * can be played many times, on any call, with {@link #prompt(CompiledPrompt)}.
+   * 
+   * @param output
+   *          the output command, or null.
+   * @param input
+   *          the input command, or null.
+   * @param repeat
+   *          how many times to repeat the output until an recognized input is
+   *          received.
+   * @return an immutable {@link CompiledPrompt CompiledPrompt}.
+   * @throws MediaException
+   *           when neither output nor input is given.
+   */
+  CompiledPrompt compile(OutputCommand output, InputCommand input, int repeat);
+
+  /**
+   * Equivalent of {@link #prompt(OutputCommand, InputCommand, int)} with the
+   * commands the prompt was compiled from.
+   * 
+   * @param prompt
+   *          a prompt compiled by {@link #compile(OutputCommand, InputCommand, int)}.
+   * @return a Prompt {@link java.util.concurrent.Future Future}.
+   * @throws MediaException
+   *           when there is media server error.
+   */
+  Prompt prompt(CompiledPrompt prompt);
+
   /**
    * Waits for the input from the call to which this service is attached for
    * recognition based on grammar.
@@ -14,10 +14,16 @@
 
 package com.voxeo.moho.event;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -52,30 +58,112 @@ import com.voxeo.utils.EventListener;
  * event.
  * <li>
  * </ul>
- * TODO: if there are multiple matches, should we invoke the most specific one
- * or all of them?
+ * For each event type in the hierarchy of the event, from the event class up,
+ * the first matching method is invoked. Methods constrained on more states are
+ * tried before the less constrained ones, and methods with the same number of
+ * states in the order of their names.
  * 
  * @author wchen
  */
 public class AutowiredEventListener implements EventListener<Event<EventSource>> {
 
+  private static final AutowiredEventTarget[][] NO_TARGETS = new AutowiredEventTarget[0][];
+
+  // Class.getMethods() returns the methods in no particular order.
+  private static final Comparator<AutowiredEventTarget> SPECIFIC_FIRST = new Comparator<AutowiredEventTarget>() {
+    @Override
+    public int compare(final AutowiredEventTarget t1, final AutowiredEventTarget t2) {
+      final int states = t2._fsms.length - t1._fsms.length;
+      if (states != 0) {
+        return states;
+      }
+      return t1._method.getName().compareTo(t2._method.getName());
+    }
+  };
+
+  // the targets of each observer class, scanned once per class. moho may be
+  // shared by several applications, so neither the observer classes nor
+  // their methods are held strongly, and an application class loader can be
+  // collected once it is undeployed. The listeners hold their prototypes, so
+  // an entry lives at least as long as an observer of its class.
+  private static final Map<Class<?>, WeakReference<Map<Class<Event<EventSource>>, List<AutowiredEventTarget>>>> _prototypes = new WeakHashMap<Class<?>, WeakReference<Map<Class<Event<EventSource>>, List<AutowiredEventTarget>>>>();
+
   protected Object _target;
 
+  // the prototypes of the target class, which keep its cache entry alive.
+  private Map<Class<Event<EventSource>>, List<AutowiredEventTarget>> _classTargets;
+
   protected ConcurrentMap<Class<Event<EventSource>>, List<AutowiredEventTarget>> _listeners = new ConcurrentHashMap<Class<Event<EventSource>>, List<AutowiredEventTarget>>();
 
+  // the targets of each concrete event class, grouped by the event class
+  // they are declared for, from the most specific to the least specific.
+  protected ConcurrentMap<Class<?>, AutowiredEventTarget[][]> _dispatchTable = new ConcurrentHashMap<Class<?>, AutowiredEventTarget[][]>();
+
   /**
-   * Takes a target object on which to invoke event handlers
+   * Takes a target object on which to invoke event handlers. The states of
+   * the handlers are matched by their names.
    * 
    * @param target
    */
-  @SuppressWarnings("unchecked")
   public AutowiredEventListener(final Object target) {
+    this(target, null);
+  }
+
+  /**
+   * Takes a target object on which to invoke event handlers, whose states are
+   * interned in and validated by the state registry of its application.
+   * 
+   * @param target
+   * @param registry
+   *          the state registry of the application, or null to match the
+   *          states by their names.
+   * @throws IllegalArgumentException
+   *           if a handler names a state the registry does not define.
+   */
+  public AutowiredEventListener(final Object target, final StateRegistry registry) {
 
     _target = target;
     if (target == null) {
       return;
     }
-    final Method[] methods = target.getClass().getMethods();
+    final Map<Class<Event<EventSource>>, List<AutowiredEventTarget>> prototypes = getPrototypes(target.getClass());
+    _classTargets = prototypes;
+    for (final Map.Entry<Class<Event<EventSource>>, List<AutowiredEventTarget>> entry : prototypes.entrySet()) {
+      final List<AutowiredEventTarget> targets = new ArrayList<AutowiredEventTarget>(entry.getValue().size());
+      for (final AutowiredEventTarget prototype : entry.getValue()) {
+        targets.add(new AutowiredEventTarget(prototype, target, registry));
+      }
+      _listeners.put(entry.getKey(), targets);
+    }
+  }
+
+  private static Map<Class<Event<EventSource>>, List<AutowiredEventTarget>> getPrototypes(final Class<?> clazz) {
+    synchronized (_prototypes) {
+      final WeakReference<Map<Class<Event<EventSource>>, List<AutowiredEventTarget>>> ref = _prototypes.get(clazz);
+      final Map<Class<Event<EventSource>>, List<AutowiredEventTarget>> prototypes = ref == null ? null : ref.get();
+      if (prototypes != null) {
+        return prototypes;
+      }
+    }
+    // scans outside the lock, a class scanned twice concurrently only costs
+    // the second scan.
+    final Map<Class<Event<EventSource>>, List<AutowiredEventTarget>> prototypes = scan(clazz);
+    synchronized (_prototypes) {
+      final WeakReference<Map<Class<Event<EventSource>>, List<AutowiredEventTarget>>> ref = _prototypes.get(clazz);
+      final Map<Class<Event<EventSource>>, List<AutowiredEventTarget>> existing = ref == null ? null : ref.get();
+      if (existing != null) {
+        return existing;
+      }
+      _prototypes.put(clazz, new WeakReference<Map<Class<Event<EventSource>>, List<AutowiredEventTarget>>>(
+          prototypes));
+      return prototypes;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<Class<Event<EventSource>>, List<AutowiredEventTarget>> scan(final Class<?> clazz) {
+    final Map<Class<Event<EventSource>>, List<AutowiredEventTarget>> prototypes = new HashMap<Class<Event<EventSource>>, List<AutowiredEventTarget>>();
+    final Method[] methods = clazz.getMethods();
     for (final Method m : methods) {
       if (!Modifier.isPublic(m.getModifiers())) {
         continue; // method must be public
@@ -88,16 +176,20 @@ public class AutowiredEventListener implements EventListener<Event<EventSource>>
         continue; // method must have one parameter taking a subtype of Event
       }
       final Class<Event<EventSource>> eventType = (Class<Event<EventSource>>) types[0];
-      final AutowiredEventTarget autowiredEventTarget = new AutowiredEventTarget(m, target);
-      addTarget(eventType, autowiredEventTarget);
+      addTarget(prototypes, eventType, new AutowiredEventTarget(m, null));
     }
+    for (final List<AutowiredEventTarget> targets : prototypes.values()) {
+      Collections.sort(targets, SPECIFIC_FIRST);
+    }
+    return prototypes;
   }
 
-  private void addTarget(final Class<Event<EventSource>> eventType, final AutowiredEventTarget target) {
-    List<AutowiredEventTarget> targets = _listeners.get(eventType);
+  private static void addTarget(final Map<Class<Event<EventSource>>, List<AutowiredEventTarget>> listeners,
+      final Class<Event<EventSource>> eventType, final AutowiredEventTarget target) {
+    List<AutowiredEventTarget> targets = listeners.get(eventType);
     if (targets == null) {
       targets = new ArrayList<AutowiredEventTarget>();
-      _listeners.put(eventType, targets);
+      listeners.put(eventType, targets);
     }
     for (final AutowiredEventTarget et : targets) {
       if (et.equals(target)) {
@@ -107,21 +199,30 @@ public class AutowiredEventListener implements EventListener<Event<EventSource>>
     targets.add(target);
   }
 
-  @SuppressWarnings("unchecked")
   public void onEvent(final Event<EventSource> event) throws Exception {
-    Class<? extends Event<EventSource>> clz = (Class<? extends Event<EventSource>>) event.getClass();
-    do {
-      final List<AutowiredEventTarget> targets = _listeners.get(clz);
-      if (targets != null) {
-        for (final AutowiredEventTarget target : targets) {
-          if (target.invoke(event)) {
-            break;
-          }
+    for (final AutowiredEventTarget[] targets : getTargets(event.getClass())) {
+      for (final AutowiredEventTarget target : targets) {
+        if (target.invoke(event)) {
+          break;
+        }
+      }
+    }
+  }
+
+  private AutowiredEventTarget[][] getTargets(final Class<?> eventClass) {
+    AutowiredEventTarget[][] targets = _dispatchTable.get(eventClass);
+    if (targets == null) {
+      final List<AutowiredEventTarget[]> list = new ArrayList<AutowiredEventTarget[]>();
+      for (Class<?> clz = eventClass; clz != null && !clz.equals(Object.class); clz = clz.getSuperclass()) {
+        final List<AutowiredEventTarget> declared = _listeners.get(clz);
+        if (declared != null && declared.size() > 0) {
+          list.add(declared.toArray(new AutowiredEventTarget[declared.size()]));
         }
       }
-      clz = (Class<? extends Event<EventSource>>) clz.getSuperclass();
+      targets = list.isEmpty() ? NO_TARGETS : list.toArray(new AutowiredEventTarget[list.size()][]);
+      _dispatchTable.put(eventClass, targets);
     }
-    while (clz != null && !clz.equals(Object.class));
+    return targets;
   }
 
   public Object getTarget() {
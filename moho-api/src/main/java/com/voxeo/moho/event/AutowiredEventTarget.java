@@ -16,7 +16,9 @@ package com.voxeo.moho.event;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -35,6 +37,18 @@ class AutowiredEventTarget {
 
   protected final Map<String, String> _definedStates = new HashMap<String, String>();
 
+  // _definedStates flattened, so that matching does not iterate the map.
+  protected String[] _fsms;
+
+  protected String[] _states;
+
+  // the same states interned by _registry, null in the prototypes.
+  protected int[] _fsmIds;
+
+  protected int[] _stateIds;
+
+  protected StateRegistry _registry;
+
   protected Method _method;
 
   protected Object _observer;
@@ -67,8 +81,16 @@ class AutowiredEventTarget {
     else {
       _definedStates.put(DEFAULT_FSM, ANY_STATE);
     }
+    try {
+      // done once here instead of around every invocation.
+      method.setAccessible(true);
+    }
+    catch (final SecurityException e) {
+      log.warn("Unable to make " + method + " accessible", e);
+    }
     _method = method;
     _observer = observer;
+    compileStates();
   }
 
   AutowiredEventTarget(final String[][] states, final EventListener<Event<? extends EventSource>> listener) {
@@ -76,6 +98,47 @@ class AutowiredEventTarget {
       _definedStates.put(s[0], s[1]);
     }
     _listener = listener;
+    compileStates();
+  }
+
+  /**
+   * Creates a target for another observer of the same class, reusing the
+   * method and the states already parsed by the prototype.
+   * 
+   * @param registry
+   *          the registry of the application the observer belongs to, or
+   *          null to match the states by their names.
+   */
+  AutowiredEventTarget(final AutowiredEventTarget prototype, final Object observer, final StateRegistry registry) {
+    _definedStates.putAll(prototype._definedStates);
+    _fsms = prototype._fsms;
+    _states = prototype._states;
+    _method = prototype._method;
+    _listener = prototype._listener;
+    _observer = observer;
+    if (registry != null) {
+      _fsmIds = new int[_fsms.length];
+      _stateIds = new int[_states.length];
+      for (int i = 0; i < _fsms.length; i++) {
+        registry.declare(_fsms[i], _states[i]);
+        _fsmIds[i] = registry.fsmId(_fsms[i]);
+        _stateIds[i] = registry.stateId(_states[i]);
+      }
+      _registry = registry;
+    }
+  }
+
+  private void compileStates() {
+    final List<String> fsms = new ArrayList<String>(_definedStates.size());
+    final List<String> states = new ArrayList<String>(_definedStates.size());
+    for (final Map.Entry<String, String> entry : _definedStates.entrySet()) {
+      if (entry.getValue() != ANY_STATE) {
+        fsms.add(entry.getKey());
+        states.add(entry.getValue());
+      }
+    }
+    _fsms = fsms.toArray(new String[fsms.size()]);
+    _states = states.toArray(new String[states.size()]);
   }
 
   @Override
@@ -95,19 +158,25 @@ class AutowiredEventTarget {
   }
 
   boolean invoke(final Event<? extends EventSource> event) throws Exception {
-    for (final Map.Entry<String, String> entry : _definedStates.entrySet()) {
-      final String defined = entry.getValue();
-      if (defined != ANY_STATE) {
-        if (!defined.equals(event.source.getApplicationState(entry.getKey()))) {
+    if (_registry != null && event.source instanceof IndexedStateSource
+        && ((IndexedStateSource) event.source).getStateRegistry() == _registry) {
+      final IndexedStateSource source = (IndexedStateSource) event.source;
+      for (int i = 0; i < _fsmIds.length; i++) {
+        if (source.getApplicationStateId(_fsmIds[i]) != _stateIds[i]) {
+          return false;
+        }
+      }
+    }
+    else {
+      for (int i = 0; i < _fsms.length; i++) {
+        if (!_states[i].equals(event.source.getApplicationState(_fsms[i]))) {
           return false;
         }
       }
     }
     if (_observer != null && _method != null) {
-      final boolean accessible = _method.isAccessible();
       try {
-        _method.setAccessible(true);
-        _method.invoke(_observer, new Object[] {event});
+        _method.invoke(_observer, event);
       }
       catch (final Exception e) {
         log.error("", e);
@@ -116,9 +185,6 @@ class AutowiredEventTarget {
           throw (Exception) ((InvocationTargetException) e).getTargetException();
         }
       }
-      finally {
-        _method.setAccessible(accessible);
-      }
     }
     if (_listener != null) {
       try {
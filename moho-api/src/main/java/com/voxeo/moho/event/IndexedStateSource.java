@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+/**
+ * An {@link EventSource EventSource} that keeps its application states by the
+ * ids of a {@link StateRegistry StateRegistry}, so that observer methods can be
+ * matched without comparing strings.
+ */
+public interface IndexedStateSource extends EventSource {
+
+  /**
+   * @return the registry the state ids of this source are interned in.
+   */
+  StateRegistry getStateRegistry();
+
+  /**
+   * @param fsmId
+   *          the id of the state machine, see {@link StateRegistry#fsmId(String)}.
+   * @return the id of the current state, {@link StateRegistry#NO_STATE} or
+   *         {@link StateRegistry#UNKNOWN_STATE}.
+   */
+  int getApplicationStateId(int fsmId);
+
+}
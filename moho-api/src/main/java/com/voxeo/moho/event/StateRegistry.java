@@ -0,0 +1,214 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * StateRegistry interns the names of the application state machines and of
+ * their states into small integer ids, so that the {@link com.voxeo.moho.State
+ * State} of an {@link Observer Observer} method can be matched against the
+ * state of an {@link EventSource EventSource} with an int comparison.
+ * </p>
+ * <p>
+ * Each application has its own registry, see
+ * {@link com.voxeo.moho.ApplicationContext#getStateRegistry()
+ * ApplicationContext.getStateRegistry()}, so that the state machines of two
+ * applications, or of two deployments of the same application, never meet.
+ * </p>
+ * <p>
+ * The states declared in <code>&#064;State</code> annotations are interned when
+ * the observer is added. A state machine can also be defined explicitly with
+ * {@link #define(String, String...) define}, usually in
+ * {@link com.voxeo.moho.Application#init(com.voxeo.moho.ApplicationContext)
+ * Application.init()} before any observer is added. For a defined state
+ * machine, an observer or a <code>setApplicationState</code> call naming an
+ * undefined state is rejected with an IllegalArgumentException instead of
+ * silently never matching.
+ * </p>
+ */
+public final class StateRegistry {
+
+  /**
+   * the id of a state machine that has no state.
+   */
+  public static final int NO_STATE = -1;
+
+  /**
+   * the id of a state name that is not used by any observer, and so can not
+   * match any of them.
+   */
+  public static final int UNKNOWN_STATE = -2;
+
+  private final ConcurrentMap<String, Integer> _fsmIds = new ConcurrentHashMap<String, Integer>();
+
+  private final ConcurrentMap<String, Integer> _stateIds = new ConcurrentHashMap<String, Integer>();
+
+  private final ConcurrentMap<String, Set<String>> _definitions = new ConcurrentHashMap<String, Set<String>>();
+
+  // the states named by the observers added so far, by state machine. Both
+  // maps are updated while holding _definitions.
+  private final ConcurrentMap<String, Set<String>> _declared = new ConcurrentHashMap<String, Set<String>>();
+
+  private int _nextFsmId = 0;
+
+  private int _nextStateId = 0;
+
+  public StateRegistry() {
+    fsmId(AutowiredEventTarget.DEFAULT_FSM);
+  }
+
+  /**
+   * Defines the states of a state machine.
+   * 
+   * @param FSM
+   *          the name of the state machine, or null for the default one used
+   *          by {@link EventSource#setApplicationState(String)}.
+   * @param states
+   *          all the states of the state machine.
+   * @throws IllegalArgumentException
+   *           if an observer already added names a state of the state machine
+   *           that is not one of the states.
+   */
+  public void define(final String FSM, final String... states) {
+    final String fsm = FSM == null ? AutowiredEventTarget.DEFAULT_FSM : FSM;
+    final Set<String> defined = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(states)));
+    synchronized (_definitions) {
+      final Set<String> declared = _declared.get(fsm);
+      if (declared != null) {
+        for (final String state : declared) {
+          if (!defined.contains(state)) {
+            throw new IllegalArgumentException("State " + state + " of state machine "
+                + (FSM == null ? "default" : FSM) + " is used by an observer but not defined in " + defined);
+          }
+        }
+      }
+      fsmId(fsm);
+      for (final String state : states) {
+        stateId(state);
+      }
+      _definitions.put(fsm, defined);
+    }
+  }
+
+  /**
+   * Validates and records a state named by an observer, so that a later
+   * {@link #define(String, String...) define} of its state machine is checked
+   * against it.
+   */
+  void declare(final String FSM, final String state) {
+    final Set<String> known = _declared.get(FSM);
+    if (known != null && known.contains(state)) {
+      // validated when it was first declared, and every define since checked it.
+      return;
+    }
+    synchronized (_definitions) {
+      validate(FSM, state);
+      Set<String> declared = _declared.get(FSM);
+      if (declared == null) {
+        declared = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        _declared.put(FSM, declared);
+      }
+      declared.add(state);
+    }
+  }
+
+  /**
+   * @return true if the state machine has been defined with
+   *         {@link #define(String, String...) define}.
+   */
+  public boolean isDefined(final String FSM) {
+    return _definitions.containsKey(FSM == null ? AutowiredEventTarget.DEFAULT_FSM : FSM);
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           if the state machine is defined and the state is not one of its
+   *           states.
+   */
+  public void validate(final String FSM, final String state) {
+    final Set<String> states = _definitions.get(FSM == null ? AutowiredEventTarget.DEFAULT_FSM : FSM);
+    if (states != null && state != null && !states.contains(state)) {
+      throw new IllegalArgumentException("Undefined state " + state + " of state machine "
+          + (FSM == null ? "default" : FSM) + ", defined states are " + states);
+    }
+  }
+
+  /**
+   * @return the id of the state machine, interned if needed.
+   */
+  public int fsmId(final String FSM) {
+    final Integer id = _fsmIds.get(FSM);
+    if (id != null) {
+      return id;
+    }
+    synchronized (_fsmIds) {
+      Integer newId = _fsmIds.get(FSM);
+      if (newId == null) {
+        newId = _nextFsmId++;
+        _fsmIds.put(FSM, newId);
+      }
+      return newId;
+    }
+  }
+
+  /**
+   * @return the id of the state machine, or {@link #NO_STATE} if it has not
+   *         been interned.
+   */
+  public int lookupFsmId(final String FSM) {
+    final Integer id = _fsmIds.get(FSM);
+    return id == null ? NO_STATE : id;
+  }
+
+  /**
+   * @return the id of the state, interned if needed.
+   */
+  public int stateId(final String state) {
+    final Integer id = _stateIds.get(state);
+    if (id != null) {
+      return id;
+    }
+    synchronized (_stateIds) {
+      Integer newId = _stateIds.get(state);
+      if (newId == null) {
+        newId = _nextStateId++;
+        _stateIds.put(state, newId);
+      }
+      return newId;
+    }
+  }
+
+  /**
+   * Looks up the id of a state without interning it, so that arbitrary state
+   * names set by applications do not grow the registry.
+   * 
+   * @return the id of the state, {@link #NO_STATE} if the state is null, or
+   *         {@link #UNKNOWN_STATE} if it has not been interned.
+   */
+  public int lookupStateId(final String state) {
+    if (state == null) {
+      return NO_STATE;
+    }
+    final Integer id = _stateIds.get(state);
+    return id == null ? UNKNOWN_STATE : id;
+  }
+}
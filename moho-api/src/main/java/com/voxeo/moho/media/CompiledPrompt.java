@@ -0,0 +1,44 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import com.voxeo.moho.MediaService;
+
+/**
+ * A CompiledPrompt is an output and input interaction prepared once by
+ * {@link MediaService#compile(com.voxeo.moho.media.output.OutputCommand, com.voxeo.moho.media.input.InputCommand, int)
+ * MediaService.compile()} and played any number of times with
+ * {@link MediaService#prompt(CompiledPrompt)}. It is immutable: later changes
+ * to the commands it was compiled from do not affect it, and it can be shared
+ * by the calls of an application.
+ */
+public interface CompiledPrompt {
+
+  /**
+   * @return true if the prompt plays an output.
+   */
+  boolean hasOutput();
+
+  /**
+   * @return true if the prompt waits for an input.
+   */
+  boolean hasInput();
+
+  /**
+   * @return how many times the output is repeated.
+   */
+  int getRepeat();
+
+}
@@ -16,6 +16,7 @@ package com.voxeo.moho.media;
 
 import java.util.concurrent.Future;
 
+import com.voxeo.moho.CompletionListener;
 import com.voxeo.moho.event.MediaCompleteEvent;
 
 public interface MediaOperation<T extends MediaCompleteEvent> extends Future<T> {
@@ -25,4 +26,10 @@ public interface MediaOperation<T extends MediaCompleteEvent> extends Future<T>
    */
     void stop();
 
+  /**
+   * Registers a listener notified with the complete event when the media
+   * operation completes, as an alternative to blocking in {@link #get()}.
+   */
+  void addCompletionListener(CompletionListener<T> listener);
+
 }
@@ -31,9 +31,20 @@ import org.apache.http.impl.client.DefaultHttpClient;
 
 import com.voxeo.moho.conference.ConferenceManager;
 import com.voxeo.moho.conference.ConferenceMangerImpl;
+import com.voxeo.moho.event.DispatchStatistics;
+import com.voxeo.moho.event.EventDispatcher;
+import com.voxeo.moho.event.StateRegistry;
+import com.voxeo.moho.event.StripedDispatchEngine;
 import com.voxeo.moho.media.GenericMediaServiceFactory;
+import com.voxeo.moho.media.GrammarCache;
+import com.voxeo.moho.media.MediaResourcePool;
+import com.voxeo.moho.sip.AdmissionController;
+import com.voxeo.moho.sip.OutOfDialogResponder;
 import com.voxeo.moho.sip.SIPEndpointImpl;
+import com.voxeo.moho.sip.SIPRequestRouter;
 import com.voxeo.moho.text.imified.ImifiedEndpointImpl;
+import com.voxeo.moho.util.IdGenerator;
+import com.voxeo.moho.util.UUIDIdGenerator;
 import com.voxeo.moho.util.Utils.DaemonThreadFactory;
 import com.voxeo.moho.voicexml.VoiceXMLEndpointImpl;
 
@@ -53,7 +64,7 @@ public class ApplicationContextImpl extends AttributeStoreImpl implements Execut
 
   protected String _controller;
 
-  protected Map<String, Call> _calls;
+  protected final CallRegistry _calls = new CallRegistry();
 
   protected Map<String, String> _parameters;
 
@@ -65,21 +76,53 @@ public class ApplicationContextImpl extends AttributeStoreImpl implements Execut
 
   protected ThreadPoolExecutor _executor;
 
+  protected StripedDispatchEngine _dispatchEngine;
+
+  protected int _dispatchMaxBatchSize = EventDispatcher.DEFAULT_MAX_BATCH_SIZE;
+
+  protected long _dispatchBatchTimeBudget = 0;
+
+  protected final DispatchStatistics _dispatchStatistics = new DispatchStatistics();
+
+  protected OutOfDialogResponder _outOfDialogResponder;
+
+  protected SIPRequestRouter _requestRouter;
+
+  protected AdmissionController _admissionController;
+
+  protected MediaResourcePool _mediaResourcePool;
+
+  protected GrammarCache _grammarCache = new GrammarCache();
+
+  protected volatile IdGenerator _idGenerator = new UUIDIdGenerator();
+
+  protected final StateRegistry _stateRegistry = new StateRegistry();
+
   public ApplicationContextImpl(final Application app, final MsControlFactory mc, final SipFactory sip,
       final SdpFactory sdp, final String controller, final ServletContext servletContext, final int threadPoolSize) {
+    this(app, mc, sip, sdp, controller, servletContext, new ThreadPoolExecutor(threadPoolSize, Integer.MAX_VALUE, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new DaemonThreadFactory("MohoContext")));
+  }
+
+  /**
+   * @param executor
+   *          the pool on which events and other asynchronous tasks of the
+   *          application are executed, such as a
+   *          {@link com.voxeo.moho.util.BoundedThreadPoolExecutor}.
+   */
+  public ApplicationContextImpl(final Application app, final MsControlFactory mc, final SipFactory sip,
+      final SdpFactory sdp, final String controller, final ServletContext servletContext,
+      final ThreadPoolExecutor executor) {
     _application = app;
     _mcFactory = mc;
     _sipFactory = sip;
     _sdpFactory = sdp;
     _controller = controller;
     _confMgr = new ConferenceMangerImpl(this);
-    _calls = new ConcurrentHashMap<String, Call>();
     _msFactory = new GenericMediaServiceFactory();
     _parameters = new ConcurrentHashMap<String, String>();
     _servletContext = servletContext;
-
-    _executor = new ThreadPoolExecutor(threadPoolSize, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
-        new SynchronousQueue<Runnable>(), new DaemonThreadFactory("MohoContext"));
+    _executor = executor;
   }
 
   @Override
@@ -135,14 +178,172 @@ public class ApplicationContextImpl extends AttributeStoreImpl implements Execut
     return _executor;
   }
 
+  /**
+   * @return the pool behind {@link #getExecutor()}, for monitoring its active
+   *         threads and queue depth.
+   */
+  public ThreadPoolExecutor getThreadPoolExecutor() {
+    return _executor;
+  }
+
+  /**
+   * @return the shared engine used for ordered event dispatching, or null if
+   *         every event source uses its own dispatch queue.
+   */
+  public StripedDispatchEngine getDispatchEngine() {
+    return _dispatchEngine;
+  }
+
+  /**
+   * Sets the shared engine used for ordered event dispatching. This only
+   * affects the event sources created afterwards.
+   */
+  public void setDispatchEngine(final StripedDispatchEngine dispatchEngine) {
+    _dispatchEngine = dispatchEngine;
+  }
+
+  public int getDispatchMaxBatchSize() {
+    return _dispatchMaxBatchSize;
+  }
+
+  public long getDispatchBatchTimeBudget() {
+    return _dispatchBatchTimeBudget;
+  }
+
+  /**
+   * Sets how the event queue of each event source is drained, see
+   * {@link EventDispatcher#setBatching(int, long)}. This
+   * only affects the event sources created afterwards.
+   */
+  public void setDispatchBatching(final int maxBatchSize, final long timeBudget) {
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+    }
+    _dispatchMaxBatchSize = maxBatchSize;
+    _dispatchBatchTimeBudget = timeBudget;
+  }
+
+  /**
+   * @return the counters of the event dispatching.
+   */
+  public DispatchStatistics getDispatchStatistics() {
+    return _dispatchStatistics;
+  }
+
+  /**
+   * @return the responder answering out-of-dialog requests without
+   *         dispatching them, or null if it is not enabled. An application
+   *         that wants to handle one of its methods registers interest with
+   *         {@link OutOfDialogResponder#addInterest(String)}.
+   */
+  public OutOfDialogResponder getOutOfDialogResponder() {
+    return _outOfDialogResponder;
+  }
+
+  public void setOutOfDialogResponder(final OutOfDialogResponder responder) {
+    _outOfDialogResponder = responder;
+  }
+
+  /**
+   * @return the routing table of the SIP requests, where an application can
+   *         register the handler of a method and read the per method
+   *         statistics.
+   */
+  public SIPRequestRouter getRequestRouter() {
+    return _requestRouter;
+  }
+
+  public void setRequestRouter(final SIPRequestRouter requestRouter) {
+    _requestRouter = requestRouter;
+  }
+
+  public IdGenerator getIdGenerator() {
+    return _idGenerator;
+  }
+
+  @Override
+  public StateRegistry getStateRegistry() {
+    return _stateRegistry;
+  }
+
+  /**
+   * Sets how the ids of the calls and the other event sources are generated.
+   * This only affects the event sources created afterwards.
+   */
+  public void setIdGenerator(final IdGenerator idGenerator) {
+    if (idGenerator == null) {
+      throw new IllegalArgumentException("idGenerator is null");
+    }
+    _idGenerator = idGenerator;
+  }
+
+  /**
+   * @return the admission control of the inbound calls, or null if it is not
+   *         enabled.
+   */
+  public AdmissionController getAdmissionController() {
+    return _admissionController;
+  }
+
+  public void setAdmissionController(final AdmissionController admissionController) {
+    _admissionController = admissionController;
+  }
+
+  /**
+   * @return the pool of the media resources of the calls, or null if the
+   *         calls create their own.
+   */
+  public MediaResourcePool getMediaResourcePool() {
+    return _mediaResourcePool;
+  }
+
+  public void setMediaResourcePool(final MediaResourcePool mediaResourcePool) {
+    _mediaResourcePool = mediaResourcePool;
+  }
+
+  /**
+   * @return the cache of the grammar patterns, on by default and without
+   *         preloading, or null if it was disabled by the configuration.
+   */
+  public GrammarCache getGrammarCache() {
+    return _grammarCache;
+  }
+
+  public void setGrammarCache(final GrammarCache grammarCache) {
+    _grammarCache = grammarCache;
+  }
+
   @Override
   public Call getCall(final String cid) {
     return _calls.get(cid);
   }
 
+  /**
+   * @return the number of calls in progress.
+   */
+  public int getCallCount() {
+    return _calls.size();
+  }
+
+  /**
+   * @return the calls of the application, with lookups by SIP Call-ID, party
+   *         URI and state.
+   */
+  public CallRegistry getCallRegistry() {
+    return _calls;
+  }
+
+  /**
+   * Updates the indexes of the call in the registry, after its state changed
+   * or it got its SIP session.
+   */
+  public void updateCall(final Call call) {
+    _calls.update(call);
+  }
+
   @Override
   public void addCall(final Call call) {
-    _calls.put(call.getId(), call);
+    _calls.add(call);
   }
 
   @Override
@@ -206,6 +407,9 @@ public class ApplicationContextImpl extends AttributeStoreImpl implements Execut
 
   public void destroy() {
     getApplication().destroy();
+    if (_mediaResourcePool != null) {
+      _mediaResourcePool.close();
+    }
     _executor.shutdown();
   }
 
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.voxeo.moho.util.CompletionNotifier;
+
+/**
+ * The {@link CallOperation} of a queued hold or mute request. It is completed
+ * by the call with {@link #complete()} or {@link #fail(Throwable)}, and can be
+ * cancelled until the call {@link #start() starts} it.
+ */
+public class CallOperationImpl implements CallOperation {
+
+  private static final int QUEUED = 0;
+
+  private static final int STARTED = 1;
+
+  private static final int CANCELLED = 2;
+
+  protected final Call _call;
+
+  protected final OperationFuture _future;
+
+  protected final CompletionNotifier<Call> _notifier = new CompletionNotifier<Call>();
+
+  private final AtomicInteger _state = new AtomicInteger(QUEUED);
+
+  public CallOperationImpl(final Call call) {
+    _call = call;
+    _future = new OperationFuture(call);
+  }
+
+  /**
+   * Marks the operation as started, after which it can no longer be
+   * cancelled.
+   * 
+   * @return false if the operation was cancelled while it was queued.
+   */
+  public boolean start() {
+    return _state.compareAndSet(QUEUED, STARTED);
+  }
+
+  public void complete() {
+    _future.complete();
+  }
+
+  public void fail(final Throwable t) {
+    _future.fail(t);
+  }
+
+  @Override
+  public void addCompletionListener(final CompletionListener<Call> listener) {
+    _notifier.addListener(listener);
+  }
+
+  @Override
+  public Call get() throws InterruptedException, ExecutionException {
+    return _future.get();
+  }
+
+  @Override
+  public Call get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+      TimeoutException {
+    return _future.get(timeout, unit);
+  }
+
+  @Override
+  public boolean cancel(final boolean mayInterruptIfRunning) {
+    if (_state.compareAndSet(QUEUED, CANCELLED)) {
+      return _future.cancel(false);
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return _future.isCancelled();
+  }
+
+  @Override
+  public boolean isDone() {
+    return _future.isDone();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[call=" + _call + ", done=" + isDone() + "]";
+  }
+
+  protected class OperationFuture extends FutureTask<Call> {
+
+    private final Call _result;
+
+    public OperationFuture(final Call call) {
+      // never run, the operation is completed by the call.
+      super(new Callable<Call>() {
+        @Override
+        public Call call() {
+          return call;
+        }
+      });
+      _result = call;
+    }
+
+    protected void complete() {
+      set(_result);
+    }
+
+    protected void fail(final Throwable t) {
+      setException(t);
+    }
+
+    @Override
+    protected void done() {
+      if (isCancelled()) {
+        _notifier.fail(new CancellationException());
+        return;
+      }
+      try {
+        _notifier.complete(get());
+      }
+      catch (final ExecutionException e) {
+        _notifier.fail(e.getCause());
+      }
+      catch (final InterruptedException e) {
+        // can not happen, the task is done.
+        _notifier.fail(e);
+      }
+    }
+  }
+}
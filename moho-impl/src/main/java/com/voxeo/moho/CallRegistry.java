@@ -0,0 +1,262 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.sip.Address;
+import javax.servlet.sip.SipSession;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.sip.SIPCall;
+
+/**
+ * The calls of an application, by id, with secondary indexes of the SIP calls
+ * by SIP Call-ID, by the URIs of both parties and by state. The indexes are
+ * updated by the calls themselves, see {@link #update(Call)}, when their state
+ * changes or they get their SIP session.
+ * <p>
+ * The collections returned are live, unmodifiable views of the registry.
+ * Iterating them does not copy anything, and like the iterators of
+ * ConcurrentHashMap they reflect the registry at some point at or since their
+ * creation.
+ */
+public class CallRegistry {
+
+  private static final Logger LOG = Logger.getLogger(CallRegistry.class);
+
+  private final ConcurrentMap<String, Call> _calls = new ConcurrentHashMap<String, Call>();
+
+  private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+
+  private final ConcurrentMap<String, SIPCall> _byCallId = new ConcurrentHashMap<String, SIPCall>();
+
+  private final ConcurrentMap<String, Set<SIPCall>> _byAddress = new ConcurrentHashMap<String, Set<SIPCall>>();
+
+  // one set per state, created up front so the map itself is never modified.
+  private final Map<SIPCall.State, Set<SIPCall>> _byState = new EnumMap<SIPCall.State, Set<SIPCall>>(
+      SIPCall.State.class);
+
+  private final Collection<Call> _callsView = Collections.unmodifiableCollection(_calls.values());
+
+  public CallRegistry() {
+    for (final SIPCall.State state : SIPCall.State.values()) {
+      _byState.put(state, newSet());
+    }
+  }
+
+  public void add(final Call call) {
+    _calls.put(call.getId(), call);
+    if (call instanceof SIPCall) {
+      _entries.put(call.getId(), new Entry((SIPCall) call));
+      update(call);
+    }
+  }
+
+  public void remove(final String id) {
+    _calls.remove(id);
+    final Entry entry = _entries.remove(id);
+    if (entry != null) {
+      synchronized (entry) {
+        entry._removed = true;
+        entry.unindex();
+      }
+    }
+  }
+
+  /**
+   * Brings the secondary indexes of the call up to date with its current
+   * state and SIP session. It does nothing if the call is not registered.
+   */
+  public void update(final Call call) {
+    final Entry entry = _entries.get(call.getId());
+    if (entry == null) {
+      return;
+    }
+    synchronized (entry) {
+      if (!entry._removed) {
+        entry.reindex();
+      }
+    }
+  }
+
+  public Call get(final String id) {
+    return _calls.get(id);
+  }
+
+  public int size() {
+    return _calls.size();
+  }
+
+  /**
+   * @return a live view of all the calls.
+   */
+  public Collection<Call> getCalls() {
+    return _callsView;
+  }
+
+  /**
+   * @return the SIP call of the SIP Call-ID, or null if there is none.
+   */
+  public SIPCall getByCallId(final String callId) {
+    return _byCallId.get(callId);
+  }
+
+  /**
+   * @param uri
+   *          the URI of the local or the remote party of the calls, as
+   *          returned by <code>URI.toString()</code>.
+   * @return a live view of the SIP calls to or from the URI.
+   */
+  public Collection<SIPCall> getByAddress(final String uri) {
+    final Set<SIPCall> calls = _byAddress.get(uri);
+    return calls == null ? Collections.<SIPCall> emptySet() : Collections.unmodifiableSet(calls);
+  }
+
+  /**
+   * @return a live view of the SIP calls in the state.
+   */
+  public Collection<SIPCall> getByState(final SIPCall.State state) {
+    return Collections.unmodifiableSet(_byState.get(state));
+  }
+
+  /**
+   * @return the number of SIP calls in the state.
+   */
+  public int countByState(final SIPCall.State state) {
+    return _byState.get(state).size();
+  }
+
+  private static Set<SIPCall> newSet() {
+    return Collections.newSetFromMap(new ConcurrentHashMap<SIPCall, Boolean>());
+  }
+
+  private static String uriOf(final Address address) {
+    return address == null || address.getURI() == null ? null : address.getURI().toString();
+  }
+
+  private void indexAddress(final String uri, final SIPCall call) {
+    while (true) {
+      Set<SIPCall> calls = _byAddress.get(uri);
+      if (calls == null) {
+        final Set<SIPCall> created = newSet();
+        calls = _byAddress.putIfAbsent(uri, created);
+        if (calls == null) {
+          calls = created;
+        }
+      }
+      calls.add(call);
+      // the set may have been dropped as empty before the call got in it.
+      if (_byAddress.get(uri) == calls) {
+        return;
+      }
+    }
+  }
+
+  private void unindexAddress(final String uri, final SIPCall call) {
+    final Set<SIPCall> calls = _byAddress.get(uri);
+    if (calls != null) {
+      calls.remove(call);
+      // drops the empty set, and puts it back if a call was added meanwhile.
+      if (calls.isEmpty()) {
+        _byAddress.remove(uri, calls);
+        if (!calls.isEmpty()) {
+          _byAddress.putIfAbsent(uri, calls);
+        }
+      }
+    }
+  }
+
+  /**
+   * What a SIP call is currently indexed under, guarded by itself.
+   */
+  private class Entry {
+
+    private final SIPCall _call;
+
+    private SIPCall.State _state;
+
+    private String _callId;
+
+    private String _local;
+
+    private String _remote;
+
+    private boolean _removed;
+
+    Entry(final SIPCall call) {
+      _call = call;
+    }
+
+    void reindex() {
+      final SIPCall.State state = _call.getSIPCallState();
+      if (state != _state) {
+        if (_state != null) {
+          _byState.get(_state).remove(_call);
+        }
+        if (state != null) {
+          _byState.get(state).add(_call);
+        }
+        _state = state;
+      }
+
+      final SipSession session = _call.getSipSession();
+      if (session == null || _callId != null) {
+        // the Call-ID and the parties of a session do not change.
+        return;
+      }
+      try {
+        _callId = session.getCallId();
+        _local = uriOf(session.getLocalParty());
+        _remote = uriOf(session.getRemoteParty());
+      }
+      catch (final Exception e) {
+        LOG.warn("Unable to index " + _call, e);
+        return;
+      }
+      if (_callId != null) {
+        _byCallId.put(_callId, _call);
+      }
+      if (_local != null) {
+        indexAddress(_local, _call);
+      }
+      if (_remote != null) {
+        indexAddress(_remote, _call);
+      }
+    }
+
+    void unindex() {
+      if (_state != null) {
+        _byState.get(_state).remove(_call);
+      }
+      if (_callId != null) {
+        _byCallId.remove(_callId, _call);
+      }
+      if (_local != null) {
+        unindexAddress(_local, _call);
+      }
+      if (_remote != null) {
+        unindexAddress(_remote, _call);
+      }
+    }
+  }
+}
@@ -18,8 +18,6 @@ import java.util.concurrent.Callable;
 
 import com.voxeo.moho.event.JoinCompleteEvent;
 
-public interface JoinWorker extends Callable<JoinCompleteEvent> {
-
-  boolean cancel();
+public interface JoinWorker extends Callable<JoinCompleteEvent>, JointImpl.Canceller {
 
 }
@@ -11,60 +11,176 @@
 
 package com.voxeo.moho;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import com.voxeo.moho.event.JoinCompleteEvent;
 import com.voxeo.moho.event.JoinCompleteEvent.Cause;
+import com.voxeo.moho.util.CompletionNotifier;
 
 public class JointImpl implements Joint {
 
-  protected FutureTask<JoinCompleteEvent> _future = null;
+  /**
+   * Stops a join that is still in progress.
+   */
+  public interface Canceller {
 
-  protected JoinWorker _worker = null;
+    /**
+     * @return true if the join was stopped.
+     */
+    boolean cancel();
+  }
+
+  protected final Canceller _canceller;
+
+  protected final CompletionNotifier<JoinCompleteEvent> _notifier = new CompletionNotifier<JoinCompleteEvent>();
+
+  private final CountDownLatch _latch = new CountDownLatch(1);
+
+  private boolean _done;
+
+  private boolean _cancelled;
+
+  private JoinCompleteEvent _result;
+
+  private Throwable _failure;
+
+  private Thread _runner;
 
+  /**
+   * Creates a Joint completed by the worker, which is run on the executor.
+   */
   public JointImpl(final Executor executor, final JoinWorker worker) {
-    _worker = worker;
-    _future = new FutureTask<JoinCompleteEvent>(worker);
-    executor.execute(_future);
+    this(worker);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (JointImpl.this) {
+          if (_done) {
+            return;
+          }
+          _runner = Thread.currentThread();
+        }
+        try {
+          complete(worker.call());
+        }
+        catch (final Exception e) {
+          fail(e);
+        }
+        finally {
+          synchronized (JointImpl.this) {
+            _runner = null;
+          }
+          // clears an interrupt of cancel(true) that came after the worker.
+          Thread.interrupted();
+        }
+      }
+    });
+  }
+
+  /**
+   * Creates a Joint driven by the signaling and media events instead of a
+   * worker. It is completed with {@link #complete(JoinCompleteEvent)} or
+   * {@link #fail(Exception)}, and {@link #cancel(boolean)} stops the join with
+   * the canceller.
+   */
+  public JointImpl(final Canceller canceller) {
+    _canceller = canceller;
+  }
+
+  public void complete(final JoinCompleteEvent event) {
+    finish(event, null, false);
+  }
+
+  public void fail(final Exception e) {
+    finish(null, e, false);
+  }
+
+  @Override
+  public void addCompletionListener(final CompletionListener<JoinCompleteEvent> listener) {
+    _notifier.addListener(listener);
   }
 
   @Override
   public JoinCompleteEvent get() throws InterruptedException, ExecutionException {
-    return _future.get();
+    _latch.await();
+    return report();
   }
 
   @Override
   public JoinCompleteEvent get(final long timeout, final TimeUnit unit) throws InterruptedException,
       ExecutionException, TimeoutException {
-    try {
-      return _future.get(timeout, unit);
-    }
-    catch (final TimeoutException e) {
-      _worker.cancel();
-      throw e;
+    if (!_latch.await(timeout, unit)) {
+      _canceller.cancel();
+      throw new TimeoutException();
     }
+    return report();
   }
 
   @Override
   public boolean cancel(final boolean mayInterruptIfRunning) {
-    if (_future.cancel(mayInterruptIfRunning)) {
-      return _worker.cancel();
+    if (!finish(null, null, true)) {
+      return false;
     }
-    return false;
+    if (mayInterruptIfRunning) {
+      synchronized (this) {
+        if (_runner != null) {
+          _runner.interrupt();
+        }
+      }
+    }
+    return _canceller.cancel();
   }
 
   @Override
-  public boolean isCancelled() {
-    return _future.isCancelled();
+  public synchronized boolean isCancelled() {
+    return _cancelled;
   }
 
   @Override
-  public boolean isDone() {
-    return _future.isDone();
+  public synchronized boolean isDone() {
+    return _done;
+  }
+
+  /**
+   * Completes the Joint once; the later completions, and the outcome of a
+   * worker after a cancel, are ignored.
+   */
+  private boolean finish(final JoinCompleteEvent event, final Throwable t, final boolean cancelled) {
+    synchronized (this) {
+      if (_done) {
+        return false;
+      }
+      _done = true;
+      _cancelled = cancelled;
+      _result = event;
+      _failure = t;
+    }
+    _latch.countDown();
+    if (cancelled) {
+      _notifier.fail(new CancellationException());
+    }
+    else if (t != null) {
+      _notifier.fail(t);
+    }
+    else {
+      _notifier.complete(event);
+    }
+    return true;
+  }
+
+  private synchronized JoinCompleteEvent report() throws ExecutionException {
+    if (_cancelled) {
+      throw new CancellationException();
+    }
+    if (_failure != null) {
+      throw new ExecutionException(_failure);
+    }
+    return _result;
   }
 
   public static class DummyJoinWorker implements JoinWorker {
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+/**
+ * A CoalescingPolicy decides which media notifications queued on an event
+ * source are superseded by a newer one. A notification still waiting in the
+ * queue when a notification with the same key is dispatched is not delivered
+ * to the listeners, only the newer one is.
+ * <p>
+ * Only {@link MediaNotificationEvent MediaNotificationEvents} are ever
+ * coalesced: completion events, signal events and all the other events are
+ * always delivered.
+ */
+public interface CoalescingPolicy {
+
+  /**
+   * @return the key shared by the notifications superseding each other, or
+   *         null if the notification must always be delivered.
+   */
+  Object getCoalescingKey(MediaNotificationEvent event);
+
+}
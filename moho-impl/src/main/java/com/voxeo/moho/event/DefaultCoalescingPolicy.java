@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+/**
+ * The coalescing policy for applications that only care about the latest
+ * media notification: a queued {@link InputDetectedEvent} is superseded by a
+ * newer one, and a queued pause or resume of the output or of the recording is
+ * superseded by the next pause or resume of the same operation.
+ * {@link RecordStartedEvent} is always delivered.
+ */
+public class DefaultCoalescingPolicy implements CoalescingPolicy {
+
+  private static final Object INPUT_DETECTED = InputDetectedEvent.class;
+
+  private static final Object OUTPUT_PAUSE = OutputPausedEvent.class;
+
+  private static final Object RECORD_PAUSE = RecordPausedEvent.class;
+
+  @Override
+  public Object getCoalescingKey(final MediaNotificationEvent event) {
+    if (event instanceof InputDetectedEvent) {
+      return INPUT_DETECTED;
+    }
+    if (event instanceof OutputPausedEvent || event instanceof OutputResumedEvent) {
+      return OUTPUT_PAUSE;
+    }
+    if (event instanceof RecordPausedEvent || event instanceof RecordResumedEvent) {
+      return RECORD_PAUSE;
+    }
+    return null;
+  }
+
+}
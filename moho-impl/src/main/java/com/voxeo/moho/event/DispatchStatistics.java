@@ -0,0 +1,127 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * DispatchStatistics collects the counters of the event dispatching of all the
+ * event sources of an application.
+ */
+public class DispatchStatistics {
+
+  /**
+   * the upper bounds of the batch size histogram buckets, the last bucket
+   * counts all the larger batches.
+   */
+  public static final int[] BATCH_SIZE_BUCKETS = {1, 2, 4, 8, 16, 32, 64 };
+
+  private final AtomicLong _batches = new AtomicLong();
+
+  private final AtomicLong _tasks = new AtomicLong();
+
+  private final AtomicLong _yields = new AtomicLong();
+
+  private final AtomicLong _coalesced = new AtomicLong();
+
+  private final AtomicLong _skipped = new AtomicLong();
+
+  private final AtomicLongArray _histogram = new AtomicLongArray(BATCH_SIZE_BUCKETS.length + 1);
+
+  void recordBatch(final int size) {
+    _batches.incrementAndGet();
+    _tasks.addAndGet(size);
+    int i = 0;
+    while (i < BATCH_SIZE_BUCKETS.length && size > BATCH_SIZE_BUCKETS[i]) {
+      i++;
+    }
+    _histogram.incrementAndGet(i);
+  }
+
+  void recordYield() {
+    _yields.incrementAndGet();
+  }
+
+  void recordCoalesced() {
+    _coalesced.incrementAndGet();
+  }
+
+  void recordSkipped() {
+    _skipped.incrementAndGet();
+  }
+
+  /**
+   * @return the number of batches drained from the event queues.
+   */
+  public long getBatchCount() {
+    return _batches.get();
+  }
+
+  /**
+   * @return the number of events dispatched in all the batches.
+   */
+  public long getTaskCount() {
+    return _tasks.get();
+  }
+
+  /**
+   * @return the number of times a processor gave its thread back to the pool
+   *         with events still queued because its time budget was used up.
+   */
+  public long getYieldCount() {
+    return _yields.get();
+  }
+
+  /**
+   * @return the number of media notifications not delivered because a newer
+   *         one superseded them, see {@link CoalescingPolicy}.
+   */
+  public long getCoalescedCount() {
+    return _coalesced.get();
+  }
+
+  /**
+   * @return the number of events not queued at all because their source had
+   *         no listener for them.
+   */
+  public long getSkippedCount() {
+    return _skipped.get();
+  }
+
+  public double getAverageBatchSize() {
+    final long batches = _batches.get();
+    return batches == 0 ? 0 : (double) _tasks.get() / batches;
+  }
+
+  /**
+   * @return the number of batches in each bucket of
+   *         {@link #BATCH_SIZE_BUCKETS}, plus one for the larger batches.
+   */
+  public long[] getBatchSizeHistogram() {
+    final long[] histogram = new long[_histogram.length()];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = _histogram.get(i);
+    }
+    return histogram;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[batches=" + _batches.get() + ", tasks=" + _tasks.get() + ", yields="
+        + _yields.get() + ", coalesced=" + _coalesced.get()
+        + ", skipped=" + _skipped.get() + "]";
+  }
+}
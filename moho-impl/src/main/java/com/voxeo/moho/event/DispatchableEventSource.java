@@ -14,13 +14,15 @@
 
 package com.voxeo.moho.event;
 
-import java.util.Map;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.voxeo.moho.ApplicationContext;
+import com.voxeo.moho.ApplicationContextImpl;
 import com.voxeo.moho.AttributeStoreImpl;
 import com.voxeo.moho.ExceptionHandler;
 import com.voxeo.moho.ExecutionContext;
@@ -33,14 +35,19 @@ import com.voxeo.utils.EventListener;
  * event method in an Observer. The event method in an Observer is a public
  * method with a single parameter whose type is one of the event.
  */
-public class DispatchableEventSource extends AttributeStoreImpl implements EventSource {
+public class DispatchableEventSource extends AttributeStoreImpl implements IndexedStateSource {
 
   protected String _id;
 
-  protected Map<String, String> _states = new ConcurrentHashMap<String, String>();
+  // the application states indexed by the FSM ids of _stateRegistry, replaced
+  // as a whole on every change so that neither reads nor writes need a lock.
+  protected final AtomicReference<ApplicationStates> _states = new AtomicReference<ApplicationStates>(
+      ApplicationStates.EMPTY);
 
   protected ExecutionContext _context;
 
+  protected StateRegistry _stateRegistry;
+
   protected EventDispatcher _dispatcher = new EventDispatcher();
 
   protected ConcurrentHashMap<Observer, AutowiredEventListener> _observers = new ConcurrentHashMap<Observer, AutowiredEventListener>();
@@ -52,7 +59,23 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
   public DispatchableEventSource(final ExecutionContext applicationContext, boolean orderedDispatch) {
     _context = applicationContext;
     _dispatcher.setExecutor(getThreadPool(), orderedDispatch);
-    _id = UUID.randomUUID().toString(); // TODO: better one?
+    if (_context instanceof ApplicationContextImpl) {
+      final ApplicationContextImpl ctx = (ApplicationContextImpl) _context;
+      _id = ctx.getIdGenerator().nextId();
+      _stateRegistry = ctx.getStateRegistry();
+      _dispatcher.setStatistics(ctx.getDispatchStatistics());
+      if (orderedDispatch) {
+        final StripedDispatchEngine engine = ctx.getDispatchEngine();
+        if (engine != null) {
+          _dispatcher.setDispatchEngine(engine, _id);
+        }
+        _dispatcher.setBatching(ctx.getDispatchMaxBatchSize(), ctx.getDispatchBatchTimeBudget());
+      }
+    }
+    else {
+      _id = UUID.randomUUID().toString();
+      _stateRegistry = new StateRegistry();
+    }
   }
 
   // Event Handling
@@ -89,7 +112,7 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
   @Override
   public void addObserver(final Observer observer) {
     if (observer != null) {
-      final AutowiredEventListener autowire = new AutowiredEventListener(observer);
+      final AutowiredEventListener autowire = new AutowiredEventListener(observer, _stateRegistry);
       if (_observers.putIfAbsent(observer, autowire) == null) {
         _dispatcher.addListener(Event.class, autowire);
       }
@@ -143,21 +166,50 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
   // ==================================================================
   @Override
   public String getApplicationState() {
-    return _states.get(AutowiredEventTarget.DEFAULT_FSM);
+    return getApplicationState(AutowiredEventTarget.DEFAULT_FSM);
   }
 
   @Override
   public void setApplicationState(final String state) {
-    _states.put(AutowiredEventTarget.DEFAULT_FSM, state);
+    setApplicationState(AutowiredEventTarget.DEFAULT_FSM, state);
   }
 
   public String getApplicationState(final String FSM) {
-    return _states.get(FSM);
+    final ApplicationStates states = _states.get();
+    final int fsmId = _stateRegistry.lookupFsmId(FSM);
+    return fsmId >= 0 && fsmId < states.names.length ? states.names[fsmId] : null;
   }
 
   @Override
   public void setApplicationState(final String FSM, final String state) {
-    _states.put(FSM, state);
+    _stateRegistry.validate(FSM, state);
+    final int fsmId = _stateRegistry.fsmId(FSM);
+    final int stateId = _stateRegistry.lookupStateId(state);
+    while (true) {
+      final ApplicationStates current = _states.get();
+      if (_states.compareAndSet(current, current.with(fsmId, state, stateId))) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public StateRegistry getStateRegistry() {
+    return _stateRegistry;
+  }
+
+  @Override
+  public int getApplicationStateId(final int fsmId) {
+    final ApplicationStates states = _states.get();
+    if (fsmId < 0 || fsmId >= states.ids.length) {
+      return StateRegistry.NO_STATE;
+    }
+    final int stateId = states.ids[fsmId];
+    if (stateId == StateRegistry.UNKNOWN_STATE) {
+      // the state may have been interned by an observer added after it was set.
+      return _stateRegistry.lookupStateId(states.names[fsmId]);
+    }
+    return stateId;
   }
 
   protected Executor getThreadPool() {
@@ -169,4 +221,47 @@ public class DispatchableEventSource extends AttributeStoreImpl implements Event
     _dispatcher.addExceptionHandler(handlers);
   }
 
+  /**
+   * Lets media notifications still queued on this source be superseded by
+   * newer ones, for example with a {@link DefaultCoalescingPolicy}. Only
+   * applies to ordered dispatching. Completion and signal events are never
+   * coalesced.
+   * 
+   * @param policy
+   *          the coalescing policy, or null to deliver every notification.
+   */
+  public void setCoalescingPolicy(final CoalescingPolicy policy) {
+    _dispatcher.setCoalescingPolicy(policy);
+  }
+
+  /**
+   * The names and the ids of the application states, always published
+   * together so that an id is never read with the name of another state.
+   */
+  protected static final class ApplicationStates {
+
+    static final ApplicationStates EMPTY = new ApplicationStates(new String[0], new int[0]);
+
+    final String[] names;
+
+    final int[] ids;
+
+    private ApplicationStates(final String[] names, final int[] ids) {
+      this.names = names;
+      this.ids = ids;
+    }
+
+    ApplicationStates with(final int fsmId, final String name, final int id) {
+      final int length = Math.max(names.length, fsmId + 1);
+      final String[] newNames = new String[length];
+      System.arraycopy(names, 0, newNames, 0, names.length);
+      final int[] newIds = new int[length];
+      Arrays.fill(newIds, StateRegistry.NO_STATE);
+      System.arraycopy(ids, 0, newIds, 0, ids.length);
+      newNames[fsmId] = name;
+      newIds[fsmId] = id;
+      return new ApplicationStates(newNames, newIds);
+    }
+  }
+
 }
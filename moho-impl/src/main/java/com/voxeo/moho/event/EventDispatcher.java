@@ -14,20 +14,31 @@
 
 package com.voxeo.moho.event;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
 import com.voxeo.moho.ExceptionHandler;
+import com.voxeo.moho.util.BoundedThreadPoolExecutor.DrainTask;
+import com.voxeo.moho.util.CompletedFuture;
 import com.voxeo.utils.EnumEvent;
 import com.voxeo.utils.Event;
 import com.voxeo.utils.EventListener;
@@ -36,22 +47,58 @@ public class EventDispatcher {
 
   private static final Logger log = Logger.getLogger(EventDispatcher.class);
 
+  public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+
+  private static final ConcurrentHashMap<Class<?>, Class<?>[]> typeHierarchies = new ConcurrentHashMap<Class<?>, Class<?>[]>();
+
   private ConcurrentHashMap<Class<?>, List<Object>> clazzListeners = new ConcurrentHashMap<Class<?>, List<Object>>();
 
   private ConcurrentHashMap<Object, List<Object>> enumListeners = new ConcurrentHashMap<Object, List<Object>>();
 
+  // the listeners of an event class and all its supertypes, flattened. An
+  // entry is stale once listenersVersion has moved past its version.
+  private ConcurrentHashMap<Class<?>, ResolvedListeners> resolvedListeners = new ConcurrentHashMap<Class<?>, ResolvedListeners>();
+
+  private volatile int listenersVersion = 0;
+
+  // the lists each listener has been added to, guarded by itself.
+  private Map<Object, List<List<Object>>> listenerLists = new HashMap<Object, List<List<Object>>>();
+
   private ConcurrentHashMap<Object, List<Object>> lifecycleObjectMap = new ConcurrentHashMap<Object, List<Object>>();
 
   private Executor executor = null;
 
   private boolean needOrder = true;
 
+  private StripedDispatchEngine engine = null;
+
+  private Object engineKey = null;
+
+  // the ordered events of this dispatcher submitted to the engine and not run
+  // yet, since the lane they are in is shared with other sources.
+  private final AtomicInteger enginePending = new AtomicInteger();
+
+  // the future returned for the last skipped event, reused when the same event
+  // is fired again.
+  private volatile CompletedFuture<?> lastSkipped = null;
+
   private Lock lifecycleLock = new ReentrantLock();
 
   private Queue<FutureTask<?>> _queue = new LinkedList<FutureTask<?>>();
 
   private boolean processorRunning = false;
 
+  private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+  private long batchTimeBudget = 0;
+
+  private DispatchStatistics statistics = null;
+
+  private volatile CoalescingPolicy coalescingPolicy = null;
+
+  // the flag of the latest queued notification for each coalescing key.
+  private ConcurrentHashMap<Object, AtomicBoolean> pendingNotifications = new ConcurrentHashMap<Object, AtomicBoolean>();
+
   private List<ExceptionHandler> exceptionHandlers = new CopyOnWriteArrayList<ExceptionHandler>();
 
   public EventDispatcher() {
@@ -67,15 +114,10 @@ public class EventDispatcher {
       list = new CopyOnWriteArrayList<Object>();
       final List<Object> existing = clazzListeners.putIfAbsent(eventClazz, list);
       if (existing != null) {
-        existing.add(listener);
-      }
-      else {
-        list.add(listener);
+        list = existing;
       }
     }
-    else {
-      list.add(listener);
-    }
+    addToList(list, listener);
   }
 
   public <E extends Enum<E>> void addListener(final E type, final EventListener<? extends EnumEvent<?, E>> listener) {
@@ -84,14 +126,22 @@ public class EventDispatcher {
       list = new CopyOnWriteArrayList<Object>();
       final List<Object> existing = enumListeners.putIfAbsent(type, list);
       if (existing != null) {
-        existing.add(listener);
-      }
-      else {
-        list.add(listener);
+        list = existing;
       }
     }
-    else {
+    addToList(list, listener);
+  }
+
+  private void addToList(final List<Object> list, final EventListener<?> listener) {
+    synchronized (listenerLists) {
       list.add(listener);
+      List<List<Object>> lists = listenerLists.get(listener);
+      if (lists == null) {
+        lists = new ArrayList<List<Object>>(2);
+        listenerLists.put(listener, lists);
+      }
+      lists.add(list);
+      listenersVersion++;
     }
   }
 
@@ -171,11 +221,119 @@ public class EventDispatcher {
   }
 
   public void removeListener(final EventListener<?> listener) {
-    for (final List<Object> list : clazzListeners.values()) {
-      list.remove(listener);
+    synchronized (listenerLists) {
+      final List<List<Object>> lists = listenerLists.get(listener);
+      if (lists == null) {
+        return;
+      }
+      // removes one occurrence of the listener from each list it is in, and
+      // the matching entries from its reverse index.
+      final List<List<Object>> removed = new ArrayList<List<Object>>(lists.size());
+      for (final Iterator<List<Object>> it = lists.iterator(); it.hasNext();) {
+        final List<Object> list = it.next();
+        if (!containsSame(removed, list)) {
+          list.remove(listener);
+          removed.add(list);
+          it.remove();
+        }
+      }
+      if (lists.isEmpty()) {
+        listenerLists.remove(listener);
+      }
+      listenersVersion++;
     }
-    for (final List<Object> list : enumListeners.values()) {
-      list.remove(listener);
+  }
+
+  private static boolean containsSame(final List<List<Object>> lists, final List<Object> list) {
+    for (final List<Object> l : lists) {
+      if (l == list) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean hasListeners(final Event<?> event, final boolean narrowType) {
+    if (narrowType) {
+      if (resolveListeners(event.getClass()).length > 0) {
+        return true;
+      }
+    }
+    else {
+      final List<Object> list = clazzListeners.get(event.getClass());
+      if (list != null && !list.isEmpty()) {
+        return true;
+      }
+    }
+    if (event instanceof EnumEvent) {
+      final List<Object> list = enumListeners.get(((EnumEvent<?, ?>) event).type);
+      return list != null && !list.isEmpty();
+    }
+    return false;
+  }
+
+  /**
+   * @return true if no ordered event of this dispatcher is queued or running,
+   *         so no handler can add a listener before an event fired now would be
+   *         dispatched.
+   */
+  private boolean isIdle() {
+    if (!needOrder) {
+      return true;
+    }
+    if (engine != null) {
+      // the lane is shared with other sources, so only the events of this
+      // dispatcher are counted.
+      return enginePending.get() == 0;
+    }
+    synchronized (_queue) {
+      return !processorRunning;
+    }
+  }
+
+  private Object[] resolveListeners(final Class<?> clazz) {
+    final int version = listenersVersion;
+    ResolvedListeners resolved = resolvedListeners.get(clazz);
+    if (resolved == null || resolved.version != version) {
+      final List<Object> listeners = new ArrayList<Object>();
+      for (final Class<?> type : typeHierarchy(clazz)) {
+        final List<Object> list = clazzListeners.get(type);
+        if (list != null) {
+          listeners.addAll(list);
+        }
+      }
+      resolved = new ResolvedListeners(version, listeners.toArray());
+      resolvedListeners.put(clazz, resolved);
+    }
+    return resolved.listeners;
+  }
+
+  /**
+   * @return the class, its superclasses up to but excluding Object, and then
+   *         all the interfaces they implement.
+   */
+  static Class<?>[] typeHierarchy(final Class<?> clazz) {
+    Class<?>[] hierarchy = typeHierarchies.get(clazz);
+    if (hierarchy == null) {
+      final Set<Class<?>> types = new LinkedHashSet<Class<?>>();
+      for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+        types.add(c);
+      }
+      final List<Class<?>> classes = new ArrayList<Class<?>>(types);
+      for (final Class<?> c : classes) {
+        addInterfaces(c, types);
+      }
+      hierarchy = types.toArray(new Class<?>[types.size()]);
+      typeHierarchies.putIfAbsent(clazz, hierarchy);
+    }
+    return hierarchy;
+  }
+
+  private static void addInterfaces(final Class<?> clazz, final Set<Class<?>> types) {
+    for (final Class<?> i : clazz.getInterfaces()) {
+      if (types.add(i)) {
+        addInterfaces(i, types);
+      }
     }
   }
 
@@ -190,33 +348,73 @@ public class EventDispatcher {
   public <S extends EventSource, T extends Event<S>> Future<T> fire(final T event, final boolean narrowType,
       final Runnable afterExec) {
 
+    if (afterExec == null && !hasListeners(event, narrowType) && isIdle()) {
+      // nothing would run, so skips the task and the queue altogether.
+      if (statistics != null) {
+        statistics.recordSkipped();
+      }
+      @SuppressWarnings("unchecked")
+      CompletedFuture<T> future = (CompletedFuture<T>) lastSkipped;
+      if (future == null || future.get() != event) {
+        future = new CompletedFuture<T>(event);
+        lastSkipped = future;
+      }
+      return future;
+    }
+
+    Object coalescingKey = null;
+    AtomicBoolean superseded = null;
+    final CoalescingPolicy policy = coalescingPolicy;
+    if (policy != null && needOrder && event instanceof MediaNotificationEvent) {
+      coalescingKey = policy.getCoalescingKey((MediaNotificationEvent) event);
+      if (coalescingKey != null) {
+        superseded = new AtomicBoolean(false);
+      }
+    }
+    final Object key = coalescingKey;
+    final AtomicBoolean skip = superseded;
+
     final FutureTask<T> task = new FutureTask<T>(new Runnable() {
       @SuppressWarnings("unchecked")
       public void run() {
+        if (skip != null) {
+          pendingNotifications.remove(key, skip);
+          if (skip.get()) {
+            if (log.isTraceEnabled()) {
+              log.trace("Skipping superseded event :" + event);
+            }
+            if (afterExec != null) {
+              afterExec.run();
+            }
+            return;
+          }
+        }
         if (log.isTraceEnabled()) {
           log.trace("Firing event :" + event);
         }
-        Class<? extends Event> clazz = event.getClass();
-        out: do {
-          final List<Object> list = clazzListeners.get(clazz);
-          if (list != null) {
-            for (final Object listener : list) {
-              try {
-                ((EventListener<T>) listener).onEvent(event);
-              }
-              catch (Exception ex) {
-                log.warn("Uncaught exception in event handler");
-                for (final ExceptionHandler handler : exceptionHandlers) {
-                  if (!handler.handle(ex, event)) {
-                    break out;
-                  }
+        final Object[] listeners;
+        if (narrowType) {
+          listeners = resolveListeners(event.getClass());
+        }
+        else {
+          final List<Object> list = clazzListeners.get(event.getClass());
+          listeners = list == null ? null : list.toArray();
+        }
+        out: if (listeners != null) {
+          for (final Object listener : listeners) {
+            try {
+              ((EventListener<T>) listener).onEvent(event);
+            }
+            catch (Exception ex) {
+              log.warn("Uncaught exception in event handler");
+              for (final ExceptionHandler handler : exceptionHandlers) {
+                if (!handler.handle(ex, event)) {
+                  break out;
                 }
               }
             }
           }
-          clazz = (Class<? extends Event>) clazz.getSuperclass();
         }
-        while (narrowType && !clazz.equals(Object.class));
 
         out: if (event instanceof EnumEvent) {
           final EnumEvent<S, ? extends Enum<?>> enumEvent = (EnumEvent<S, ? extends Enum<?>>) event;
@@ -245,19 +443,58 @@ public class EventDispatcher {
       }
     }, event);
 
-    if (needOrder) {
+    if (skip != null) {
+      final AtomicBoolean previous = pendingNotifications.put(key, skip);
+      if (previous != null && !previous.getAndSet(true) && statistics != null) {
+        statistics.recordCoalesced();
+      }
+    }
+
+    if (needOrder && engine != null) {
+      enginePending.incrementAndGet();
+      try {
+        engine.execute(engineKey, new Runnable() {
+          public void run() {
+            try {
+              task.run();
+            }
+            finally {
+              enginePending.decrementAndGet();
+            }
+          }
+        });
+      }
+      catch (final RuntimeException e) {
+        enginePending.decrementAndGet();
+        throw e;
+      }
+    }
+    else if (needOrder) {
+      boolean excuteProcessor = false;
       synchronized (_queue) {
-        boolean excuteProcessor = false;
         _queue.offer(task);
 
         if (!processorRunning) {
           processorRunning = true;
           excuteProcessor = true;
         }
+      }
 
-        if (excuteProcessor) {
+      // submits outside the lock, so that a pool running out of threads never
+      // holds up the other firing threads of this dispatcher.
+      if (excuteProcessor) {
+        try {
           executor.execute(new TaskProcessor());
         }
+        catch (final RuntimeException e) {
+          // only this event fails. The events other threads queued meanwhile
+          // stay queued, and the next fire schedules a processor for them.
+          synchronized (_queue) {
+            _queue.remove(task);
+            processorRunning = false;
+          }
+          throw e;
+        }
       }
     }
     else {
@@ -267,23 +504,59 @@ public class EventDispatcher {
     return task;
   }
 
-  private class TaskProcessor implements Runnable {
+  private class TaskProcessor implements DrainTask {
     public void run() {
+      final FutureTask<?>[] batch = new FutureTask<?>[maxBatchSize];
+      long start = System.nanoTime();
       while (true) {
-        FutureTask<?> task = null;
+        int size = 0;
         synchronized (_queue) {
-          task = _queue.poll();
-          if (task == null) {
+          while (size < batch.length) {
+            final FutureTask<?> task = _queue.poll();
+            if (task == null) {
+              break;
+            }
+            batch[size++] = task;
+          }
+          if (size == 0) {
             processorRunning = false;
             break;
           }
         }
 
-        try {
-          task.run();
+        for (int i = 0; i < size; i++) {
+          try {
+            batch[i].run();
+          }
+          catch (Throwable t) {
+            log.error("Throwable when processing task.", t);
+          }
+          batch[i] = null;
+        }
+        if (statistics != null) {
+          statistics.recordBatch(size);
         }
-        catch (Throwable t) {
-          log.error("Throwable when processing task.", t);
+
+        if (batchTimeBudget > 0 && System.nanoTime() - start > batchTimeBudget) {
+          synchronized (_queue) {
+            if (_queue.isEmpty()) {
+              processorRunning = false;
+              break;
+            }
+          }
+          // gives the thread back to the pool and continues later, so that a
+          // busy source does not hold a thread for too long.
+          try {
+            executor.execute(this);
+            if (statistics != null) {
+              statistics.recordYield();
+            }
+            break;
+          }
+          catch (final RuntimeException e) {
+            // the pool is overloaded, keeps draining on this thread.
+            start = System.nanoTime();
+          }
         }
       }
     }
@@ -294,9 +567,74 @@ public class EventDispatcher {
     this.needOrder = order;
   }
 
+  /**
+   * Sets how the per dispatcher queue is drained. The queue is polled for up
+   * to maxBatchSize events at a time under a single lock.
+   * 
+   * @param maxBatchSize
+   *          the maximum number of events taken from the queue at a time.
+   * @param timeBudget
+   *          the time in milliseconds after which the processor gives its
+   *          thread back to the pool and resumes on another one, 0 to drain
+   *          the queue until it is empty.
+   */
+  public void setBatching(final int maxBatchSize, final long timeBudget) {
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+    }
+    this.maxBatchSize = maxBatchSize;
+    this.batchTimeBudget = TimeUnit.MILLISECONDS.toNanos(timeBudget);
+  }
+
+  /**
+   * @param statistics
+   *          the statistics this dispatcher records its work in, or null.
+   */
+  public void setStatistics(final DispatchStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  /**
+   * Routes ordered dispatching through a shared engine instead of the per
+   * dispatcher queue.
+   * 
+   * @param engine
+   *          the shared engine, or null to use the per dispatcher queue.
+   * @param key
+   *          the key that selects the lane, usually the id of the event source.
+   */
+  public void setDispatchEngine(final StripedDispatchEngine engine, final Object key) {
+    this.engine = engine;
+    this.engineKey = key;
+  }
+
+  /**
+   * @param policy
+   *          the policy deciding which queued media notifications are
+   *          superseded by newer ones, or null to deliver all of them.
+   */
+  public void setCoalescingPolicy(final CoalescingPolicy policy) {
+    this.coalescingPolicy = policy;
+    if (policy == null) {
+      pendingNotifications.clear();
+    }
+  }
+
   public void addExceptionHandler(ExceptionHandler... handlers) {
     for (final ExceptionHandler e : handlers) {
       exceptionHandlers.add(e);
     }
   }
+
+  private static class ResolvedListeners {
+
+    final int version;
+
+    final Object[] listeners;
+
+    ResolvedListeners(final int version, final Object[] listeners) {
+      this.version = version;
+      this.listeners = listeners;
+    }
+  }
 }
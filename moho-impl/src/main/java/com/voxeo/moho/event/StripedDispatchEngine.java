@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.util.BoundedThreadPoolExecutor.DrainTask;
+
+/**
+ * StripedDispatchEngine is an ordered dispatch engine shared by all the event
+ * sources of an application. Each source id is hashed onto one of a fixed set
+ * of lanes. A lane is a lock-free multi-producer queue drained by at most one
+ * task at a time, so events from the same source are still delivered in the
+ * order they were fired, without allocating a queue per source.
+ * <p>
+ * Note that sources sharing a lane also share its drain loop: a handler that
+ * blocks delays the other sources hashed onto the same lane.
+ */
+public class StripedDispatchEngine {
+
+  private static final Logger log = Logger.getLogger(StripedDispatchEngine.class);
+
+  public static final int DEFAULT_LANES = 64;
+
+  private final Executor _executor;
+
+  private final Lane[] _lanes;
+
+  private final int _mask;
+
+  public StripedDispatchEngine(final Executor executor) {
+    this(executor, DEFAULT_LANES);
+  }
+
+  /**
+   * @param executor
+   *          the executor on which the lanes are drained.
+   * @param lanes
+   *          the number of lanes, rounded up to a power of two.
+   */
+  public StripedDispatchEngine(final Executor executor, final int lanes) {
+    if (executor == null) {
+      throw new IllegalArgumentException("executor is null");
+    }
+    if (lanes <= 0) {
+      throw new IllegalArgumentException("lanes must be positive: " + lanes);
+    }
+    int size = 1;
+    while (size < lanes) {
+      size <<= 1;
+    }
+    _executor = executor;
+    _lanes = new Lane[size];
+    for (int i = 0; i < size; i++) {
+      _lanes[i] = new Lane();
+    }
+    _mask = size - 1;
+  }
+
+  /**
+   * Queues the task on the lane of the given key. Tasks submitted with the same
+   * key are run one after another in submission order.
+   */
+  public void execute(final Object key, final Runnable task) {
+    _lanes[indexFor(key)].offer(task);
+  }
+
+  public int getLaneCount() {
+    return _lanes.length;
+  }
+
+  int indexFor(final Object key) {
+    int h = key == null ? 0 : key.hashCode();
+    // spread the higher bits, the same way HashMap does.
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return h & _mask;
+  }
+
+  private class Lane implements DrainTask {
+
+    private final Queue<Runnable> _queue = new ConcurrentLinkedQueue<Runnable>();
+
+    private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+
+    void offer(final Runnable task) {
+      _queue.offer(task);
+      if (_scheduled.compareAndSet(false, true)) {
+        try {
+          _executor.execute(this);
+        }
+        catch (final RuntimeException e) {
+          _queue.remove(task);
+          _scheduled.set(false);
+          throw e;
+        }
+      }
+    }
+
+    public void run() {
+      while (true) {
+        final Runnable task = _queue.poll();
+        if (task == null) {
+          _scheduled.set(false);
+          // a producer may have queued a task after the poll but before the
+          // flag was cleared, and then seen the lane as still scheduled.
+          if (_queue.isEmpty() || !_scheduled.compareAndSet(false, true)) {
+            break;
+          }
+          continue;
+        }
+
+        try {
+          task.run();
+        }
+        catch (final Throwable t) {
+          log.error("Throwable when processing task.", t);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.media.mscontrol.Parameter;
+import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.mediagroup.Player;
+import javax.media.mscontrol.mediagroup.SpeechDetectorConstants;
+import javax.media.mscontrol.mediagroup.signals.SignalDetector;
+import javax.media.mscontrol.resource.RTC;
+
+import com.voxeo.moho.MediaException;
+import com.voxeo.moho.media.input.Grammar;
+import com.voxeo.moho.media.input.InputCommand;
+import com.voxeo.moho.media.output.OutputCommand;
+
+/**
+ * The parameters, RTCs, prompt URIs and grammar patterns of a prompt, computed
+ * once from its commands. The parameters are kept as key and value arrays
+ * rather than as a Parameters, because a Parameters belongs to the MediaGroup
+ * that created it; {@link GenericMediaService} copies them into a Parameters
+ * of its own group every time the prompt is played.
+ */
+public final class CompiledPromptImpl implements CompiledPrompt {
+
+  private final int _repeat;
+
+  private final boolean _output;
+
+  private final boolean _input;
+
+  private final URI[] _uris;
+
+  // the player parameters and RTCs, for an output without input.
+  private final ParameterSet _playParams;
+
+  private final RTC[] _playRtcs;
+
+  // the signal detector parameters and RTCs, for an input.
+  private final ParameterSet _detectParams;
+
+  private final RTC[] _detectRtcs;
+
+  private final Parameter[] _patternKeys;
+
+  private final ParameterSet _patternParams;
+
+  private final int _signalNumber;
+
+  private final boolean _supervised;
+
+  private final boolean _record;
+
+  private final URI _recordURI;
+
+  private final ParameterSet _recordParams;
+
+  /**
+   * Compiles the commands the same way {@link GenericMediaService} plays them.
+   * The commands are not modified.
+   */
+  public static CompiledPromptImpl compile(final OutputCommand output, final InputCommand input, final int repeat) {
+    return compile(output, input, repeat, null);
+  }
+
+  /**
+   * Compiles the commands, resolving the grammars through the cache if one is
+   * given.
+   */
+  public static CompiledPromptImpl compile(final OutputCommand output, final InputCommand input, final int repeat,
+      final GrammarCache cache) {
+    final boolean hasOutput = output != null && output.getAudibleResources() != null
+        && output.getAudibleResources().length > 0;
+    if (!hasOutput && input == null) {
+      throw new MediaException("No output or input");
+    }
+    return new CompiledPromptImpl(hasOutput ? output : null, input, repeat, cache);
+  }
+
+  private CompiledPromptImpl(final OutputCommand output, final InputCommand input, final int repeat,
+      final GrammarCache cache) {
+    _repeat = repeat;
+    _output = output != null;
+    _input = input != null;
+
+    Map<Parameter, Object> playParams = null;
+    final List<RTC> rtcs = new ArrayList<RTC>();
+    if (output != null) {
+      playParams = new LinkedHashMap<Parameter, Object>();
+      if (output.getParameters() != null) {
+        playParams.putAll(output.getParameters());
+      }
+      if (output.getRtcs() != null) {
+        for (final RTC rtc : output.getRtcs()) {
+          rtcs.add(rtc);
+        }
+      }
+
+      switch (output.getBehavior()) {
+        case QUEUE:
+          playParams.put(Player.BEHAVIOUR_IF_BUSY, Player.QUEUE_IF_BUSY);
+          break;
+        case STOP:
+          playParams.put(Player.BEHAVIOUR_IF_BUSY, Player.STOP_IF_BUSY);
+          break;
+        case ERROR:
+          playParams.put(Player.BEHAVIOUR_IF_BUSY, Player.FAIL_IF_BUSY);
+          break;
+      }
+      if (output.isBargein()) {
+        rtcs.add(new RTC(SignalDetector.DETECTION_OF_ONE_SIGNAL, Player.STOP_ALL));
+        rtcs.add(new RTC(SpeechDetectorConstants.START_OF_SPEECH, Player.STOP_ALL));
+        playParams.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
+      }
+      playParams.put(Player.MAX_DURATION, output.getTimeout());
+      playParams.put(Player.START_OFFSET, output.getOffset());
+      playParams.put(Player.VOLUME_CHANGE, output.getVolumeUnit());
+      playParams.put(Player.AUDIO_CODEC, output.getCodec());
+      playParams.put(Player.FILE_FORMAT, output.getFormat());
+      playParams.put(Player.JUMP_PLAYLIST_INCREMENT, output.getJumpPlaylistIncrement());
+      playParams.put(Player.JUMP_TIME, output.getJumpTime());
+      playParams.put(Player.START_IN_PAUSED_MODE, output.isStartInPausedMode());
+      if (repeat > 0) {
+        playParams.put(Player.REPEAT_COUNT, repeat + 1);
+        playParams.put(Player.INTERVAL, output.getRepeatInterval());
+      }
+
+      final MediaResource[] reses = output.getAudibleResources();
+      _uris = new URI[reses.length];
+      for (int i = 0; i < reses.length; i++) {
+        _uris[i] = reses[i].toURI();
+      }
+    }
+    else {
+      _uris = null;
+    }
+
+    if (input == null) {
+      _playParams = new ParameterSet(playParams);
+      _playRtcs = rtcs.toArray(new RTC[rtcs.size()]);
+      _detectParams = null;
+      _detectRtcs = null;
+      _patternKeys = null;
+      _patternParams = null;
+      _signalNumber = -1;
+      _supervised = false;
+      _record = false;
+      _recordURI = null;
+      _recordParams = null;
+      return;
+    }
+    _playParams = null;
+    _playRtcs = null;
+
+    // the input parameters and RTCs, merged with the output ones when the
+    // signal detector plays the prompt.
+    Map<Parameter, Object> inputParams = null;
+    if (input.getParameters() != null) {
+      inputParams = new LinkedHashMap<Parameter, Object>(input.getParameters());
+    }
+    RTC[] inputRtcs = input.getRtcs();
+    if (output != null) {
+      if (_uris.length > 0) {
+        playParams.put(SignalDetector.PROMPT, _uris);
+      }
+      if (inputParams != null) {
+        inputParams.putAll(playParams);
+      }
+      else {
+        inputParams = playParams;
+      }
+      if (inputRtcs != null) {
+        for (final RTC rtc : inputRtcs) {
+          rtcs.add(rtc);
+        }
+      }
+      inputRtcs = rtcs.toArray(new RTC[rtcs.size()]);
+    }
+
+    _supervised = input.isSupervised();
+    _signalNumber = input.getSignalNumber();
+    _record = input.isRecord();
+    _recordURI = input.getRecordURI();
+    _recordParams = inputParams == null ? null : new ParameterSet(inputParams);
+    _detectRtcs = inputRtcs != null ? inputRtcs.clone() : RTC.NO_RTC;
+
+    final Map<Parameter, Object> detectParams = new LinkedHashMap<Parameter, Object>();
+    if (inputParams != null) {
+      detectParams.putAll(inputParams);
+    }
+    detectParams.put(SignalDetector.BUFFERING, input.isBuffering());
+    detectParams.put(SignalDetector.MAX_DURATION, input.getMaxTimeout());
+    detectParams.put(SignalDetector.INITIAL_TIMEOUT, input.getInitialTimeout());
+    detectParams.put(SignalDetector.INTER_SIG_TIMEOUT, input.getInterSigTimeout());
+    detectParams.put(SpeechDetectorConstants.SENSITIVITY, input.getConfidence());
+    _detectParams = new ParameterSet(detectParams);
+
+    final Grammar[] grammars = input.getGrammars();
+    if (grammars.length > 0) {
+      final Map<Parameter, Object> patterns = new LinkedHashMap<Parameter, Object>();
+      for (final Grammar grammar : grammars) {
+        if (grammar == null) {
+          continue;
+        }
+        final Object o = cache != null ? cache.resolve(grammar) : GrammarCache.resolveUncached(grammar);
+        if (o == null) {
+          continue;
+        }
+        patterns.put(SignalDetector.PATTERN[patterns.size()], o);
+      }
+      _patternKeys = patterns.keySet().toArray(new Parameter[patterns.size()]);
+      _patternParams = patterns.size() > 0 ? new ParameterSet(patterns) : null;
+    }
+    else {
+      _patternKeys = null;
+      _patternParams = null;
+    }
+  }
+
+  @Override
+  public boolean hasOutput() {
+    return _output;
+  }
+
+  @Override
+  public boolean hasInput() {
+    return _input;
+  }
+
+  @Override
+  public int getRepeat() {
+    return _repeat;
+  }
+
+  URI[] getURIs() {
+    return _uris;
+  }
+
+  Parameters createPlayParameters(final MediaGroup group) {
+    return _playParams.create(group);
+  }
+
+  RTC[] getPlayRtcs() {
+    return _playRtcs;
+  }
+
+  Parameters createDetectParameters(final MediaGroup group) {
+    return _detectParams.create(group);
+  }
+
+  RTC[] getDetectRtcs() {
+    return _detectRtcs;
+  }
+
+  /**
+   * @return the pattern keys for the signal detector, or null if the input has
+   *         no grammar.
+   */
+  Parameter[] getPatternKeys() {
+    return _patternKeys;
+  }
+
+  /**
+   * @return the group parameters holding the patterns, or null if there is no
+   *         pattern.
+   */
+  Parameters createPatternParameters(final MediaGroup group) {
+    return _patternParams == null ? null : _patternParams.create(group);
+  }
+
+  /**
+   * @return true if the prompt sets the same patterns on the group as the
+   *         other one.
+   */
+  boolean hasSamePatterns(final CompiledPromptImpl other) {
+    return other == this || _patternParams != null && other._patternParams != null
+        && _patternParams.sameAs(other._patternParams);
+  }
+
+  int getSignalNumber() {
+    return _signalNumber;
+  }
+
+  boolean isSupervised() {
+    return _supervised;
+  }
+
+  boolean isRecord() {
+    return _record;
+  }
+
+  URI getRecordURI() {
+    return _recordURI;
+  }
+
+  Parameters createRecordParameters(final MediaGroup group) {
+    return _recordParams == null ? Parameters.NO_PARAMETER : _recordParams.create(group);
+  }
+
+  // a frozen copy of a parameter map.
+  private static final class ParameterSet {
+
+    private final Parameter[] _keys;
+
+    private final Object[] _values;
+
+    ParameterSet(final Map<Parameter, Object> params) {
+      _keys = new Parameter[params.size()];
+      _values = new Object[params.size()];
+      int i = 0;
+      for (final Map.Entry<Parameter, Object> e : params.entrySet()) {
+        _keys[i] = e.getKey();
+        _values[i] = e.getValue();
+        i++;
+      }
+    }
+
+    boolean sameAs(final ParameterSet other) {
+      return other == this || Arrays.equals(_keys, other._keys) && Arrays.equals(_values, other._values);
+    }
+
+    Parameters create(final MediaGroup group) {
+      final Parameters params = group.createParameters();
+      for (int i = 0; i < _keys.length; i++) {
+        params.put(_keys[i], _values[i]);
+      }
+      return params;
+    }
+  }
+}
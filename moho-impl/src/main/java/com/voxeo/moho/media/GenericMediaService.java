@@ -13,12 +13,10 @@
  */
 package com.voxeo.moho.media;
 
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
 
 import javax.media.mscontrol.EventType;
@@ -45,6 +43,7 @@ import javax.media.mscontrol.resource.ResourceEvent;
 
 import org.apache.log4j.Logger;
 
+import com.voxeo.moho.ApplicationContextImpl;
 import com.voxeo.moho.ExecutionContext;
 import com.voxeo.moho.MediaException;
 import com.voxeo.moho.MediaService;
@@ -59,7 +58,6 @@ import com.voxeo.moho.event.RecordPausedEvent;
 import com.voxeo.moho.event.RecordResumedEvent;
 import com.voxeo.moho.event.RecordStartedEvent;
 import com.voxeo.moho.event.OutputCompleteEvent.Cause;
-import com.voxeo.moho.media.input.Grammar;
 import com.voxeo.moho.media.input.InputCommand;
 import com.voxeo.moho.media.input.SimpleGrammar;
 import com.voxeo.moho.media.output.AudibleResource;
@@ -68,6 +66,7 @@ import com.voxeo.moho.media.output.OutputCommand;
 import com.voxeo.moho.media.output.TextToSpeechResource;
 import com.voxeo.moho.media.record.RecordCommand;
 import com.voxeo.moho.util.NLSMLParser;
+import com.voxeo.moho.util.NLSMLResult;
 
 public class GenericMediaService implements MediaService {
 
@@ -91,12 +90,25 @@ public class GenericMediaService implements MediaService {
 
   protected ExecutionContext _context;
 
+  // the prompt whose patterns were last set on the group, when preloading.
+  protected volatile CompiledPromptImpl _patternsOnGroup = null;
+
   protected GenericMediaService(final EventSource parent, final MediaGroup group) {
     _parent = parent;
     _group = group;
     _context = (ExecutionContext) _parent.getApplicationContext();
   }
 
+  /**
+   * @return the grammar cache of the application, or null.
+   */
+  protected GrammarCache getGrammarCache() {
+    if (_context instanceof ApplicationContextImpl) {
+      return ((ApplicationContextImpl) _context).getGrammarCache();
+    }
+    return null;
+  }
+
   protected synchronized Player getPlayer() {
     if (_player == null) {
       try {
@@ -230,92 +242,42 @@ public class GenericMediaService implements MediaService {
 
   @Override
   public Prompt prompt(final OutputCommand output, final InputCommand input, final int repeat) throws MediaException {
-    final PromptImpl retval = new PromptImpl(_context);
-    if (output != null && output.getAudibleResources() != null && output.getAudibleResources().length > 0) {
-      final Parameters params = _group.createParameters();
-      final List<RTC> rtcs = new ArrayList<RTC>();
-
-      if (output.getParameters() != null) {
-        params.putAll(output.getParameters());
-      }
+    return prompt(compile(output, input, repeat));
+  }
 
-      if (output.getRtcs() != null) {
-        for (final RTC rtc : output.getRtcs()) {
-          rtcs.add(rtc);
-        }
-      }
+  @Override
+  public CompiledPrompt compile(final OutputCommand output, final InputCommand input, final int repeat)
+      throws MediaException {
+    return CompiledPromptImpl.compile(output, input, repeat, getGrammarCache());
+  }
 
-      switch (output.getBehavior()) {
-        case QUEUE:
-          params.put(Player.BEHAVIOUR_IF_BUSY, Player.QUEUE_IF_BUSY);
-          break;
-        case STOP:
-          params.put(Player.BEHAVIOUR_IF_BUSY, Player.STOP_IF_BUSY);
-          break;
-        case ERROR:
-          params.put(Player.BEHAVIOUR_IF_BUSY, Player.FAIL_IF_BUSY);
-          break;
-      }
-      if (output.isBargein()) {
-        // rtcs.add(MediaGroup.SIGDET_STOPPLAY);
-        rtcs.add(new RTC(SignalDetector.DETECTION_OF_ONE_SIGNAL, Player.STOP_ALL));
-        rtcs.add(new RTC(SpeechDetectorConstants.START_OF_SPEECH, Player.STOP_ALL));
-        params.put(SpeechDetectorConstants.BARGE_IN_ENABLED, Boolean.TRUE);
-      }
-      params.put(Player.MAX_DURATION, output.getTimeout());
-      params.put(Player.START_OFFSET, output.getOffset());
-      params.put(Player.VOLUME_CHANGE, output.getVolumeUnit());
-      params.put(Player.AUDIO_CODEC, output.getCodec());
-      params.put(Player.FILE_FORMAT, output.getFormat());
-      params.put(Player.JUMP_PLAYLIST_INCREMENT, output.getJumpPlaylistIncrement());
-      params.put(Player.JUMP_TIME, output.getJumpTime());
-      params.put(Player.START_IN_PAUSED_MODE, output.isStartInPausedMode());
-      if (repeat > 0) {
-        params.put(Player.REPEAT_COUNT, repeat + 1);
-        params.put(Player.INTERVAL, output.getRepeatInterval());
-      }
-      final List<URI> uris = new ArrayList<URI>();
-      final MediaResource[] reses = output.getAudibleResources();
-      for (final MediaResource r : reses) {
-        uris.add(r.toURI());
+  @Override
+  public Prompt prompt(final CompiledPrompt prompt) throws MediaException {
+    if (!(prompt instanceof CompiledPromptImpl)) {
+      throw new IllegalArgumentException("Unknown compiled prompt: " + prompt);
+    }
+    final CompiledPromptImpl compiled = (CompiledPromptImpl) prompt;
+    final PromptImpl retval = new PromptImpl(_context);
+    if (compiled.hasOutput()) {
+      if (compiled.hasInput()) {
+        // the signal detector plays the prompt.
+        retval.inputGetReady(new SignalDetectorWorker(compiled));
+        retval.inputGetSet();
       }
-
-      try {
-        if (input != null) {
-          if (uris.size() > 0) {
-            params.put(SignalDetector.PROMPT, uris.toArray(new URI[] {}));
-          }
-          if (input.getParameters() != null) {
-            input.getParameters().putAll(params);
-          }
-          else {
-            input.setParameters(params);
-          }
-
-          if (input.getRtcs() != null && input.getRtcs().length > 0) {
-            RTC[] inputRTCs = input.getRtcs();
-            for (RTC rtc : inputRTCs) {
-              rtcs.add(rtc);
-            }
-          }
-          input.setRtcs(rtcs.toArray(new RTC[] {}));
-
-          retval.inputGetReady(new SignalDetectorWorker(input));
-          retval.inputGetSet();
-        }
-        else {
+      else {
+        try {
           final OutputImpl out = new OutputImpl(_group, _context);
-          getPlayer().addListener(new PlayerListener(out, input == null ? null : retval));
-          getPlayer().play(uris.toArray(new URI[] {}), rtcs.toArray(new RTC[] {}), params);
+          getPlayer().addListener(new PlayerListener(out, null));
+          getPlayer().play(compiled.getURIs(), compiled.getPlayRtcs(), compiled.createPlayParameters(_group));
           retval.setOutput(out.prepare());
         }
-      }
-      catch (final MsControlException e) {
-        throw new MediaException(e);
+        catch (final MsControlException e) {
+          throw new MediaException(e);
+        }
       }
     }
     else {
-      retval.setInput(detectSignal(input));
+      retval.setInput(detectSignal(compiled));
     }
     return retval;
   }
@@ -453,88 +415,39 @@ public class GenericMediaService implements MediaService {
   }
 
   protected Input detectSignal(final InputCommand cmd) throws MediaException {
-    if (cmd.isRecord()) {
+    return detectSignal(CompiledPromptImpl.compile(null, cmd, 0, getGrammarCache()));
+  }
+
+  protected Input detectSignal(final CompiledPromptImpl prompt) throws MediaException {
+    if (prompt.isRecord()) {
       try {
-        getRecorder().record(cmd.getRecordURI(), cmd.getRtcs() != null ? cmd.getRtcs() : RTC.NO_RTC,
-            cmd.getParameters() != null ? cmd.getParameters() : Parameters.NO_PARAMETER);
+        getRecorder().record(prompt.getRecordURI(), prompt.getDetectRtcs(), prompt.createRecordParameters(_group));
       }
       catch (final Exception e) {
         throw new MediaException(e);
       }
     }
-    final Parameters params = _group.createParameters();
-    if (cmd.getParameters() != null) {
-      params.putAll(cmd.getParameters());
-    }
-
-    final List<RTC> rtcs = new ArrayList<RTC>();
-    if (cmd.getRtcs() != null) {
-      for (final RTC rtc : cmd.getRtcs()) {
-        rtcs.add(rtc);
-      }
-    }
-
-    params.put(SignalDetector.BUFFERING, cmd.isBuffering());
-    params.put(SignalDetector.MAX_DURATION, cmd.getMaxTimeout());
-    params.put(SignalDetector.INITIAL_TIMEOUT, cmd.getInitialTimeout());
-    params.put(SignalDetector.INTER_SIG_TIMEOUT, cmd.getInterSigTimeout());
-
-    params.put(SpeechDetectorConstants.SENSITIVITY, cmd.getConfidence());
 
-    Parameter[] patternKeys = null;
-
-    final Grammar[] grammars = cmd.getGrammars();
-    if (grammars.length > 0) {
-      final List<Object> patterns = new ArrayList<Object>(grammars.length);
-      for (final Grammar grammar : grammars) {
-        if (grammar == null) {
-          continue;
-        }
-        Object o = grammar.toURI();
-        if (o == null) {
-          final String text = grammar.toText();
-          try {
-            o = new URL(text);
-          }
-          catch (final MalformedURLException e) {
-            o = text;
-          }
-        }
-        if (o == null) {
-          continue;
-        }
-        patterns.add(o);
-      }
-
-      final Parameters patternParams = _group.createParameters();
-      patternKeys = new Parameter[patterns.size()];
-      int i = 0;
-      for (; i < patterns.size(); i++) {
-        final Object o = patterns.get(i);
-        patternKeys[i] = SignalDetector.PATTERN[i];
-        patternParams.put(SignalDetector.PATTERN[i], o);
-      }
-
-      // process terminate char. Remove , application transfer this parameter
-      // instead.
-      // if (cmd.getTerminateChar() != null) {
-      // patternParams.put(VoxeoParameter.DTMF_TERM_CHAR,
-      // cmd.getTerminateChar());
-      // }
-
-      if (patterns.size() > 0) {
+    final Parameter[] patternKeys = prompt.getPatternKeys();
+    final CompiledPromptImpl patternsOnGroup = _patternsOnGroup;
+    if (patternsOnGroup == null || !prompt.hasSamePatterns(patternsOnGroup)) {
+      final Parameters patternParams = prompt.createPatternParameters(_group);
+      if (patternParams != null) {
         _group.setParameters(patternParams);
+        final GrammarCache grammars = getGrammarCache();
+        _patternsOnGroup = grammars != null && grammars.isPreloading() ? prompt : null;
       }
     }
 
-    if (patternKeys == null && cmd.getSignalNumber() == -1) {
+    if (patternKeys == null && prompt.getSignalNumber() == -1) {
       throw new MediaException("No pattern");
     }
 
     final InputImpl in = new InputImpl(_group, _context);
-    getSignalDetector().addListener(new DetectorListener(in, cmd));
+    getSignalDetector().addListener(new DetectorListener(in, prompt));
     try {
-      getSignalDetector().receiveSignals(cmd.getSignalNumber(), patternKeys, rtcs.toArray(new RTC[] {}), params);
+      getSignalDetector().receiveSignals(prompt.getSignalNumber(), patternKeys, prompt.getDetectRtcs(),
+          prompt.createDetectParameters(_group));
     }
     catch (final MsControlException e) {
       throw new MediaException(e);
@@ -545,15 +458,15 @@ public class GenericMediaService implements MediaService {
 
   protected class SignalDetectorWorker implements Callable<Input> {
 
-    private InputCommand _inputCmd = null;
+    private CompiledPromptImpl _prompt = null;
 
-    public SignalDetectorWorker(final InputCommand inputCmd) {
-      _inputCmd = inputCmd;
+    public SignalDetectorWorker(final CompiledPromptImpl prompt) {
+      _prompt = prompt;
     }
 
     @Override
     public Input call() throws MediaException {
-      return detectSignal(_inputCmd);
+      return detectSignal(_prompt);
     }
 
   }
@@ -610,11 +523,11 @@ public class GenericMediaService implements MediaService {
 
     private InputImpl _input = null;
 
-    private InputCommand _cmd = null;
+    private CompiledPromptImpl _cmd = null;
 
-    public DetectorListener(final InputImpl input, final InputCommand inputCmd) {
+    public DetectorListener(final InputImpl input, final CompiledPromptImpl prompt) {
       _input = input;
-      _cmd = inputCmd;
+      _cmd = prompt;
     }
 
     @Override
@@ -656,15 +569,10 @@ public class GenericMediaService implements MediaService {
           if (semanticResult != null && "application/x-nlsml".equalsIgnoreCase(semanticResult.getHost())) {
             try {
               inputCompleteEvent.setNlsml(semanticResult.getPath());
-              final List<Map<String, String>> nlsml = NLSMLParser.parse(inputCompleteEvent.getNlsml());
-              for (final Map<String, String> reco : nlsml) {
-                final String conf = reco.get("_confidence");
-                if (conf != null) {
-                  inputCompleteEvent.setConfidence(Float.parseFloat(conf));
-                }
-                final String interpretation = reco.get("_interpretation");
-                if (interpretation != null) {
-                  inputCompleteEvent.setInterpretation(interpretation);
+              for (final NLSMLResult reco : NLSMLParser.parseResults(inputCompleteEvent.getNlsml())) {
+                inputCompleteEvent.setConfidence(reco.getConfidence());
+                if (reco.getInterpretation() != null) {
+                  inputCompleteEvent.setInterpretation(reco.getInterpretation());
                 }
               }
             }
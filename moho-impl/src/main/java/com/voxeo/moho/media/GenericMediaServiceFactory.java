@@ -14,9 +14,11 @@
 
 package com.voxeo.moho.media;
 
+import javax.media.mscontrol.Configuration;
 import javax.media.mscontrol.MediaSession;
 import javax.media.mscontrol.MsControlException;
 import javax.media.mscontrol.Parameters;
+import javax.media.mscontrol.UnsupportedException;
 import javax.media.mscontrol.mediagroup.MediaGroup;
 
 import com.voxeo.moho.MediaException;
@@ -26,26 +28,69 @@ import com.voxeo.moho.event.EventSource;
 
 public class GenericMediaServiceFactory implements MediaServiceFactory {
 
+  // the MediaGroup configurations to try, the richest first.
+  @SuppressWarnings("unchecked")
+  private static final Configuration<MediaGroup>[] CONFIGURATIONS = new Configuration[] {
+      MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR, MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR,
+      MediaGroup.PLAYER };
+
+  // index of the first configuration worth trying, moved down once the driver
+  // refuses a richer one as unsupported and accepts a poorer one.
+  private volatile int _supported = 0;
+
   @Override
   public MediaService create(final EventSource parent, final MediaSession session, Parameters params) {
-    MediaGroup group = null;
     try {
-      group = session.createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR_SIGNALGENERATOR, params);
+      return create(parent, createMediaGroup(session, params));
     }
-    catch (final MsControlException e1) {
+    catch (final MsControlException e) {
+      throw new MediaException(e);
+    }
+  }
+
+  /**
+   * Creates the service on a MediaGroup created beforehand, for example by
+   * the {@link MediaResourcePool}.
+   */
+  public MediaService create(final EventSource parent, final MediaGroup group) {
+    return new GenericMediaService(parent, group);
+  }
+
+  /**
+   * Creates a MediaGroup with the richest configuration the driver supports.
+   * The configuration found is remembered only if the richer ones were refused
+   * with an UnsupportedException, so the next groups do not try them again. A
+   * richer configuration that failed for another reason, such as a busy media
+   * server, is tried again for the next groups.
+   */
+  public MediaGroup createMediaGroup(final MediaSession session, final Parameters params) throws MsControlException {
+    final int supported = _supported;
+    MsControlException failure = null;
+    boolean unsupported = true;
+    for (int i = supported; i < CONFIGURATIONS.length; i++) {
       try {
-        group = session.createMediaGroup(MediaGroup.PLAYER_RECORDER_SIGNALDETECTOR, params);
-      }
-      catch (final MsControlException e2) {
-        try {
-          group = session.createMediaGroup(MediaGroup.PLAYER, params);
-        }
-        catch (final MsControlException e3) {
-          throw new MediaException(e3);
+        final MediaGroup group = session.createMediaGroup(CONFIGURATIONS[i], params);
+        if (i != supported && unsupported) {
+          _supported = i;
         }
+        return group;
+      }
+      catch (final UnsupportedException e) {
+        failure = e;
+      }
+      catch (final MsControlException e) {
+        failure = e;
+        unsupported = false;
       }
     }
-    return new GenericMediaService(parent, group);
+    throw failure;
+  }
+
+  /**
+   * @return the configuration used for the next MediaGroups.
+   */
+  public Configuration<MediaGroup> getSupportedConfiguration() {
+    return CONFIGURATIONS[_supported];
   }
 
 }
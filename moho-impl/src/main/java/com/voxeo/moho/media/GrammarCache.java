@@ -0,0 +1,221 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.voxeo.moho.media.input.Grammar;
+import com.voxeo.moho.media.input.JSGFGrammar;
+import com.voxeo.moho.media.input.SimpleGrammar;
+
+/**
+ * GrammarCache memoizes the signal detector patterns of the
+ * {@link SimpleGrammar}s and {@link JSGFGrammar}s, so that a menu asked many
+ * times does not encode its grammar into a data URI every time. The cache is
+ * bounded both by the number of grammars and by their total length, and
+ * evicts the least recently used grammars first.
+ * <p>
+ * When preloading is on, {@link GenericMediaService} also leaves the patterns
+ * on its MediaGroup and does not set them again for an input with the same
+ * grammars. This relies on the MediaGroup keeping its parameters between
+ * inputs, as JSR 309 specifies but not every media server does, so preloading
+ * is off unless asked for.
+ */
+public class GrammarCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 256;
+
+  public static final int DEFAULT_MAX_CHARS = 1024 * 1024;
+
+  private final int _maxEntries;
+
+  private final int _maxChars;
+
+  private final boolean _preload;
+
+  // access ordered, the eldest entry is the least recently used.
+  private final LinkedHashMap<Key, Object> _entries = new LinkedHashMap<Key, Object>(16, 0.75F, true);
+
+  private long _chars;
+
+  private final AtomicLong _hits = new AtomicLong();
+
+  private final AtomicLong _misses = new AtomicLong();
+
+  private final AtomicLong _evictions = new AtomicLong();
+
+  public GrammarCache() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CHARS, false);
+  }
+
+  /**
+   * @param maxEntries
+   *          the maximum number of grammars cached.
+   * @param maxChars
+   *          the maximum total length of the grammars cached. A grammar longer
+   *          than this is never cached.
+   * @param preload
+   *          whether the patterns are left on the MediaGroups between inputs.
+   */
+  public GrammarCache(final int maxEntries, final int maxChars, final boolean preload) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+    }
+    if (maxChars <= 0) {
+      throw new IllegalArgumentException("maxChars must be positive: " + maxChars);
+    }
+    _maxEntries = maxEntries;
+    _maxChars = maxChars;
+    _preload = preload;
+  }
+
+  /**
+   * @return the pattern of the grammar for the signal detector, a URI, a URL
+   *         or the grammar text, or null if the grammar has none.
+   */
+  public Object resolve(final Grammar grammar) {
+    final String text = grammar.toText();
+    if (text == null || text.length() > _maxChars
+        || grammar.getClass() != SimpleGrammar.class && grammar.getClass() != JSGFGrammar.class) {
+      return resolveUncached(grammar);
+    }
+
+    final Key key = new Key(grammar.getClass(), text);
+    synchronized (this) {
+      final Object pattern = _entries.get(key);
+      if (pattern != null) {
+        _hits.incrementAndGet();
+        return pattern;
+      }
+    }
+    _misses.incrementAndGet();
+
+    final Object pattern = resolveUncached(grammar);
+    if (pattern == null) {
+      return null;
+    }
+    synchronized (this) {
+      final Object previous = _entries.put(key, pattern);
+      if (previous == null) {
+        _chars += text.length();
+      }
+      final Iterator<Map.Entry<Key, Object>> it = _entries.entrySet().iterator();
+      while ((_entries.size() > _maxEntries || _chars > _maxChars) && it.hasNext()) {
+        final Map.Entry<Key, Object> eldest = it.next();
+        it.remove();
+        _chars -= eldest.getKey()._text.length();
+        _evictions.incrementAndGet();
+      }
+    }
+    return pattern;
+  }
+
+  /**
+   * Resolves the pattern of a grammar without the cache: its URI, else its
+   * text as a URL, else its text.
+   */
+  public static Object resolveUncached(final Grammar grammar) {
+    final Object uri = grammar.toURI();
+    if (uri != null) {
+      return uri;
+    }
+    final String text = grammar.toText();
+    if (text == null) {
+      return null;
+    }
+    // only an absolute URL has a scheme before its first colon.
+    if (text.indexOf(':') > 0) {
+      try {
+        return new URL(text);
+      }
+      catch (final MalformedURLException e) {
+        // not a URL, the text itself is the pattern.
+      }
+    }
+    return text;
+  }
+
+  public boolean isPreloading() {
+    return _preload;
+  }
+
+  public synchronized void clear() {
+    _entries.clear();
+    _chars = 0;
+  }
+
+  public synchronized int size() {
+    return _entries.size();
+  }
+
+  /**
+   * @return the total length of the grammars cached.
+   */
+  public synchronized long getCharCount() {
+    return _chars;
+  }
+
+  public long getHitCount() {
+    return _hits.get();
+  }
+
+  public long getMissCount() {
+    return _misses.get();
+  }
+
+  public long getEvictionCount() {
+    return _evictions.get();
+  }
+
+  @Override
+  public String toString() {
+    return "GrammarCache[maxEntries=" + _maxEntries + ", maxChars=" + _maxChars + ", preload=" + _preload
+        + ", size=" + size() + ", hits=" + _hits.get() + ", misses=" + _misses.get() + "]";
+  }
+
+  private static final class Key {
+
+    private final Class<?> _type;
+
+    private final String _text;
+
+    Key(final Class<?> type, final String text) {
+      _type = type;
+      _text = text;
+    }
+
+    @Override
+    public int hashCode() {
+      return _type.hashCode() * 31 + _text.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return _type == other._type && _text.equals(other._text);
+    }
+  }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.media.mscontrol.MediaSession;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.MsControlFactory;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.networkconnection.NetworkConnection;
+
+import org.apache.log4j.Logger;
+
+/**
+ * MediaResourcePool keeps up to a watermark of MediaSessions, each with a
+ * NetworkConnection and a MediaGroup, created ahead of the calls so that
+ * answering or dialing does not wait for the media server. The pool is
+ * refilled on the executor after every {@link #acquire()}. When the pool is
+ * empty, {@link #acquire()} creates only the MediaSession and the
+ * NetworkConnection the call needs to answer; the MediaGroup is left to the
+ * call.
+ * <p>
+ * {@link #recycle(Resources)} releases the NetworkConnection, whose SDP
+ * belongs to the finished dialog, and the MediaGroup if a call used it, and
+ * returns the MediaSession to the pool with fresh ones. A MediaSession on which
+ * the call created media objects of its own is
+ * {@link Resources#discard() discarded} and released whole instead. The pooled
+ * resources are not named after the calls they end up serving.
+ */
+public class MediaResourcePool {
+
+  private static final Logger LOG = Logger.getLogger(MediaResourcePool.class);
+
+  private final MsControlFactory _factory;
+
+  private final GenericMediaServiceFactory _groups;
+
+  private final Executor _executor;
+
+  private final int _watermark;
+
+  private final Queue<Resources> _idle = new ConcurrentLinkedQueue<Resources>();
+
+  // idle resources plus the ones being prepared.
+  private final AtomicInteger _size = new AtomicInteger();
+
+  private final AtomicLong _hits = new AtomicLong();
+
+  private final AtomicLong _misses = new AtomicLong();
+
+  private final AtomicLong _recycled = new AtomicLong();
+
+  private volatile boolean _closed;
+
+  /**
+   * @param factory
+   *          the factory of the MediaSessions.
+   * @param groups
+   *          creates the MediaGroups, or null to pool the sessions and
+   *          connections only.
+   * @param executor
+   *          the executor on which the pool is refilled.
+   * @param watermark
+   *          the number of idle resources to keep.
+   */
+  public MediaResourcePool(final MsControlFactory factory, final GenericMediaServiceFactory groups,
+      final Executor executor, final int watermark) {
+    if (factory == null) {
+      throw new IllegalArgumentException("factory is null");
+    }
+    if (executor == null) {
+      throw new IllegalArgumentException("executor is null");
+    }
+    if (watermark <= 0) {
+      throw new IllegalArgumentException("watermark must be positive: " + watermark);
+    }
+    _factory = factory;
+    _groups = groups;
+    _executor = executor;
+    _watermark = watermark;
+  }
+
+  /**
+   * Starts filling the pool up to the watermark.
+   */
+  public void start() {
+    fill();
+  }
+
+  /**
+   * Takes idle resources from the pool, or creates them without a MediaGroup
+   * if the pool is empty.
+   */
+  public Resources acquire() throws MsControlException {
+    Resources resources = _idle.poll();
+    if (resources != null) {
+      _size.decrementAndGet();
+      _hits.incrementAndGet();
+    }
+    else {
+      _misses.incrementAndGet();
+      final MediaSession session = _factory.createMediaSession();
+      try {
+        resources = prepare(new Resources(session), false);
+      }
+      catch (final MsControlException e) {
+        release(session);
+        throw e;
+      }
+    }
+    fill();
+    return resources;
+  }
+
+  /**
+   * Gives back the resources of a call that is done with them.
+   */
+  public void recycle(final Resources resources) {
+    if (resources._discarded) {
+      // releases whatever the call created on the session with it.
+      release(resources._session);
+      return;
+    }
+    final NetworkConnection network = resources._network;
+    resources._network = null;
+    if (network != null) {
+      try {
+        network.release();
+      }
+      catch (final Throwable t) {
+        LOG.warn("Exception when releasing networkconnection", t);
+      }
+    }
+    if (resources._groupTaken) {
+      final MediaGroup group = resources._group;
+      resources._group = null;
+      resources._groupTaken = false;
+      if (group != null) {
+        try {
+          group.release();
+        }
+        catch (final Throwable t) {
+          LOG.warn("Exception when releasing mediagroup", t);
+        }
+      }
+    }
+
+    if (!reserve()) {
+      release(resources._session);
+      return;
+    }
+    _recycled.incrementAndGet();
+    submit(resources);
+  }
+
+  /**
+   * Releases the idle resources. The resources acquired before are released
+   * instead of recycled.
+   */
+  public void close() {
+    _closed = true;
+    Resources resources = null;
+    while ((resources = _idle.poll()) != null) {
+      _size.decrementAndGet();
+      release(resources._session);
+    }
+  }
+
+  public int getWatermark() {
+    return _watermark;
+  }
+
+  public int getIdleCount() {
+    return _idle.size();
+  }
+
+  /**
+   * @return the number of acquisitions served from the pool.
+   */
+  public long getHitCount() {
+    return _hits.get();
+  }
+
+  /**
+   * @return the number of acquisitions that found the pool empty.
+   */
+  public long getMissCount() {
+    return _misses.get();
+  }
+
+  public long getRecycledCount() {
+    return _recycled.get();
+  }
+
+  @Override
+  public String toString() {
+    return "MediaResourcePool[watermark=" + _watermark + ", idle=" + _idle.size() + ", hits=" + _hits.get()
+        + ", misses=" + _misses.get() + "]";
+  }
+
+  protected void fill() {
+    while (reserve()) {
+      submit(null);
+    }
+  }
+
+  // claims one place under the watermark.
+  private boolean reserve() {
+    while (!_closed) {
+      final int size = _size.get();
+      if (size >= _watermark) {
+        return false;
+      }
+      if (_size.compareAndSet(size, size + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // prepares the resources of a reserved place on the executor.
+  private void submit(final Resources recycled) {
+    try {
+      _executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          MediaSession session = recycled == null ? null : recycled._session;
+          try {
+            if (session == null) {
+              session = _factory.createMediaSession();
+            }
+            final Resources resources = prepare(recycled == null ? new Resources(session) : recycled, true);
+            if (_closed) {
+              _size.decrementAndGet();
+              release(session);
+            }
+            else {
+              _idle.offer(resources);
+            }
+          }
+          catch (final Throwable t) {
+            LOG.warn("Unable to prepare pooled media resources", t);
+            _size.decrementAndGet();
+            if (session != null) {
+              release(session);
+            }
+          }
+        }
+      });
+    }
+    catch (final RejectedExecutionException e) {
+      _size.decrementAndGet();
+      if (recycled != null) {
+        release(recycled._session);
+      }
+    }
+  }
+
+  private Resources prepare(final Resources resources, final boolean withGroup) throws MsControlException {
+    if (resources._network == null) {
+      resources._network = resources._session.createNetworkConnection(NetworkConnection.BASIC);
+    }
+    if (withGroup && resources._group == null && _groups != null) {
+      resources._group = _groups.createMediaGroup(resources._session, null);
+    }
+    return resources;
+  }
+
+  private void release(final MediaSession session) {
+    try {
+      session.release();
+    }
+    catch (final Throwable t) {
+      LOG.warn("Exception when releasing media object", t);
+    }
+  }
+
+  /**
+   * The media resources handed to one call.
+   */
+  public static class Resources {
+
+    private final MediaSession _session;
+
+    private NetworkConnection _network;
+
+    private MediaGroup _group;
+
+    private boolean _groupTaken;
+
+    private volatile boolean _discarded;
+
+    Resources(final MediaSession session) {
+      _session = session;
+    }
+
+    public MediaSession getMediaSession() {
+      return _session;
+    }
+
+    public NetworkConnection getNetworkConnection() {
+      return _network;
+    }
+
+    /**
+     * Hands the pre-created MediaGroup over to the caller, which uses it until
+     * the resources are recycled.
+     *
+     * @return the MediaGroup, or null if none was created.
+     */
+    public MediaGroup takeMediaGroup() {
+      if (_group != null) {
+        _groupTaken = true;
+      }
+      return _group;
+    }
+
+    /**
+     * Tells the pool that the caller created media objects on the
+     * MediaSession, which is then released instead of recycled.
+     */
+    public void discard() {
+      _discarded = true;
+    }
+  }
+}
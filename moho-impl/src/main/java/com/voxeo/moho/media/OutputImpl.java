@@ -14,9 +14,7 @@
 
 package com.voxeo.moho.media;
 
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -24,50 +22,35 @@ import javax.media.mscontrol.Parameters;
 import javax.media.mscontrol.mediagroup.MediaGroup;
 import javax.media.mscontrol.mediagroup.Player;
 
+import com.voxeo.moho.CompletionListener;
 import com.voxeo.moho.ExecutionContext;
 import com.voxeo.moho.event.OutputCompleteEvent;
+import com.voxeo.moho.util.ResultFuture;
 
 public class OutputImpl implements Output {
 
   protected MediaGroup _group;
 
-  protected FutureTask<OutputCompleteEvent> _future = null;
-
-  protected OutputCompleteEvent _event = null;
-
-  protected Object _lock = new Object();
+  protected final ResultFuture<OutputCompleteEvent> _future = new ResultFuture<OutputCompleteEvent>();
 
   protected ExecutionContext _context;
 
-  protected boolean _startedFuture = false;
-
   protected OutputImpl(final MediaGroup group, ExecutionContext context) {
     _group = group;
     _context = context;
   }
 
   protected Output prepare() {
-    _future = new FutureTask<OutputCompleteEvent>(new Callable<OutputCompleteEvent>() {
-      @Override
-      public OutputCompleteEvent call() throws Exception {
-        synchronized (_lock) {
-          while (_event == null) {
-            _lock.wait();
-          }
-        }
-        return _event;
-      }
-
-    });
-
     return this;
   }
 
   protected void done(final OutputCompleteEvent event) {
-    synchronized (_lock) {
-      _event = event;
-      _lock.notifyAll();
-    }
+    _future.complete(event);
+  }
+
+  @Override
+  public void addCompletionListener(final CompletionListener<OutputCompleteEvent> listener) {
+    _future.addCompletionListener(listener);
   }
 
   @Override
@@ -149,44 +132,27 @@ public class OutputImpl implements Output {
 
   @Override
   public boolean cancel(final boolean mayInterruptIfRunning) {
-    startFuture();
     return _future.cancel(mayInterruptIfRunning);
   }
 
   @Override
   public OutputCompleteEvent get() throws InterruptedException, ExecutionException {
-    startFuture();
     return _future.get();
   }
 
   @Override
   public OutputCompleteEvent get(final long timeout, final TimeUnit unit) throws InterruptedException,
       ExecutionException, TimeoutException {
-    startFuture();
     return _future.get(timeout, unit);
   }
 
   @Override
   public boolean isCancelled() {
-    startFuture();
     return _future.isCancelled();
   }
 
   @Override
   public boolean isDone() {
-    startFuture();
     return _future.isDone();
   }
-
-  private synchronized void startFuture() {
-    if (!_startedFuture) {
-      if (_context != null) {
-        _context.getExecutor().execute(_future);
-      }
-      else {
-        new Thread(_future).start();
-      }
-      _startedFuture = true;
-    }
-  }
 }
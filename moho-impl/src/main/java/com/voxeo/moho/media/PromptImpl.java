@@ -43,13 +43,13 @@ public class PromptImpl implements Prompt {
     _future = new FutureTask<Input>(call);
   }
 
+  /**
+   * Starts the input on the calling thread. Starting it only sends the
+   * request to the media server, and a failure is reported by
+   * {@link #getInput()}.
+   */
   protected void inputGetSet() {
-    if (_context != null) {
-      _context.getExecutor().execute(_future);
-    }
-    else {
-      new Thread(_future).start();
-    }
+    _future.run();
   }
 
   protected void setOutput(final Output output) {
@@ -0,0 +1,153 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AdmissionController decides whether a new inbound call is accepted before
+ * any event is created for it. It enforces, when configured, a maximum number
+ * of concurrent calls, a maximum rate of new calls and a maximum backlog of
+ * the executor. The rate is a token bucket of one second of calls, kept as
+ * a single timestamp so that the container threads never block on it.
+ * <p>
+ * A rejected INVITE is answered with 503 and a Retry-After header by the
+ * {@link SIPController}.
+ */
+public class AdmissionController {
+
+  public enum Decision {
+    ADMITTED, TOO_MANY_CALLS, RATE_EXCEEDED, OVERLOADED
+  }
+
+  public static final int DEFAULT_RETRY_AFTER = 5;
+
+  private final int _maxCalls;
+
+  private final int _maxQueueDepth;
+
+  private final int _retryAfter;
+
+  // the nanoseconds a call takes from the bucket, 0 if the rate is unlimited.
+  private final long _interval;
+
+  // how far ahead of the clock the bucket may run, that is its capacity.
+  private final long _burst;
+
+  // the time at which the bucket is full again.
+  private final AtomicLong _fullAt = new AtomicLong(System.nanoTime());
+
+  private final AtomicLong _admitted = new AtomicLong();
+
+  private final AtomicLong _tooManyCalls = new AtomicLong();
+
+  private final AtomicLong _rateExceeded = new AtomicLong();
+
+  private final AtomicLong _overloaded = new AtomicLong();
+
+  /**
+   * @param maxCalls
+   *          the maximum number of concurrent calls, 0 for no limit.
+   * @param callsPerSecond
+   *          the maximum number of new calls per second, 0 for no limit. Up to
+   *          one second worth of calls can arrive at once.
+   * @param maxQueueDepth
+   *          the maximum backlog of the executor, 0 for no limit. See
+   *          {@link SIPController#getBacklog(java.util.concurrent.ThreadPoolExecutor)}
+   *          for how it is measured.
+   * @param retryAfter
+   *          the seconds put in the Retry-After header of the rejections.
+   */
+  public AdmissionController(final int maxCalls, final int callsPerSecond, final int maxQueueDepth,
+      final int retryAfter) {
+    if (maxCalls < 0 || callsPerSecond < 0 || maxQueueDepth < 0 || retryAfter < 0) {
+      throw new IllegalArgumentException("limits must not be negative");
+    }
+    _maxCalls = maxCalls;
+    _maxQueueDepth = maxQueueDepth;
+    _retryAfter = retryAfter;
+    _interval = callsPerSecond > 0 ? 1000000000L / callsPerSecond : 0;
+    _burst = callsPerSecond > 0 ? _interval * callsPerSecond : 0;
+  }
+
+  /**
+   * @param calls
+   *          the number of calls in progress.
+   * @param queueDepth
+   *          the backlog of the executor.
+   */
+  public Decision admit(final int calls, final int queueDepth) {
+    if (_maxCalls > 0 && calls >= _maxCalls) {
+      _tooManyCalls.incrementAndGet();
+      return Decision.TOO_MANY_CALLS;
+    }
+    if (_maxQueueDepth > 0 && queueDepth >= _maxQueueDepth) {
+      _overloaded.incrementAndGet();
+      return Decision.OVERLOADED;
+    }
+    if (_interval > 0 && !takeToken()) {
+      _rateExceeded.incrementAndGet();
+      return Decision.RATE_EXCEEDED;
+    }
+    _admitted.incrementAndGet();
+    return Decision.ADMITTED;
+  }
+
+  private boolean takeToken() {
+    while (true) {
+      final long now = nanoTime();
+      final long fullAt = _fullAt.get();
+      final long next = (fullAt - now < 0 ? now : fullAt) + _interval;
+      if (next - now > _burst) {
+        return false;
+      }
+      if (_fullAt.compareAndSet(fullAt, next)) {
+        return true;
+      }
+    }
+  }
+
+  protected long nanoTime() {
+    return System.nanoTime();
+  }
+
+  public int getRetryAfter() {
+    return _retryAfter;
+  }
+
+  public long getAdmittedCount() {
+    return _admitted.get();
+  }
+
+  public long getTooManyCallsCount() {
+    return _tooManyCalls.get();
+  }
+
+  public long getRateExceededCount() {
+    return _rateExceeded.get();
+  }
+
+  public long getOverloadedCount() {
+    return _overloaded.get();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[maxCalls=" + _maxCalls + ", callsPerSecond="
+        + (_interval > 0 ? 1000000000L / _interval : 0) + ", maxQueueDepth=" + _maxQueueDepth + ", admitted="
+        + _admitted.get() + ", tooManyCalls=" + _tooManyCalls.get() + ", rateExceeded=" + _rateExceeded.get()
+        + ", overloaded=" + _overloaded.get() + "]";
+  }
+}
@@ -40,39 +40,70 @@ public class BridgeJoinDelegate extends JoinDelegate {
     if (_call2.isAnswered()) {
       doDisengage(_call2, JoinType.BRIDGE);
     }
-    if (_call1.getMediaObject() == null) {
-      _call1.joinWithoutCheckOperation(_direction);
+    joinMedia(_call1);
+  }
+
+  /**
+   * Joins the call to the media server if needed, then goes on with the next
+   * call, and answers the progressed call once both are joined.
+   */
+  protected void joinMedia(final SIPCallImpl call) throws Exception {
+    if (call.getMediaObject() != null) {
+      mediaJoined(call);
+      return;
     }
-    if (_call2.getMediaObject() == null) {
-      _call2.joinWithoutCheckOperation(_direction);
+    call.joinWithoutCheckOperation(_direction, new Completion() {
+      @Override
+      public void joinDone(final Exception e) {
+        if (e != null) {
+          setException(e);
+          done();
+          return;
+        }
+        try {
+          mediaJoined(call);
+        }
+        catch (final Exception ex) {
+          setError(ex);
+          done();
+        }
+      }
+    });
+  }
+
+  protected void mediaJoined(final SIPCallImpl call) throws Exception {
+    if (call == _call1) {
+      joinMedia(_call2);
+      return;
     }
-    SIPCallImpl call = null;
+    SIPCallImpl progressed = null;
     if (_call1.getSIPCallState() == State.PROGRESSED) {
-      call = _call1;
+      progressed = _call1;
     }
     else if (_call2.getSIPCallState() == State.PROGRESSED) {
-      call = _call2;
+      progressed = _call2;
     }
-    if (call != null) {
-      final SipServletResponse res = call.getSipInitnalRequest().createResponse(SipServletResponse.SC_OK);
-      if (call.getLocalSDP() != null) {
-        res.setContent(call.getLocalSDP(), "application/sdp");
+    if (progressed != null) {
+      final SipServletResponse res = progressed.getSipInitnalRequest().createResponse(SipServletResponse.SC_OK);
+      if (progressed.getLocalSDP() != null) {
+        res.setContent(progressed.getLocalSDP(), "application/sdp");
       }
       res.send();
-      this.setWaiting(true);
-      while (!_call1.isTerminated() && !_call2.isTerminated() && this.isWaiting()) {
-        try {
-          getCondition().wait();
-        }
-        catch (final InterruptedException e) {
-          // ignore
-        }
-      }
-      if (!_call1.isAnswered() || !_call1.isAnswered()) {
-        throw new IllegalStateException(call + " is no answered.");
-      }
+      // goes on in doAck.
+      setWaiting(true);
+      return;
+    }
+    link();
+  }
+
+  protected void link() {
+    try {
+      _call1.linkCall(_call2, JoinType.BRIDGE, _direction);
     }
-    _call1.linkCall(_call2, JoinType.BRIDGE, _direction);
+    catch (final Exception e) {
+      setError(e);
+    }
+    done();
   }
 
   @Override
@@ -80,12 +111,17 @@ public class BridgeJoinDelegate extends JoinDelegate {
     try {
       call.setSIPCallState(SIPCall.State.ANSWERED);
       call.processSDPAnswer(req);
-      done();
     }
     catch (final Exception e) {
       setError(e);
       call.fail();
       throw e;
     }
+    if (!_call1.isAnswered() || !_call2.isAnswered()) {
+      setException(new IllegalStateException(call + " is no answered."));
+      done();
+      return;
+    }
+    link();
   }
 }
@@ -12,6 +12,7 @@
 package com.voxeo.moho.sip;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
 import javax.servlet.sip.SipServletRequest;
@@ -20,23 +21,51 @@ import javax.servlet.sip.SipServletResponse;
 import com.voxeo.moho.Participant;
 import com.voxeo.moho.Participant.JoinType;
 
+/**
+ * A JoinDelegate drives a join as a state machine: {@link #doJoin()} sends the
+ * first request and returns, then the delegate advances on the SIP messages
+ * and SDP events of the calls until it calls {@link #done()}. No thread waits
+ * for the join in the meantime.
+ */
 public abstract class JoinDelegate {
 
+  /**
+   * Receives the outcome of a join started on a call.
+   */
+  protected interface Completion {
+
+    /**
+     * @param e
+     *          the failure of the join, or null if it succeeded.
+     */
+    void joinDone(Exception e);
+  }
+
   protected boolean _isWaiting;
 
   protected Exception _exception;
 
   protected Exception _error;
 
-  protected Object _condition;
+  protected Runnable _doneCallback;
+
+  protected final AtomicBoolean _done = new AtomicBoolean(false);
 
+  /**
+   * Ends the join. Only the first call runs the done callback, whichever of the
+   * calls involved gets there first.
+   */
   protected void done() {
     setWaiting(false);
-    synchronized (_condition) {
-      _condition.notifyAll();
+    if (_done.compareAndSet(false, true) && _doneCallback != null) {
+      _doneCallback.run();
     }
   }
 
+  protected boolean isDone() {
+    return _done.get();
+  }
+
   protected boolean isWaiting() {
     return _isWaiting;
   }
@@ -61,12 +90,15 @@ public abstract class JoinDelegate {
     return _error;
   }
 
-  protected void setCondition(final Object o) {
-    _condition = o;
+  protected void setDoneCallback(final Runnable callback) {
+    _doneCallback = callback;
   }
 
-  protected Object getCondition() {
-    return _condition;
+  /**
+   * @return the exception or the error the join ended with, or null.
+   */
+  protected Exception getFailure() {
+    return _exception != null ? _exception : _error;
   }
 
   protected abstract void doJoin() throws Exception;
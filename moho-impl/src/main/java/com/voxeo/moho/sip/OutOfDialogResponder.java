@@ -0,0 +1,184 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipServletResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Answers out-of-dialog requests, such as the OPTIONS keep-alives of SBCs and
+ * trunks, on the container thread instead of dispatching them to the
+ * application. An OPTIONS request gets a 200 OK with the Allow and Accept
+ * headers, and the other methods a 405 whose Allow header leaves out the
+ * method it rejects.
+ * <p>
+ * Only the methods the responder is {@link #addMethod(String) configured} for
+ * are answered, and only as long as the application has not
+ * {@link #addInterest(String) registered interest} in them. Requests inside a
+ * dialog are always left to the application.
+ */
+public class OutOfDialogResponder {
+
+  private static final Logger LOG = Logger.getLogger(OutOfDialogResponder.class);
+
+  public static final String DEFAULT_ALLOW = "INVITE, ACK, CANCEL, BYE, OPTIONS, REFER, NOTIFY, SUBSCRIBE, MESSAGE, "
+      + "PRACK";
+
+  public static final String DEFAULT_ACCEPT = "application/sdp";
+
+  private final String _allow;
+
+  private final String _accept;
+
+  private final Set<String> _methods = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final Set<String> _interests = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  // the Allow header of the 405 of each method, computed once.
+  private final ConcurrentMap<String, String> _disallowed = new ConcurrentHashMap<String, String>();
+
+  private final AtomicLong _answered = new AtomicLong();
+
+  public OutOfDialogResponder() {
+    this(DEFAULT_ALLOW, DEFAULT_ACCEPT);
+  }
+
+  /**
+   * @param allow
+   *          the value of the Allow header of the responses.
+   * @param accept
+   *          the value of the Accept header of the responses.
+   */
+  public OutOfDialogResponder(final String allow, final String accept) {
+    _allow = allow;
+    _accept = accept;
+  }
+
+  /**
+   * Answers the out-of-dialog requests of this method from now on.
+   */
+  public void addMethod(final String method) {
+    _methods.add(method.trim().toUpperCase());
+  }
+
+  public void removeMethod(final String method) {
+    _methods.remove(method.trim().toUpperCase());
+  }
+
+  /**
+   * Lets the requests of this method reach the application even if the
+   * responder is configured for it.
+   */
+  public void addInterest(final String method) {
+    _interests.add(method.trim().toUpperCase());
+  }
+
+  public void removeInterest(final String method) {
+    _interests.remove(method.trim().toUpperCase());
+  }
+
+  public boolean isResponding(final String method) {
+    return _methods.contains(method) && !_interests.contains(method);
+  }
+
+  /**
+   * @return the number of requests answered by the responder.
+   */
+  public long getAnsweredCount() {
+    return _answered.get();
+  }
+
+  /**
+   * Answers the request if it is an out-of-dialog request of a method the
+   * responder is responsible for.
+   * 
+   * @return false if the request must be dispatched to the application.
+   */
+  public boolean respond(final SipServletRequest req) {
+    final String method = req.getMethod();
+    if (!isResponding(method) || !req.isInitial()) {
+      return false;
+    }
+    try {
+      final SipServletResponse res;
+      if ("OPTIONS".equals(method)) {
+        res = req.createResponse(SipServletResponse.SC_OK);
+        if (_accept != null) {
+          res.setHeader("Accept", _accept);
+        }
+        if (_allow != null) {
+          res.setHeader("Allow", _allow);
+        }
+      }
+      else {
+        res = req.createResponse(SipServletResponse.SC_METHOD_NOT_ALLOWED);
+        if (_allow != null) {
+          res.setHeader("Allow", getAllowWithout(method));
+        }
+      }
+      res.send();
+      _answered.incrementAndGet();
+    }
+    catch (final Throwable t) {
+      LOG.warn("Unable to answer " + method + " request.", t);
+    }
+    try {
+      req.getApplicationSession().invalidate();
+    }
+    catch (final Throwable t) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Unable to invalidate the application session of " + method + " request.", t);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the configured Allow header without the given method, a 405 must
+   *         not advertise the method it rejects.
+   */
+  protected String getAllowWithout(final String method) {
+    String allow = _disallowed.get(method);
+    if (allow == null) {
+      final StringBuilder sb = new StringBuilder();
+      for (final String allowed : _allow.split(",")) {
+        final String m = allowed.trim();
+        if (m.length() > 0 && !m.equalsIgnoreCase(method)) {
+          if (sb.length() > 0) {
+            sb.append(", ");
+          }
+          sb.append(m);
+        }
+      }
+      allow = sb.toString();
+      _disallowed.putIfAbsent(method, allow);
+    }
+    return allow;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[methods=" + _methods + ", interests=" + _interests + ", answered="
+        + _answered.get() + "]";
+  }
+}
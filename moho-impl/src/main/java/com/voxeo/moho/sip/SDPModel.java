@@ -0,0 +1,336 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A lightweight, read-only view of an SDP body. It only indexes what the hold,
+ * mute and re-INVITE handling need: the lines of the body, the media
+ * descriptions (m= lines) with their ports, and the direction attributes of
+ * RFC 3264 at session and media level. The body is scanned once, and
+ * {@link #withDirection(Direction)} rewrites the direction of every media
+ * description by copying the other lines of the original bytes.
+ */
+public class SDPModel {
+
+  public enum Direction {
+    SENDRECV("sendrecv"), SENDONLY("sendonly"), RECVONLY("recvonly"), INACTIVE("inactive");
+
+    private final byte[] _line;
+
+    private Direction(final String name) {
+      _line = ascii("a=" + name);
+    }
+
+    /**
+     * @return the direction of the attribute line, or null if it is not a
+     *         direction attribute.
+     */
+    static Direction lookup(final byte[] sdp, final int start, final int end) {
+      for (final Direction direction : values()) {
+        final byte[] line = direction._line;
+        if (end - start == line.length && regionMatches(sdp, start, line)) {
+          return direction;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  private static final byte[] LF = {'\n'};
+
+  private final byte[] _sdp;
+
+  private final byte[] _eol;
+
+  // start and end, without the line terminator, of each non blank line.
+  private final int[] _lineStarts;
+
+  private final int[] _lineEnds;
+
+  // the direction of each line that is a direction attribute, null otherwise.
+  private final Direction[] _lineDirections;
+
+  // the index of the m= line of each media description.
+  private final int[] _mediaLines;
+
+  private final int[] _mediaPorts;
+
+  private final Direction[] _mediaDirections;
+
+  private final Direction _sessionDirection;
+
+  private final byte[][] _rewritten = new byte[Direction.values().length][];
+
+  protected SDPModel(final byte[] sdp) {
+    _sdp = sdp;
+
+    int lines = 0;
+    int medias = 0;
+    boolean crlf = false;
+    for (int start = 0; start < sdp.length;) {
+      final int next = nextLine(sdp, start);
+      final int end = lineEnd(sdp, start, next);
+      if (end > start) {
+        lines++;
+        if (sdp[start] == 'm') {
+          medias++;
+        }
+      }
+      crlf |= next - start >= 2 && sdp[next - 1] == '\n' && sdp[next - 2] == '\r';
+      start = next;
+    }
+    _eol = crlf || lines == 0 ? CRLF : LF;
+
+    _lineStarts = new int[lines];
+    _lineEnds = new int[lines];
+    _lineDirections = new Direction[lines];
+    _mediaLines = new int[medias];
+    _mediaPorts = new int[medias];
+    _mediaDirections = new Direction[medias];
+
+    Direction sessionDirection = null;
+    int line = 0;
+    int media = -1;
+    for (int start = 0; start < sdp.length;) {
+      final int next = nextLine(sdp, start);
+      final int end = lineEnd(sdp, start, next);
+      if (end > start) {
+        _lineStarts[line] = start;
+        _lineEnds[line] = end;
+        if (sdp[start] == 'm') {
+          media++;
+          _mediaLines[media] = line;
+          _mediaPorts[media] = parsePort(sdp, start, end);
+        }
+        else if (sdp[start] == 'a') {
+          final Direction direction = Direction.lookup(sdp, start, end);
+          _lineDirections[line] = direction;
+          if (direction != null) {
+            if (media < 0) {
+              sessionDirection = direction;
+            }
+            else {
+              _mediaDirections[media] = direction;
+            }
+          }
+        }
+        line++;
+      }
+      start = next;
+    }
+    _sessionDirection = sessionDirection;
+  }
+
+  /**
+   * @return the model of the SDP body, or null if there is no body.
+   */
+  public static SDPModel parse(final byte[] sdp) {
+    if (sdp == null || sdp.length == 0) {
+      return null;
+    }
+    return new SDPModel(sdp);
+  }
+
+  /**
+   * @return true if this model was parsed from this very array.
+   */
+  public boolean isParsedFrom(final byte[] sdp) {
+    return _sdp == sdp;
+  }
+
+  public byte[] getBytes() {
+    return _sdp;
+  }
+
+  public int getMediaCount() {
+    return _mediaLines.length;
+  }
+
+  /**
+   * @return the port of the media description, 0 if the stream is rejected or
+   *         disabled.
+   */
+  public int getMediaPort(final int media) {
+    return _mediaPorts[media];
+  }
+
+  /**
+   * @return the direction attribute at session level, or null if there is
+   *         none.
+   */
+  public Direction getSessionDirection() {
+    return _sessionDirection;
+  }
+
+  /**
+   * @return the direction of the media description, taken from its own
+   *         attribute or else from the session level one, or null if neither
+   *         is present.
+   */
+  public Direction getDirection(final int media) {
+    final Direction direction = _mediaDirections[media];
+    return direction != null ? direction : _sessionDirection;
+  }
+
+  /**
+   * @return true if every active media description is sendonly or inactive,
+   *         which is how the remote party puts the call on hold.
+   */
+  public boolean isHold() {
+    boolean active = false;
+    for (int i = 0; i < _mediaLines.length; i++) {
+      if (_mediaPorts[i] == 0) {
+        continue;
+      }
+      final Direction direction = getDirection(i);
+      if (direction != Direction.SENDONLY && direction != Direction.INACTIVE) {
+        return false;
+      }
+      active = true;
+    }
+    return active;
+  }
+
+  /**
+   * @return true if an active media description is explicitly sendrecv,
+   *         which is how the remote party takes the call off hold.
+   */
+  public boolean isResume() {
+    for (int i = 0; i < _mediaLines.length; i++) {
+      if (_mediaPorts[i] != 0 && getDirection(i) == Direction.SENDRECV) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a copy of the body where every media description has the given
+   * direction. The direction attributes at session level are removed, and so
+   * are the ones of the media descriptions they replace. The result is cached
+   * and must not be modified.
+   */
+  public byte[] withDirection(final Direction direction) {
+    byte[] result = _rewritten[direction.ordinal()];
+    if (result == null) {
+      result = rewrite(direction);
+      _rewritten[direction.ordinal()] = result;
+    }
+    return result;
+  }
+
+  private byte[] rewrite(final Direction direction) {
+    final int lines = _lineStarts.length;
+    final int medias = _mediaLines.length;
+    final byte[] attribute = direction._line;
+
+    int size = 0;
+    for (int i = 0; i < lines; i++) {
+      if (_lineDirections[i] == null) {
+        size += _lineEnds[i] - _lineStarts[i] + _eol.length;
+      }
+    }
+    size += Math.max(medias, 1) * (attribute.length + _eol.length);
+
+    final byte[] result = new byte[size];
+    int pos = 0;
+    int media = 0;
+    for (int i = 0; i < lines; i++) {
+      if (media < medias && i == _mediaLines[media] && media > 0) {
+        // end of the previous media description.
+        pos = append(result, pos, attribute, 0, attribute.length);
+      }
+      if (media < medias && i == _mediaLines[media]) {
+        media++;
+      }
+      if (_lineDirections[i] == null) {
+        pos = append(result, pos, _sdp, _lineStarts[i], _lineEnds[i] - _lineStarts[i]);
+      }
+    }
+    // end of the last media description, or of the session if there is none.
+    pos = append(result, pos, attribute, 0, attribute.length);
+    return result;
+  }
+
+  private int append(final byte[] dest, int pos, final byte[] src, final int start, final int length) {
+    System.arraycopy(src, start, dest, pos, length);
+    pos += length;
+    System.arraycopy(_eol, 0, dest, pos, _eol.length);
+    return pos + _eol.length;
+  }
+
+  @Override
+  public String toString() {
+    try {
+      return new String(_sdp, "iso8859-1");
+    }
+    catch (final UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static int nextLine(final byte[] sdp, final int start) {
+    for (int i = start; i < sdp.length; i++) {
+      if (sdp[i] == '\n') {
+        return i + 1;
+      }
+    }
+    return sdp.length;
+  }
+
+  private static int lineEnd(final byte[] sdp, final int start, final int next) {
+    int end = next;
+    while (end > start && (sdp[end - 1] == '\n' || sdp[end - 1] == '\r' || sdp[end - 1] == ' ')) {
+      end--;
+    }
+    return end;
+  }
+
+  // m=<media> <port>[/<number of ports>] <proto> <fmt> ...
+  private static int parsePort(final byte[] sdp, final int start, final int end) {
+    int i = start;
+    while (i < end && sdp[i] != ' ') {
+      i++;
+    }
+    i++;
+    int port = 0;
+    while (i < end && sdp[i] >= '0' && sdp[i] <= '9') {
+      port = port * 10 + sdp[i] - '0';
+      i++;
+    }
+    return port;
+  }
+
+  private static boolean regionMatches(final byte[] sdp, final int start, final byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      if (sdp[start + i] != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] ascii(final String s) {
+    final byte[] bytes = new byte[s.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) s.charAt(i);
+    }
+    return bytes;
+  }
+}
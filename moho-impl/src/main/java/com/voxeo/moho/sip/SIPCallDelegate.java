@@ -15,20 +15,14 @@
 package com.voxeo.moho.sip;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.util.Map;
 
 import javax.media.mscontrol.MsControlException;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
-import javax.sdp.MediaDescription;
 import javax.sdp.SdpException;
-import javax.sdp.SdpFactory;
-import javax.sdp.SessionDescription;
 import javax.servlet.sip.SipServletRequest;
 import javax.servlet.sip.SipServletResponse;
 
-import com.voxeo.moho.ExecutionContext;
-
 public abstract class SIPCallDelegate {
 
   protected static final String SIPCALL_HOLD_REQUEST = "SIPCALL_HOLD_REQUEST";
@@ -71,51 +65,22 @@ public abstract class SIPCallDelegate {
     throw new UnsupportedOperationException();
   }
 
-  protected SessionDescription createSendonlySDP(final SIPCallImpl call, final byte[] sdpByte)
-      throws UnsupportedEncodingException, SdpException {
-    SdpFactory sdpFactory = ((ExecutionContext) call.getApplicationContext()).getSdpFactory();
-    SessionDescription sd = sdpFactory.createSessionDescription(new String(sdpByte, "iso8859-1"));
-
-    sd.removeAttribute("sendrecv");
-    sd.removeAttribute("recvonly");
-
-    MediaDescription md = ((MediaDescription) sd.getMediaDescriptions(false).get(0));
-    md.removeAttribute("sendrecv");
-    md.removeAttribute("recvonly");
-    md.setAttribute("sendonly", null);
-
-    return sd;
+  protected byte[] createSendonlySDP(final SDPModel sdp) throws SdpException {
+    return withDirection(sdp, SDPModel.Direction.SENDONLY);
   }
 
-  protected SessionDescription createSendrecvSDP(final SIPCallImpl call, final byte[] sdpByte)
-      throws UnsupportedEncodingException, SdpException {
-    SessionDescription sd = ((ExecutionContext) call.getApplicationContext()).getSdpFactory().createSessionDescription(
-        new String(sdpByte, "iso8859-1"));
-
-    sd.removeAttribute("sendonly");
-    sd.removeAttribute("recvonly");
-
-    MediaDescription md = ((MediaDescription) sd.getMediaDescriptions(false).get(0));
-    md.removeAttribute("sendonly");
-    md.removeAttribute("recvonly");
-    md.setAttribute("sendrecv", null);
-
-    return sd;
+  protected byte[] createSendrecvSDP(final SDPModel sdp) throws SdpException {
+    return withDirection(sdp, SDPModel.Direction.SENDRECV);
   }
 
-  protected SessionDescription createRecvonlySDP(final SIPCallImpl call, final byte[] sdpByte)
-      throws UnsupportedEncodingException, SdpException {
-    SdpFactory sdpFactory = ((ExecutionContext) call.getApplicationContext()).getSdpFactory();
-    SessionDescription sd = sdpFactory.createSessionDescription(new String(sdpByte, "iso8859-1"));
-
-    sd.removeAttribute("sendrecv");
-    sd.removeAttribute("sendonly");
-
-    MediaDescription md = ((MediaDescription) sd.getMediaDescriptions(false).get(0));
-    md.removeAttribute("sendrecv");
-    md.removeAttribute("sendonly");
-    md.setAttribute("recvonly", null);
+  protected byte[] createRecvonlySDP(final SDPModel sdp) throws SdpException {
+    return withDirection(sdp, SDPModel.Direction.RECVONLY);
+  }
 
-    return sd;
+  private byte[] withDirection(final SDPModel sdp, final SDPModel.Direction direction) throws SdpException {
+    if (sdp == null) {
+      throw new SdpException("No SDP to make " + direction.name().toLowerCase());
+    }
+    return sdp.withDirection(direction);
   }
 }
@@ -16,6 +16,7 @@ package com.voxeo.moho.sip;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.media.mscontrol.MsControlException;
 import javax.sdp.SdpException;
@@ -24,35 +25,31 @@ import javax.servlet.sip.SipServletResponse;
 
 import org.apache.log4j.Logger;
 
+import com.voxeo.moho.ExecutionContext;
 import com.voxeo.moho.sip.SIPCallImpl.HoldState;
 
 public class SIPCallDirectDelegate extends SIPCallDelegate {
 
   private static final Logger LOG = Logger.getLogger(SIPCallMediaDelegate.class);
 
-  private static final String REINVITE_PEER_RES = "com.voxeo.moho.reinvite-peer-res";
+  private final SIPDirectForwarder _forwarder;
 
-  protected SIPCallDirectDelegate() {
+  protected SIPCallDirectDelegate(final SIPCallImpl call1, final SIPCallImpl call2) {
     super();
+    _forwarder = new SIPDirectForwarder(call1, call2);
   }
 
   @Override
   protected void handleAck(final SIPCallImpl call, final SipServletRequest req) throws Exception {
-    final SipServletResponse res = (SipServletResponse) req.getSession().getAttribute(REINVITE_PEER_RES);
-    final SipServletRequest newReq = res.createAck();
-    SIPHelper.copyContent(req, newReq);
-    newReq.send();
+    if (!_forwarder.forwardAck(call, req)) {
+      LOG.warn("No response to acknowledge for " + req);
+    }
   }
 
   @Override
   protected void handleReinvite(final SIPCallImpl call, final SipServletRequest req, final Map<String, String> headers)
       throws Exception {
-    final SIPCallImpl peer = (SIPCallImpl) call.getLastPeer();
-    final SipServletRequest newReq = peer.getSipSession().createRequest(req.getMethod());
-    SIPHelper.addHeaders(newReq, headers);
-    SIPHelper.copyContent(req, newReq);
-    SIPHelper.linkSIPMessage(req, newReq);
-    newReq.send();
+    _forwarder.forwardRequest(call, req, headers);
   }
 
   @Override
@@ -83,8 +80,8 @@ public class SIPCallDirectDelegate extends SIPCallDelegate {
         call.setDeafState(HoldState.None);
         call.fail();
       }
-      finally {
-        call.notify();
+      if (res.getRequest().getAttribute(SIPCallDelegate.SIPCALL_DEAF_REQUEST) != null) {
+        peerDeafProgressed(call);
       }
     }
     else if (res.getRequest().getAttribute(SIPCallDelegate.SIPCALL_MUTE_REQUEST) != null
@@ -93,64 +90,30 @@ public class SIPCallDirectDelegate extends SIPCallDelegate {
       try {
         res.createAck().send();
 
-        // send the received SDP to peer.
-        final SIPCallImpl peer = (SIPCallImpl) call.getLastPeer();
-        synchronized (peer) {
-          if (call.getMuteState() == HoldState.Muting) {
-            peer.setDeafState(HoldState.Deafing);
-          }
-          else {
-            peer.setDeafState(HoldState.Undeafing);
-          }
-
-          SipServletRequest reInvite = peer.getSipSession().createRequest("INVITE");
-          reInvite.setAttribute(SIPCallDelegate.SIPCALL_DEAF_REQUEST, "true");
-          reInvite.setContent(res.getRawContent(), "application/sdp");
-          reInvite.send();
-
-          while (peer.getDeafState() != HoldState.Deafed && peer.getDeafState() != HoldState.None) {
-            try {
-              peer.wait();
-            }
-            catch (InterruptedException e) {
-              LOG.warn("InterruptedException when wait make peer deaf, the peer's DeafState " + peer.getDeafState());
-            }
-          }
-
-          // set call deaf state
-          if (call.getMuteState() == HoldState.Muting) {
-            peer.setDeafState(HoldState.Deafed);
-            call.setMuteState(HoldState.Muted);
-          }
-          else if (call.getMuteState() == HoldState.UnMuting) {
-            peer.setDeafState(HoldState.None);
-            call.setMuteState(HoldState.None);
-          }
+        // send the received SDP to peer, the mute completes when the peer
+        // answers, in peerDeafProgressed.
+        final SIPCallImpl peer = _forwarder.getPeer(call);
+        if (call.getMuteState() == HoldState.Muting) {
+          peer.setDeafState(HoldState.Deafing);
+        }
+        else {
+          peer.setDeafState(HoldState.Undeafing);
         }
+
+        SipServletRequest reInvite = peer.getSipSession().createRequest("INVITE");
+        reInvite.setAttribute(SIPCallDelegate.SIPCALL_DEAF_REQUEST, "true");
+        reInvite.setContent(res.getRawContent(), "application/sdp");
+        reInvite.send();
       }
       catch (IOException e1) {
         LOG.error("IOException", e1);
         call.setMuteState(HoldState.None);
         call.fail();
       }
-      finally {
-        call.notify();
-      }
     }
     else {
       try {
-        final SipServletRequest req = res.getRequest();
-        final SipServletRequest newReq = (SipServletRequest) SIPHelper.getLinkSIPMessage(req);
-        if (newReq != null) {
-          SIPHelper.unlinkSIPMessage(req);
-          final SipServletResponse newRes = newReq.createResponse(res.getStatus(), res.getReasonPhrase());
-          SIPHelper.addHeaders(newRes, headers);
-          SIPHelper.copyContent(res, newRes);
-          if (SIPHelper.isReinvite(newRes)) {
-            newRes.getSession().setAttribute(REINVITE_PEER_RES, res);
-          }
-          newRes.send();
-        }
+        _forwarder.forwardResponse(call, res, headers);
       }
       catch (final Exception e) {
         LOG.warn("", e);
@@ -159,47 +122,75 @@ public class SIPCallDirectDelegate extends SIPCallDelegate {
     }
   }
 
+  /**
+   * Completes the mute or unmute of the peer of the call, once the call has
+   * answered the re-INVITE that makes it deaf. The peer is completed on the
+   * executor, this thread holds the call and must not lock the peer.
+   */
+  private void peerDeafProgressed(final SIPCallImpl call) {
+    final SIPCallImpl peer = _forwarder.getPeer(call);
+    final Runnable complete = new Runnable() {
+      @Override
+      public void run() {
+        if (peer.getMuteState() == HoldState.Muting) {
+          call.setDeafState(HoldState.Deafed);
+          peer.setMuteState(HoldState.Muted);
+        }
+        else if (peer.getMuteState() == HoldState.UnMuting) {
+          call.setDeafState(HoldState.None);
+          peer.setMuteState(HoldState.None);
+        }
+      }
+    };
+    try {
+      ((ExecutionContext) peer.getApplicationContext()).getExecutor().execute(complete);
+    }
+    catch (final RejectedExecutionException e) {
+      complete.run();
+    }
+  }
+
   @Override
   protected void hold(SIPCallImpl call, boolean send) throws MsControlException, IOException, SdpException {
-    final SIPCallImpl peer = (SIPCallImpl) call.getLastPeer();
+    final SIPCallImpl peer = _forwarder.getPeer(call);
 
     SipServletRequest reInvite = call.getSipSession().createRequest("INVITE");
     reInvite.setAttribute(SIPCallDelegate.SIPCALL_HOLD_REQUEST, "true");
-    reInvite.setContent(createSendonlySDP(call, peer.getRemoteSdp()), "application/sdp");
+    reInvite.setContent(createSendonlySDP(peer.getRemoteSDPModel()), "application/sdp");
     reInvite.send();
 
-    peer.hold();
+    peer.holdAsync();
   }
 
   @Override
   protected void mute(SIPCallImpl call) throws IOException, SdpException {
-    final SIPCallImpl peer = (SIPCallImpl) call.getLastPeer();
+    final SIPCallImpl peer = _forwarder.getPeer(call);
 
     SipServletRequest reInvite = call.getSipSession().createRequest("INVITE");
     reInvite.setAttribute(SIPCallDelegate.SIPCALL_MUTE_REQUEST, "true");
-    reInvite.setContent(createSendonlySDP(call, peer.getRemoteSdp()), "application/sdp");
+    reInvite.setContent(createSendonlySDP(peer.getRemoteSDPModel()), "application/sdp");
     reInvite.send();
   }
 
   @Override
   protected void unhold(SIPCallImpl call) throws MsControlException, IOException, SdpException {
-    final SIPCallImpl peer = (SIPCallImpl) call.getLastPeer();
+    final SIPCallImpl peer = _forwarder.getPeer(call);
 
     SipServletRequest reInvite = call.getSipSession().createRequest("INVITE");
     reInvite.setAttribute(SIPCallDelegate.SIPCALL_UNHOLD_REQUEST, "true");
-    reInvite.setContent(createSendrecvSDP(call, peer.getRemoteSdp()), "application/sdp");
+    reInvite.setContent(createSendrecvSDP(peer.getRemoteSDPModel()), "application/sdp");
     reInvite.send();
 
-    peer.unhold();
+    peer.unholdAsync();
   }
 
   @Override
   protected void unmute(SIPCallImpl call) throws IOException, SdpException {
-    final SIPCallImpl peer = (SIPCallImpl) call.getLastPeer();
+    final SIPCallImpl peer = _forwarder.getPeer(call);
 
     SipServletRequest reInvite = call.getSipSession().createRequest("INVITE");
     reInvite.setAttribute(SIPCallDelegate.SIPCALL_UNMUTE_REQUEST, "true");
-    reInvite.setContent(createSendrecvSDP(call, peer.getRemoteSdp()), "application/sdp");
+    reInvite.setContent(createSendrecvSDP(peer.getRemoteSDPModel()), "application/sdp");
     reInvite.send();
   }
 }
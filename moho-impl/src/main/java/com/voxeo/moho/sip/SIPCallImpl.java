@@ -13,9 +13,13 @@ package com.voxeo.moho.sip;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -29,6 +33,7 @@ import javax.media.mscontrol.join.Joinable;
 import javax.media.mscontrol.join.JoinableStream;
 import javax.media.mscontrol.join.Joinable.Direction;
 import javax.media.mscontrol.join.JoinableStream.StreamType;
+import javax.media.mscontrol.mediagroup.MediaGroup;
 import javax.media.mscontrol.networkconnection.NetworkConnection;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
 import javax.sdp.SdpException;
@@ -43,12 +48,14 @@ import org.apache.log4j.Logger;
 import com.voxeo.moho.ApplicationContextImpl;
 import com.voxeo.moho.BusyException;
 import com.voxeo.moho.Call;
+import com.voxeo.moho.CallOperation;
+import com.voxeo.moho.CallOperationImpl;
 import com.voxeo.moho.CallableEndpoint;
 import com.voxeo.moho.CanceledException;
+import com.voxeo.moho.CompletionListener;
 import com.voxeo.moho.DisconnectedException;
 import com.voxeo.moho.Endpoint;
 import com.voxeo.moho.ExecutionContext;
-import com.voxeo.moho.JoinWorker;
 import com.voxeo.moho.JoineeData;
 import com.voxeo.moho.Joint;
 import com.voxeo.moho.JointImpl;
@@ -68,6 +75,8 @@ import com.voxeo.moho.event.ForwardableEvent;
 import com.voxeo.moho.event.JoinCompleteEvent;
 import com.voxeo.moho.event.SignalEvent;
 import com.voxeo.moho.event.JoinCompleteEvent.Cause;
+import com.voxeo.moho.media.GenericMediaServiceFactory;
+import com.voxeo.moho.media.MediaResourcePool;
 import com.voxeo.moho.util.SessionUtils;
 import com.voxeo.utils.Event;
 import com.voxeo.utils.EventListener;
@@ -77,11 +86,14 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
 
   private static final Logger LOG = Logger.getLogger(SIPCallImpl.class);
 
-  protected SIPCall.State _cstate;
+  // the call state is read far more often than it changes, and is read by
+  // application threads while SIP threads hold the call, so it is not guarded
+  // by the call monitor. Compound operations still synchronize on the call.
+  protected final AtomicReference<SIPCall.State> _cstate = new AtomicReference<SIPCall.State>();
 
   protected boolean _isSupervised;
 
-  protected SIPEndpoint _address;
+  protected volatile SIPEndpoint _address;
 
   protected SipServletRequest _invite;
 
@@ -89,14 +101,23 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
 
   protected byte[] _localSDP;
 
+  // parsed on first use, and again once the SDP they were parsed from is
+  // replaced.
+  protected volatile SDPModel _remoteSDPModel;
+
+  protected volatile SDPModel _localSDPModel;
+
   protected SipSession _signal;
 
   protected MediaSession _media;
 
-  protected NetworkConnection _network;
+  protected volatile NetworkConnection _network;
 
   protected MediaService _service;
 
+  // the pooled media resources of the call, if the application has a pool.
+  protected MediaResourcePool.Resources _mediaResources;
+
   protected JoinDelegate _joinDelegate;
 
   protected SIPCallDelegate _callDelegate;
@@ -141,14 +162,14 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
     _signal = req.getSession();
     _address = new SIPEndpointImpl((ApplicationContextImpl) getApplicationContext(), _signal.getRemoteParty());
     SessionUtils.setEventSource(_signal, this);
+    _cstate.set(SIPCall.State.INVITING);
     context.addCall(this);
-    _cstate = SIPCall.State.INVITING;
   }
 
   protected SIPCallImpl(final ExecutionContext context) {
     super(context);
+    _cstate.set(SIPCall.State.INITIALIZED);
     context.addCall(this);
-    _cstate = SIPCall.State.INITIALIZED;
   }
 
   @Override
@@ -170,7 +191,7 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
   @Override
   public String toString() {
     return new StringBuilder().append(SIPCallImpl.class.getSimpleName()).append("[").append(_signal).append(",")
-        .append(_cstate).append("]").toString();
+        .append(_cstate.get()).append("]").toString();
   }
 
   public String useReplacesHeader() {
@@ -181,7 +202,7 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
 
   @Override
   public Call.State getCallState() {
-    switch (_cstate) {
+    switch (_cstate.get()) {
       case INITIALIZED:
         return Call.State.INITIALIZED;
       case PROGRESSING:
@@ -201,47 +222,70 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
     return null;
   }
 
-  public synchronized SIPCall.State getSIPCallState() {
-    return _cstate;
+  public SIPCall.State getSIPCallState() {
+    return _cstate.get();
   }
 
   @Override
-  public synchronized MediaService getMediaService(final boolean reinvite) throws IllegalStateException, MediaException {
-    if (getSIPCallState() != SIPCall.State.ANSWERED && getSIPCallState() != SIPCall.State.PROGRESSED) {
-      throw new IllegalStateException();
-    }
-    if (_network == null) {
-      if (reinvite) {
-        try {
-          this.join().get();
+  public MediaService getMediaService(final boolean reinvite) throws IllegalStateException, MediaException {
+    Joint joint = null;
+    synchronized (this) {
+      if (getSIPCallState() != SIPCall.State.ANSWERED && getSIPCallState() != SIPCall.State.PROGRESSED) {
+        throw new IllegalStateException();
+      }
+      if (_network == null) {
+        if (reinvite) {
+          joint = this.join();
         }
-        catch (final Exception e) {
-          throw new MediaException(e);
+        else {
+          throw new IllegalStateException("the call is Direct mode but reinvite is false");
         }
       }
-      else {
-        throw new IllegalStateException("the call is Direct mode but reinvite is false");
+    }
+    // waits without holding the call, the join completes on its SIP messages.
+    if (joint != null) {
+      try {
+        joint.get();
+      }
+      catch (final Exception e) {
+        throw new MediaException(e);
       }
     }
+    return createMediaService(reinvite);
+  }
 
+  protected synchronized MediaService createMediaService(final boolean reinvite) throws MediaException {
     try {
       Direction direction = Direction.DUPLEX;
       if (_joinees.getJoinees().length > 0) {
         direction = Direction.RECV;
       }
       if (_service == null) {
-        Parameters params = null;
-        if (getSipSession() != null) {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Set mg id with call id :" + getSipSession().getCallId());
+        final MediaGroup group = _mediaResources != null
+            && _context.getMediaServiceFactory() instanceof GenericMediaServiceFactory ? _mediaResources
+            .takeMediaGroup() : null;
+        if (group != null) {
+          _service = ((GenericMediaServiceFactory) _context.getMediaServiceFactory()).create(this, group);
+        }
+        else {
+          Parameters params = null;
+          if (_mediaResources != null) {
+            // the media group is created on the pooled session, which can not
+            // be handed to another call afterwards. Its parameters are left
+            // alone for the same reason.
+            _mediaResources.discard();
           }
+          else if (getSipSession() != null) {
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Set mg id with call id :" + getSipSession().getCallId());
+            }
 
-          params = _media.createParameters();
-          params.put(MediaObject.MEDIAOBJECT_ID, "MG-" + getSipSession().getCallId());
-          _media.setParameters(params);
+            params = _media.createParameters();
+            params.put(MediaObject.MEDIAOBJECT_ID, "MG-" + getSipSession().getCallId());
+            _media.setParameters(params);
+          }
+          _service = _context.getMediaServiceFactory().create(this, _media, params);
         }
-
-        _service = _context.getMediaServiceFactory().create(this, _media, params);
         _service.getMediaGroup().join(direction, _network);
       }
       else if (reinvite) {
@@ -296,7 +340,7 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
   }
 
   @Override
-  public synchronized Endpoint getAddress() {
+  public Endpoint getAddress() {
     return _address;
   }
 
@@ -312,7 +356,7 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
     return _signal;
   }
 
-  public synchronized MediaObject getMediaObject() {
+  public MediaObject getMediaObject() {
     return _network;
   }
 
@@ -413,93 +457,114 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
   @Override
   public Joint join(final Direction direction) {
     checkState();
-    return new JointImpl(_context.getExecutor(), new JoinWorker() {
+    final JoinOperation operation = new JoinOperation(null);
+    _context.getExecutor().execute(new Runnable() {
       @Override
-      public JoinCompleteEvent call() throws Exception {
-        JoinCompleteEvent event = null;
-        try {
-          doJoin(direction);
-          event = new JoinCompleteEvent(SIPCallImpl.this, null, Cause.JOINED);
-        }
-        catch (final Exception e) {
-          event = handleJoinException(e);
-          throw e;
-        }
-        finally {
-          if (event.getCause() != Cause.JOINED) {
-            SIPCallImpl.this.disconnect(true);
-          }
-          SIPCallImpl.this.dispatch(event);
-          if (isTerminated()) {
-            SIPCallImpl.this.dispatch(new CallCompleteEvent(SIPCallImpl.this));
-          }
-        }
-        return event;
-      }
-
-      @Override
-      public boolean cancel() {
-        return false;
+      public void run() {
+        doJoin(direction, true, operation);
       }
     });
+    return operation.getJoint();
   }
 
   /**
    * this is special method used only by BridgeJoinDelegate.
    * 
    * @param direction
-   * @return
+   * @param completion
+   *          called when the call is joined to the media server, or failed to.
    */
-  protected void joinWithoutCheckOperation(final Direction direction) throws Exception {
+  protected void joinWithoutCheckOperation(final Direction direction, final JoinDelegate.Completion completion) {
     checkState();
-    doJoinWithoutCheckOperation(direction);
+    doJoin(direction, false, completion);
   }
 
   @Override
   public Joint join(final Participant other, final JoinType type, final Direction direction) {
     checkState();
-
-    return new JointImpl(_context.getExecutor(), new JoinWorker() {
+    final JoinOperation operation = new JoinOperation(other);
+    _context.getExecutor().execute(new Runnable() {
       @Override
-      public JoinCompleteEvent call() throws Exception {
-        JoinCompleteEvent event = null;
-        try {
-          if (other instanceof SIPCallImpl) {
-            doJoin((SIPCallImpl) other, type, direction);
-          }
-          else {
-            doJoin(other, type, direction);
-          }
-          event = new JoinCompleteEvent(SIPCallImpl.this, other, Cause.JOINED);
+      public void run() {
+        if (other instanceof SIPCallImpl) {
+          doJoin((SIPCallImpl) other, type, direction, operation);
         }
-        catch (final Exception e) {
-          event = handleJoinException(e);
-          throw e;
+        else {
+          doJoin(other, type, direction, operation);
         }
-        finally {
-          if (event.getCause() != Cause.JOINED) {
-            ((SIPCallImpl) other).disconnect(true);
-          }
-          SIPCallImpl.this.dispatch(event);
-          if (isTerminated()) {
-            SIPCallImpl.this.dispatch(new CallCompleteEvent(SIPCallImpl.this));
-          }
-          // other.dispatch(event);
+      }
+    });
+    return operation.getJoint();
+  }
+
+  /**
+   * The join of this call to a participant. The join is started on a pool
+   * thread, and then driven by the join delegate on the SIP and SDP events of
+   * the calls, so no thread waits for the remote party. The Joint completes
+   * when the delegate is done.
+   */
+  protected class JoinOperation implements JointImpl.Canceller, JoinDelegate.Completion {
+
+    protected final Participant _other;
+
+    protected final JointImpl _joint;
+
+    protected JoinOperation(final Participant other) {
+      _other = other;
+      _joint = new JointImpl(this);
+    }
+
+    protected Joint getJoint() {
+      return _joint;
+    }
+
+    @Override
+    public boolean cancel() {
+      synchronized (SIPCallImpl.this) {
+        if (_joinDelegate != null) {
+          _joinDelegate.done();
+          return true;
         }
-        return event;
+        return false;
       }
+    }
 
-      @Override
-      public boolean cancel() {
-        synchronized (SIPCallImpl.this) {
-          if (_joinDelegate != null) {
-            _joinDelegate.done();
-            return true;
+    @Override
+    public void joinDone(final Exception e) {
+      final JoinCompleteEvent event = e == null ? new JoinCompleteEvent(SIPCallImpl.this, _other, Cause.JOINED)
+          : handleJoinException(e);
+      if (event.getCause() != Cause.JOINED) {
+        if (_other == null) {
+          SIPCallImpl.this.disconnect(true);
+        }
+        else if (_other instanceof SIPCallImpl) {
+          ((SIPCallImpl) _other).disconnect(true);
+        }
+      }
+      SIPCallImpl.this.dispatch(event);
+      if (isTerminated()) {
+        SIPCallImpl.this.dispatch(new CallCompleteEvent(SIPCallImpl.this));
+      }
+      // the listeners of the Joint are application code, they do not run on
+      // the SIP thread that ended the join.
+      final Runnable complete = new Runnable() {
+        @Override
+        public void run() {
+          if (e == null) {
+            _joint.complete(event);
+          }
+          else {
+            _joint.fail(e);
           }
-          return false;
         }
+      };
+      try {
+        _context.getExecutor().execute(complete);
       }
-    });
+      catch (final RejectedExecutionException ex) {
+        complete.run();
+      }
+    }
   }
 
   public synchronized void onEvent(final SdpPortManagerEvent event) {
@@ -539,8 +604,9 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
     if (_joinDelegate != null) {
       _joinDelegate.setException(new DisconnectedException());
     }
-    this.setSIPCallState(State.DISCONNECTED);
-    terminate();
+    if (terminateState(State.DISCONNECTED) != null) {
+      terminate();
+    }
   }
 
   protected synchronized void doAck(final SipServletRequest req) throws Exception {
@@ -626,18 +692,67 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
     }
   }
 
-  protected synchronized void setSIPCallState(final SIPCall.State state) {
-    _cstate = state;
+  /**
+   * Moves the call to the given state unless it is already terminated. The
+   * state is not guarded by the call monitor, so a transition racing a BYE or
+   * a failure on another thread must never undo the termination.
+   * 
+   * @return false if the call was already terminated and was left as it is.
+   */
+  protected boolean setSIPCallState(final SIPCall.State state) {
+    if (isTerminated(state)) {
+      return terminateState(state) != null;
+    }
+    while (true) {
+      final SIPCall.State old = _cstate.get();
+      if (isTerminated(old)) {
+        return false;
+      }
+      if (_cstate.compareAndSet(old, state)) {
+        updateRegistry();
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Moves the call to a terminated state unless it is already terminated, so
+   * that exactly one caller goes on to terminate the call.
+   * 
+   * @return the state before the transition, or null if the call was already
+   *         terminated.
+   */
+  protected SIPCall.State terminateState(final SIPCall.State terminated) {
+    while (true) {
+      final SIPCall.State old = _cstate.get();
+      if (isTerminated(old)) {
+        return null;
+      }
+      if (_cstate.compareAndSet(old, terminated)) {
+        updateRegistry();
+        return old;
+      }
+    }
+  }
+
+  /**
+   * Brings the indexes of the call registry up to date with the state and the
+   * SIP session of this call.
+   */
+  protected void updateRegistry() {
+    if (_context instanceof ApplicationContextImpl) {
+      ((ApplicationContextImpl) _context).updateCall(this);
+    }
   }
 
-  protected synchronized void checkState() {
+  protected void checkState() {
     if (isTerminated()) {
       throw new IllegalStateException("...");
     }
   }
 
-  protected synchronized boolean isNoAnswered() {
-    return isNoAnswered(_cstate);
+  protected boolean isNoAnswered() {
+    return isNoAnswered(_cstate.get());
   }
 
   protected boolean isNoAnswered(final SIPCall.State state) {
@@ -645,16 +760,20 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
         || state == SIPCall.State.ANSWERING || state == SIPCall.State.PROGRESSING || state == SIPCall.State.PROGRESSED;
   }
 
-  protected synchronized boolean isAnswered() {
-    return isAnswered(_cstate);
+  protected boolean isAnswered() {
+    return isAnswered(_cstate.get());
   }
 
   protected boolean isAnswered(final SIPCall.State state) {
     return state == SIPCall.State.ANSWERED;
   }
 
-  protected synchronized boolean isTerminated() {
-    return _cstate == SIPCall.State.FAILED || _cstate == SIPCall.State.DISCONNECTED;
+  protected boolean isTerminated() {
+    return isTerminated(_cstate.get());
+  }
+
+  protected boolean isTerminated(final SIPCall.State state) {
+    return state == SIPCall.State.FAILED || state == SIPCall.State.DISCONNECTED;
   }
 
   protected void fail() {
@@ -662,19 +781,13 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
   }
 
   protected synchronized void disconnect(final boolean failed) {
-    if (isTerminated()) {
+    final SIPCall.State old = terminateState(failed ? State.FAILED : State.DISCONNECTED);
+    if (old == null) {
       if (LOG.isTraceEnabled()) {
         LOG.trace(this + " is already terminated.");
       }
       return;
     }
-    final SIPCall.State old = getSIPCallState();
-    if (failed) {
-      this.setSIPCallState(State.FAILED);
-    }
-    else {
-      this.setSIPCallState(State.DISCONNECTED);
-    }
     terminate();
     if (isNoAnswered(old)) {
       try {
@@ -717,21 +830,21 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
       }
       _peers.clear();
     }
-    if (_joinDelegate != null && _joinDelegate.getCondition() != null) {
+    if (_joinDelegate != null) {
       if (LOG.isDebugEnabled()) {
-        LOG.debug("terminating call. Notifying joinDelegate conditaion. callID:"
+        LOG.debug("terminating call. Ending joinDelegate. callID:"
             + (getSipSession() != null ? getSipSession().getCallId() : ""));
       }
-      _joinDelegate.getCondition().notifyAll();
+      _joinDelegate.done();
     }
     else {
       if (LOG.isDebugEnabled()) {
-        LOG.debug("terminating call. Notifying this. callID:"
+        LOG.debug("terminating call. Dispatching CallCompleteEvent. callID:"
             + (getSipSession() != null ? getSipSession().getCallId() : ""));
       }
-      this.notifyAll();
       this.dispatch(new CallCompleteEvent(this));
     }
+    failHoldRequests();
     _callDelegate = null;
 
   }
@@ -756,6 +869,32 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
     _localSDP = sdp;
   }
 
+  /**
+   * @return the model of the remote SDP, or null if there is none.
+   */
+  protected SDPModel getRemoteSDPModel() {
+    final byte[] sdp = _remoteSDP;
+    SDPModel model = _remoteSDPModel;
+    if (model == null || !model.isParsedFrom(sdp)) {
+      model = SDPModel.parse(sdp);
+      _remoteSDPModel = model;
+    }
+    return model;
+  }
+
+  /**
+   * @return the model of the local SDP, or null if there is none.
+   */
+  protected SDPModel getLocalSDPModel() {
+    final byte[] sdp = _localSDP;
+    SDPModel model = _localSDPModel;
+    if (model == null || !model.isParsedFrom(sdp)) {
+      model = SDPModel.parse(sdp);
+      _localSDPModel = model;
+    }
+    return model;
+  }
+
   protected void addPeer(final Call call, final JoinType type, final Direction direction) {
     synchronized (_peers) {
       if (!_peers.contains(call)) {
@@ -819,6 +958,16 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
   }
 
   protected synchronized void createNetworkConnection() throws MsControlException {
+    if (_media == null && _network == null && _context instanceof ApplicationContextImpl) {
+      final MediaResourcePool pool = ((ApplicationContextImpl) _context).getMediaResourcePool();
+      if (pool != null) {
+        _mediaResources = pool.acquire();
+        _media = _mediaResources.getMediaSession();
+        _network = _mediaResources.getNetworkConnection();
+        _network.getSdpPortManager().addListener(this);
+        return;
+      }
+    }
     if (_media == null) {
       final MsControlFactory mf = _context.getMSFactory();
 
@@ -855,6 +1004,14 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
     if (LOG.isDebugEnabled()) {
       LOG.debug("destroyNetworkConnection");
     }
+    if (_mediaResources != null) {
+      final MediaResourcePool.Resources resources = _mediaResources;
+      _mediaResources = null;
+      _network = null;
+      _media = null;
+      ((ApplicationContextImpl) _context).getMediaResourcePool().recycle(resources);
+      return;
+    }
     if (_network != null) {
       try {
         _network.release();
@@ -930,169 +1087,187 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
     _callDelegate = delegate;
   }
 
-  protected synchronized void doJoin(final Direction direction) throws Exception {
-    if (_operationInProcess) {
-      throw new IllegalStateException("other operation in process.");
-    }
-    _operationInProcess = true;
-
-    try {
-      _joinDelegate = createJoinDelegate(direction);
-      _joinDelegate.setCondition(this);
-      _joinDelegate.setWaiting(true);
-      _joinDelegate.doJoin();
-      while (!this.isTerminated() && _joinDelegate.isWaiting()) {
-        try {
-          if (LOG.isDebugEnabled()) {
-            LOG
-                .debug("Start wait joinDelegate. CallID:"
-                    + (getSipSession() != null ? getSipSession().getCallId() : ""));
-          }
-
-          this.wait(1000 * 30);
-        }
-        catch (final InterruptedException e) {
-          // ignore
-        }
-      }
-      if (_joinDelegate != null) {
-        if (_joinDelegate.getException() != null) {
-          final Exception e = _joinDelegate.getException();
-          _joinDelegate.setException(null);
-          throw e;
-        }
-        if (_joinDelegate.getError() != null) {
-          final Exception e = _joinDelegate.getError();
-          _joinDelegate.setError(null);
-          throw e;
-        }
-      }
-      if (!this.isAnswered()) {
-        throw new IllegalStateException(this + " is no answered.");
-      }
-      _callDelegate = new SIPCallMediaDelegate();
-    }
-    finally {
-      _joinDelegate = null;
-      _operationInProcess = false;
-    }
-  }
-
   /**
-   * this is special method used only by BridgeJoinDelegate.
+   * Starts joining this call to the media server and returns. The completion
+   * is called when the join delegate is done.
    * 
-   * @param direction
-   * @throws Exception
+   * @param checkOperation
+   *          false only for the joins BridgeJoinDelegate runs as part of its
+   *          own operation.
    */
-  protected synchronized void doJoinWithoutCheckOperation(final Direction direction) throws Exception {
+  protected synchronized void doJoin(final Direction direction, final boolean checkOperation,
+      final JoinDelegate.Completion completion) {
+    if (checkOperation) {
+      if (_operationInProcess) {
+        completion.joinDone(new IllegalStateException("other operation in process."));
+        return;
+      }
+      _operationInProcess = true;
+    }
+    final JoinDelegate previous = _joinDelegate;
+    final JoinDelegate delegate;
     try {
-      _joinDelegate = createJoinDelegate(direction);
-      _joinDelegate.setCondition(this);
-      _joinDelegate.setWaiting(true);
-      _joinDelegate.doJoin();
-      while (!this.isTerminated() && _joinDelegate.isWaiting()) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          // ignore
-        }
+      delegate = createJoinDelegate(direction);
+    }
+    catch (final RuntimeException e) {
+      if (checkOperation) {
+        _operationInProcess = false;
       }
-      if (_joinDelegate != null) {
-        if (_joinDelegate.getException() != null) {
-          final Exception e = _joinDelegate.getException();
-          _joinDelegate.setException(null);
-          throw e;
-        }
-        if (_joinDelegate.getError() != null) {
-          final Exception e = _joinDelegate.getError();
-          _joinDelegate.setError(null);
-          throw e;
+      completion.joinDone(e);
+      return;
+    }
+    delegate.setDoneCallback(new Runnable() {
+      @Override
+      public void run() {
+        Exception e = null;
+        synchronized (SIPCallImpl.this) {
+          e = delegate.getFailure();
+          if (e == null && !isAnswered()) {
+            e = new IllegalStateException(SIPCallImpl.this + " is no answered.");
+          }
+          if (e == null) {
+            _callDelegate = new SIPCallMediaDelegate();
+          }
+          _joinDelegate = previous;
+          if (checkOperation) {
+            _operationInProcess = false;
+            startNextHoldRequest();
+          }
         }
+        completion.joinDone(e);
       }
-      if (!this.isAnswered()) {
-        throw new IllegalStateException(this + " is no answered.");
-      }
-      _callDelegate = new SIPCallMediaDelegate();
-    }
-    finally {
-      _joinDelegate = null;
-    }
+    });
+    _joinDelegate = delegate;
+    delegate.setWaiting(true);
+    startJoinDelegate(delegate);
   }
 
-  protected synchronized void doJoin(final SIPCallImpl other, final JoinType type, final Direction direction)
-      throws Exception {
+  /**
+   * Starts joining this call to the other call and returns. The completion is
+   * called when the join delegate is done.
+   */
+  protected synchronized void doJoin(final SIPCallImpl other, final JoinType type, final Direction direction,
+      final JoinDelegate.Completion completion) {
     if (_operationInProcess) {
-      throw new IllegalStateException("other operation in process.");
+      completion.joinDone(new IllegalStateException("other operation in process."));
+      return;
     }
     _operationInProcess = true;
 
+    final JoinDelegate delegate;
     try {
-      _joinDelegate = createJoinDelegate(other, type, direction);
-      other.setJoinDelegate(_joinDelegate);
-      if (_joinDelegate != null) {
-        _joinDelegate.setCondition(this);
-        if (type == JoinType.DIRECT) {
-          _joinDelegate.setWaiting(true);
-        }
-        _joinDelegate.doJoin();
-        if (type == JoinType.DIRECT) {
-          while (!this.isTerminated() && !other.isTerminated() && _joinDelegate.isWaiting()) {
-            try {
-              this.wait();
+      delegate = createJoinDelegate(other, type, direction);
+    }
+    catch (final RuntimeException e) {
+      _operationInProcess = false;
+      completion.joinDone(e);
+      return;
+    }
+    final Runnable finish = new Runnable() {
+      @Override
+      public void run() {
+        Exception e = null;
+        synchronized (SIPCallImpl.this) {
+          e = delegate == null ? null : delegate.getFailure();
+          if (e == null && (!isAnswered() || !other.isAnswered())) {
+            e = new IllegalStateException(SIPCallImpl.this + " is no answered.");
+          }
+          if (e == null) {
+            if (type == JoinType.DIRECT) {
+              _callDelegate = new SIPCallDirectDelegate(SIPCallImpl.this, other);
             }
-            catch (final InterruptedException e) {
-              // ignore
+            else {
+              _callDelegate = new SIPCallBridgeDelegate();
             }
+            other.setCallDelegate(_callDelegate);
           }
+          _joinDelegate = null;
+          other.setJoinDelegate(null);
+          _operationInProcess = false;
+          startNextHoldRequest();
         }
+        completion.joinDone(e);
       }
-      if (_joinDelegate != null) {
-        if (_joinDelegate.getException() != null) {
-          final Exception e = _joinDelegate.getException();
-          _joinDelegate.setException(null);
-          throw e;
-        }
-        if (_joinDelegate.getError() != null) {
-          final Exception e = _joinDelegate.getError();
-          _joinDelegate.setError(null);
-          throw e;
-        }
+    };
+    if (delegate == null) {
+      finish.run();
+      return;
+    }
+    delegate.setDoneCallback(finish);
+    _joinDelegate = delegate;
+    other.setJoinDelegate(delegate);
+    if (type == JoinType.DIRECT) {
+      delegate.setWaiting(true);
+    }
+    startJoinDelegate(delegate);
+  }
+
+  private void startJoinDelegate(final JoinDelegate delegate) {
+    try {
+      delegate.doJoin();
+    }
+    catch (final Exception e) {
+      if (delegate.getFailure() == null) {
+        delegate.setError(e);
       }
-      if (!this.isAnswered() || !other.isAnswered()) {
-        throw new IllegalStateException(this + " is no answered.");
+      delegate.done();
+    }
+  }
+
+  /**
+   * Joins the media of this call to a participant that is not a SIP call,
+   * joining this call to the media server first if needed.
+   */
+  protected void doJoin(final Participant other, final JoinType type, final Direction direction,
+      final JoinDelegate.Completion completion) {
+    if (!(other.getMediaObject() instanceof Joinable)) {
+      completion.joinDone(new IllegalArgumentException("MediaObject is't joinable."));
+      return;
+    }
+    Joint joint = null;
+    synchronized (this) {
+      if (isTerminated()) {
+        completion.joinDone(new IllegalStateException("..."));
+        return;
       }
-      if (type == JoinType.DIRECT) {
-        _callDelegate = new SIPCallDirectDelegate();
+      if (_joinees.contains(other)) {
+        completion.joinDone(null);
+        return;
       }
-      else {
-        _callDelegate = new SIPCallBridgeDelegate();
+      unlinkDirectlyPeer();
+      if (_network == null) {
+        joint = this.join();
       }
-      other.setCallDelegate(_callDelegate);
     }
-    finally {
-      _joinDelegate = null;
-      other.setJoinDelegate(null);
-      _operationInProcess = false;
+    if (joint == null) {
+      joinMedia(other, type, direction, completion);
+      return;
     }
+    joint.addCompletionListener(new CompletionListener<JoinCompleteEvent>() {
+      @Override
+      public void onComplete(final JoinCompleteEvent event) {
+        joinMedia(other, type, direction, completion);
+      }
+
+      @Override
+      public void onFailure(final Throwable t) {
+        completion.joinDone(t instanceof Exception ? (Exception) t : new MediaException(t));
+      }
+    });
   }
 
-  protected synchronized void doJoin(final Participant other, final JoinType type, final Direction direction)
-      throws Exception {
-    if (!(other.getMediaObject() instanceof Joinable)) {
-      throw new IllegalArgumentException("MediaObject is't joinable.");
+  private synchronized void joinMedia(final Participant other, final JoinType type, final Direction direction,
+      final JoinDelegate.Completion completion) {
+    try {
+      ((Joinable) other.getMediaObject()).join(direction, _network);
+      _joinees.add(other, type, direction);
+      ((ParticipantContainer) other).addParticipant(this, type, direction);
     }
-    checkState();
-    if (_joinees.contains(other)) {
+    catch (final Exception e) {
+      completion.joinDone(e);
       return;
     }
-    unlinkDirectlyPeer();
-    if (_network == null) {
-      this.join().get();
-    }
-    ((Joinable) other.getMediaObject()).join(direction, _network);
-    _joinees.add(other, type, direction);
-    ((ParticipantContainer) other).addParticipant(this, type, direction);
+    completion.joinDone(null);
   }
 
   protected abstract JoinDelegate createJoinDelegate(final Direction direction);
@@ -1112,53 +1287,62 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
     None, Holding, Held, UnHolding, Muting, Muted, UnMuting, Deafing, Deafed, Undeafing
   }
 
-  protected HoldState _holdState = HoldState.None;
+  protected final AtomicReference<HoldState> _holdState = new AtomicReference<HoldState>(HoldState.None);
 
-  protected HoldState _muteState = HoldState.None;
+  protected final AtomicReference<HoldState> _muteState = new AtomicReference<HoldState>(HoldState.None);
 
-  protected HoldState _deafState = HoldState.None;
+  protected final AtomicReference<HoldState> _deafState = new AtomicReference<HoldState>(HoldState.None);
 
   protected int waitRespNum;
 
   protected Lock lock = new ReentrantLock();
 
-  protected synchronized HoldState getMuteState() {
-    return _muteState;
+  protected HoldState getMuteState() {
+    return _muteState.get();
   }
 
-  protected synchronized void setMuteState(final HoldState muteState) {
-    _muteState = muteState;
+  protected void setMuteState(final HoldState muteState) {
+    _muteState.set(muteState);
+    if (muteState == HoldState.Muted || muteState == HoldState.None) {
+      holdRequestProgressed();
+    }
   }
 
-  protected synchronized HoldState getHoldState() {
-    return _holdState;
+  protected HoldState getHoldState() {
+    return _holdState.get();
   }
 
   protected synchronized void setHoldState(final HoldState holdState) {
-    _holdState = holdState;
-    if (_holdState == HoldState.Holding || _holdState == HoldState.UnHolding) {
+    _holdState.set(holdState);
+    if (holdState == HoldState.Holding || holdState == HoldState.UnHolding) {
       waitRespNum = 2;
     }
+    else if (holdState == HoldState.Held || holdState == HoldState.None) {
+      holdRequestProgressed();
+    }
   }
 
-  protected synchronized void setDeafState(final HoldState deafState) {
-    _deafState = deafState;
+  protected void setDeafState(final HoldState deafState) {
+    _deafState.set(deafState);
   }
 
-  protected synchronized HoldState getDeafState() {
-    return _deafState;
+  protected HoldState getDeafState() {
+    return _deafState.get();
   }
 
-  protected synchronized boolean isHoldingProcess() {
-    return _holdState == HoldState.Holding || _holdState == HoldState.UnHolding;
+  protected boolean isHoldingProcess() {
+    final HoldState state = _holdState.get();
+    return state == HoldState.Holding || state == HoldState.UnHolding;
   }
 
-  protected synchronized boolean isMutingProcess() {
-    return _muteState == HoldState.Muting || _muteState == HoldState.UnMuting;
+  protected boolean isMutingProcess() {
+    final HoldState state = _muteState.get();
+    return state == HoldState.Muting || state == HoldState.UnMuting;
   }
 
-  protected synchronized boolean isDeafingProcess() {
-    return _deafState == HoldState.Deafing || _deafState == HoldState.Undeafing;
+  protected boolean isDeafingProcess() {
+    final HoldState state = _deafState.get();
+    return state == HoldState.Deafing || state == HoldState.Undeafing;
   }
 
   protected synchronized void holdResp() {
@@ -1170,211 +1354,347 @@ public abstract class SIPCallImpl extends DispatchableEventSource implements SIP
       else if (getHoldState() == HoldState.UnHolding) {
         setHoldState(HoldState.None);
       }
-      this.notify();
+    }
+  }
+
+  protected enum HoldRequestType {
+    HOLD("holding"), UNHOLD("unholding"), MUTE("muting"), UNMUTE("unmuting");
+
+    private final String _action;
+
+    private HoldRequestType(final String action) {
+      _action = action;
+    }
+
+    /**
+     * @return true if this request undoes the other one.
+     */
+    boolean cancels(final HoldRequestType other) {
+      switch (this) {
+        case HOLD:
+          return other == UNHOLD;
+        case UNHOLD:
+          return other == HOLD;
+        case MUTE:
+          return other == UNMUTE;
+        default:
+          return other == MUTE;
+      }
     }
   }
 
   /**
-   * send a sendonly SDP and stop to send media data to this endpoint
+   * A hold, unhold, mute or unmute request of the application.
    */
-  @Override
-  public synchronized void hold() {
-    hold(false);
+  protected static class HoldRequest {
+
+    protected final HoldRequestType _type;
+
+    protected final boolean _send;
+
+    protected final CallOperationImpl _operation;
+
+    protected HoldRequest(final HoldRequestType type, final boolean send, final CallOperationImpl operation) {
+      _type = type;
+      _send = send;
+      _operation = operation;
+    }
   }
 
+  // the requests waiting for the one in progress, guarded by this.
+  protected final LinkedList<HoldRequest> _holdRequests = new LinkedList<HoldRequest>();
+
+  // the request whose re-INVITE is in progress, guarded by this.
+  protected HoldRequest _currentHoldRequest;
+
   /**
-   * send a sendonly SDP and stop to send media data to this endpoint
+   * Queues the request behind the hold or mute request in progress, and
+   * starts it if the call is idle. A request queued right after its opposite
+   * cancels it out: both are completed and neither re-INVITE is sent.
    */
-  public synchronized void hold(final boolean send) {
-    if (this.getSIPCallState() != State.ANSWERED) {
+  protected CallOperation submitHoldRequest(final HoldRequestType type, final boolean send) {
+    if ((type == HoldRequestType.HOLD || type == HoldRequestType.MUTE) && getSIPCallState() != State.ANSWERED) {
       throw new IllegalStateException("call have not been answered");
     }
-
-    if (_holdState == HoldState.Held || _holdState == HoldState.Holding) {
-      return;
+    final HoldRequest request = new HoldRequest(type, send, new CallOperationImpl(this));
+    synchronized (this) {
+      final HoldRequest last = _holdRequests.peekLast();
+      if (last != null && last._type.cancels(type) && last._operation.start() && request._operation.start()) {
+        _holdRequests.removeLast();
+        completeHoldRequest(last, null);
+        completeHoldRequest(request, null);
+      }
+      else {
+        _holdRequests.add(request);
+        startNextHoldRequest();
+      }
     }
+    return request._operation;
+  }
 
-    if (_operationInProcess) {
-      throw new IllegalStateException("other operation in process.");
+  /**
+   * Starts the queued requests until one of them sends a re-INVITE. It waits
+   * while a join is in progress and is called again when the join is done.
+   */
+  protected synchronized void startNextHoldRequest() {
+    while (_currentHoldRequest == null && !_operationInProcess && !_holdRequests.isEmpty()) {
+      final HoldRequest request = _holdRequests.removeFirst();
+      if (!request._operation.start()) {
+        // cancelled while it was queued.
+        continue;
+      }
+      try {
+        if (sendHoldRequest(request)) {
+          _currentHoldRequest = request;
+          _operationInProcess = true;
+        }
+        else {
+          // the call is already in the requested state.
+          completeHoldRequest(request, null);
+        }
+      }
+      catch (final Exception e) {
+        rollbackHoldRequest(request);
+        completeHoldRequest(request, e);
+      }
     }
-    _operationInProcess = true;
+  }
 
-    try {
-      setHoldState(HoldState.Holding);
-      _callDelegate.hold(this, send);
+  /**
+   * @return false if nothing has to be sent.
+   */
+  private boolean sendHoldRequest(final HoldRequest request) throws MsControlException, IOException, SdpException {
+    if (isTerminated() || _callDelegate == null) {
+      throw new IllegalStateException(this + " is terminated.");
+    }
+    switch (request._type) {
+      case HOLD:
+        if (getSIPCallState() != State.ANSWERED) {
+          throw new IllegalStateException("call have not been answered");
+        }
+        if (_holdState.get() == HoldState.Held || _holdState.get() == HoldState.Holding) {
+          return false;
+        }
+        setHoldState(HoldState.Holding);
+        _callDelegate.hold(this, request._send);
+        return true;
 
-      while (getHoldState() != HoldState.Held && getHoldState() != HoldState.None) {
-        try {
-          this.wait();
+      case UNHOLD:
+        if (_holdState.get() != HoldState.Held) {
+          return false;
         }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait hold, the HoldState " + getHoldState());
+        setHoldState(HoldState.UnHolding);
+        _callDelegate.unhold(this);
+        return true;
+
+      case MUTE:
+        if (getSIPCallState() != State.ANSWERED) {
+          throw new IllegalStateException("call have not been answered");
         }
-      }
+        if (_muteState.get() == HoldState.Muted || _muteState.get() == HoldState.Muting) {
+          return false;
+        }
+        setMuteState(HoldState.Muting);
+        _callDelegate.mute(this);
+        return true;
 
+      default:
+        if (_muteState.get() != HoldState.Muted) {
+          return false;
+        }
+        setMuteState(HoldState.UnMuting);
+        _callDelegate.unmute(this);
+        return true;
     }
-    catch (final MsControlException e) {
-      setHoldState(HoldState.None);
-      throw new MediaException("exception when holding", e);
-    }
-    catch (final IOException e) {
-      setHoldState(HoldState.None);
-      throw new SignalException("exception when holding", e);
-    }
-    catch (final SdpException e) {
-      setHoldState(HoldState.None);
-      throw new SignalException("exception when holding", e);
+  }
+
+  private void rollbackHoldRequest(final HoldRequest request) {
+    switch (request._type) {
+      case HOLD:
+        setHoldState(HoldState.None);
+        break;
+      case UNHOLD:
+        setHoldState(HoldState.Held);
+        break;
+      case MUTE:
+        setMuteState(HoldState.None);
+        break;
+      default:
+        setMuteState(HoldState.Muted);
     }
-    catch (final Throwable t) {
-      setHoldState(HoldState.None);
-      LOG.error("Error when holding", t);
+  }
+
+  /**
+   * Called when the hold or mute state changes. Completes the request in
+   * progress once the state it waits for is reached, and starts the next one.
+   */
+  protected synchronized void holdRequestProgressed() {
+    final HoldRequest request = _currentHoldRequest;
+    if (request == null) {
+      return;
     }
-    finally {
-      _operationInProcess = false;
+    final HoldState expected;
+    final HoldState state;
+    switch (request._type) {
+      case HOLD:
+        expected = HoldState.Held;
+        state = _holdState.get();
+        break;
+      case UNHOLD:
+        expected = HoldState.None;
+        state = _holdState.get();
+        break;
+      case MUTE:
+        expected = HoldState.Muted;
+        state = _muteState.get();
+        break;
+      default:
+        expected = HoldState.None;
+        state = _muteState.get();
+    }
+    if (state != expected && state != HoldState.None) {
+      return;
     }
+    _currentHoldRequest = null;
+    _operationInProcess = false;
+    completeHoldRequest(request, state == expected ? null : new SignalException("exception when "
+        + request._type._action + " " + this));
+    startNextHoldRequest();
   }
 
   /**
-   * send a sendonly SDP to the endpoint, but still send media data to this
-   * endpoint
+   * Completes the request on the executor, the listeners of the operation are
+   * application code and must not run while the call is locked.
    */
-  @Override
-  public synchronized void mute() {
-    if (this.getSIPCallState() != State.ANSWERED) {
-      throw new IllegalStateException("call have not been answered");
+  private void completeHoldRequest(final HoldRequest request, final Exception e) {
+    final Runnable complete = new Runnable() {
+      @Override
+      public void run() {
+        if (e == null) {
+          request._operation.complete();
+        }
+        else if (e instanceof MsControlException) {
+          request._operation.fail(new MediaException("exception when " + request._type._action, e));
+        }
+        else if (e instanceof IOException || e instanceof SdpException) {
+          request._operation.fail(new SignalException("exception when " + request._type._action, e));
+        }
+        else {
+          request._operation.fail(e);
+        }
+      }
+    };
+    try {
+      _context.getExecutor().execute(complete);
     }
-
-    if (_muteState == HoldState.Muted || _muteState == HoldState.Muting) {
-      return;
+    catch (final RejectedExecutionException ex) {
+      complete.run();
     }
+  }
 
-    if (_operationInProcess) {
-      throw new IllegalStateException("other operation in process.");
+  /**
+   * Fails the request in progress and the queued ones, the call is gone.
+   */
+  protected synchronized void failHoldRequests() {
+    final Exception e = new IllegalStateException(this + " is terminated.");
+    if (_currentHoldRequest != null) {
+      completeHoldRequest(_currentHoldRequest, e);
+      _currentHoldRequest = null;
+    }
+    for (final HoldRequest request : _holdRequests) {
+      if (request._operation.start()) {
+        completeHoldRequest(request, e);
+      }
     }
-    _operationInProcess = true;
+    _holdRequests.clear();
+  }
 
+  /**
+   * Waits for the operation without holding the call, the re-INVITE response
+   * is processed by the SIP threads.
+   */
+  private void waitFor(final CallOperation operation) {
+    boolean interrupted = false;
     try {
-      setMuteState(HoldState.Muting);
-      _callDelegate.mute(this);
-
-      while (getMuteState() != HoldState.Muted && getMuteState() != HoldState.None) {
+      while (true) {
         try {
-          this.wait();
+          operation.get();
+          return;
         }
         catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait mute, the MuteState " + getMuteState());
+          interrupted = true;
+        }
+        catch (final ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          }
+          throw new SignalException(e.getCause());
         }
       }
-
-    }
-    catch (final IOException e) {
-      setMuteState(HoldState.None);
-      throw new SignalException("exception when muting", e);
-    }
-    catch (final SdpException e) {
-      setMuteState(HoldState.None);
-      throw new SignalException("exception when muting", e);
-    }
-    catch (final Throwable t) {
-      setHoldState(HoldState.None);
-      LOG.error("Error when mute", t);
     }
     finally {
-      _operationInProcess = false;
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
   }
 
+  /**
+   * send a sendonly SDP and stop to send media data to this endpoint
+   */
   @Override
-  public synchronized void unhold() {
-    if (_holdState != HoldState.Held) {
-      return;
-    }
-
-    if (_operationInProcess) {
-      throw new IllegalStateException("other operation in process.");
-    }
-    _operationInProcess = true;
+  public void hold() {
+    hold(false);
+  }
 
-    HoldState oldHoldState = null;
-    try {
-      oldHoldState = getHoldState();
-      setHoldState(HoldState.UnHolding);
+  /**
+   * send a sendonly SDP and stop to send media data to this endpoint
+   */
+  public void hold(final boolean send) {
+    waitFor(holdAsync(send));
+  }
 
-      _callDelegate.unhold(this);
+  @Override
+  public CallOperation holdAsync() {
+    return holdAsync(false);
+  }
 
-      while (getHoldState() != HoldState.None) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait unhold, the HoldState " + getHoldState());
-        }
-      }
+  public CallOperation holdAsync(final boolean send) {
+    return submitHoldRequest(HoldRequestType.HOLD, send);
+  }
 
-    }
-    catch (final MsControlException e) {
-      setHoldState(oldHoldState);
-      throw new SignalException("exception when unholding", e);
-    }
-    catch (final IOException e) {
-      setHoldState(oldHoldState);
-      throw new SignalException("exception when unholding", e);
-    }
-    catch (final SdpException e) {
-      setHoldState(oldHoldState);
-      throw new SignalException("exception when unholding", e);
-    }
-    catch (final Throwable t) {
-      setHoldState(HoldState.None);
-      LOG.error("Error when unhold", t);
-    }
-    finally {
-      _operationInProcess = false;
-    }
+  /**
+   * send a sendonly SDP to the endpoint, but still send media data to this
+   * endpoint
+   */
+  @Override
+  public void mute() {
+    waitFor(muteAsync());
   }
 
   @Override
-  public synchronized void unmute() {
-    if (_muteState != HoldState.Muted) {
-      return;
-    }
+  public CallOperation muteAsync() {
+    return submitHoldRequest(HoldRequestType.MUTE, false);
+  }
 
-    if (_operationInProcess) {
-      throw new IllegalStateException("other operation in process.");
-    }
-    _operationInProcess = true;
+  @Override
+  public void unhold() {
+    waitFor(unholdAsync());
+  }
 
-    HoldState oldMuteState = null;
-    try {
-      oldMuteState = getMuteState();
-      setMuteState(HoldState.UnMuting);
+  @Override
+  public CallOperation unholdAsync() {
+    return submitHoldRequest(HoldRequestType.UNHOLD, false);
+  }
 
-      _callDelegate.unmute(this);
+  @Override
+  public void unmute() {
+    waitFor(unmuteAsync());
+  }
 
-      while (getMuteState() != HoldState.None) {
-        try {
-          this.wait();
-        }
-        catch (final InterruptedException e) {
-          LOG.warn("InterruptedException when wait unmute, the MuteState " + getMuteState());
-        }
-      }
-    }
-    catch (final IOException e) {
-      setMuteState(oldMuteState);
-      throw new SignalException("exception when unmuting", e);
-    }
-    catch (final SdpException e) {
-      setMuteState(oldMuteState);
-      throw new SignalException("exception when unmuting", e);
-    }
-    catch (final Throwable t) {
-      setHoldState(HoldState.None);
-      LOG.error("Error when unmute", t);
-    }
-    finally {
-      _operationInProcess = false;
-    }
+  @Override
+  public CallOperation unmuteAsync() {
+    return submitHoldRequest(HoldRequestType.UNMUTE, false);
   }
 
   private JoinCompleteEvent handleJoinException(final Exception e) {
@@ -26,7 +26,6 @@ import javax.servlet.sip.SipServletResponse;
 
 import org.apache.log4j.Logger;
 
-import com.voxeo.moho.SignalException;
 import com.voxeo.moho.sip.SIPCall.State;
 import com.voxeo.moho.sip.SIPCallImpl.HoldState;
 
@@ -46,45 +45,49 @@ public class SIPCallMediaDelegate extends SIPCallDelegate {
 
   @Override
   protected void handleAck(final SIPCallImpl call, final SipServletRequest req) throws Exception {
+    final boolean reinvite = _isWaiting;
     try {
       call.processSDPAnswer(req);
       _isWaiting = false;
-      call.notifyAll();
     }
     catch (final Exception e) {
       LOG.error("Exception", e);
       call.fail();
+      return;
+    }
+    if (reinvite) {
+      reinviteAcknowledged(call);
     }
   }
 
+  /**
+   * Processes the offer of the re-INVITE. The re-INVITE is answered when the
+   * media server has generated the answer, and completed by
+   * {@link #handleAck(SIPCallImpl, SipServletRequest)}.
+   */
   @Override
   protected void handleReinvite(final SIPCallImpl call, final SipServletRequest req, final Map<String, String> headers)
       throws Exception {
     _req = req;
     _isWaiting = true;
     call.processSDPOffer(req);
+  }
 
-    while (call.isAnswered() & _isWaiting) {
-      try {
-        call.wait();
-      }
-      catch (final InterruptedException e) {
-        // ignore
-      }
-    }
+  private void reinviteAcknowledged(final SIPCallImpl call) {
     if (call.getSIPCallState() != State.ANSWERED) {
-      throw new SignalException("Call state error: " + call);
+      LOG.warn("Call state error: " + call);
+      return;
     }
 
     // if it is a hold request, hold peer.
     SIPCallImpl peerCall = (SIPCallImpl) call.getLastPeer();
-    if (peerCall != null) {
-      String sdp = new String(call.getRemoteSdp(), "iso8859-1");
-      if (sdp.indexOf("sendonly") > 0) {
-        peerCall.hold(true);
+    SDPModel sdp = call.getRemoteSDPModel();
+    if (peerCall != null && sdp != null) {
+      if (sdp.isHold()) {
+        peerCall.holdAsync(true);
       }
-      else if (sdp.indexOf("sendrecv") > 0) {
-        peerCall.unhold();
+      else if (sdp.isResume()) {
+        peerCall.unholdAsync();
       }
     }
   }
@@ -103,7 +106,6 @@ public class SIPCallMediaDelegate extends SIPCallDelegate {
       catch (IOException e) {
         LOG.error("IOException when sending ACK", e);
         call.setHoldState(HoldState.None);
-        call.notify();
         call.fail();
       }
     }
@@ -131,9 +133,6 @@ public class SIPCallMediaDelegate extends SIPCallDelegate {
           call.setHoldState(HoldState.None);
           call.fail();
         }
-        finally {
-          call.notify();
-        }
       }
       else if (call.isHoldingProcess()) {
         call.holdResp();
@@ -164,12 +163,11 @@ public class SIPCallMediaDelegate extends SIPCallDelegate {
   @Override
   protected void hold(SIPCallImpl call, boolean send) throws MsControlException, IOException, SdpException {
     ((NetworkConnection) call.getMediaObject()).getSdpPortManager().processSdpOffer(
-        send ? createRecvonlySDP(call, call.getRemoteSdp()).toString().getBytes() : createSendonlySDP(call,
-            call.getRemoteSdp()).toString().getBytes());
+        send ? createRecvonlySDP(call.getRemoteSDPModel()) : createSendonlySDP(call.getRemoteSDPModel()));
 
     SipServletRequest reInvite = call.getSipSession().createRequest("INVITE");
     reInvite.setAttribute(SIPCallDelegate.SIPCALL_HOLD_REQUEST, "true");
-    reInvite.setContent(createSendonlySDP(call, call.getLocalSDP()), "application/sdp");
+    reInvite.setContent(createSendonlySDP(call.getLocalSDPModel()), "application/sdp");
     reInvite.send();
   }
 
@@ -177,18 +175,18 @@ public class SIPCallMediaDelegate extends SIPCallDelegate {
   protected void mute(SIPCallImpl call) throws IOException, SdpException {
     SipServletRequest reInvite = call.getSipSession().createRequest("INVITE");
     reInvite.setAttribute(SIPCallDelegate.SIPCALL_MUTE_REQUEST, "true");
-    reInvite.setContent(createSendonlySDP(call, call.getLocalSDP()), "application/sdp");
+    reInvite.setContent(createSendonlySDP(call.getLocalSDPModel()), "application/sdp");
     reInvite.send();
   }
 
   @Override
   protected void unhold(SIPCallImpl call) throws MsControlException, IOException, SdpException {
     ((NetworkConnection) call.getMediaObject()).getSdpPortManager().processSdpOffer(
-        createSendrecvSDP(call, call.getRemoteSdp()).toString().getBytes());
+        createSendrecvSDP(call.getRemoteSDPModel()));
 
     SipServletRequest reInvite = call.getSipSession().createRequest("INVITE");
     reInvite.setAttribute(SIPCallDelegate.SIPCALL_UNHOLD_REQUEST, "true");
-    reInvite.setContent(createSendrecvSDP(call, call.getLocalSDP()), "application/sdp");
+    reInvite.setContent(createSendrecvSDP(call.getLocalSDPModel()), "application/sdp");
     reInvite.send();
   }
 
@@ -196,7 +194,7 @@ public class SIPCallMediaDelegate extends SIPCallDelegate {
   protected void unmute(SIPCallImpl call) throws IOException, SdpException {
     SipServletRequest reInvite = call.getSipSession().createRequest("INVITE");
     reInvite.setAttribute(SIPCallDelegate.SIPCALL_UNMUTE_REQUEST, "true");
-    reInvite.setContent(createSendrecvSDP(call, call.getLocalSDP()), "application/sdp");
+    reInvite.setContent(createSendrecvSDP(call.getLocalSDPModel()), "application/sdp");
     reInvite.send();
   }
 }
@@ -14,6 +14,11 @@ package com.voxeo.moho.sip;
 import java.io.IOException;
 import java.util.Enumeration;
 import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.media.mscontrol.MsControlFactory;
 import javax.media.mscontrol.spi.Driver;
@@ -31,13 +36,25 @@ import org.apache.log4j.Logger;
 import com.voxeo.moho.Application;
 import com.voxeo.moho.ApplicationContext;
 import com.voxeo.moho.ApplicationContextImpl;
+import com.voxeo.moho.MediaServiceFactory;
 import com.voxeo.moho.event.ApplicationEventSource;
 import com.voxeo.moho.event.EventSource;
+import com.voxeo.moho.event.EventDispatcher;
 import com.voxeo.moho.event.EventState;
 import com.voxeo.moho.event.SignalEvent;
+import com.voxeo.moho.event.StripedDispatchEngine;
 import com.voxeo.moho.event.TextEvent;
+import com.voxeo.moho.media.GenericMediaServiceFactory;
+import com.voxeo.moho.media.GrammarCache;
+import com.voxeo.moho.media.MediaResourcePool;
 import com.voxeo.moho.text.sip.SIPTextEventImpl;
+import com.voxeo.moho.util.BoundedThreadPoolExecutor;
+import com.voxeo.moho.util.BoundedThreadPoolExecutor.OverloadPolicy;
+import com.voxeo.moho.util.RandomIdGenerator;
+import com.voxeo.moho.util.SequentialIdGenerator;
 import com.voxeo.moho.util.SessionUtils;
+import com.voxeo.moho.util.Utils;
+import com.voxeo.moho.util.Utils.DaemonThreadFactory;
 
 public class SIPController extends SipServlet {
 
@@ -55,6 +72,12 @@ public class SIPController extends SipServlet {
 
   protected String _applicationClass = null;
 
+  protected OutOfDialogResponder _responder = null;
+
+  protected SIPRequestRouter _router = null;
+
+  protected AdmissionController _admission = null;
+
   @Override
   public void init() {
     try {
@@ -106,7 +129,50 @@ public class SIPController extends SipServlet {
       log.info("Moho using eventDipatcherThreadPoolSize:" + eventDispatcherThreadPoolSize);
 
       final ApplicationContextImpl ctx = new ApplicationContextImpl(app, _mscFactory, _sipFacory, _sdpFactory,
-          getServletConfig().getServletName(), this.getServletContext(), eventDispatcherThreadPoolSize);
+          getServletConfig().getServletName(), this.getServletContext(),
+          createExecutor(eventDispatcherThreadPoolSize));
+
+      // eventDispatchMode=striped shares a fixed set of dispatch lanes between
+      // all the event sources instead of a dispatch queue per source.
+      final String eventDispatchMode = getInitParameter("eventDispatchMode");
+      if ("striped".equalsIgnoreCase(eventDispatchMode)) {
+        int eventDispatchLanes = StripedDispatchEngine.DEFAULT_LANES;
+        final String eventDispatchLanesPara = getInitParameter("eventDispatchLanes");
+        if (eventDispatchLanesPara != null) {
+          eventDispatchLanes = Integer.valueOf(eventDispatchLanesPara);
+        }
+        ctx.setDispatchEngine(new StripedDispatchEngine(ctx.getExecutor(), eventDispatchLanes));
+        log.info("Moho using striped event dispatching with lanes:" + eventDispatchLanes);
+      }
+
+      final String eventDispatchBatchSizePara = getInitParameter("eventDispatchBatchSize");
+      final String eventDispatchTimeBudgetPara = getInitParameter("eventDispatchTimeBudget");
+      if (eventDispatchBatchSizePara != null || eventDispatchTimeBudgetPara != null) {
+        final int eventDispatchBatchSize = eventDispatchBatchSizePara != null ? Integer
+            .valueOf(eventDispatchBatchSizePara) : EventDispatcher.DEFAULT_MAX_BATCH_SIZE;
+        final long eventDispatchTimeBudget = eventDispatchTimeBudgetPara != null ? Long
+            .valueOf(eventDispatchTimeBudgetPara) : 0;
+        ctx.setDispatchBatching(eventDispatchBatchSize, eventDispatchTimeBudget);
+        log.info("Moho using event dispatch batch size:" + eventDispatchBatchSize + ", time budget(ms):"
+            + eventDispatchTimeBudget);
+      }
+
+      // outOfDialogResponseMethods=OPTIONS answers out-of-dialog OPTIONS on the
+      // container thread, unless the application registers interest in them.
+      final String outOfDialogResponseMethodsPara = getInitParameter("outOfDialogResponseMethods");
+      if (outOfDialogResponseMethodsPara != null && outOfDialogResponseMethodsPara.trim().length() > 0) {
+        final String allow = getInitParameter("outOfDialogResponseAllow");
+        final String accept = getInitParameter("outOfDialogResponseAccept");
+        _responder = new OutOfDialogResponder(allow != null ? allow : OutOfDialogResponder.DEFAULT_ALLOW,
+            accept != null ? accept : OutOfDialogResponder.DEFAULT_ACCEPT);
+        for (final String method : outOfDialogResponseMethodsPara.split(",")) {
+          if (method.trim().length() > 0) {
+            _responder.addMethod(method);
+          }
+        }
+        ctx.setOutOfDialogResponder(_responder);
+        log.info("Moho using out-of-dialog responder:" + _responder);
+      }
 
       final Enumeration e = getInitParameterNames();
       while (e.hasMoreElements()) {
@@ -115,6 +181,81 @@ public class SIPController extends SipServlet {
         ctx.setParameter(name, value);
       }
 
+      // idGenerator=random|sequential replaces the UUIDs of the calls and the
+      // other event sources, idGeneratorNode names this node for sequential.
+      final String idGeneratorPara = getInitParameter("idGenerator");
+      if ("random".equalsIgnoreCase(idGeneratorPara)) {
+        ctx.setIdGenerator(new RandomIdGenerator());
+        log.info("Moho using random ids.");
+      }
+      else if ("sequential".equalsIgnoreCase(idGeneratorPara)) {
+        final String idGeneratorNode = getInitParameter("idGeneratorNode");
+        ctx.setIdGenerator(new SequentialIdGenerator(idGeneratorNode));
+        log.info("Moho using sequential ids with node:" + idGeneratorNode);
+      }
+
+      // admissionMaxCalls, admissionCallsPerSecond and admissionMaxQueueDepth
+      // reject the initial INVITEs beyond the limits with 503.
+      final String admissionMaxCallsPara = getInitParameter("admissionMaxCalls");
+      final String admissionCallsPerSecondPara = getInitParameter("admissionCallsPerSecond");
+      final String admissionMaxQueueDepthPara = getInitParameter("admissionMaxQueueDepth");
+      if (admissionMaxCallsPara != null || admissionCallsPerSecondPara != null || admissionMaxQueueDepthPara != null) {
+        final String admissionRetryAfterPara = getInitParameter("admissionRetryAfter");
+        _admission = new AdmissionController(admissionMaxCallsPara != null ? Integer.valueOf(admissionMaxCallsPara)
+            : 0, admissionCallsPerSecondPara != null ? Integer.valueOf(admissionCallsPerSecondPara) : 0,
+            admissionMaxQueueDepthPara != null ? Integer.valueOf(admissionMaxQueueDepthPara) : 0,
+            admissionRetryAfterPara != null ? Integer.valueOf(admissionRetryAfterPara)
+                : AdmissionController.DEFAULT_RETRY_AFTER);
+        ctx.setAdmissionController(_admission);
+        log.info("Moho using admission control:" + _admission);
+        if (admissionMaxQueueDepthPara != null && Integer.valueOf(admissionMaxQueueDepthPara) > 0) {
+          final ThreadPoolExecutor executor = ctx.getThreadPoolExecutor();
+          if (executor == null) {
+            log.warn("admissionMaxQueueDepth is ignored, the executor of the application context is not a "
+                + "ThreadPoolExecutor.");
+          }
+          else if (executor.getQueue() instanceof SynchronousQueue) {
+            log.warn("admissionMaxQueueDepth is applied to the busy threads beyond the core pool size, the executor "
+                + "hands the tasks off to its threads and never queues them.");
+          }
+        }
+      }
+
+      // mediaPoolWatermark keeps that many media sessions ready for the calls.
+      final String mediaPoolWatermarkPara = getInitParameter("mediaPoolWatermark");
+      if (mediaPoolWatermarkPara != null && Integer.valueOf(mediaPoolWatermarkPara) > 0) {
+        final MediaServiceFactory msFactory = ctx.getMediaServiceFactory();
+        final MediaResourcePool pool = new MediaResourcePool(_mscFactory,
+            msFactory instanceof GenericMediaServiceFactory ? (GenericMediaServiceFactory) msFactory : null, ctx
+                .getExecutor(), Integer.valueOf(mediaPoolWatermarkPara));
+        ctx.setMediaResourcePool(pool);
+        pool.start();
+        log.info("Moho using media resource pool:" + pool);
+      }
+
+      // grammarCacheMaxEntries and grammarCacheMaxChars bound the grammar
+      // cache, 0 disables it; grammarCachePreload=true leaves the patterns on
+      // the media group between inputs, for the media servers that keep them.
+      final String grammarCacheMaxEntriesPara = getInitParameter("grammarCacheMaxEntries");
+      final String grammarCacheMaxCharsPara = getInitParameter("grammarCacheMaxChars");
+      final String grammarCachePreloadPara = getInitParameter("grammarCachePreload");
+      if (grammarCacheMaxEntriesPara != null || grammarCacheMaxCharsPara != null || grammarCachePreloadPara != null) {
+        final int maxEntries = grammarCacheMaxEntriesPara != null ? Integer.valueOf(grammarCacheMaxEntriesPara)
+            : GrammarCache.DEFAULT_MAX_ENTRIES;
+        final int maxChars = grammarCacheMaxCharsPara != null ? Integer.valueOf(grammarCacheMaxCharsPara)
+            : GrammarCache.DEFAULT_MAX_CHARS;
+        if (maxEntries > 0 && maxChars > 0) {
+          ctx.setGrammarCache(new GrammarCache(maxEntries, maxChars, Boolean.valueOf(grammarCachePreloadPara)));
+        }
+        else {
+          ctx.setGrammarCache(null);
+        }
+        log.info("Moho using grammar cache:" + ctx.getGrammarCache());
+      }
+
+      _router = createRequestRouter();
+      ctx.setRequestRouter(_router);
+
       _app = new ApplicationEventSource(ctx, app);
       app.init(ctx);
       getServletContext().setAttribute(ApplicationContext.APPLICATION, app);
@@ -126,6 +267,50 @@ public class SIPController extends SipServlet {
     }
   }
 
+  /**
+   * Creates the thread pool of the application context from the init params.
+   */
+  protected ThreadPoolExecutor createExecutor(final int eventDispatcherThreadPoolSize) {
+    // eventDispatcherThreadMode=virtual runs every task on its own virtual
+    // thread, on JVMs that support them. With no core threads and no keep
+    // alive, a worker never waits for a second task: the pool only counts the
+    // running threads for monitoring.
+    if ("virtual".equalsIgnoreCase(getInitParameter("eventDispatcherThreadMode"))) {
+      final ThreadFactory virtualThreadFactory = Utils.createVirtualThreadFactory("MohoContext-");
+      if (virtualThreadFactory != null) {
+        log.info("Moho using virtual threads for event dispatching.");
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            virtualThreadFactory);
+      }
+      log.warn("Virtual threads are not supported by this JVM, using platform threads.");
+    }
+
+    final String maxThreadPoolSizePara = getInitParameter("eventDispatcherMaxThreadPoolSize");
+    final String queueSizePara = getInitParameter("eventDispatcherQueueSize");
+    final String overloadPolicyPara = getInitParameter("eventDispatcherOverloadPolicy");
+    if (maxThreadPoolSizePara != null || queueSizePara != null || overloadPolicyPara != null) {
+      int maxThreadPoolSize = eventDispatcherThreadPoolSize * 4;
+      if (maxThreadPoolSizePara != null) {
+        maxThreadPoolSize = Integer.valueOf(maxThreadPoolSizePara);
+      }
+      int queueSize = 1000;
+      if (queueSizePara != null) {
+        queueSize = Integer.valueOf(queueSizePara);
+      }
+      OverloadPolicy overloadPolicy = OverloadPolicy.REJECT;
+      if (overloadPolicyPara != null) {
+        overloadPolicy = OverloadPolicy.valueOf(overloadPolicyPara.trim().toUpperCase());
+      }
+      log.info("Moho using bounded event dispatcher thread pool, max size:" + maxThreadPoolSize + ", queue size:"
+          + queueSize + ", overload policy:" + overloadPolicy);
+      return new BoundedThreadPoolExecutor(eventDispatcherThreadPoolSize, maxThreadPoolSize, queueSize,
+          overloadPolicy, new DaemonThreadFactory("MohoContext"));
+    }
+
+    return new ThreadPoolExecutor(eventDispatcherThreadPoolSize, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), new DaemonThreadFactory("MohoContext"));
+  }
+
   @Override
   public void destroy() {
     try {
@@ -139,57 +324,111 @@ public class SIPController extends SipServlet {
 
   @Override
   protected void doRequest(final SipServletRequest req) throws ServletException, IOException {
-    final String s = req.getMethod();
-    if ("INVITE".equals(s)) {
-      doInvite(req);
-    }
-    else if ("ACK".equals(s)) {
-      doAck(req);
-    }
-    else if ("OPTIONS".equals(s)) {
-      doOptions(req);
-    }
-    else if ("BYE".equals(s)) {
-      doBye(req);
-    }
-    else if ("CANCEL".equals(s)) {
-      doCancel(req);
-    }
-    else if ("REGISTER".equals(s)) {
-      doRegister(req);
-    }
-    else if ("SUBSCRIBE".equals(s)) {
-      doSubscribe(req);
-    }
-    else if ("NOTIFY".equals(s)) {
-      doNotify(req);
-    }
-    else if ("MESSAGE".equals(s)) {
-      doMessage(req);
-    }
-    else if ("INFO".equals(s)) {
-      doInfo(req);
-    }
-    else if ("UPDATE".equals(s)) {
-      doUpdate(req);
-    }
-    else if ("REFER".equals(s)) {
-      doRefer(req);
-    }
-    else if ("PUBLISH".equals(s)) {
-      doPublish(req);
-    }
-    else if ("PRACK".equals(s)) {
-      doPrack(req);
+    try {
+      routeRequest(req);
     }
-    else {
-      doOthers(req);
+    catch (final RejectedExecutionException e) {
+      log.warn("Moho is overloaded, rejecting " + req.getMethod() + " request: " + e.getMessage());
+      if (!req.isCommitted() && !"ACK".equals(req.getMethod())) {
+        req.createResponse(SipServletResponse.SC_SERVICE_UNAVAILABLE).send();
+      }
     }
   }
 
+  protected void routeRequest(final SipServletRequest req) throws ServletException, IOException {
+    _router.route(req);
+  }
+
+  /**
+   * Creates the routing table of the requests, mapping each method to its do*
+   * method. It is created before the application is initialized, so that the
+   * application can register its own handlers.
+   */
+  protected SIPRequestRouter createRequestRouter() {
+    final SIPRequestRouter router = new SIPRequestRouter(new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) {
+        doOthers(req);
+      }
+    });
+    router.setHandler("INVITE", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doInvite(req);
+      }
+    });
+    router.setHandler("ACK", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doAck(req);
+      }
+    });
+    router.setHandler("OPTIONS", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doOptions(req);
+      }
+    });
+    router.setHandler("BYE", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doBye(req);
+      }
+    });
+    router.setHandler("CANCEL", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doCancel(req);
+      }
+    });
+    router.setHandler("REGISTER", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doRegister(req);
+      }
+    });
+    router.setHandler("SUBSCRIBE", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doSubscribe(req);
+      }
+    });
+    router.setHandler("NOTIFY", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doNotify(req);
+      }
+    });
+    router.setHandler("MESSAGE", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doMessage(req);
+      }
+    });
+    router.setHandler("INFO", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doInfo(req);
+      }
+    });
+    router.setHandler("UPDATE", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doUpdate(req);
+      }
+    });
+    router.setHandler("REFER", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doRefer(req);
+      }
+    });
+    router.setHandler("PUBLISH", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doPublish(req);
+      }
+    });
+    router.setHandler("PRACK", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        doPrack(req);
+      }
+    });
+    return router;
+  }
+
   @Override
   protected void doInvite(final SipServletRequest req) throws ServletException, IOException {
     if (req.isInitial()) {
+      if (_admission != null && !admit(req)) {
+        return;
+      }
       final SIPInviteEvent ev = new SIPInviteEventImpl(_app.getApplicationContext(), req);
       _app.dispatch(ev);
     }
@@ -201,6 +440,57 @@ public class SIPController extends SipServlet {
     }
   }
 
+  /**
+   * Answers the INVITE with 503 on the container thread if the admission
+   * control rejects it.
+   * 
+   * @return false if the INVITE is rejected.
+   */
+  protected boolean admit(final SipServletRequest req) throws IOException {
+    final ApplicationContextImpl ctx = (ApplicationContextImpl) _app.getApplicationContext();
+    final ThreadPoolExecutor executor = ctx.getThreadPoolExecutor();
+    final AdmissionController.Decision decision = _admission.admit(ctx.getCallCount(), getBacklog(executor));
+    if (decision == AdmissionController.Decision.ADMITTED) {
+      return true;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Rejecting INVITE " + req.getCallId() + ": " + decision);
+    }
+    final SipServletResponse res = req.createResponse(SipServletResponse.SC_SERVICE_UNAVAILABLE);
+    res.setHeader("Retry-After", String.valueOf(_admission.getRetryAfter()));
+    res.send();
+    try {
+      req.getApplicationSession().invalidate();
+    }
+    catch (final Throwable t) {
+      ;
+    }
+    return false;
+  }
+
+  /**
+   * The tasks the executor has not caught up with. A pool with a
+   * SynchronousQueue, the default one, hands every task off to a thread and
+   * its queue is always empty, so its backlog is the number of busy threads
+   * beyond the core pool size instead. The busy threads of a
+   * {@link BoundedThreadPoolExecutor} are counted without locking the pool;
+   * other executors fall back to {@link ThreadPoolExecutor#getActiveCount()},
+   * which takes the main lock of the pool.
+   * 
+   * @return 0 if the executor can not be observed.
+   */
+  protected int getBacklog(final ThreadPoolExecutor executor) {
+    if (executor == null) {
+      return 0;
+    }
+    if (executor.getQueue() instanceof SynchronousQueue) {
+      final int busy = executor instanceof BoundedThreadPoolExecutor ? ((BoundedThreadPoolExecutor) executor)
+          .getBusyCount() : executor.getActiveCount();
+      return Math.max(0, busy - executor.getCorePoolSize());
+    }
+    return executor.getQueue().size();
+  }
+
   @Override
   protected void doBye(final SipServletRequest req) throws ServletException, IOException {
     final EventSource source = SessionUtils.getEventSource(req);
@@ -344,6 +634,9 @@ public class SIPController extends SipServlet {
   }
 
   protected void doOthers(final SipServletRequest req) {
+    if (_responder != null && _responder.respond(req)) {
+      return;
+    }
     EventSource source = null;
     if (!req.isInitial()) {
       source = SessionUtils.getEventSource(req);
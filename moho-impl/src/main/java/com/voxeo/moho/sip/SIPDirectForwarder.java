@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.sip.SipServletRequest;
+import javax.servlet.sip.SipServletResponse;
+import javax.servlet.sip.SipSession;
+
+/**
+ * Forwards the in-dialog requests and responses between the two legs of a
+ * directly joined call. The legs and their sessions are captured once, when
+ * the join completes, so forwarding a message does not go through the peer
+ * list of the call. The 2xx responses to forwarded re-INVITEs are kept on the
+ * forwarder until the ACK of the other leg arrives.
+ */
+public class SIPDirectForwarder {
+
+  private final SIPCallImpl _call1;
+
+  private final SipSession _session1;
+
+  private final SIPCallImpl _call2;
+
+  private final SipSession _session2;
+
+  // the 2xx response to acknowledge when the ACK arrives on leg 1 or 2.
+  private final AtomicReference<SipServletResponse> _pendingAck1 = new AtomicReference<SipServletResponse>();
+
+  private final AtomicReference<SipServletResponse> _pendingAck2 = new AtomicReference<SipServletResponse>();
+
+  public SIPDirectForwarder(final SIPCallImpl call1, final SIPCallImpl call2) {
+    _call1 = call1;
+    _session1 = call1.getSipSession();
+    _call2 = call2;
+    _session2 = call2.getSipSession();
+  }
+
+  public SIPCallImpl getPeer(final SIPCallImpl call) {
+    return call == _call1 ? _call2 : _call1;
+  }
+
+  public SipSession getPeerSession(final SIPCallImpl call) {
+    return call == _call1 ? _session2 : _session1;
+  }
+
+  /**
+   * Sends a copy of the request received on the given leg to the other leg,
+   * and links the two requests so that the response can be forwarded back.
+   */
+  public SipServletRequest forwardRequest(final SIPCallImpl call, final SipServletRequest req,
+      final Map<String, String> headers) throws IOException {
+    final SipServletRequest newReq = getPeerSession(call).createRequest(req.getMethod());
+    SIPHelper.addHeaders(newReq, headers);
+    SIPHelper.copyContent(req, newReq);
+    SIPHelper.linkSIPMessage(req, newReq);
+    newReq.send();
+    return newReq;
+  }
+
+  /**
+   * Sends the response received on the given leg back on the request it was
+   * forwarded from. Returns false if the request was not forwarded.
+   */
+  public boolean forwardResponse(final SIPCallImpl call, final SipServletResponse res,
+      final Map<String, String> headers) throws IOException {
+    final SipServletRequest req = res.getRequest();
+    final SipServletRequest origReq = (SipServletRequest) SIPHelper.getLinkSIPMessage(req);
+    if (origReq == null) {
+      return false;
+    }
+    SIPHelper.unlinkSIPMessage(req);
+    final SipServletResponse newRes = origReq.createResponse(res.getStatus(), res.getReasonPhrase());
+    SIPHelper.addHeaders(newRes, headers);
+    SIPHelper.copyContent(res, newRes);
+    if (SIPHelper.isReinvite(newRes) && SIPHelper.isSuccessResponse(newRes)) {
+      if (call == _call1) {
+        _pendingAck2.set(res);
+      }
+      else {
+        _pendingAck1.set(res);
+      }
+    }
+    newRes.send();
+    return true;
+  }
+
+  /**
+   * Acknowledges on the other leg the 2xx response that the given ACK answers.
+   * Returns false if there is no such response.
+   */
+  public boolean forwardAck(final SIPCallImpl call, final SipServletRequest ack) throws IOException {
+    // taken atomically, a retransmitted ACK does not acknowledge it twice.
+    final SipServletResponse res = (call == _call1 ? _pendingAck1 : _pendingAck2).getAndSet(null);
+    if (res == null) {
+      return false;
+    }
+    final SipServletRequest newAck = res.createAck();
+    SIPHelper.copyContent(ack, newAck);
+    newAck.send();
+    return true;
+  }
+}
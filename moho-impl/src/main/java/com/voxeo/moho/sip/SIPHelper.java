@@ -37,6 +37,8 @@ public class SIPHelper {
 
   private static final String LINKED_MESSAGE = "linked.message";
 
+  private static final String PENDING_ACK = "com.voxeo.moho.pending-ack";
+
   public static SipServletRequest createSipInitnalRequest(final SipFactory factory, final String method,
       final Address from, final Address to, final Map<String, String> headers, SipApplicationSession applicationSession) {
     final SipServletRequest req = factory.createRequest(applicationSession != null? applicationSession:factory.createApplicationSession(), method, from, to);
@@ -63,6 +65,11 @@ public class SIPHelper {
   }
 
   public static void copyContent(final SipServletMessage source, final SipServletMessage target) {
+    // a message with a body always has a Content-Type, so skip the raw
+    // content copy for the bodyless ones.
+    if (source.getContentType() == null) {
+      return;
+    }
     try {
       final byte[] content = source.getRawContent();
       if (content != null) {
@@ -128,6 +135,14 @@ public class SIPHelper {
       throws IOException {
     final B2buaHelper b2b = req.getB2buaHelper();
     if (req.getMethod().equalsIgnoreCase("ACK")) {
+      final SipServletResponse pending = (SipServletResponse) req.getSession().getAttribute(PENDING_ACK);
+      if (pending != null) {
+        req.getSession().removeAttribute(PENDING_ACK);
+        final SipServletRequest ack = pending.createAck();
+        SIPHelper.copyContent(req, ack);
+        ack.send();
+        return;
+      }
       final SipSession ss = b2b.getLinkedSession(req.getSession());
       final java.util.List<SipServletMessage> msgs = b2b.getPendingMessages(ss, UAMode.UAC);
       for (final SipServletMessage msg : msgs) {
@@ -150,8 +165,11 @@ public class SIPHelper {
     else {
       final SipSession leg1 = req.getSession();
       final SipSession leg2 = req.getB2buaHelper().getLinkedSession(leg1);
-      final SipServletRequest req2 = req.getB2buaHelper().createRequest(leg2, req, null);
-      SIPHelper.copyContent(req, req2);
+      final SipServletRequest req2 = b2b.createRequest(leg2, req, null);
+      // not every container copies the content of the original request.
+      if (req2.getContentLength() <= 0) {
+        SIPHelper.copyContent(req, req2);
+      }
       req2.send();
     }
   }
@@ -169,6 +187,10 @@ public class SIPHelper {
       cpyresp = otherReq.createResponse(res.getStatus(), res.getReasonPhrase());
     }
     SIPHelper.copyContent(res, cpyresp);
+    if (res.getStatus() == SipServletResponse.SC_OK && res.getMethod().equalsIgnoreCase("INVITE")) {
+      // remembered so the ACK of the other leg does not scan the pending messages.
+      cpyresp.getSession().setAttribute(PENDING_ACK, res);
+    }
     cpyresp.send();
   }
 
@@ -13,6 +13,7 @@ package com.voxeo.moho.sip;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import javax.media.mscontrol.join.Joinable.Direction;
 import javax.media.mscontrol.networkconnection.SdpPortManagerEvent;
@@ -30,6 +31,8 @@ public class SIPIncomingCall extends SIPCallImpl {
 
   private static final Logger LOG = Logger.getLogger(SIPIncomingCall.class);
 
+  private CountDownLatch _earlyMedia;
+
   protected SIPIncomingCall(final ExecutionContext context, final SIPInviteEvent event) {
     super(context, event.getSipRequest());
     setRemoteSDP(SIPHelper.getRawContentWOException(event.getSipRequest()));
@@ -113,7 +116,7 @@ public class SIPIncomingCall extends SIPCallImpl {
           res.send();
         }
         setSIPCallState(State.PROGRESSED);
-        this.notifyAll();
+        earlyMediaProgressed();
       }
       catch (final IOException e) {
         LOG.warn("", e);
@@ -137,21 +140,23 @@ public class SIPIncomingCall extends SIPCallImpl {
       if (_joinDelegate != null) {
         _joinDelegate.setException(new CanceledException());
       }
-      this.setSIPCallState(State.DISCONNECTED);
-      terminate();
+      if (terminateState(State.DISCONNECTED) != null) {
+        terminate();
+      }
     }
     else {
       if (LOG.isDebugEnabled()) {
         LOG.debug("Receiving Cancel, but is already answered. terminating, callID"
             + (getSipSession() != null ? getSipSession().getCallId() : ""));
       }
-      this.setSIPCallState(State.DISCONNECTED);
-      terminate();
+      if (terminateState(State.DISCONNECTED) != null) {
+        terminate();
+      }
     }
   }
 
   protected synchronized void doInvite(final Map<String, String> headers) throws IOException {
-    if (_cstate == SIPCallImpl.State.INVITING) {
+    if (getSIPCallState() == SIPCallImpl.State.INVITING) {
       setSIPCallState(SIPCall.State.RINGING);
       final SipServletResponse res = _invite.createResponse(SipServletResponse.SC_RINGING);
       SIPHelper.addHeaders(res, headers);
@@ -159,26 +164,55 @@ public class SIPIncomingCall extends SIPCallImpl {
     }
   }
 
-  protected synchronized void doInviteWithEarlyMedia(final Map<String, String> headers) throws MediaException {
-    if (_cstate == SIPCallImpl.State.INVITING) {
+  protected void doInviteWithEarlyMedia(final Map<String, String> headers) throws MediaException {
+    final CountDownLatch progressed;
+    synchronized (this) {
+      if (getSIPCallState() != SIPCallImpl.State.INVITING) {
+        return;
+      }
       setSIPCallState(SIPCall.State.PROGRESSING);
+      progressed = new CountDownLatch(1);
+      _earlyMedia = progressed;
       processSDPOffer(getSipInitnalRequest());
-      while (!this.isTerminated() && _cstate == State.PROGRESSING) {
+    }
+    // waits outside the call, the 183 is sent by the media server event.
+    boolean interrupted = false;
+    try {
+      while (!this.isTerminated() && getSIPCallState() == State.PROGRESSING) {
         try {
-          this.wait();
+          progressed.await();
         }
         catch (final InterruptedException e) {
-          // ignore
+          interrupted = true;
         }
       }
-      if (_cstate != State.PROGRESSED) {
-        throw new IllegalStateException("" + this);
+    }
+    finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
       }
     }
+    if (getSIPCallState() != State.PROGRESSED) {
+      throw new IllegalStateException("" + this);
+    }
+  }
+
+  // releases the thread waiting in doInviteWithEarlyMedia, guarded by this.
+  private void earlyMediaProgressed() {
+    if (_earlyMedia != null) {
+      _earlyMedia.countDown();
+      _earlyMedia = null;
+    }
+  }
+
+  @Override
+  protected synchronized void terminate() {
+    super.terminate();
+    earlyMediaProgressed();
   }
 
   protected synchronized void doPrack(final SipServletRequest req) throws IOException {
-    if (_cstate == SIPCallImpl.State.PROGRESSED) {
+    if (getSIPCallState() == SIPCallImpl.State.PROGRESSED) {
       final SipServletResponse res = req.createResponse(SipServletResponse.SC_OK);
       if (getLocalSDP() != null) {
         res.setContent(getLocalSDP(), "application/sdp");
@@ -172,6 +172,7 @@ public class SIPOutgoingCall extends SIPCallImpl {
         .getSipAddress(), _headers, _appSession);
 
     _signal = _invite.getSession();
+    updateRegistry();
 
     if (_appSession == null) {
       _appSession = _signal.getApplicationSession();
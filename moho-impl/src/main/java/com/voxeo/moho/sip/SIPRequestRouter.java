@@ -0,0 +1,172 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.sip.SipServletRequest;
+
+/**
+ * The routing table of the SIP requests received by the {@link SIPController}.
+ * Each method is mapped to a {@link SIPRequestHandler}, and the requests of the
+ * methods without a handler go to the default handler. The table is built by
+ * the controller at init, before the application is initialized, so an
+ * application can replace or add the handler of a method, such as INFO or
+ * UPDATE, without subclassing the controller.
+ * <p>
+ * The number of requests and the handling time are recorded per method. The
+ * statistics of a method outlive its handler: they are kept when the handler
+ * is replaced or removed.
+ */
+public class SIPRequestRouter {
+
+  private final ConcurrentMap<String, Route> _routes = new ConcurrentHashMap<String, Route>();
+
+  private final ConcurrentMap<String, SIPRequestStatistics> _statistics = new ConcurrentHashMap<String, SIPRequestStatistics>();
+
+  private volatile SIPRequestHandler _defaultHandler;
+
+  private final SIPRequestStatistics _defaultStatistics = new SIPRequestStatistics("*");
+
+  public SIPRequestRouter(final SIPRequestHandler defaultHandler) {
+    if (defaultHandler == null) {
+      throw new IllegalArgumentException("defaultHandler is null");
+    }
+    _defaultHandler = defaultHandler;
+  }
+
+  /**
+   * Maps the method to the handler. The statistics of the method are kept.
+   * 
+   * @return the previous handler of the method, or null if there was none.
+   */
+  public SIPRequestHandler setHandler(final String method, final SIPRequestHandler handler) {
+    if (handler == null) {
+      throw new IllegalArgumentException("handler is null");
+    }
+    final Route route = new Route(handler, getOrCreateStatistics(method));
+    final Route previous = _routes.put(method, route);
+    return previous == null ? null : previous._handler;
+  }
+
+  /**
+   * Removes the handler of the method, its requests then go to the default
+   * handler. The statistics of the method are kept.
+   * 
+   * @return the removed handler, or null if there was none.
+   */
+  public SIPRequestHandler removeHandler(final String method) {
+    final Route previous = _routes.remove(method);
+    return previous == null ? null : previous._handler;
+  }
+
+  public SIPRequestHandler getHandler(final String method) {
+    final Route route = _routes.get(method);
+    return route == null ? _defaultHandler : route._handler;
+  }
+
+  public SIPRequestHandler getDefaultHandler() {
+    return _defaultHandler;
+  }
+
+  public void setDefaultHandler(final SIPRequestHandler defaultHandler) {
+    if (defaultHandler == null) {
+      throw new IllegalArgumentException("defaultHandler is null");
+    }
+    _defaultHandler = defaultHandler;
+  }
+
+  /**
+   * Handles the request with the handler of its method, and records the time
+   * it took.
+   */
+  public void route(final SipServletRequest req) throws ServletException, IOException {
+    final Route route = _routes.get(req.getMethod());
+    final SIPRequestHandler handler;
+    final SIPRequestStatistics statistics;
+    if (route != null) {
+      handler = route._handler;
+      statistics = route._statistics;
+    }
+    else {
+      handler = _defaultHandler;
+      statistics = _defaultStatistics;
+    }
+
+    final long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      handler.handle(req);
+      failed = false;
+    }
+    finally {
+      statistics.record(System.nanoTime() - start, failed);
+    }
+  }
+
+  /**
+   * @return the statistics of the method, or null if it has never had a
+   *         handler.
+   */
+  public SIPRequestStatistics getStatistics(final String method) {
+    return _statistics.get(method);
+  }
+
+  /**
+   * @return the statistics of the requests handled by the default handler.
+   */
+  public SIPRequestStatistics getDefaultStatistics() {
+    return _defaultStatistics;
+  }
+
+  /**
+   * @return the statistics of every method that has ever had a handler, and of
+   *         the default handler last.
+   */
+  public List<SIPRequestStatistics> getStatistics() {
+    final List<SIPRequestStatistics> statistics = new ArrayList<SIPRequestStatistics>(_statistics.values());
+    statistics.add(_defaultStatistics);
+    return statistics;
+  }
+
+  private SIPRequestStatistics getOrCreateStatistics(final String method) {
+    SIPRequestStatistics statistics = _statistics.get(method);
+    if (statistics == null) {
+      final SIPRequestStatistics created = new SIPRequestStatistics(method);
+      statistics = _statistics.putIfAbsent(method, created);
+      if (statistics == null) {
+        statistics = created;
+      }
+    }
+    return statistics;
+  }
+
+  private static class Route {
+
+    private final SIPRequestHandler _handler;
+
+    private final SIPRequestStatistics _statistics;
+
+    Route(final SIPRequestHandler handler, final SIPRequestStatistics statistics) {
+      _handler = handler;
+      _statistics = statistics;
+    }
+  }
+}
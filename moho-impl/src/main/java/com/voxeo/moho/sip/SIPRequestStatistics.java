@@ -0,0 +1,114 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * SIPRequestStatistics collects the number of requests of one SIP method and
+ * the time spent handling them on the container thread.
+ */
+public class SIPRequestStatistics {
+
+  /**
+   * the upper bounds, in microseconds, of the latency histogram buckets, the
+   * last bucket counts all the slower requests.
+   */
+  public static final long[] LATENCY_BUCKETS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 100000 };
+
+  private final String _method;
+
+  private final AtomicLong _requests = new AtomicLong();
+
+  private final AtomicLong _failures = new AtomicLong();
+
+  private final AtomicLong _totalTime = new AtomicLong();
+
+  private final AtomicLong _maxTime = new AtomicLong();
+
+  private final AtomicLongArray _histogram = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+
+  public SIPRequestStatistics(final String method) {
+    _method = method;
+  }
+
+  void record(final long nanos, final boolean failed) {
+    _requests.incrementAndGet();
+    if (failed) {
+      _failures.incrementAndGet();
+    }
+    _totalTime.addAndGet(nanos);
+    long max = _maxTime.get();
+    while (nanos > max && !_maxTime.compareAndSet(max, nanos)) {
+      max = _maxTime.get();
+    }
+    final long micros = nanos / 1000;
+    int i = 0;
+    while (i < LATENCY_BUCKETS.length && micros > LATENCY_BUCKETS[i]) {
+      i++;
+    }
+    _histogram.incrementAndGet(i);
+  }
+
+  public String getMethod() {
+    return _method;
+  }
+
+  public long getRequestCount() {
+    return _requests.get();
+  }
+
+  /**
+   * @return the number of requests whose handler threw an exception.
+   */
+  public long getFailureCount() {
+    return _failures.get();
+  }
+
+  /**
+   * @return the average handling time in microseconds.
+   */
+  public double getAverageLatency() {
+    final long requests = _requests.get();
+    return requests == 0 ? 0 : _totalTime.get() / 1000.0 / requests;
+  }
+
+  /**
+   * @return the longest handling time in microseconds.
+   */
+  public long getMaxLatency() {
+    return _maxTime.get() / 1000;
+  }
+
+  /**
+   * @return the number of requests in each bucket of {@link #LATENCY_BUCKETS},
+   *         plus one for the slower requests.
+   */
+  public long[] getLatencyHistogram() {
+    final long[] histogram = new long[_histogram.length()];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = _histogram.get(i);
+    }
+    return histogram;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[method=" + _method + ", requests=" + _requests.get() + ", failures="
+        + _failures.get() + ", averageLatency(us)=" + getAverageLatency() + ", maxLatency(us)=" + getMaxLatency()
+        + "]";
+  }
+}
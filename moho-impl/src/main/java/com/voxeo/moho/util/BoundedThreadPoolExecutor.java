@@ -0,0 +1,191 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread pool with a bounded number of threads and a bounded work queue.
+ * When both are exhausted the {@link OverloadPolicy} decides what happens to
+ * the task. The pool keeps counters of the overloaded submissions so they can
+ * be monitored together with the active thread count and the queue depth.
+ */
+public class BoundedThreadPoolExecutor extends ThreadPoolExecutor {
+
+  public enum OverloadPolicy {
+    /**
+     * throws a RejectedExecutionException to the submitter. An initial request
+     * rejected this way is answered with 503 by the SIPController.
+     */
+    REJECT,
+    /**
+     * runs the task on the submitting thread, which slows down the submitter.
+     * A {@link DrainTask} is rejected instead.
+     */
+    CALLER_RUNS,
+    /**
+     * silently drops the task. The Future returned for a dropped event never
+     * completes. A {@link DrainTask} is rejected instead.
+     */
+    SHED
+  }
+
+  /**
+   * A task that drains a queue owned by its submitter, such as the event queue
+   * of a dispatcher. Dropping it would strand the queue, and running it on the
+   * submitting thread would run handlers wherever the submitter happens to be,
+   * so it is always rejected with a RejectedExecutionException when the pool is
+   * overloaded, whatever the policy.
+   */
+  public interface DrainTask extends Runnable {
+  }
+
+  private final OverloadPolicy _policy;
+
+  private final AtomicLong _rejected = new AtomicLong();
+
+  private final AtomicLong _callerRuns = new AtomicLong();
+
+  private final AtomicLong _shed = new AtomicLong();
+
+  private final AtomicInteger _busy = new AtomicInteger();
+
+  /**
+   * @param corePoolSize
+   *          the number of threads kept in the pool.
+   * @param maximumPoolSize
+   *          the maximum number of threads in the pool.
+   * @param queueSize
+   *          the capacity of the work queue, 0 means tasks are handed to a
+   *          thread directly.
+   * @param policy
+   *          what to do with a task when there is neither a free thread nor
+   *          room in the queue.
+   * @param threadFactory
+   *          the factory of the pool threads.
+   */
+  public BoundedThreadPoolExecutor(final int corePoolSize, final int maximumPoolSize, final int queueSize,
+      final OverloadPolicy policy, final ThreadFactory threadFactory) {
+    super(corePoolSize, Math.max(corePoolSize, maximumPoolSize), 60, TimeUnit.SECONDS, createQueue(queueSize),
+        threadFactory);
+    _policy = policy == null ? OverloadPolicy.REJECT : policy;
+    setRejectedExecutionHandler(new OverloadHandler());
+  }
+
+  private static BlockingQueue<Runnable> createQueue(final int queueSize) {
+    if (queueSize > 0) {
+      return new LinkedBlockingQueue<Runnable>(queueSize);
+    }
+    return new SynchronousQueue<Runnable>();
+  }
+
+  public OverloadPolicy getOverloadPolicy() {
+    return _policy;
+  }
+
+  /**
+   * @return the number of tasks waiting in the work queue.
+   */
+  public int getQueueDepth() {
+    return getQueue().size();
+  }
+
+  /**
+   * Unlike {@link #getActiveCount()}, this does not take the main lock of the
+   * pool, so it can be read on every request.
+   * 
+   * @return the number of pool threads running a task.
+   */
+  public int getBusyCount() {
+    return _busy.get();
+  }
+
+  /**
+   * @return the number of tasks rejected with a RejectedExecutionException.
+   */
+  public long getRejectedCount() {
+    return _rejected.get();
+  }
+
+  /**
+   * @return the number of tasks run on the submitting thread because the pool
+   *         was overloaded.
+   */
+  public long getCallerRunsCount() {
+    return _callerRuns.get();
+  }
+
+  /**
+   * @return the number of tasks dropped because the pool was overloaded.
+   */
+  public long getShedCount() {
+    return _shed.get();
+  }
+
+  @Override
+  protected void beforeExecute(final Thread t, final Runnable r) {
+    super.beforeExecute(t, r);
+    _busy.incrementAndGet();
+  }
+
+  @Override
+  protected void afterExecute(final Runnable r, final Throwable t) {
+    _busy.decrementAndGet();
+    super.afterExecute(r, t);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[policy=" + _policy + ", poolSize=" + getPoolSize() + ", active="
+        + getActiveCount() + ", queueDepth=" + getQueueDepth() + ", rejected=" + _rejected.get() + ", callerRuns="
+        + _callerRuns.get() + ", shed=" + _shed.get() + "]";
+  }
+
+  private class OverloadHandler implements RejectedExecutionHandler {
+
+    @Override
+    public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        _rejected.incrementAndGet();
+        throw new RejectedExecutionException("Executor has been shut down.");
+      }
+      if (r instanceof DrainTask) {
+        _rejected.incrementAndGet();
+        throw new RejectedExecutionException("Executor is overloaded: " + BoundedThreadPoolExecutor.this);
+      }
+      switch (_policy) {
+        case CALLER_RUNS:
+          _callerRuns.incrementAndGet();
+          r.run();
+          break;
+        case SHED:
+          _shed.incrementAndGet();
+          break;
+        default:
+          _rejected.incrementAndGet();
+          throw new RejectedExecutionException("Executor is overloaded: " + BoundedThreadPoolExecutor.this);
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.voxeo.moho.CompletionListener;
+
+/**
+ * Keeps the {@link CompletionListener}s of an asynchronous operation and
+ * notifies them once, when the operation completes or fails. Listeners added
+ * after the completion are notified immediately.
+ */
+public class CompletionNotifier<T> {
+
+  private static final Logger LOG = Logger.getLogger(CompletionNotifier.class);
+
+  private List<CompletionListener<T>> _listeners = new ArrayList<CompletionListener<T>>(1);
+
+  private boolean _done;
+
+  private T _result;
+
+  private Throwable _failure;
+
+  public void addListener(final CompletionListener<T> listener) {
+    if (listener == null) {
+      return;
+    }
+    synchronized (this) {
+      if (!_done) {
+        _listeners.add(listener);
+        return;
+      }
+    }
+    deliver(listener, _result, _failure);
+  }
+
+  /**
+   * @return false if the operation was already complete.
+   */
+  public boolean complete(final T result) {
+    return finish(result, null);
+  }
+
+  /**
+   * @return false if the operation was already complete.
+   */
+  public boolean fail(final Throwable t) {
+    return finish(null, t);
+  }
+
+  public synchronized boolean isDone() {
+    return _done;
+  }
+
+  private boolean finish(final T result, final Throwable t) {
+    final List<CompletionListener<T>> listeners;
+    synchronized (this) {
+      if (_done) {
+        return false;
+      }
+      _done = true;
+      _result = result;
+      _failure = t;
+      listeners = _listeners;
+      _listeners = null;
+    }
+    for (final CompletionListener<T> listener : listeners) {
+      deliver(listener, result, t);
+    }
+    return true;
+  }
+
+  private void deliver(final CompletionListener<T> listener, final T result, final Throwable t) {
+    try {
+      if (t == null) {
+        listener.onComplete(result);
+      }
+      else {
+        listener.onFailure(t);
+      }
+    }
+    catch (final Throwable e) {
+      LOG.warn("Uncaught exception in completion listener", e);
+    }
+  }
+}
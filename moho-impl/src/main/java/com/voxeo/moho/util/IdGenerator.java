@@ -0,0 +1,27 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+/**
+ * Generates the ids of the event sources of an application, such as calls,
+ * mixers and subscriptions. The ids must be unique across all the nodes of a
+ * cluster, since they are exchanged with other nodes and with applications.
+ * Implementations are called concurrently from many threads.
+ */
+public interface IdGenerator {
+
+  String nextId();
+
+}
@@ -13,177 +13,217 @@
  */
 package com.voxeo.moho.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+/**
+ * Parses the NLSML results of the speech recognizer. The document is read as
+ * a stream, so no tree is built for it, and the reader factory is shared.
+ * <p>
+ * The results are the ones of the DOM parser this one replaced: the elements
+ * are matched by their unprefixed name, and the text of CDATA sections is
+ * ignored.
+ */
 public class NLSMLParser {
 
   private static final List<Map<String, String>> EMPTY_RESULT = new ArrayList<Map<String, String>>(0);
 
-  public static List<Map<String, String>> parse(final String xml) throws Exception {
+  // makes the JDK reader report CDATA sections apart from the other text.
+  private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
 
-    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setValidating(false);
+  private static final XMLInputFactory FACTORY;
 
-    InputStream is = null;
-    Document d = null;
-    try {
-      is = new ByteArrayInputStream(xml.getBytes());
-      d = factory.newDocumentBuilder().parse(is);
-    }
-    finally {
-      if (is != null) {
-        try {
-          is.close();
-        }
-        catch (final IOException e) {
-        }
-      }
+  static {
+    FACTORY = XMLInputFactory.newInstance();
+    FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    if (FACTORY.isPropertySupported(REPORT_CDATA)) {
+      FACTORY.setProperty(REPORT_CDATA, Boolean.TRUE);
     }
+    FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
 
-    final NodeList results = d.getElementsByTagName("result");
-    if (results.getLength() == 0) {
+  /**
+   * @return a map for each interpretation, with the keys <code>_grammar_id</code>,
+   *         <code>_grammar</code>, <code>_confidence</code>,
+   *         <code>_interpretationconfidence</code> and, when present,
+   *         <code>_tag</code>, <code>_concept</code> and
+   *         <code>_interpretation</code>.
+   * @see #parseResults(String)
+   */
+  public static List<Map<String, String>> parse(final String xml) throws Exception {
+    final List<NLSMLResult> results = parseResults(xml);
+    if (results.isEmpty()) {
       return EMPTY_RESULT;
     }
+    final List<Map<String, String>> retval = new ArrayList<Map<String, String>>(results.size());
+    for (final NLSMLResult result : results) {
+      retval.add(result.toMap());
+    }
+    return retval;
+  }
 
-    final List<Map<String, String>> retval = new ArrayList<Map<String, String>>(results.getLength());
-
-    for (int i = 0; i < results.getLength(); i++) {
-      final Element result = (Element) results.item(i);
-      final String fullGrammarID = result.getAttribute("grammar");
-      final List<Element> interpretations = getChildElementsList(result, "interpretation");
-
-      for (final Element interpretation : interpretations) {
-        final Map<String, String> reco = new HashMap<String, String>();
-        retval.add(reco);
-
-        final String localFullGrammarID = interpretation.getAttribute("grammar");
-        String gramid;
-        String gram;
-        if (localFullGrammarID != null && !localFullGrammarID.equals("")) {
-          gramid = parseGrammarID(localFullGrammarID, false);
-          gram = parseGrammarID(localFullGrammarID, true);
-        }
-        else {
-          gramid = parseGrammarID(fullGrammarID, false);
-          gram = parseGrammarID(fullGrammarID, true);
-        }
-        reco.put("_grammar_id", gramid);
-        reco.put("_grammar", gram);
-
-        final String conf = interpretation.getAttributes().getNamedItem("confidence").getNodeValue();
-        final float confF = Float.parseFloat(conf) / 100F;
-        reco.put("_confidence", Float.toString(confF));
-        reco.put("_interpretationconfidence", Float.toString(confF));
-
-        String tag = getTextContent(interpretation);
-        if (tag != null) {
-          tag = tag.trim();
-          if (tag.length() > 0) {
-            tag = tag.replaceAll("\\s*", "");
-            reco.put("_tag", tag);
-          }
+  /**
+   * @return the interpretations of all the <code>result</code> elements, in
+   *         document order.
+   */
+  public static List<NLSMLResult> parseResults(final String xml) throws XMLStreamException {
+    final List<NLSMLResult> retval = new ArrayList<NLSMLResult>(1);
+    final XMLStreamReader reader = FACTORY.createXMLStreamReader(new StringReader(xml));
+    try {
+      while (reader.hasNext()) {
+        if (reader.next() == XMLStreamConstants.START_ELEMENT && isElement(reader, "result")) {
+          readResult(reader, retval);
         }
+      }
+    }
+    finally {
+      reader.close();
+    }
+    return retval;
+  }
+
+  // reads the interpretations of a result, up to its end tag.
+  private static void readResult(final XMLStreamReader reader, final List<NLSMLResult> results)
+      throws XMLStreamException {
+    final String grammar = reader.getAttributeValue(null, "grammar");
+    int event;
+    while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      if (isElement(reader, "interpretation")) {
+        results.add(readInterpretation(reader, grammar));
+      }
+      else {
+        skipElement(reader);
+      }
+    }
+  }
 
-        final Element voxeoresult = getFirstChildElement(interpretation, "voxeoresult");
-        if (voxeoresult != null) {
-          final Element concept = getFirstChildElement(voxeoresult, "concept");
-          if (concept != null) {
-            String conceptText = getTextContent(concept);
-            if (conceptText != null) {
-              conceptText = conceptText.trim();
-              if (conceptText.length() > 0) {
-                reco.put("_concept", conceptText);
+  private static NLSMLResult readInterpretation(final XMLStreamReader reader, final String resultGrammar)
+      throws XMLStreamException {
+    String fullGrammarID = reader.getAttributeValue(null, "grammar");
+    if (fullGrammarID == null || fullGrammarID.length() == 0) {
+      fullGrammarID = resultGrammar != null ? resultGrammar : "";
+    }
+    final String conf = reader.getAttributeValue(null, "confidence");
+    if (conf == null) {
+      throw new XMLStreamException("No confidence in interpretation", reader.getLocation());
+    }
+    final float confidence = Float.parseFloat(conf) / 100F;
+
+    StringBuilder tag = null;
+    String concept = null;
+    String interpretation = null;
+    boolean voxeoresult = false;
+    boolean conceptRead = false;
+    boolean interpretationRead = false;
+    int event;
+    while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+      switch (event) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+          tag = appendWithoutWhitespace(tag, reader);
+          break;
+        case XMLStreamConstants.START_ELEMENT:
+          if (!voxeoresult && isElement(reader, "voxeoresult")) {
+            voxeoresult = true;
+            int child;
+            while ((child = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+              if (child != XMLStreamConstants.START_ELEMENT) {
+                continue;
               }
-            }
-          }
-          final Element interp = getFirstChildElement(voxeoresult, "interpretation");
-          if (interp != null) {
-            String interpText = getTextContent(interp);
-            if (interpText != null) {
-              interpText = interpText.trim();
-              if (interpText.length() > 0) {
-                reco.put("_interpretation", interpText);
+              // only the first concept and interpretation count, even if blank.
+              if (!conceptRead && isElement(reader, "concept")) {
+                conceptRead = true;
+                concept = readText(reader);
+              }
+              else if (!interpretationRead && isElement(reader, "interpretation")) {
+                interpretationRead = true;
+                interpretation = readText(reader);
+              }
+              else {
+                skipElement(reader);
               }
             }
           }
-        }
+          else {
+            skipElement(reader);
+          }
+          break;
+        default:
+          break;
       }
     }
 
-    return retval;
+    return new NLSMLResult(parseGrammarID(fullGrammarID, false), parseGrammarID(fullGrammarID, true), confidence,
+        tag != null && tag.length() > 0 ? tag.toString() : null, concept, interpretation);
   }
 
-  private static Element getFirstChildElement(final Node node, final String nodeName) {
-    return getFirstChildElementIntern(node, new QName(nodeName));
+  private static boolean isElement(final XMLStreamReader reader, final String name) {
+    final String prefix = reader.getPrefix();
+    return (prefix == null || prefix.length() == 0) && name.equals(reader.getLocalName());
   }
 
-  private static Element getFirstChildElementIntern(final Node node, final QName nodeName) {
-    Element childElement = null;
-    final Iterator it = getChildElementsIntern(node, nodeName).iterator();
-    if (it.hasNext()) {
-      childElement = (Element) it.next();
+  // appends the current text without its whitespace.
+  private static StringBuilder appendWithoutWhitespace(StringBuilder buffer, final XMLStreamReader reader) {
+    final char[] chars = reader.getTextCharacters();
+    final int end = reader.getTextStart() + reader.getTextLength();
+    for (int i = reader.getTextStart(); i < end; i++) {
+      final char c = chars[i];
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != '\u000B') {
+        if (buffer == null) {
+          buffer = new StringBuilder(reader.getTextLength());
+        }
+        buffer.append(c);
+      }
     }
-    return childElement;
-  }
-
-  private static List<Element> getChildElementsList(final Node node, final String nodeName) {
-    return getChildElementsIntern(node, new QName(nodeName));
+    return buffer;
   }
 
-  private static List<Element> getChildElementsIntern(final Node node, final QName nodeName) {
-    final ArrayList<Element> list = new ArrayList<Element>();
-    final NodeList nlist = node.getChildNodes();
-    for (int i = 0; i < nlist.getLength(); i++) {
-      final Node child = nlist.item(i);
-      if (child.getNodeType() == Node.ELEMENT_NODE) {
-        if (nodeName == null) {
-          list.add((Element) child);
-        }
-        else {
-          QName qname;
-          if (nodeName.getNamespaceURI().length() > 0) {
-            qname = new QName(child.getNamespaceURI(), child.getLocalName());
-          }
-          else {
-            qname = new QName(child.getLocalName() == null ? child.getNodeName() : child.getLocalName());
-          }
-          if (qname.equals(nodeName)) {
-            list.add((Element) child);
-          }
+  // reads the text directly under the current element, trimmed, or null if it
+  // is blank.
+  private static String readText(final XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder buffer = null;
+    int event;
+    while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+      if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+        if (buffer == null) {
+          buffer = new StringBuilder(reader.getTextLength());
         }
+        buffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+      }
+      else if (event == XMLStreamConstants.START_ELEMENT) {
+        skipElement(reader);
       }
     }
-    return Collections.unmodifiableList(list);
+    if (buffer == null) {
+      return null;
+    }
+    final String text = buffer.toString().trim();
+    return text.length() > 0 ? text : null;
   }
 
-  private static String getTextContent(final Node node) {
-    boolean hasTextContent = false;
-    final StringBuffer buffer = new StringBuffer();
-    final NodeList nlist = node.getChildNodes();
-    for (int i = 0; i < nlist.getLength(); i++) {
-      final Node child = nlist.item(i);
-      if (child.getNodeType() == Node.TEXT_NODE) {
-        buffer.append(child.getNodeValue());
-        hasTextContent = true;
+  // skips the current element and its content.
+  private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      final int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      }
+      else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
       }
     }
-    return hasTextContent ? buffer.toString() : null;
   }
 
   private static String parseGrammarID(final String fullGrammarID, final boolean suffix) {
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One interpretation of an NLSML recognition result, as parsed by
+ * {@link NLSMLParser#parseResults(String)}.
+ */
+public final class NLSMLResult {
+
+  private final String _grammarId;
+
+  private final String _grammar;
+
+  private final float _confidence;
+
+  private final String _tag;
+
+  private final String _concept;
+
+  private final String _interpretation;
+
+  public NLSMLResult(final String grammarId, final String grammar, final float confidence, final String tag,
+      final String concept, final String interpretation) {
+    _grammarId = grammarId;
+    _grammar = grammar;
+    _confidence = confidence;
+    _tag = tag;
+    _concept = concept;
+    _interpretation = interpretation;
+  }
+
+  /**
+   * @return the id of the matched grammar, such as <code>0</code> for
+   *         <code>session:0@example.com</code>.
+   */
+  public String getGrammarId() {
+    return _grammarId;
+  }
+
+  /**
+   * @return the matched grammar, such as <code>0@example.com</code> for
+   *         <code>session:0@example.com</code>.
+   */
+  public String getGrammar() {
+    return _grammar;
+  }
+
+  /**
+   * @return the confidence, between 0 and 1.
+   */
+  public float getConfidence() {
+    return _confidence;
+  }
+
+  /**
+   * @return the text of the interpretation without any whitespace, or null.
+   */
+  public String getTag() {
+    return _tag;
+  }
+
+  public String getConcept() {
+    return _concept;
+  }
+
+  public String getInterpretation() {
+    return _interpretation;
+  }
+
+  /**
+   * @return the result with the keys of {@link NLSMLParser#parse(String)}.
+   */
+  public Map<String, String> toMap() {
+    final Map<String, String> reco = new HashMap<String, String>();
+    reco.put("_grammar_id", _grammarId);
+    reco.put("_grammar", _grammar);
+    final String conf = Float.toString(_confidence);
+    reco.put("_confidence", conf);
+    reco.put("_interpretationconfidence", conf);
+    if (_tag != null) {
+      reco.put("_tag", _tag);
+    }
+    if (_concept != null) {
+      reco.put("_concept", _concept);
+    }
+    if (_interpretation != null) {
+      reco.put("_interpretation", _interpretation);
+    }
+    return reco;
+  }
+
+  @Override
+  public String toString() {
+    return "NLSMLResult[grammar=" + _grammar + ", confidence=" + _confidence + ", tag=" + _tag + ", concept="
+        + _concept + ", interpretation=" + _interpretation + "]";
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Generates random (version 4) UUIDs like {@link UUID#randomUUID()}, but from
+ * a fixed set of SHA1PRNG generators instead of one generator shared by all the
+ * threads. A thread uses the generator picked by its id, so threads rarely wait
+ * for each other. With 122 random bits, the ids are unique across a cluster
+ * without any configuration.
+ * <p>
+ * The generators are not per thread: a generator per thread would be created
+ * and seeded again for every short-lived thread, which costs more than the id
+ * itself when a thread, virtual or pooled per request, generates only a few
+ * ids. The price of a fixed set is that threads whose ids pick the same
+ * generator serialize on it; the set is twice the number of processors to keep
+ * that rare. Every generator is seeded once from the default SecureRandom, so
+ * the ids stay unpredictable.
+ */
+public class RandomIdGenerator implements IdGenerator {
+
+  private final SecureRandom[] _stripes;
+
+  private final int _mask;
+
+  public RandomIdGenerator() {
+    this(2 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param stripes
+   *          the number of generators, rounded up to a power of two.
+   */
+  public RandomIdGenerator(final int stripes) {
+    int size = 1;
+    while (size < stripes) {
+      size <<= 1;
+    }
+    final SecureRandom seeder = new SecureRandom();
+    _stripes = new SecureRandom[size];
+    for (int i = 0; i < size; i++) {
+      _stripes[i] = createGenerator(seeder);
+    }
+    _mask = size - 1;
+  }
+
+  private static SecureRandom createGenerator(final SecureRandom seeder) {
+    final byte[] seed = new byte[20];
+    seeder.nextBytes(seed);
+    try {
+      // seeding a SHA1PRNG before its first use replaces its self-seeding.
+      final SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+      random.setSeed(seed);
+      return random;
+    }
+    catch (final NoSuchAlgorithmException e) {
+      return new SecureRandom(seed);
+    }
+  }
+
+  @Override
+  public String nextId() {
+    final byte[] bytes = new byte[16];
+    final SecureRandom random = _stripes[(int) Thread.currentThread().getId() & _mask];
+    synchronized (random) {
+      random.nextBytes(bytes);
+    }
+    long msb = 0;
+    long lsb = 0;
+    for (int i = 0; i < 8; i++) {
+      msb = (msb << 8) | (bytes[i] & 0xff);
+      lsb = (lsb << 8) | (bytes[i + 8] & 0xff);
+    }
+    // version 4, IETF variant.
+    msb = (msb & 0xffffffffffff0fffL) | 0x0000000000004000L;
+    lsb = (lsb & 0x3fffffffffffffffL) | 0x8000000000000000L;
+    return new UUID(msb, lsb).toString();
+  }
+
+}
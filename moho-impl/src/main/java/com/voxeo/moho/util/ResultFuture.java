@@ -0,0 +1,132 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.voxeo.moho.CompletionListener;
+
+/**
+ * A Future completed directly, with {@link #complete(Object)} or
+ * {@link #fail(Throwable)}, by the listener that observes the end of an
+ * operation. No thread runs or waits on its behalf: get() blocks only the
+ * callers, and the {@link CompletionListener}s are notified on the thread that
+ * completes it. Only the first of the completions and the cancel counts, the
+ * others are ignored.
+ */
+public class ResultFuture<T> implements Future<T> {
+
+  private final CompletionNotifier<T> _notifier = new CompletionNotifier<T>();
+
+  private final CountDownLatch _latch = new CountDownLatch(1);
+
+  private boolean _done;
+
+  private boolean _cancelled;
+
+  private T _result;
+
+  private Throwable _failure;
+
+  /**
+   * @return false if the future was already done.
+   */
+  public boolean complete(final T result) {
+    return finish(result, null, false);
+  }
+
+  /**
+   * @return false if the future was already done.
+   */
+  public boolean fail(final Throwable t) {
+    return finish(null, t, false);
+  }
+
+  public void addCompletionListener(final CompletionListener<T> listener) {
+    _notifier.addListener(listener);
+  }
+
+  /**
+   * Completes the future with a CancellationException. There is no thread to
+   * interrupt, stopping the operation itself is up to the caller.
+   */
+  @Override
+  public boolean cancel(final boolean mayInterruptIfRunning) {
+    return finish(null, null, true);
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return _cancelled;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return _done;
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    _latch.await();
+    return report();
+  }
+
+  @Override
+  public T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+      TimeoutException {
+    if (!_latch.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return report();
+  }
+
+  private boolean finish(final T result, final Throwable t, final boolean cancelled) {
+    synchronized (this) {
+      if (_done) {
+        return false;
+      }
+      _done = true;
+      _cancelled = cancelled;
+      _result = result;
+      _failure = t;
+    }
+    _latch.countDown();
+    if (cancelled) {
+      _notifier.fail(new CancellationException());
+    }
+    else if (t != null) {
+      _notifier.fail(t);
+    }
+    else {
+      _notifier.complete(result);
+    }
+    return true;
+  }
+
+  private synchronized T report() throws ExecutionException {
+    if (_cancelled) {
+      throw new CancellationException();
+    }
+    if (_failure != null) {
+      throw new ExecutionException(_failure);
+    }
+    return _result;
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates ids made of a node prefix, the start time of the generator and a
+ * counter, such as <code>node1-gq3k5ztc-1f</code>. The ids are unique across a
+ * cluster as long as each node has its own prefix, and the start time keeps
+ * them unique across restarts of a node. Without a configured prefix a random
+ * one is chosen, which makes a collision between nodes very unlikely but not
+ * impossible.
+ */
+public class SequentialIdGenerator implements IdGenerator {
+
+  private final String _prefix;
+
+  private final AtomicLong _counter = new AtomicLong();
+
+  public SequentialIdGenerator() {
+    this(null);
+  }
+
+  /**
+   * @param node
+   *          the name of this node, unique in the cluster, or null for a
+   *          random one.
+   */
+  public SequentialIdGenerator(final String node) {
+    String prefix = node;
+    if (prefix == null || prefix.trim().length() == 0) {
+      prefix = Long.toString(new SecureRandom().nextLong() & 0xffffffffffffL, 36);
+    }
+    _prefix = prefix.trim() + "-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+  }
+
+  @Override
+  public String nextId() {
+    return _prefix + Long.toString(_counter.incrementAndGet(), 36);
+  }
+
+}
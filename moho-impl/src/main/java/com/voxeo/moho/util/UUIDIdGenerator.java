@@ -0,0 +1,31 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.UUID;
+
+/**
+ * Generates random UUIDs with {@link UUID#randomUUID()}. All the threads
+ * share its SecureRandom, which becomes a point of contention at high call
+ * rates, see {@link RandomIdGenerator} and {@link SequentialIdGenerator}.
+ */
+public class UUIDIdGenerator implements IdGenerator {
+
+  @Override
+  public String nextId() {
+    return UUID.randomUUID().toString();
+  }
+
+}
@@ -41,6 +41,27 @@ public class Utils {
     return null;
   }
 
+  /**
+   * Creates a factory of virtual threads when the running JVM supports them
+   * (Java 21 or later). The JDK API is looked up reflectively so that Moho
+   * still runs on older JVMs.
+   * 
+   * @param namePrefix
+   *          the prefix of the thread names, followed by a counter.
+   * @return the factory, or null if virtual threads are not supported.
+   */
+  public static ThreadFactory createVirtualThreadFactory(final String namePrefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+    catch (final Exception e) {
+      return null;
+    }
+  }
+
   public static class DaemonThreadFactory implements ThreadFactory {
     private ThreadGroup group;
 
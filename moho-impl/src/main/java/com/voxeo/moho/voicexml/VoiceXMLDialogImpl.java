@@ -13,11 +13,11 @@ package com.voxeo.moho.voicexml;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.media.mscontrol.MediaEventListener;
 import javax.media.mscontrol.MediaObject;
@@ -46,6 +46,7 @@ import com.voxeo.moho.event.DispatchableEventSource;
 import com.voxeo.moho.event.JoinCompleteEvent;
 import com.voxeo.moho.event.MediaResourceDisconnectEvent;
 import com.voxeo.moho.event.JoinCompleteEvent.Cause;
+import com.voxeo.moho.util.ResultFuture;
 
 public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialog, ParticipantContainer {
 
@@ -67,11 +68,14 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
 
   protected VxmlDialog _dialog;
 
-  protected FutureTask<Map<String, Object>> _future;
+  protected ResultFuture<Map<String, Object>> _future;
 
   protected Map<String, Object> _result;
 
-  protected Object _lock = new Object();
+  protected final ReentrantLock _lock = new ReentrantLock();
+
+  // signalled whenever the dialog becomes PREPARED or IDLE.
+  protected final Condition _stateChanged = _lock.newCondition();
 
   protected JoineeData _joinees = new JoineeData();
 
@@ -181,7 +185,8 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
   @Override
   public Joint join(final Participant other, final JoinType type, final Direction direction)
       throws IllegalStateException {
-    synchronized (_lock) {
+    _lock.lock();
+    try {
       if (_state != DialogState.IDLE) {
         throw new IllegalStateException("Cannot join when the dialog is starting.");
       }
@@ -189,6 +194,9 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
         return new JointImpl(_context.getExecutor(), new JointImpl.DummyJoinWorker(VoiceXMLDialogImpl.this, other));
       }
     }
+    finally {
+      _lock.unlock();
+    }
     if (other instanceof Call) {
       return other.join(this, type, direction);
     }
@@ -201,12 +209,16 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
         public JoinCompleteEvent call() throws Exception {
           JoinCompleteEvent event = null;
           try {
-            synchronized (_lock) {
+            _lock.lock();
+            try {
               _dialog.join(direction, (Joinable) other.getMediaObject());
               _joinees.add(other, type, direction);
               ((ParticipantContainer) other).addParticipant(VoiceXMLDialogImpl.this, type, direction);
               event = new JoinCompleteEvent(VoiceXMLDialogImpl.this, other, Cause.JOINED);
             }
+            finally {
+              _lock.unlock();
+            }
           }
           catch (final Exception e) {
             event = new JoinCompleteEvent(VoiceXMLDialogImpl.this, other, Cause.ERROR, e);
@@ -228,7 +240,8 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
 
   @Override
   public void unjoin(final Participant p) {
-    synchronized (_lock) {
+    _lock.lock();
+    try {
       if (!_joinees.contains(p)) {
         return;
       }
@@ -242,73 +255,77 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
         }
       }
     }
+    finally {
+      _lock.unlock();
+    }
     p.unjoin(this);
   }
 
   public void prepare() {
-    synchronized (_lock) {
+    _lock.lock();
+    try {
       if (_state != DialogState.IDLE) {
         throw new IllegalStateException("" + this);
       }
       _dialog.prepare(_address.getDocumentURL(), _options, _sessionVariables);
       setState(DialogState.PREPARING);
     }
+    finally {
+      _lock.unlock();
+    }
   }
 
   public void start() {
-    synchronized (_lock) {
+    _lock.lock();
+    try {
       if (_state != DialogState.PREPARING && _state != DialogState.PREPARED) {
         throw new IllegalStateException("" + this);
       }
       while (_state != DialogState.PREPARED && _state != DialogState.IDLE) {
-        try {
-          _lock.wait();
-        }
-        catch (final InterruptedException e) {
-          // ignore
-        }
+        _stateChanged.awaitUninterruptibly();
       }
       if (_state == DialogState.IDLE) {
         throw new IllegalStateException("Error: " + this);
       }
-      _future = new FutureTask<Map<String, Object>>(new Callable<Map<String, Object>>() {
-        @Override
-        public Map<String, Object> call() throws Exception {
-          synchronized (_lock) {
-            Map<String, Object> retval = _result = null;
-            if (_state == DialogState.PREPARED) {
-              _dialog.start(_sessionVariables);
-              while (_result == null && _state != DialogState.IDLE) {
-                _lock.wait();
-              }
-            }
-            retval = _result;
-            return retval;
-          }
-        }
-
-      });
-      new Thread(_future).start();
+      // completed by the listener when the dialog exits, no thread waits for
+      // the result.
+      _result = null;
+      _future = new ResultFuture<Map<String, Object>>();
+      try {
+        _dialog.start(_sessionVariables);
+      }
+      catch (final Exception e) {
+        _future.fail(e);
+      }
+    }
+    finally {
+      _lock.unlock();
     }
   }
 
   public void terminate(final boolean immediate) {
-    synchronized (_lock) {
+    _lock.lock();
+    try {
       _dialog.terminate(immediate);
       while (_state != DialogState.IDLE) {
-        try {
-          _lock.wait();
-        }
-        catch (final InterruptedException e) {
-          // ignore
-        }
+        _stateChanged.awaitUninterruptibly();
       }
     }
+    finally {
+      _lock.unlock();
+    }
   }
 
   protected void setState(final DialogState state) {
-    synchronized (_lock) {
+    _lock.lock();
+    try {
       _state = state;
+      if (state == DialogState.PREPARED || state == DialogState.IDLE) {
+        _stateChanged.signalAll();
+      }
+    }
+    finally {
+      _lock.unlock();
     }
   }
 
@@ -316,30 +333,50 @@ public class VoiceXMLDialogImpl extends DispatchableEventSource implements Dialo
 
     public void onEvent(final VxmlDialogEvent event) {
       if (event.getEventType().equals(VxmlDialogEvent.PREPARED)) {
-        synchronized (_lock) {
+        _lock.lock();
+        try {
           if (_state == DialogState.PREPARING) {
             setState(DialogState.PREPARED);
-            _lock.notifyAll();
           }
         }
+        finally {
+          _lock.unlock();
+        }
       }
       else if (event.getEventType().equals(VxmlDialogEvent.STARTED)) {
-        synchronized (_lock) {
-          setState(DialogState.STARTED);
-        }
+        setState(DialogState.STARTED);
       }
       else if (event.getEventType().equals(VxmlDialogEvent.EXITED)) {
-        synchronized (_lock) {
-          _result = event.getNameList();
-          _lock.notifyAll();
+        final ResultFuture<Map<String, Object>> future;
+        final Map<String, Object> result;
+        _lock.lock();
+        try {
+          result = _result = event.getNameList();
+          future = _future;
           setState(DialogState.IDLE);
         }
+        finally {
+          _lock.unlock();
+        }
+        if (future != null) {
+          future.complete(result);
+        }
       }
       else if (event.getEventType().equals(VxmlDialogEvent.DISCONNECTION_REQUESTED)
           || event.getEventType().equals(VxmlDialogEvent.ERROR_EVENT)) {
-        synchronized (_lock) {
+        final ResultFuture<Map<String, Object>> future;
+        final Map<String, Object> result;
+        _lock.lock();
+        try {
+          result = _result;
+          future = _future;
           setState(DialogState.IDLE);
-          _lock.notifyAll();
+        }
+        finally {
+          _lock.unlock();
+        }
+        if (future != null) {
+          future.complete(result);
         }
       }
     }
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class CallOperationImplTest extends TestCase {
+
+  public void testCancelWhileQueued() {
+    final CallOperationImpl operation = new CallOperationImpl(null);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    operation.addCompletionListener(new CompletionListener<Call>() {
+      @Override
+      public void onComplete(final Call result) {
+        fail("cancelled operation completed");
+      }
+
+      @Override
+      public void onFailure(final Throwable t) {
+        failure.set(t);
+      }
+    });
+
+    assertTrue(operation.cancel(false));
+    assertTrue(operation.isCancelled());
+    assertFalse(operation.start());
+    assertTrue(failure.get() instanceof CancellationException);
+  }
+
+  public void testCancelAfterStart() throws Exception {
+    final CallOperationImpl operation = new CallOperationImpl(null);
+    assertTrue(operation.start());
+    assertFalse(operation.cancel(true));
+    assertFalse(operation.isDone());
+
+    operation.complete();
+    assertTrue(operation.isDone());
+    assertFalse(operation.isCancelled());
+    assertNull(operation.get());
+  }
+
+  public void testFailure() throws Exception {
+    final CallOperationImpl operation = new CallOperationImpl(null);
+    operation.start();
+    final SignalException e = new SignalException("exception when holding");
+    operation.fail(e);
+
+    try {
+      operation.get();
+      fail("no exception");
+    }
+    catch (final ExecutionException ex) {
+      assertSame(e, ex.getCause());
+    }
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    operation.addCompletionListener(new CompletionListener<Call>() {
+      @Override
+      public void onComplete(final Call result) {
+        fail("failed operation completed");
+      }
+
+      @Override
+      public void onFailure(final Throwable t) {
+        failure.set(t);
+      }
+    });
+    assertSame(e, failure.get());
+  }
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.sip.Address;
+import javax.servlet.sip.SipSession;
+import javax.servlet.sip.URI;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.sip.SIPCall;
+
+/**
+ * The fakes are dynamic proxies rather than mocks, so that they can be called
+ * from the threads of the race tests.
+ */
+public class CallRegistryTest extends TestCase {
+
+  static final int THREADS = 4;
+
+  static final int ROUNDS = 2000;
+
+  static final String ALICE = "sip:alice@example.com";
+
+  static final String BOB = "sip:bob@example.com";
+
+  static class TestCall implements InvocationHandler {
+    final String id;
+
+    volatile SIPCall.State state = SIPCall.State.INITIALIZED;
+
+    volatile SipSession session;
+
+    final SIPCall call;
+
+    TestCall(final String id) {
+      this.id = id;
+      call = (SIPCall) Proxy.newProxyInstance(SIPCall.class.getClassLoader(), new Class<?>[] {SIPCall.class}, this);
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+      final String name = method.getName();
+      if ("getId".equals(name) || "toString".equals(name)) {
+        return id;
+      }
+      if ("getSIPCallState".equals(name)) {
+        return state;
+      }
+      if ("getSipSession".equals(name)) {
+        return session;
+      }
+      if ("hashCode".equals(name)) {
+        return System.identityHashCode(proxy);
+      }
+      if ("equals".equals(name)) {
+        return proxy == args[0];
+      }
+      throw new UnsupportedOperationException(name);
+    }
+  }
+
+  static SipSession session(final String callId, final String local, final String remote) {
+    return (SipSession) Proxy.newProxyInstance(SipSession.class.getClassLoader(), new Class<?>[] {SipSession.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            final String name = method.getName();
+            if ("getCallId".equals(name)) {
+              return callId;
+            }
+            if ("getLocalParty".equals(name)) {
+              return address(local);
+            }
+            if ("getRemoteParty".equals(name)) {
+              return address(remote);
+            }
+            throw new UnsupportedOperationException(name);
+          }
+        });
+  }
+
+  static Address address(final String uri) {
+    final URI value = (URI) Proxy.newProxyInstance(URI.class.getClassLoader(), new Class<?>[] {URI.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            if ("toString".equals(method.getName())) {
+              return uri;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+    return (Address) Proxy.newProxyInstance(Address.class.getClassLoader(), new Class<?>[] {Address.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            if ("getURI".equals(method.getName())) {
+              return value;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  final CallRegistry registry = new CallRegistry();
+
+  public void testIndexesFollowTheCall() {
+    final TestCall call = new TestCall("call-1");
+    registry.add(call.call);
+    assertSame(call.call, registry.get("call-1"));
+    assertTrue(registry.getByState(SIPCall.State.INITIALIZED).contains(call.call));
+    assertNull(registry.getByCallId("cid-1"));
+
+    call.state = SIPCall.State.RINGING;
+    call.session = session("cid-1", BOB, ALICE);
+    registry.update(call.call);
+    assertEquals(0, registry.countByState(SIPCall.State.INITIALIZED));
+    assertEquals(1, registry.countByState(SIPCall.State.RINGING));
+    assertSame(call.call, registry.getByCallId("cid-1"));
+    assertTrue(registry.getByAddress(ALICE).contains(call.call));
+    assertTrue(registry.getByAddress(BOB).contains(call.call));
+
+    registry.remove("call-1");
+    assertNull(registry.get("call-1"));
+    assertEquals(0, registry.size());
+    assertEquals(0, registry.countByState(SIPCall.State.RINGING));
+    assertNull(registry.getByCallId("cid-1"));
+    assertTrue(registry.getByAddress(ALICE).isEmpty());
+    assertTrue(registry.getByAddress(BOB).isEmpty());
+  }
+
+  public void testUpdateOfUnregisteredCallIsIgnored() {
+    final TestCall call = new TestCall("call-1");
+    call.session = session("cid-1", BOB, ALICE);
+    registry.update(call.call);
+    assertNull(registry.getByCallId("cid-1"));
+    assertEquals(0, registry.countByState(SIPCall.State.INITIALIZED));
+
+    registry.add(call.call);
+    registry.remove("call-1");
+    registry.update(call.call);
+    assertNull(registry.getByCallId("cid-1"));
+    assertEquals(0, registry.countByState(SIPCall.State.INITIALIZED));
+  }
+
+  public void testViewsAreLive() {
+    final TestCall call = new TestCall("call-1");
+    final int before = registry.getByState(SIPCall.State.ANSWERED).size();
+    registry.add(call.call);
+    call.state = SIPCall.State.ANSWERED;
+    registry.update(call.call);
+    assertEquals(before + 1, registry.getByState(SIPCall.State.ANSWERED).size());
+    assertTrue(registry.getCalls().contains(call.call));
+    try {
+      registry.getCalls().clear();
+      fail("the views are modifiable");
+    }
+    catch (final UnsupportedOperationException e) {
+      // expected.
+    }
+  }
+
+  public void testUpdateRacingRemovalLeavesNoIndex() throws Exception {
+    final SIPCall.State[] states = SIPCall.State.values();
+    for (int round = 0; round < ROUNDS / 10; round++) {
+      final TestCall call = new TestCall("call-" + round);
+      call.session = session("cid-" + round, BOB, ALICE);
+      registry.add(call.call);
+
+      final CountDownLatch start = new CountDownLatch(1);
+      final Thread updater = new Thread() {
+        @Override
+        public void run() {
+          await(start);
+          for (int i = 0; i < 50; i++) {
+            call.state = states[i % states.length];
+            registry.update(call.call);
+          }
+        }
+      };
+      final Thread remover = new Thread() {
+        @Override
+        public void run() {
+          await(start);
+          registry.remove(call.id);
+        }
+      };
+      updater.start();
+      remover.start();
+      start.countDown();
+      updater.join(5000);
+      remover.join(5000);
+
+      assertNull(registry.get(call.id));
+      assertNull(registry.getByCallId("cid-" + round));
+      for (final SIPCall.State state : states) {
+        assertFalse(registry.getByState(state).contains(call.call));
+      }
+      assertFalse(registry.getByAddress(ALICE).contains(call.call));
+    }
+    assertEquals(0, registry.size());
+  }
+
+  public void testCallsOfOneAddressAddedAndRemovedConcurrently() throws Exception {
+    // calls that stay registered for the whole test.
+    final Set<SIPCall> kept = new HashSet<SIPCall>();
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final Thread[] threads = new Thread[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      final TestCall keeper = new TestCall("kept-" + t);
+      keeper.session = session("kept-cid-" + t, BOB, ALICE);
+      kept.add(keeper.call);
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          await(start);
+          try {
+            for (int i = 0; i < ROUNDS; i++) {
+              final TestCall call = new TestCall("call-" + thread + "-" + i);
+              call.session = session("cid-" + thread + "-" + i, BOB, ALICE);
+              registry.add(call.call);
+              if (i == ROUNDS / 2) {
+                registry.add(keeper.call);
+              }
+              registry.remove(call.id);
+            }
+          }
+          catch (final Throwable e) {
+            failure.set(e);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    start.countDown();
+    for (final Thread thread : threads) {
+      thread.join(30000);
+    }
+    assertNull(failure.get());
+
+    // the address index lost none of the calls still registered.
+    assertEquals(kept, new HashSet<SIPCall>(registry.getByAddress(ALICE)));
+    assertEquals(kept, new HashSet<SIPCall>(registry.getByAddress(BOB)));
+    assertEquals(THREADS, registry.size());
+    assertEquals(THREADS, registry.countByState(SIPCall.State.INITIALIZED));
+  }
+
+  static void await(final CountDownLatch latch) {
+    try {
+      latch.await();
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
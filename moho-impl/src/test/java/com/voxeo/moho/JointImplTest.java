@@ -0,0 +1,256 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.event.JoinCompleteEvent.Cause;
+
+public class JointImplTest extends TestCase {
+
+  // runs the worker on the calling thread.
+  static final Executor SAME_THREAD = new Executor() {
+    @Override
+    public void execute(final Runnable command) {
+      command.run();
+    }
+  };
+
+  static class RecordingListener implements CompletionListener<JoinCompleteEvent> {
+    final AtomicReference<JoinCompleteEvent> result = new AtomicReference<JoinCompleteEvent>();
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    @Override
+    public void onComplete(final JoinCompleteEvent event) {
+      result.set(event);
+    }
+
+    @Override
+    public void onFailure(final Throwable t) {
+      failure.set(t);
+    }
+  }
+
+  static class TestWorker implements JoinWorker {
+    final JoinCompleteEvent event;
+
+    final Exception exception;
+
+    final AtomicBoolean cancelled = new AtomicBoolean();
+
+    TestWorker(final JoinCompleteEvent event, final Exception exception) {
+      this.event = event;
+      this.exception = exception;
+    }
+
+    @Override
+    public JoinCompleteEvent call() throws Exception {
+      if (exception != null) {
+        throw exception;
+      }
+      return event;
+    }
+
+    @Override
+    public boolean cancel() {
+      cancelled.set(true);
+      return true;
+    }
+  }
+
+  public void testListenerNotifiedWhenWorkerCompletes() throws Exception {
+    final JoinCompleteEvent event = new JoinCompleteEvent(null, null, Cause.JOINED);
+    final JointImpl joint = new JointImpl(SAME_THREAD, new TestWorker(event, null));
+    final RecordingListener listener = new RecordingListener();
+    joint.addCompletionListener(listener);
+
+    assertTrue(joint.isDone());
+    assertSame(event, joint.get());
+    assertSame(event, listener.result.get());
+    assertNull(listener.failure.get());
+  }
+
+  public void testListenerNotifiedWhenWorkerFails() throws Exception {
+    final Exception e = new MediaException("join failure");
+    final JointImpl joint = new JointImpl(SAME_THREAD, new TestWorker(null, e));
+    final RecordingListener listener = new RecordingListener();
+    joint.addCompletionListener(listener);
+
+    try {
+      joint.get();
+      fail("no exception");
+    }
+    catch (final ExecutionException ex) {
+      assertSame(e, ex.getCause());
+    }
+    assertSame(e, listener.failure.get());
+    assertNull(listener.result.get());
+  }
+
+  public void testEventDrivenJointCompletedByTheSignaling() throws Exception {
+    final TestWorker worker = new TestWorker(null, null);
+    final JointImpl joint = new JointImpl(worker);
+    final RecordingListener listener = new RecordingListener();
+    joint.addCompletionListener(listener);
+    assertFalse(joint.isDone());
+    assertNull(listener.result.get());
+
+    final JoinCompleteEvent event = new JoinCompleteEvent(null, null, Cause.JOINED);
+    joint.complete(event);
+    assertSame(event, joint.get());
+    assertSame(event, listener.result.get());
+
+    // completing again has no effect.
+    joint.fail(new Exception());
+    assertSame(event, joint.get());
+    assertNull(listener.failure.get());
+  }
+
+  public void testCancelNotifiesFailureAndCancelsWorker() {
+    final TestWorker worker = new TestWorker(null, null);
+    final JointImpl joint = new JointImpl(worker);
+    final RecordingListener listener = new RecordingListener();
+    joint.addCompletionListener(listener);
+
+    assertTrue(joint.cancel(true));
+    assertTrue(joint.isCancelled());
+    assertTrue(worker.cancelled.get());
+    assertTrue(listener.failure.get() instanceof CancellationException);
+  }
+
+  static class CountingCanceller implements JointImpl.Canceller {
+    final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public boolean cancel() {
+      calls.incrementAndGet();
+      return true;
+    }
+  }
+
+  public void testEventDrivenJointFailedByTheSignaling() throws Exception {
+    final JointImpl joint = new JointImpl(new CountingCanceller());
+    final RecordingListener listener = new RecordingListener();
+    joint.addCompletionListener(listener);
+
+    final Exception e = new MediaException("join failure");
+    joint.fail(e);
+    assertTrue(joint.isDone());
+    assertFalse(joint.isCancelled());
+    try {
+      joint.get();
+      fail("no exception");
+    }
+    catch (final ExecutionException ex) {
+      assertSame(e, ex.getCause());
+    }
+    assertSame(e, listener.failure.get());
+
+    joint.complete(new JoinCompleteEvent(null, null, Cause.JOINED));
+    assertNull(listener.result.get());
+  }
+
+  public void testCancelStopsTheJoinOnce() throws Exception {
+    final CountingCanceller canceller = new CountingCanceller();
+    final JointImpl joint = new JointImpl(canceller);
+
+    assertTrue(joint.cancel(false));
+    assertFalse(joint.cancel(false));
+    assertEquals(1, canceller.calls.get());
+
+    // the join ending after the cancel does not change the outcome.
+    joint.complete(new JoinCompleteEvent(null, null, Cause.JOINED));
+    assertTrue(joint.isCancelled());
+    try {
+      joint.get();
+      fail("no exception");
+    }
+    catch (final CancellationException ex) {
+      // expected.
+    }
+  }
+
+  public void testCancelAfterCompletionHasNoEffect() throws Exception {
+    final CountingCanceller canceller = new CountingCanceller();
+    final JointImpl joint = new JointImpl(canceller);
+    final JoinCompleteEvent event = new JoinCompleteEvent(null, null, Cause.JOINED);
+    joint.complete(event);
+
+    assertFalse(joint.cancel(true));
+    assertFalse(joint.isCancelled());
+    assertEquals(0, canceller.calls.get());
+    assertSame(event, joint.get());
+  }
+
+  public void testTimeoutCancelsTheJoin() throws Exception {
+    final CountingCanceller canceller = new CountingCanceller();
+    final JointImpl joint = new JointImpl(canceller);
+    try {
+      joint.get(10, TimeUnit.MILLISECONDS);
+      fail("no timeout");
+    }
+    catch (final TimeoutException e) {
+      // expected.
+    }
+    assertEquals(1, canceller.calls.get());
+  }
+
+  public void testCancelInterruptsRunningWorker() throws Exception {
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    final JoinWorker worker = new JoinWorker() {
+      @Override
+      public JoinCompleteEvent call() throws Exception {
+        running.countDown();
+        try {
+          new CountDownLatch(1).await();
+        }
+        catch (final InterruptedException e) {
+          interrupted.countDown();
+          throw e;
+        }
+        return null;
+      }
+
+      @Override
+      public boolean cancel() {
+        return true;
+      }
+    };
+    final JointImpl joint = new JointImpl(new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        new Thread(command).start();
+      }
+    }, worker);
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+
+    assertTrue(joint.cancel(true));
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    assertTrue(joint.isCancelled());
+  }
+}
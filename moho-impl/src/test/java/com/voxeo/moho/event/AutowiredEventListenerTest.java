@@ -0,0 +1,340 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+import com.voxeo.moho.State;
+import com.voxeo.moho.event.fake.MockEventSource;
+import com.voxeo.utils.Event;
+
+public class AutowiredEventListenerTest extends TestCase {
+
+  public static class BaseEvent extends Event<EventSource> {
+    public BaseEvent(final EventSource source) {
+      super(source);
+    }
+  }
+
+  public static class ChildEvent extends BaseEvent {
+    public ChildEvent(final EventSource source) {
+      super(source);
+    }
+  }
+
+  public static class TestObserver implements Observer {
+
+    List<String> calls = new ArrayList<String>();
+
+    @State
+    public void onChild(final ChildEvent event) {
+      calls.add("child");
+    }
+
+    @State
+    public void onBase(final BaseEvent event) {
+      calls.add("base");
+    }
+
+    @State("menu")
+    public void onMenu(final BaseEvent event) {
+      calls.add("menu");
+    }
+
+    @State("game=playing")
+    public void onPlaying(final ChildEvent event) {
+      calls.add("playing");
+    }
+  }
+
+  static class StatefulEventSource extends MockEventSource {
+
+    Map<String, String> states = new HashMap<String, String>();
+
+    @Override
+    public String getApplicationState(final String FSM) {
+      return states.get(FSM);
+    }
+  }
+
+  // a source whose states are only read through their interned ids.
+  static class IndexedEventSource extends DispatchableEventSource {
+
+    IndexedEventSource() {
+      super(null);
+    }
+
+    @Override
+    protected Executor getThreadPool() {
+      return null;
+    }
+
+    @Override
+    public String getApplicationState(final String FSM) {
+      throw new AssertionFailedError("state read by name: " + FSM);
+    }
+  }
+
+  public static class LateStateObserver implements Observer {
+
+    List<String> calls = new ArrayList<String>();
+
+    @State("AutowiredEventListenerTest.late")
+    public void onLate(final BaseEvent event) {
+      calls.add("late");
+    }
+  }
+
+  public static class UndeployedObserver implements Observer {
+    @State
+    public void onBase(final BaseEvent event) {
+    }
+  }
+
+  // defines UndeployedObserver itself, the way a web application class loader
+  // defines the observers of the application.
+  static class ApplicationClassLoader extends ClassLoader {
+
+    ApplicationClassLoader() {
+      super(AutowiredEventListenerTest.class.getClassLoader());
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+      if (!name.equals(UndeployedObserver.class.getName())) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> clazz = findLoadedClass(name);
+      if (clazz == null) {
+        try {
+          final InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+          final ByteArrayOutputStream out = new ByteArrayOutputStream();
+          final byte[] buffer = new byte[4096];
+          for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+          }
+          in.close();
+          clazz = defineClass(name, out.toByteArray(), 0, out.size());
+        }
+        catch (final Exception e) {
+          throw new ClassNotFoundException(name, e);
+        }
+      }
+      return clazz;
+    }
+  }
+
+  StatefulEventSource source = new StatefulEventSource();
+
+  @SuppressWarnings("unchecked")
+  private void fire(final AutowiredEventListener listener, final Event<? extends EventSource> event)
+      throws Exception {
+    listener.onEvent((Event<EventSource>) event);
+  }
+
+  public void testDispatchWalksEventSuperclasses() throws Exception {
+    final TestObserver observer = new TestObserver();
+    final AutowiredEventListener listener = new AutowiredEventListener(observer);
+
+    fire(listener, new ChildEvent(source));
+    assertEquals(2, observer.calls.size());
+    assertEquals("child", observer.calls.get(0));
+    assertEquals("base", observer.calls.get(1));
+
+    observer.calls.clear();
+    fire(listener, new BaseEvent(source));
+    assertEquals(1, observer.calls.size());
+    assertEquals("base", observer.calls.get(0));
+  }
+
+  public void testStateRouting() throws Exception {
+    final TestObserver observer = new TestObserver();
+    final AutowiredEventListener listener = new AutowiredEventListener(observer);
+
+    source.states.put(AutowiredEventTarget.DEFAULT_FSM, "menu");
+    source.states.put("game", "playing");
+    fire(listener, new ChildEvent(source));
+    // the handlers constrained on a state win over the unconstrained ones.
+    assertEquals(2, observer.calls.size());
+    assertEquals("playing", observer.calls.get(0));
+    assertEquals("menu", observer.calls.get(1));
+
+    observer.calls.clear();
+    source.states.put("game", "over");
+    fire(listener, new ChildEvent(source));
+    assertEquals(2, observer.calls.size());
+    assertEquals("child", observer.calls.get(0));
+    assertEquals("menu", observer.calls.get(1));
+
+    observer.calls.clear();
+    source.states.put("game", "over");
+    source.states.put(AutowiredEventTarget.DEFAULT_FSM, "other");
+    fire(listener, new ChildEvent(source));
+    assertEquals(2, observer.calls.size());
+    assertEquals("child", observer.calls.get(0));
+    assertEquals("base", observer.calls.get(1));
+  }
+
+  public void testObserversOfSameClassAreIndependent() throws Exception {
+    final TestObserver first = new TestObserver();
+    final TestObserver second = new TestObserver();
+    final AutowiredEventListener firstListener = new AutowiredEventListener(first);
+    final AutowiredEventListener secondListener = new AutowiredEventListener(second);
+
+    fire(firstListener, new BaseEvent(source));
+    assertEquals(1, first.calls.size());
+    assertEquals(0, second.calls.size());
+
+    fire(secondListener, new BaseEvent(source));
+    assertEquals(1, first.calls.size());
+    assertEquals(1, second.calls.size());
+    assertSame(first, firstListener.getTarget());
+  }
+
+  public void testStateRoutingOnIndexedSource() throws Exception {
+    final TestObserver observer = new TestObserver();
+    final IndexedEventSource indexed = new IndexedEventSource();
+    final AutowiredEventListener listener = new AutowiredEventListener(observer, indexed.getStateRegistry());
+
+    indexed.setApplicationState("menu");
+    indexed.setApplicationState("game", "playing");
+    fire(listener, new ChildEvent(indexed));
+    assertEquals(2, observer.calls.size());
+    assertEquals("playing", observer.calls.get(0));
+    assertEquals("menu", observer.calls.get(1));
+
+    observer.calls.clear();
+    indexed.setApplicationState("game", "over");
+    indexed.setApplicationState(null);
+    fire(listener, new ChildEvent(indexed));
+    assertEquals(2, observer.calls.size());
+    assertEquals("child", observer.calls.get(0));
+    assertEquals("base", observer.calls.get(1));
+  }
+
+  public void testStateSetBeforeAnyObserverUsesIt() throws Exception {
+    final IndexedEventSource indexed = new IndexedEventSource();
+    // not interned yet, the source keeps it as an unknown state.
+    indexed.setApplicationState("AutowiredEventListenerTest.late");
+
+    final LateStateObserver observer = new LateStateObserver();
+    final AutowiredEventListener listener = new AutowiredEventListener(observer, indexed.getStateRegistry());
+    fire(listener, new BaseEvent(indexed));
+    assertEquals(1, observer.calls.size());
+    assertEquals("late", observer.calls.get(0));
+  }
+
+  public void testListenerOfAnotherRegistryMatchesByName() throws Exception {
+    final TestObserver observer = new TestObserver();
+    final AutowiredEventListener listener = new AutowiredEventListener(observer, new StateRegistry());
+    final DispatchableEventSource other = new IndexedEventSource() {
+      @Override
+      public String getApplicationState(final String FSM) {
+        return _states.get().names[_stateRegistry.lookupFsmId(FSM)];
+      }
+    };
+    other.setApplicationState("menu");
+    fire(listener, new BaseEvent(other));
+    assertEquals(1, observer.calls.size());
+    assertEquals("menu", observer.calls.get(0));
+  }
+
+  public void testStateSetWhileTheSourceIsLocked() throws Exception {
+    final IndexedEventSource indexed = new IndexedEventSource();
+    final CountDownLatch set = new CountDownLatch(1);
+    synchronized (indexed) {
+      new Thread() {
+        @Override
+        public void run() {
+          indexed.setApplicationState("game", "playing");
+          set.countDown();
+        }
+      }.start();
+      assertTrue(set.await(5, TimeUnit.SECONDS));
+    }
+    final StateRegistry registry = indexed.getStateRegistry();
+    assertEquals(registry.stateId("playing"), indexed.getApplicationStateId(registry.fsmId("game")));
+  }
+
+  public void testConcurrentStatesOfDifferentMachinesAreKept() throws Exception {
+    final IndexedEventSource indexed = new IndexedEventSource();
+    final StateRegistry registry = indexed.getStateRegistry();
+    final int machines = 4;
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] threads = new Thread[machines];
+    for (int i = 0; i < machines; i++) {
+      final String fsm = "AutowiredEventListenerTest.fsm" + i;
+      final String[] states = {fsm + ".a", fsm + ".b"};
+      registry.stateId(states[0]);
+      registry.stateId(states[1]);
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          }
+          catch (final InterruptedException e) {
+            return;
+          }
+          for (int n = 0; n < 1000; n++) {
+            indexed.setApplicationState(fsm, states[n % 2]);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+    for (final Thread thread : threads) {
+      thread.join(10000);
+    }
+    for (int i = 0; i < machines; i++) {
+      final String fsm = "AutowiredEventListenerTest.fsm" + i;
+      // the last state set by each thread, with its own id.
+      assertEquals(registry.stateId(fsm + ".b"), indexed.getApplicationStateId(registry.fsmId(fsm)));
+      assertEquals(fsm + ".b", indexed._states.get().names[registry.fsmId(fsm)]);
+    }
+  }
+
+  public void testScannedClassesDoNotPinTheirClassLoader() throws Exception {
+    final WeakReference<ClassLoader> loader = observeWithOwnLoader();
+    for (int i = 0; i < 50 && loader.get() != null; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertNull("the observer class loader is still reachable", loader.get());
+  }
+
+  private WeakReference<ClassLoader> observeWithOwnLoader() throws Exception {
+    final ClassLoader loader = new ApplicationClassLoader();
+    final Class<?> clazz = loader.loadClass(UndeployedObserver.class.getName());
+    assertNotSame(UndeployedObserver.class, clazz);
+    final Object observer = clazz.newInstance();
+    final AutowiredEventListener listener = new AutowiredEventListener(observer);
+    fire(listener, new BaseEvent(source));
+    return new WeakReference<ClassLoader>(loader);
+  }
+}
@@ -0,0 +1,654 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.util.BoundedThreadPoolExecutor;
+import com.voxeo.moho.util.BoundedThreadPoolExecutor.OverloadPolicy;
+import com.voxeo.utils.Event;
+import com.voxeo.utils.EventListener;
+
+public class EventDispatcherTest extends TestCase {
+
+  public static class TestEvent extends Event<EventSource> {
+    final int seq;
+
+    public TestEvent(final int seq) {
+      super(null);
+      this.seq = seq;
+    }
+  }
+
+  public interface Tagged {
+  }
+
+  public static class TaggedEvent extends TestEvent implements Tagged {
+    public TaggedEvent(final int seq) {
+      super(seq);
+    }
+  }
+
+  // runs the tasks on the calling thread.
+  static final Executor SAME_THREAD = new Executor() {
+    public void execute(final Runnable command) {
+      command.run();
+    }
+  };
+
+  // keeps the submitted tasks until the test runs them.
+  static class ManualExecutor implements Executor {
+    final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+    public synchronized void execute(final Runnable command) {
+      tasks.add(command);
+    }
+
+    synchronized int size() {
+      return tasks.size();
+    }
+
+    void runNext() {
+      final Runnable task;
+      synchronized (this) {
+        task = tasks.removeFirst();
+      }
+      task.run();
+    }
+  }
+
+  static class Recorder implements EventListener<TestEvent> {
+    final List<Integer> seqs = Collections.synchronizedList(new ArrayList<Integer>());
+
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+    public void onEvent(final TestEvent event) {
+      seqs.add(event.seq);
+      threads.add(Thread.currentThread());
+    }
+  }
+
+  BoundedThreadPoolExecutor executor;
+
+  protected void tearDown() throws Exception {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    super.tearDown();
+  }
+
+  private BoundedThreadPoolExecutor createExecutor(final OverloadPolicy policy) {
+    final ThreadFactory factory = Executors.defaultThreadFactory();
+    return new BoundedThreadPoolExecutor(1, 1, 0, policy, factory);
+  }
+
+  // occupies the only thread of the pool until the returned latch is counted
+  // down.
+  private CountDownLatch occupy(final BoundedThreadPoolExecutor executor) throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    return release;
+  }
+
+  // fires once the released thread of the pool takes tasks again. A dispatcher
+  // left with its processor flagged as running would queue the event and never
+  // complete it.
+  private <T extends TestEvent> T fireWhenIdle(final EventDispatcher dispatcher, final T event) throws Exception {
+    final long deadline = System.currentTimeMillis() + 5000;
+    while (true) {
+      try {
+        return dispatcher.fire(event).get(5, TimeUnit.SECONDS);
+      }
+      catch (final RejectedExecutionException e) {
+        if (System.currentTimeMillis() > deadline) {
+          throw e;
+        }
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  private void assertProcessorRejected(final OverloadPolicy policy) throws Exception {
+    executor = createExecutor(policy);
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    final Recorder recorder = new Recorder();
+    dispatcher.addListener(TestEvent.class, recorder);
+
+    final CountDownLatch release = occupy(executor);
+    try {
+      dispatcher.fire(new TestEvent(1));
+      fail("the processor must be rejected");
+    }
+    catch (final RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(0, executor.getShedCount());
+    assertEquals(0, executor.getCallerRunsCount());
+    assertTrue(recorder.seqs.isEmpty());
+    assertTrue(executor.getRejectedCount() > 0);
+    release.countDown();
+
+    // the dispatcher is not left with a processor flagged as running.
+    final TestEvent event = new TestEvent(2);
+    assertSame(event, fireWhenIdle(dispatcher, event));
+    assertEquals(Collections.singletonList(2), recorder.seqs);
+    assertNotSame(Thread.currentThread(), recorder.threads.get(0));
+  }
+
+  public void testShedRejectsProcessor() throws Exception {
+    assertProcessorRejected(OverloadPolicy.SHED);
+  }
+
+  public void testCallerRunsRejectsProcessor() throws Exception {
+    assertProcessorRejected(OverloadPolicy.CALLER_RUNS);
+  }
+
+  public void testRejectionKeepsEventsQueuedByOthers() throws Exception {
+    final EventDispatcher[] dispatcher = new EventDispatcher[1];
+    final List<Future<TestEvent>> queued = new ArrayList<Future<TestEvent>>();
+    final Executor rejecting = new Executor() {
+      boolean rejected;
+
+      public void execute(final Runnable command) {
+        if (rejected) {
+          command.run();
+          return;
+        }
+        rejected = true;
+        // another thread queues an event while the processor is submitted.
+        queued.add(dispatcher[0].fire(new TestEvent(1)));
+        throw new RejectedExecutionException();
+      }
+    };
+    dispatcher[0] = new EventDispatcher(rejecting);
+    final Recorder recorder = new Recorder();
+    dispatcher[0].addListener(TestEvent.class, recorder);
+
+    try {
+      dispatcher[0].fire(new TestEvent(2));
+      fail("the processor must be rejected");
+    }
+    catch (final RejectedExecutionException e) {
+      // expected
+    }
+    assertFalse(queued.get(0).isCancelled());
+    assertFalse(queued.get(0).isDone());
+
+    // the next event schedules a processor, which delivers the one left
+    // queued first.
+    dispatcher[0].fire(new TestEvent(3));
+    assertTrue(queued.get(0).isDone());
+    assertFalse(queued.get(0).isCancelled());
+    assertEquals(1, queued.get(0).get().seq);
+    assertEquals(Arrays.asList(1, 3), recorder.seqs);
+  }
+
+  public void testShedRejectsLane() throws Exception {
+    executor = createExecutor(OverloadPolicy.SHED);
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    dispatcher.setDispatchEngine(new StripedDispatchEngine(executor, 1), "source");
+    final Recorder recorder = new Recorder();
+    dispatcher.addListener(TestEvent.class, recorder);
+
+    final CountDownLatch release = occupy(executor);
+    try {
+      dispatcher.fire(new TestEvent(1));
+      fail("the lane must be rejected");
+    }
+    catch (final RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(0, executor.getShedCount());
+    release.countDown();
+
+    fireWhenIdle(dispatcher, new TestEvent(2));
+    assertEquals(Collections.singletonList(2), recorder.seqs);
+  }
+
+  public void testCallerRunsUnorderedEvent() throws Exception {
+    executor = createExecutor(OverloadPolicy.CALLER_RUNS);
+    final EventDispatcher dispatcher = new EventDispatcher();
+    dispatcher.setExecutor(executor, false);
+    final Recorder recorder = new Recorder();
+    dispatcher.addListener(TestEvent.class, recorder);
+
+    final CountDownLatch release = occupy(executor);
+    try {
+      dispatcher.fire(new TestEvent(1)).get(5, TimeUnit.SECONDS);
+    }
+    finally {
+      release.countDown();
+    }
+    assertEquals(1, executor.getCallerRunsCount());
+    assertSame(Thread.currentThread(), recorder.threads.get(0));
+  }
+
+  public void testYieldKeepsDrainingWhenShed() throws Exception {
+    executor = createExecutor(OverloadPolicy.SHED);
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    dispatcher.setBatching(1, 1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Recorder recorder = new Recorder() {
+      public void onEvent(final TestEvent event) {
+        super.onEvent(event);
+        if (event.seq == 0) {
+          blocked.countDown();
+          try {
+            release.await();
+          }
+          catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    dispatcher.addListener(TestEvent.class, recorder);
+
+    dispatcher.fire(new TestEvent(0));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i < 10; i++) {
+      dispatcher.fire(new TestEvent(i));
+    }
+    Thread.sleep(5);
+    release.countDown();
+
+    // the resubmission of the processor is rejected by the busy pool, so the
+    // processor keeps draining on its thread instead of being dropped.
+    dispatcher.fire(new TestEvent(10)).get(5, TimeUnit.SECONDS);
+    assertEquals(11, recorder.seqs.size());
+    for (int i = 0; i <= 10; i++) {
+      assertEquals(Integer.valueOf(i), recorder.seqs.get(i));
+    }
+    assertEquals(0, executor.getShedCount());
+  }
+
+  public void testTypeHierarchy() {
+    final Class<?>[] hierarchy = EventDispatcher.typeHierarchy(TaggedEvent.class);
+    assertEquals(4, hierarchy.length);
+    assertSame(TaggedEvent.class, hierarchy[0]);
+    assertSame(TestEvent.class, hierarchy[1]);
+    assertSame(Event.class, hierarchy[2]);
+    assertSame(Tagged.class, hierarchy[3]);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testNarrowTypeResolvesSupertypesAndInterfaces() throws Exception {
+    final EventDispatcher dispatcher = new EventDispatcher(SAME_THREAD);
+    final Recorder exact = new Recorder();
+    final Recorder base = new Recorder();
+    final List<Object> tagged = new ArrayList<Object>();
+    dispatcher.addListener(TaggedEvent.class, exact);
+    dispatcher.addListener(TestEvent.class, base);
+    dispatcher.addListener(Tagged.class, new EventListener<Event<EventSource>>() {
+      public void onEvent(final Event<EventSource> event) {
+        tagged.add(event);
+      }
+    });
+
+    final TaggedEvent event = new TaggedEvent(1);
+    dispatcher.fire(event, true).get();
+    assertEquals(Collections.singletonList(1), exact.seqs);
+    assertEquals(Collections.singletonList(1), base.seqs);
+    assertEquals(Collections.singletonList((Object) event), tagged);
+
+    // without narrowType only the listeners of the exact class are called.
+    dispatcher.fire(new TaggedEvent(2), false).get();
+    assertEquals(2, exact.seqs.size());
+    assertEquals(1, base.seqs.size());
+    assertEquals(1, tagged.size());
+
+    dispatcher.fire(new TestEvent(3), true).get();
+    assertEquals(2, exact.seqs.size());
+    assertEquals(2, base.seqs.size());
+    assertEquals(1, tagged.size());
+  }
+
+  public void testResolvedListenersInvalidatedOnAddAndRemove() throws Exception {
+    final EventDispatcher dispatcher = new EventDispatcher(SAME_THREAD);
+    final Recorder first = new Recorder();
+    final Recorder second = new Recorder();
+    dispatcher.addListener(TestEvent.class, first);
+    dispatcher.fire(new TaggedEvent(1), true).get();
+
+    // resolved once for TaggedEvent, the new listener must still be seen.
+    dispatcher.addListener(Event.class, second);
+    dispatcher.fire(new TaggedEvent(2), true).get();
+    assertEquals(2, first.seqs.size());
+    assertEquals(Collections.singletonList(2), second.seqs);
+
+    dispatcher.removeListener(first);
+    dispatcher.fire(new TaggedEvent(3), true).get();
+    assertEquals(2, first.seqs.size());
+    assertEquals(2, second.seqs.size());
+
+    // a listener added for two types is removed from both.
+    dispatcher.addListener(TestEvent.class, first);
+    dispatcher.addListener(TaggedEvent.class, first);
+    dispatcher.fire(new TaggedEvent(4), true).get();
+    assertEquals(4, first.seqs.size());
+    dispatcher.removeListener(first);
+    dispatcher.fire(new TaggedEvent(5), true).get();
+    assertEquals(4, first.seqs.size());
+    assertEquals(4, second.seqs.size());
+  }
+
+  public void testLifecycleObjectRemovesItsListeners() throws Exception {
+    final EventDispatcher dispatcher = new EventDispatcher(SAME_THREAD);
+    final Object lifecycle = new Object();
+    final Recorder recorder = new Recorder();
+    final Recorder other = new Recorder();
+    dispatcher.addListener(lifecycle, TestEvent.class, recorder);
+    dispatcher.addListener(TestEvent.class, other);
+    dispatcher.fire(new TestEvent(1), true).get();
+
+    dispatcher.removeListenersForLifecycleObject(lifecycle);
+    dispatcher.fire(new TestEvent(2), true).get();
+    assertEquals(Collections.singletonList(1), recorder.seqs);
+    assertEquals(2, other.seqs.size());
+  }
+
+  public void testQueueDrainedInBatches() throws Exception {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    final DispatchStatistics statistics = new DispatchStatistics();
+    dispatcher.setStatistics(statistics);
+    dispatcher.setBatching(4, 0);
+    final Recorder recorder = new Recorder();
+    dispatcher.addListener(TestEvent.class, recorder);
+
+    for (int i = 0; i < 10; i++) {
+      dispatcher.fire(new TestEvent(i));
+    }
+    // a single processor is scheduled for the whole queue.
+    assertEquals(1, executor.size());
+    executor.runNext();
+    assertEquals(0, executor.size());
+
+    assertEquals(10, recorder.seqs.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Integer.valueOf(i), recorder.seqs.get(i));
+    }
+    assertEquals(3, statistics.getBatchCount());
+    assertEquals(10, statistics.getTaskCount());
+    final long[] histogram = statistics.getBatchSizeHistogram();
+    // two batches of 4 and one of 2.
+    assertEquals(1, histogram[1]);
+    assertEquals(2, histogram[2]);
+    assertEquals(0, statistics.getYieldCount());
+
+    // the processor stopped, the next event schedules a new one.
+    dispatcher.fire(new TestEvent(10));
+    assertEquals(1, executor.size());
+    executor.runNext();
+    assertEquals(11, recorder.seqs.size());
+  }
+
+  public void testTimeBudgetYieldsThread() throws Exception {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    final DispatchStatistics statistics = new DispatchStatistics();
+    dispatcher.setStatistics(statistics);
+    dispatcher.setBatching(1, 1);
+    final Recorder recorder = new Recorder() {
+      public void onEvent(final TestEvent event) {
+        super.onEvent(event);
+        try {
+          Thread.sleep(5);
+        }
+        catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    dispatcher.addListener(TestEvent.class, recorder);
+
+    for (int i = 0; i < 3; i++) {
+      dispatcher.fire(new TestEvent(i));
+    }
+    assertEquals(1, executor.size());
+
+    // every batch uses up the budget, so the processor resubmits itself after
+    // each one while events are left.
+    executor.runNext();
+    assertEquals(Collections.singletonList(0), recorder.seqs);
+    assertEquals(1, statistics.getYieldCount());
+    assertEquals(1, executor.size());
+
+    executor.runNext();
+    assertEquals(2, recorder.seqs.size());
+    assertEquals(2, statistics.getYieldCount());
+
+    // the last batch empties the queue, the processor stops instead.
+    executor.runNext();
+    assertEquals(3, recorder.seqs.size());
+    assertEquals(2, statistics.getYieldCount());
+    assertEquals(0, executor.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Integer.valueOf(i), recorder.seqs.get(i));
+    }
+  }
+
+  public void testInvalidBatchSize() {
+    try {
+      new EventDispatcher(SAME_THREAD).setBatching(0, 0);
+      fail("no exception");
+    }
+    catch (final IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testDefaultCoalescingPolicy() {
+    final CoalescingPolicy policy = new DefaultCoalescingPolicy();
+    final Object input = policy.getCoalescingKey(new InputDetectedEvent(null, "1"));
+    assertNotNull(input);
+    assertEquals(input, policy.getCoalescingKey(new InputDetectedEvent(null, "2")));
+
+    final Object output = policy.getCoalescingKey(new OutputPausedEvent(null));
+    assertNotNull(output);
+    assertEquals(output, policy.getCoalescingKey(new OutputResumedEvent(null)));
+    assertFalse(output.equals(input));
+
+    final Object record = policy.getCoalescingKey(new RecordPausedEvent(null));
+    assertNotNull(record);
+    assertEquals(record, policy.getCoalescingKey(new RecordResumedEvent(null)));
+    assertFalse(record.equals(output));
+
+    assertNull(policy.getCoalescingKey(new RecordStartedEvent(null)));
+    assertNull(policy.getCoalescingKey(new MediaNotificationEvent(null)));
+  }
+
+  public void testCoalescedEventsDroppedNotReordered() throws Exception {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    final DispatchStatistics statistics = new DispatchStatistics();
+    dispatcher.setStatistics(statistics);
+    dispatcher.setCoalescingPolicy(new DefaultCoalescingPolicy());
+    final List<Object> delivered = new ArrayList<Object>();
+    dispatcher.addListener(MediaNotificationEvent.class, new EventListener<MediaNotificationEvent>() {
+      public void onEvent(final MediaNotificationEvent event) {
+        delivered.add(event);
+      }
+    });
+    final AtomicInteger afterExecs = new AtomicInteger();
+    final Runnable afterExec = new Runnable() {
+      public void run() {
+        afterExecs.incrementAndGet();
+      }
+    };
+
+    final InputDetectedEvent input1 = new InputDetectedEvent(null, "1");
+    final OutputPausedEvent paused = new OutputPausedEvent(null);
+    final InputDetectedEvent input2 = new InputDetectedEvent(null, "2");
+    final RecordStartedEvent started = new RecordStartedEvent(null);
+    final OutputResumedEvent resumed = new OutputResumedEvent(null);
+    final InputDetectedEvent input3 = new InputDetectedEvent(null, "3");
+    final Future<InputDetectedEvent> superseded = dispatcher.fire(input1, true, afterExec);
+    dispatcher.fire(paused, true, afterExec);
+    dispatcher.fire(input2, true, afterExec);
+    dispatcher.fire(started, true, afterExec);
+    dispatcher.fire(resumed, true, afterExec);
+    dispatcher.fire(input3, true, afterExec);
+    executor.runNext();
+
+    // the superseded ones are dropped, the others keep their queue positions.
+    assertEquals(3, delivered.size());
+    assertSame(started, delivered.get(0));
+    assertSame(resumed, delivered.get(1));
+    assertSame(input3, delivered.get(2));
+    assertEquals(3, statistics.getCoalescedCount());
+    // the afterExec and the future of a dropped event still complete.
+    assertEquals(6, afterExecs.get());
+    assertTrue(superseded.isDone());
+    assertSame(input1, superseded.get());
+
+    // nothing is pending any more, the next notification is delivered.
+    final InputDetectedEvent input4 = new InputDetectedEvent(null, "4");
+    dispatcher.fire(input4, true);
+    executor.runNext();
+    assertEquals(4, delivered.size());
+    assertSame(input4, delivered.get(3));
+  }
+
+  public void testNoCoalescingWithoutPolicy() throws Exception {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    final List<Object> delivered = new ArrayList<Object>();
+    dispatcher.addListener(InputDetectedEvent.class, new EventListener<InputDetectedEvent>() {
+      public void onEvent(final InputDetectedEvent event) {
+        delivered.add(event);
+      }
+    });
+    dispatcher.fire(new InputDetectedEvent(null, "1"));
+    dispatcher.fire(new InputDetectedEvent(null, "2"));
+    executor.runNext();
+    assertEquals(2, delivered.size());
+  }
+
+  public void testEventWithoutListenerSkippedWhenIdle() throws Exception {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    final DispatchStatistics statistics = new DispatchStatistics();
+    dispatcher.setStatistics(statistics);
+
+    final TestEvent event = new TestEvent(1);
+    final Future<TestEvent> future = dispatcher.fire(event);
+    assertTrue(future.isDone());
+    assertSame(event, future.get());
+    assertEquals(0, executor.size());
+    assertEquals(1, statistics.getSkippedCount());
+  }
+
+  public void testSkippedFutureReusedForTheSameEvent() throws Exception {
+    final EventDispatcher dispatcher = new EventDispatcher(new ManualExecutor());
+    final TestEvent event = new TestEvent(1);
+    final Future<TestEvent> future = dispatcher.fire(event);
+    assertSame(future, dispatcher.fire(event));
+
+    final TestEvent other = new TestEvent(2);
+    assertSame(other, dispatcher.fire(other).get());
+  }
+
+  public void testEventWithoutListenerSkippedOnIdleLane() throws Exception {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    dispatcher.setDispatchEngine(new StripedDispatchEngine(executor, 1), "source");
+    final DispatchStatistics statistics = new DispatchStatistics();
+    dispatcher.setStatistics(statistics);
+
+    // another source keeps the shared lane busy.
+    final EventDispatcher busy = new EventDispatcher(executor);
+    busy.setDispatchEngine(new StripedDispatchEngine(executor, 1), "other");
+    busy.addListener(TestEvent.class, new Recorder());
+    busy.fire(new TestEvent(1));
+    final int queued = executor.size();
+
+    assertTrue(dispatcher.fire(new TestEvent(2)).isDone());
+    assertEquals(queued, executor.size());
+    assertEquals(1, statistics.getSkippedCount());
+  }
+
+  public void testListenerAddedByEarlierHandlerOnTheLane() throws Exception {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    dispatcher.setDispatchEngine(new StripedDispatchEngine(executor, 1), "source");
+    final Recorder late = new Recorder();
+    dispatcher.addListener(TaggedEvent.class, new EventListener<TaggedEvent>() {
+      public void onEvent(final TaggedEvent event) {
+        dispatcher.addListener(TestEvent.class, late);
+      }
+    });
+
+    dispatcher.fire(new TaggedEvent(1));
+    final Future<TestEvent> future = dispatcher.fire(new TestEvent(2));
+    assertFalse(future.isDone());
+    executor.runNext();
+
+    assertTrue(future.isDone());
+    assertEquals(Collections.singletonList(2), late.seqs);
+    // once the lane ran them, the source is idle again.
+    assertTrue(dispatcher.fire(new InputDetectedEvent(null, "1")).isDone());
+  }
+
+  public void testListenerAddedByEarlierQueuedHandler() throws Exception {
+    final ManualExecutor executor = new ManualExecutor();
+    final EventDispatcher dispatcher = new EventDispatcher(executor);
+    final DispatchStatistics statistics = new DispatchStatistics();
+    dispatcher.setStatistics(statistics);
+    final Recorder late = new Recorder();
+    dispatcher.addListener(TaggedEvent.class, new EventListener<TaggedEvent>() {
+      public void onEvent(final TaggedEvent event) {
+        dispatcher.addListener(TestEvent.class, late);
+      }
+    });
+
+    dispatcher.fire(new TaggedEvent(1));
+    // no listener yet, but the handler queued before it adds one.
+    final Future<TestEvent> future = dispatcher.fire(new TestEvent(2));
+    assertFalse(future.isDone());
+    executor.runNext();
+
+    assertTrue(future.isDone());
+    assertEquals(Collections.singletonList(2), late.seqs);
+    assertEquals(0, statistics.getSkippedCount());
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.State;
+import com.voxeo.utils.Event;
+
+public class StateRegistryTest extends TestCase {
+
+  public static class CallObserver implements Observer {
+    @State("StateRegistryTest.call=ringing")
+    public void onRinging(final Event<EventSource> event) {
+    }
+  }
+
+  public static class LateObserver implements Observer {
+    @State("StateRegistryTest.call=gone")
+    public void onGone(final Event<EventSource> event) {
+    }
+  }
+
+  final StateRegistry registry = new StateRegistry();
+
+  public void testInterning() {
+    final int id = registry.stateId("greeting");
+    assertEquals(id, registry.stateId("greeting"));
+    assertEquals(id, registry.lookupStateId(new String("greeting")));
+    assertFalse(id == registry.stateId("menu"));
+    assertEquals(0, registry.fsmId(AutowiredEventTarget.DEFAULT_FSM));
+  }
+
+  public void testLookupDoesNotIntern() {
+    assertEquals(StateRegistry.NO_STATE, registry.lookupStateId(null));
+    assertEquals(StateRegistry.UNKNOWN_STATE, registry.lookupStateId("dynamic"));
+    assertEquals(StateRegistry.UNKNOWN_STATE, registry.lookupStateId("dynamic"));
+    assertEquals(StateRegistry.NO_STATE, registry.lookupFsmId("none"));
+  }
+
+  public void testDefinedStateMachineRejectsUndefinedState() {
+    registry.define("ivr", "welcome", "menu");
+    assertTrue(registry.isDefined("ivr"));
+    registry.validate("ivr", "menu");
+    registry.validate("ivr", null);
+    try {
+      registry.validate("ivr", "goodbye");
+      fail("undefined state accepted");
+    }
+    catch (final IllegalArgumentException e) {
+      // expected
+    }
+    // undefined state machines accept any state.
+    registry.validate("free", "anything");
+  }
+
+  public void testDefineValidatesObserversAddedBefore() {
+    new AutowiredEventListener(new CallObserver(), registry);
+    try {
+      registry.define("StateRegistryTest.call", "idle", "answered");
+      fail("definition without the state of an observer accepted");
+    }
+    catch (final IllegalArgumentException e) {
+      // expected
+    }
+    assertFalse(registry.isDefined("StateRegistryTest.call"));
+
+    registry.define("StateRegistryTest.call", "idle", "ringing", "answered");
+    assertTrue(registry.isDefined("StateRegistryTest.call"));
+    // another observer of the already scanned class is fine.
+    new AutowiredEventListener(new CallObserver(), registry);
+    try {
+      new AutowiredEventListener(new LateObserver(), registry);
+      fail("observer with an undefined state accepted");
+    }
+    catch (final IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testRegistriesOfApplicationsAreIndependent() {
+    final StateRegistry other = new StateRegistry();
+    registry.define(null, "welcome", "menu");
+    other.define(null, "idle", "busy");
+    registry.validate(null, "menu");
+    other.validate(null, "busy");
+
+    // an observer of one application does not constrain the other.
+    new AutowiredEventListener(new CallObserver(), registry);
+    other.define("StateRegistryTest.call", "idle");
+    try {
+      new AutowiredEventListener(new CallObserver(), other);
+      fail("observer with an undefined state accepted");
+    }
+    catch (final IllegalArgumentException e) {
+      // expected
+    }
+    // a state set on the sources of one application is not interned in the
+    // other.
+    registry.fsmId("StateRegistryTest.dynamic");
+    assertEquals(StateRegistry.NO_STATE, other.lookupFsmId("StateRegistryTest.dynamic"));
+  }
+
+  public void testObserversWithoutRegistryAreNotValidated() {
+    registry.define("StateRegistryTest.call", "idle");
+    new AutowiredEventListener(new CallObserver());
+  }
+}
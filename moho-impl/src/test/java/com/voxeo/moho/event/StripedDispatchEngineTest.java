@@ -0,0 +1,101 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class StripedDispatchEngineTest extends TestCase {
+
+  ExecutorService executor;
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    executor = Executors.newFixedThreadPool(8);
+  }
+
+  protected void tearDown() throws Exception {
+    executor.shutdownNow();
+    super.tearDown();
+  }
+
+  public void testLaneCountRoundedToPowerOfTwo() {
+    assertEquals(64, new StripedDispatchEngine(executor).getLaneCount());
+    assertEquals(8, new StripedDispatchEngine(executor, 5).getLaneCount());
+    assertEquals(1, new StripedDispatchEngine(executor, 1).getLaneCount());
+  }
+
+  public void testPerKeyOrder() throws Exception {
+    final StripedDispatchEngine engine = new StripedDispatchEngine(executor, 4);
+    final int keys = 16;
+    final int tasks = 1000;
+    final CountDownLatch latch = new CountDownLatch(keys * tasks);
+    final List<List<Integer>> results = new ArrayList<List<Integer>>();
+    for (int k = 0; k < keys; k++) {
+      results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+    }
+
+    final Thread[] producers = new Thread[keys];
+    for (int k = 0; k < keys; k++) {
+      final String key = "source-" + k;
+      final List<Integer> result = results.get(k);
+      producers[k] = new Thread() {
+        public void run() {
+          for (int i = 0; i < tasks; i++) {
+            final int seq = i;
+            engine.execute(key, new Runnable() {
+              public void run() {
+                result.add(seq);
+                latch.countDown();
+              }
+            });
+          }
+        }
+      };
+      producers[k].start();
+    }
+
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    for (final List<Integer> result : results) {
+      assertEquals(tasks, result.size());
+      for (int i = 0; i < tasks; i++) {
+        assertEquals(Integer.valueOf(i), result.get(i));
+      }
+    }
+  }
+
+  public void testFailingTaskDoesNotStopLane() throws Exception {
+    final StripedDispatchEngine engine = new StripedDispatchEngine(executor, 1);
+    final CountDownLatch latch = new CountDownLatch(1);
+    engine.execute("a", new Runnable() {
+      public void run() {
+        throw new IllegalStateException("expected");
+      }
+    });
+    engine.execute("a", new Runnable() {
+      public void run() {
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.net.URI;
+
+import javax.media.mscontrol.resource.RTC;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.MediaException;
+import com.voxeo.moho.media.input.InputCommand;
+import com.voxeo.moho.media.input.SimpleGrammar;
+import com.voxeo.moho.media.output.AudioURIResource;
+import com.voxeo.moho.media.output.OutputCommand;
+
+public class CompiledPromptImplTest extends TestCase {
+
+  public void testCompileOutput() throws Exception {
+    final URI uri = new URI("file:///welcome.wav");
+    final OutputCommand output = new OutputCommand(new AudioURIResource(uri, null));
+    output.setBargein(true);
+
+    final CompiledPromptImpl prompt = CompiledPromptImpl.compile(output, null, 2);
+
+    assertTrue(prompt.hasOutput());
+    assertFalse(prompt.hasInput());
+    assertEquals(2, prompt.getRepeat());
+    assertEquals(1, prompt.getURIs().length);
+    assertEquals(uri, prompt.getURIs()[0]);
+    // the two barge-in RTCs.
+    assertEquals(2, prompt.getPlayRtcs().length);
+  }
+
+  public void testCompileDoesNotChangeTheInput() throws Exception {
+    final OutputCommand output = new OutputCommand(new AudioURIResource(new URI("file:///menu.wav"), null));
+    output.setBargein(true);
+    final InputCommand input = new InputCommand(new SimpleGrammar("1,2,3"));
+
+    final CompiledPromptImpl prompt = CompiledPromptImpl.compile(output, input, 0);
+
+    assertTrue(prompt.hasOutput());
+    assertTrue(prompt.hasInput());
+    assertNull(input.getParameters());
+    assertNull(input.getRtcs());
+    assertEquals(2, prompt.getDetectRtcs().length);
+    assertEquals(1, prompt.getPatternKeys().length);
+  }
+
+  public void testCompileInputOnly() throws Exception {
+    final InputCommand input = new InputCommand(new SimpleGrammar("yes,no"));
+
+    final CompiledPromptImpl prompt = CompiledPromptImpl.compile(null, input, 0);
+
+    assertFalse(prompt.hasOutput());
+    assertNull(prompt.getURIs());
+    assertSame(RTC.NO_RTC, prompt.getDetectRtcs());
+  }
+
+  public void testCompileNothing() {
+    try {
+      CompiledPromptImpl.compile(new OutputCommand(new AudioURIResource[0]), null, 0);
+      fail("No output or input compiled");
+    }
+    catch (final MediaException e) {
+      // expected
+    }
+  }
+}
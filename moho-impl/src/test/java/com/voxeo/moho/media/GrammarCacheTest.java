@@ -0,0 +1,105 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.net.URI;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.media.input.Grammar;
+import com.voxeo.moho.media.input.JSGFGrammar;
+import com.voxeo.moho.media.input.SimpleGrammar;
+
+public class GrammarCacheTest extends TestCase {
+
+  public void testHitAndMiss() {
+    final GrammarCache cache = new GrammarCache();
+
+    final Object first = cache.resolve(new SimpleGrammar("yes,no"));
+    final Object second = cache.resolve(new SimpleGrammar("yes,no"));
+
+    assertTrue(first instanceof URI);
+    assertSame(first, second);
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.size());
+  }
+
+  public void testPreloadIsOptIn() {
+    assertFalse(new GrammarCache().isPreloading());
+    assertTrue(new GrammarCache(10, 1000, true).isPreloading());
+  }
+
+  public void testGrammarTypesAreCachedApart() {
+    final GrammarCache cache = new GrammarCache();
+
+    final Object simple = cache.resolve(new SimpleGrammar("#JSGF V1.0;"));
+    final Object jsgf = cache.resolve(new JSGFGrammar("#JSGF V1.0;"));
+
+    assertFalse(simple.equals(jsgf));
+    assertEquals(2, cache.getMissCount());
+  }
+
+  public void testEvictsTheLeastRecentlyUsed() {
+    final GrammarCache cache = new GrammarCache(2, 1000, true);
+
+    cache.resolve(new SimpleGrammar("a"));
+    cache.resolve(new SimpleGrammar("b"));
+    cache.resolve(new SimpleGrammar("a"));
+    cache.resolve(new SimpleGrammar("c"));
+
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    // "b" was evicted, "a" is still cached.
+    cache.resolve(new SimpleGrammar("a"));
+    assertEquals(2, cache.getHitCount());
+    cache.resolve(new SimpleGrammar("b"));
+    assertEquals(4, cache.getMissCount());
+  }
+
+  public void testBoundedByLength() {
+    final GrammarCache cache = new GrammarCache(10, 5, true);
+
+    cache.resolve(new SimpleGrammar("abc"));
+    cache.resolve(new SimpleGrammar("def"));
+    assertEquals(1, cache.size());
+    assertEquals(3, cache.getCharCount());
+
+    // longer than the cache, never cached.
+    cache.resolve(new SimpleGrammar("abcdef"));
+    cache.resolve(new SimpleGrammar("abcdef"));
+    assertEquals(1, cache.size());
+    assertEquals(0, cache.getHitCount());
+  }
+
+  public void testResolveUncached() throws Exception {
+    final Grammar url = new Grammar("http://example.com/menu.grxml") {
+      @Override
+      public URI toURI() {
+        return null;
+      }
+    };
+    final Grammar text = new Grammar("yes or no") {
+      @Override
+      public URI toURI() {
+        return null;
+      }
+    };
+
+    assertEquals(new URL("http://example.com/menu.grxml"), GrammarCache.resolveUncached(url));
+    assertEquals("yes or no", GrammarCache.resolveUncached(text));
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.CompletionListener;
+import com.voxeo.moho.event.InputCompleteEvent;
+import com.voxeo.moho.event.OutputCompleteEvent;
+import com.voxeo.moho.event.RecordCompleteEvent;
+
+public class MediaOperationListenerTest extends TestCase {
+
+  static class RecordingListener<T> implements CompletionListener<T> {
+    final AtomicReference<T> result = new AtomicReference<T>();
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public void onComplete(final T event) {
+      result.set(event);
+      calls.incrementAndGet();
+    }
+
+    @Override
+    public void onFailure(final Throwable t) {
+      failure.set(t);
+      calls.incrementAndGet();
+    }
+  }
+
+  public void testOutputListenerNotifiedOnDone() throws Exception {
+    final OutputImpl output = new OutputImpl(null, null);
+    final RecordingListener<OutputCompleteEvent> listener = new RecordingListener<OutputCompleteEvent>();
+    output.addCompletionListener(listener);
+    assertEquals(0, listener.calls.get());
+
+    final OutputCompleteEvent event = new OutputCompleteEvent(null, OutputCompleteEvent.Cause.END);
+    output.done(event);
+    assertTrue(output.isDone());
+    assertSame(event, output.get());
+    assertSame(event, listener.result.get());
+
+    // a second completion is ignored.
+    output.done(new OutputCompleteEvent(null, OutputCompleteEvent.Cause.ERROR));
+    assertEquals(1, listener.calls.get());
+    assertSame(event, output.get());
+  }
+
+  public void testInputListenerNotifiedOnCancel() {
+    final InputImpl input = new InputImpl(null, null);
+    final RecordingListener<InputCompleteEvent> listener = new RecordingListener<InputCompleteEvent>();
+    input.addCompletionListener(listener);
+
+    assertTrue(input.cancel(false));
+    assertTrue(input.isCancelled());
+    assertTrue(listener.failure.get() instanceof CancellationException);
+
+    input.done(new InputCompleteEvent(null, InputCompleteEvent.Cause.CANCEL));
+    assertEquals(1, listener.calls.get());
+  }
+
+  public void testRecordingListenerAddedAfterDone() throws Exception {
+    final RecordingImpl recording = new RecordingImpl(null, null);
+    final RecordCompleteEvent event = new RecordCompleteEvent(null, RecordCompleteEvent.Cause.SILENCE, 1000);
+    recording.done(event);
+
+    final RecordingListener<RecordCompleteEvent> listener = new RecordingListener<RecordCompleteEvent>();
+    recording.addCompletionListener(listener);
+    assertSame(event, listener.result.get());
+    assertSame(event, recording.get());
+  }
+}
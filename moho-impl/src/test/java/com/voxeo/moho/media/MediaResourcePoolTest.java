@@ -0,0 +1,182 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.media;
+
+import java.util.concurrent.Executor;
+
+import javax.media.mscontrol.Configuration;
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.MsControlFactory;
+import javax.media.mscontrol.mediagroup.MediaGroup;
+import javax.media.mscontrol.networkconnection.NetworkConnection;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+
+import com.voxeo.moho.media.fake.MockMediaSession;
+
+public class MediaResourcePoolTest extends TestCase {
+
+  Mockery mockery;
+
+  MsControlFactory factory;
+
+  MockMediaSession session;
+
+  NetworkConnection network;
+
+  MediaGroup group;
+
+  // runs the refills inline.
+  final Executor executor = new Executor() {
+    @Override
+    public void execute(final Runnable command) {
+      command.run();
+    }
+  };
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mockery = new Mockery() {
+      {
+        setImposteriser(ClassImposteriser.INSTANCE);
+      }
+    };
+    factory = mockery.mock(MsControlFactory.class);
+    session = mockery.mock(MockMediaSession.class);
+    network = mockery.mock(NetworkConnection.class);
+    group = mockery.mock(MediaGroup.class);
+  }
+
+  public void testFillsUpToTheWatermark() throws Exception {
+    mockery.checking(new Expectations() {
+      {
+        exactly(2).of(factory).createMediaSession();
+        will(returnValue(session));
+        exactly(2).of(session).createNetworkConnection(NetworkConnection.BASIC);
+        will(returnValue(network));
+        exactly(2).of(session).createMediaGroup(with(any(Configuration.class)));
+        will(returnValue(group));
+      }
+    });
+
+    final MediaResourcePool pool = new MediaResourcePool(factory, new GenericMediaServiceFactory(), executor, 2);
+    pool.start();
+
+    assertEquals(2, pool.getIdleCount());
+    mockery.assertIsSatisfied();
+  }
+
+  public void testAcquireAndRecycle() throws Exception {
+    mockery.checking(new Expectations() {
+      {
+        exactly(2).of(factory).createMediaSession();
+        will(returnValue(session));
+        exactly(2).of(session).createNetworkConnection(NetworkConnection.BASIC);
+        will(returnValue(network));
+        exactly(2).of(session).createMediaGroup(with(any(Configuration.class)));
+        will(returnValue(group));
+        oneOf(network).release();
+        never(group).release();
+        oneOf(session).release();
+      }
+    });
+
+    final MediaResourcePool pool = new MediaResourcePool(factory, new GenericMediaServiceFactory(), executor, 1);
+    pool.start();
+
+    final MediaResourcePool.Resources resources = pool.acquire();
+    assertSame(network, resources.getNetworkConnection());
+    assertEquals(1, pool.getHitCount());
+    assertEquals(0, pool.getMissCount());
+    assertEquals(1, pool.getIdleCount());
+
+    // the pool was refilled after the acquire, so the session is released.
+    pool.recycle(resources);
+    assertEquals(1, pool.getIdleCount());
+    assertEquals(0, pool.getRecycledCount());
+    mockery.assertIsSatisfied();
+  }
+
+  public void testRecycledBelowTheWatermark() throws Exception {
+    mockery.checking(new Expectations() {
+      {
+        // the refill after the acquire fails, leaving the pool empty.
+        exactly(2).of(factory).createMediaSession();
+        will(onConsecutiveCalls(returnValue(session), throwException(new MsControlException("no media server"))));
+        exactly(2).of(session).createNetworkConnection(NetworkConnection.BASIC);
+        will(returnValue(network));
+        oneOf(network).release();
+        never(session).release();
+      }
+    });
+
+    final MediaResourcePool pool = new MediaResourcePool(factory, null, executor, 1);
+    final MediaResourcePool.Resources resources = pool.acquire();
+    assertEquals(0, pool.getIdleCount());
+
+    pool.recycle(resources);
+    assertEquals(1, pool.getIdleCount());
+    assertEquals(1, pool.getRecycledCount());
+    mockery.assertIsSatisfied();
+  }
+
+  public void testMissCreatesNoMediaGroup() throws Exception {
+    mockery.checking(new Expectations() {
+      {
+        // the refill after the acquire fails, leaving the pool empty.
+        exactly(2).of(factory).createMediaSession();
+        will(onConsecutiveCalls(returnValue(session), throwException(new MsControlException("no media server"))));
+        oneOf(session).createNetworkConnection(NetworkConnection.BASIC);
+        will(returnValue(network));
+        never(session).createMediaGroup(with(any(Configuration.class)));
+      }
+    });
+
+    final MediaResourcePool pool = new MediaResourcePool(factory, new GenericMediaServiceFactory(), executor, 1);
+    final MediaResourcePool.Resources resources = pool.acquire();
+    assertEquals(1, pool.getMissCount());
+    assertSame(network, resources.getNetworkConnection());
+    assertNull(resources.takeMediaGroup());
+    mockery.assertIsSatisfied();
+  }
+
+  public void testDiscardedSessionIsReleased() throws Exception {
+    mockery.checking(new Expectations() {
+      {
+        exactly(2).of(factory).createMediaSession();
+        will(onConsecutiveCalls(returnValue(session), throwException(new MsControlException("no media server"))));
+        oneOf(session).createNetworkConnection(NetworkConnection.BASIC);
+        will(returnValue(network));
+        // the session is released with everything the call created on it.
+        never(network).release();
+        oneOf(session).release();
+      }
+    });
+
+    final MediaResourcePool pool = new MediaResourcePool(factory, null, executor, 1);
+    final MediaResourcePool.Resources resources = pool.acquire();
+    resources.discard();
+
+    pool.recycle(resources);
+    assertEquals(0, pool.getIdleCount());
+    assertEquals(0, pool.getRecycledCount());
+    mockery.assertIsSatisfied();
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.sip.AdmissionController.Decision;
+import com.voxeo.moho.util.BoundedThreadPoolExecutor;
+import com.voxeo.moho.util.BoundedThreadPoolExecutor.OverloadPolicy;
+
+public class AdmissionControllerTest extends TestCase {
+
+  static class ClockedAdmissionController extends AdmissionController {
+
+    long now = System.nanoTime();
+
+    ClockedAdmissionController(final int maxCalls, final int callsPerSecond, final int maxQueueDepth) {
+      super(maxCalls, callsPerSecond, maxQueueDepth, DEFAULT_RETRY_AFTER);
+    }
+
+    @Override
+    protected long nanoTime() {
+      return now;
+    }
+  }
+
+  public void testUnlimited() {
+    final AdmissionController admission = new AdmissionController(0, 0, 0, 5);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(Decision.ADMITTED, admission.admit(i, i));
+    }
+    assertEquals(1000, admission.getAdmittedCount());
+  }
+
+  public void testMaxCallsAndQueueDepth() {
+    final AdmissionController admission = new AdmissionController(10, 0, 100, 5);
+    assertEquals(Decision.ADMITTED, admission.admit(9, 99));
+    assertEquals(Decision.TOO_MANY_CALLS, admission.admit(10, 0));
+    assertEquals(Decision.OVERLOADED, admission.admit(0, 100));
+    assertEquals(1, admission.getTooManyCallsCount());
+    assertEquals(1, admission.getOverloadedCount());
+  }
+
+  public void testRate() {
+    final ClockedAdmissionController admission = new ClockedAdmissionController(0, 10, 0);
+
+    // a full bucket takes a burst of one second worth of calls.
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Decision.ADMITTED, admission.admit(0, 0));
+    }
+    assertEquals(Decision.RATE_EXCEEDED, admission.admit(0, 0));
+
+    // one token is back after 100ms.
+    admission.now += 100000000L;
+    assertEquals(Decision.ADMITTED, admission.admit(0, 0));
+    assertEquals(Decision.RATE_EXCEEDED, admission.admit(0, 0));
+
+    // the bucket does not hold more than its capacity after an idle period.
+    admission.now += 10 * 1000000000L;
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Decision.ADMITTED, admission.admit(0, 0));
+    }
+    assertEquals(Decision.RATE_EXCEEDED, admission.admit(0, 0));
+    assertEquals(3, admission.getRateExceededCount());
+  }
+
+  public void testBacklogOfTheExecutor() throws Exception {
+    final SIPController controller = new SIPController();
+    assertEquals(0, controller.getBacklog(null));
+
+    final ThreadPoolExecutor handOff = new ThreadPoolExecutor(1, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>());
+    final ThreadPoolExecutor queueing = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>());
+    final BoundedThreadPoolExecutor bounded = new BoundedThreadPoolExecutor(1, 10, 0, OverloadPolicy.REJECT,
+        Executors.defaultThreadFactory());
+    final CountDownLatch running = new CountDownLatch(7);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        running.countDown();
+        try {
+          release.await();
+        }
+        catch (final InterruptedException e) {
+          // ends the task.
+        }
+      }
+    };
+    try {
+      for (int i = 0; i < 3; i++) {
+        handOff.execute(task);
+        queueing.execute(task);
+        bounded.execute(task);
+      }
+      assertTrue(running.await(5, TimeUnit.SECONDS));
+
+      // the hand-off pool never queues, the threads beyond its core are its
+      // backlog.
+      assertEquals(0, handOff.getQueue().size());
+      assertEquals(2, controller.getBacklog(handOff));
+      assertEquals(2, controller.getBacklog(queueing));
+      assertEquals(3, bounded.getBusyCount());
+      assertEquals(2, controller.getBacklog(bounded));
+    }
+    finally {
+      release.countDown();
+      handOff.shutdown();
+      queueing.shutdown();
+      bounded.shutdown();
+    }
+    assertTrue(bounded.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(0, bounded.getBusyCount());
+  }
+}
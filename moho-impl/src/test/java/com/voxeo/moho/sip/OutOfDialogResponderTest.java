@@ -0,0 +1,158 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipServletResponse;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+import com.voxeo.moho.sip.fake.MockSipServletResponse;
+
+public class OutOfDialogResponderTest extends TestCase {
+
+  Mockery mockery = new Mockery() {
+    {
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }
+  };
+
+  SipApplicationSession appSession = mockery.mock(SipApplicationSession.class);
+
+  MockSipServletRequest req = mockery.mock(MockSipServletRequest.class);
+
+  MockSipServletResponse res = mockery.mock(MockSipServletResponse.class);
+
+  OutOfDialogResponder responder = new OutOfDialogResponder();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    req.setIsInitial(true);
+    responder.addMethod("OPTIONS");
+    responder.addMethod("message");
+  }
+
+  public void testOptionsAnsweredWithOk() throws Exception {
+    req.setMethod("OPTIONS");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(req).createResponse(SipServletResponse.SC_OK);
+        will(returnValue(res));
+        oneOf(res).setHeader("Accept", OutOfDialogResponder.DEFAULT_ACCEPT);
+        oneOf(res).setHeader("Allow", OutOfDialogResponder.DEFAULT_ALLOW);
+        oneOf(res).send();
+        allowing(req).getApplicationSession();
+        will(returnValue(appSession));
+        oneOf(appSession).invalidate();
+      }
+    });
+
+    assertTrue(responder.respond(req));
+    assertEquals(1, responder.getAnsweredCount());
+    mockery.assertIsSatisfied();
+  }
+
+  public void testMethodNotAllowedLeavesItOutOfAllow() throws Exception {
+    req.setMethod("MESSAGE");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(req).createResponse(SipServletResponse.SC_METHOD_NOT_ALLOWED);
+        will(returnValue(res));
+        oneOf(res).setHeader("Allow", "INVITE, ACK, CANCEL, BYE, OPTIONS, REFER, NOTIFY, SUBSCRIBE, PRACK");
+        oneOf(res).send();
+        allowing(req).getApplicationSession();
+        will(returnValue(appSession));
+        oneOf(appSession).invalidate();
+      }
+    });
+
+    assertTrue(responder.respond(req));
+    assertEquals(1, responder.getAnsweredCount());
+    mockery.assertIsSatisfied();
+  }
+
+  public void testAllowWithoutMethod() {
+    final OutOfDialogResponder custom = new OutOfDialogResponder("INVITE,MESSAGE , BYE", null);
+    assertEquals("INVITE, BYE", custom.getAllowWithout("MESSAGE"));
+    assertEquals("INVITE, MESSAGE, BYE", custom.getAllowWithout("INFO"));
+  }
+
+  public void testInDialogRequestLeftToTheApplication() {
+    req.setMethod("OPTIONS");
+    req.setIsInitial(false);
+
+    assertFalse(responder.respond(req));
+    assertEquals(0, responder.getAnsweredCount());
+    mockery.assertIsSatisfied();
+  }
+
+  public void testUnconfiguredMethodLeftToTheApplication() {
+    req.setMethod("INFO");
+
+    assertFalse(responder.respond(req));
+    assertEquals(0, responder.getAnsweredCount());
+    mockery.assertIsSatisfied();
+  }
+
+  public void testInterestOfTheApplication() throws Exception {
+    req.setMethod("MESSAGE");
+    responder.addInterest("message");
+    assertFalse(responder.isResponding("MESSAGE"));
+    assertFalse(responder.respond(req));
+    mockery.assertIsSatisfied();
+
+    responder.removeInterest("MESSAGE");
+    assertTrue(responder.isResponding("MESSAGE"));
+    mockery.checking(new Expectations() {
+      {
+        oneOf(req).createResponse(SipServletResponse.SC_METHOD_NOT_ALLOWED);
+        will(returnValue(res));
+        allowing(res).setHeader(with(any(String.class)), with(any(String.class)));
+        oneOf(res).send();
+        allowing(req).getApplicationSession();
+        will(returnValue(appSession));
+        allowing(appSession).invalidate();
+      }
+    });
+    assertTrue(responder.respond(req));
+    mockery.assertIsSatisfied();
+  }
+
+  public void testFailureToInvalidateStillAnswers() throws Exception {
+    req.setMethod("OPTIONS");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(req).createResponse(SipServletResponse.SC_OK);
+        will(returnValue(res));
+        allowing(res).setHeader(with(any(String.class)), with(any(String.class)));
+        oneOf(res).send();
+        allowing(req).getApplicationSession();
+        will(returnValue(appSession));
+        oneOf(appSession).invalidate();
+        will(throwException(new IllegalStateException("already invalidated")));
+      }
+    });
+
+    assertTrue(responder.respond(req));
+    assertEquals(1, responder.getAnsweredCount());
+    mockery.assertIsSatisfied();
+  }
+}
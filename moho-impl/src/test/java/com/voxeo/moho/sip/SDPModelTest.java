@@ -0,0 +1,88 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.sip.SDPModel.Direction;
+
+public class SDPModelTest extends TestCase {
+
+  private static final String SESSION = "v=0\r\n" + "o=- 1 1 IN IP4 10.0.0.1\r\n" + "s=-\r\n"
+      + "c=IN IP4 10.0.0.1\r\n" + "t=0 0\r\n";
+
+  private static final String AUDIO = "m=audio 4000 RTP/AVP 0\r\n" + "a=rtpmap:0 PCMU/8000\r\n";
+
+  private static final String VIDEO = "m=video 4002 RTP/AVP 34\r\n" + "a=rtpmap:34 H263/90000\r\n";
+
+  private static SDPModel parse(final String sdp) throws Exception {
+    return SDPModel.parse(sdp.getBytes("iso8859-1"));
+  }
+
+  public void testNoBody() {
+    assertNull(SDPModel.parse(null));
+    assertNull(SDPModel.parse(new byte[0]));
+  }
+
+  public void testDirections() throws Exception {
+    final SDPModel sdp = parse(SESSION + "a=sendonly\r\n" + AUDIO + VIDEO + "a=recvonly\r\n");
+
+    assertEquals(2, sdp.getMediaCount());
+    assertEquals(4000, sdp.getMediaPort(0));
+    assertEquals(4002, sdp.getMediaPort(1));
+    assertEquals(Direction.SENDONLY, sdp.getSessionDirection());
+    assertEquals(Direction.SENDONLY, sdp.getDirection(0));
+    assertEquals(Direction.RECVONLY, sdp.getDirection(1));
+  }
+
+  public void testHold() throws Exception {
+    assertTrue(parse(SESSION + AUDIO + "a=sendonly\r\n").isHold());
+    assertTrue(parse(SESSION + AUDIO + "a=inactive\r\n").isHold());
+    assertTrue(parse(SESSION + "a=sendonly\r\n" + AUDIO + VIDEO).isHold());
+    // a rejected stream does not count.
+    assertTrue(parse(SESSION + AUDIO + "a=sendonly\r\n" + "m=video 0 RTP/AVP 34\r\n").isHold());
+
+    // one way video is not a hold, the audio is still sendrecv.
+    final SDPModel oneWayVideo = parse(SESSION + AUDIO + "a=sendrecv\r\n" + VIDEO + "a=sendonly\r\n");
+    assertFalse(oneWayVideo.isHold());
+    assertTrue(oneWayVideo.isResume());
+
+    // the attribute value, not a substring of another line.
+    final SDPModel fmtp = parse(SESSION + AUDIO + "a=fmtp:0 mode=sendonly\r\n");
+    assertFalse(fmtp.isHold());
+    assertFalse(fmtp.isResume());
+  }
+
+  public void testWithDirectionRewritesEveryMedia() throws Exception {
+    final SDPModel sdp = parse(SESSION + "a=sendrecv\r\n" + AUDIO + "a=sendrecv\r\n" + VIDEO);
+
+    final byte[] sendonly = sdp.withDirection(Direction.SENDONLY);
+    assertEquals(SESSION + AUDIO + "a=sendonly\r\n" + VIDEO + "a=sendonly\r\n", new String(sendonly, "iso8859-1"));
+    assertSame(sendonly, sdp.withDirection(Direction.SENDONLY));
+
+    final SDPModel rewritten = SDPModel.parse(sendonly);
+    assertTrue(rewritten.isHold());
+    assertEquals(SESSION + AUDIO + "a=sendrecv\r\n" + VIDEO + "a=sendrecv\r\n", new String(rewritten
+        .withDirection(Direction.SENDRECV), "iso8859-1"));
+  }
+
+  public void testWithDirectionKeepsLineTerminator() throws Exception {
+    final SDPModel sdp = parse("v=0\n" + "s=-\n" + "m=audio 4000 RTP/AVP 0\n" + "a=sendrecv\n"
+        + "a=rtpmap:0 PCMU/8000");
+
+    assertEquals("v=0\n" + "s=-\n" + "m=audio 4000 RTP/AVP 0\n" + "a=rtpmap:0 PCMU/8000\n" + "a=recvonly\n",
+        new String(sdp.withDirection(Direction.RECVONLY), "iso8859-1"));
+  }
+}
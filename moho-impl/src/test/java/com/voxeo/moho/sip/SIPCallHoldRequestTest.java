@@ -0,0 +1,300 @@
+/**
+ * Copyright 2010 Voxeo Corporation Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.mscontrol.MsControlException;
+import javax.media.mscontrol.MsControlFactory;
+import javax.media.mscontrol.join.Joinable.Direction;
+import javax.sdp.SdpException;
+import javax.sdp.SdpFactory;
+import javax.servlet.sip.Address;
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipFactory;
+import javax.servlet.sip.SipServletRequest;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+
+import com.voxeo.moho.ApplicationContextImpl;
+import com.voxeo.moho.CallOperation;
+import com.voxeo.moho.ExecutionContext;
+import com.voxeo.moho.MediaException;
+import com.voxeo.moho.Participant.JoinType;
+import com.voxeo.moho.sip.SIPCallImpl.HoldState;
+import com.voxeo.moho.sip.fake.MockServletContext;
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+import com.voxeo.moho.sip.fake.MockSipSession;
+
+/**
+ * Queues the hold and mute requests of a call. The re-INVITEs are recorded by
+ * a fake call delegate, and the test moves the hold and mute states the way
+ * the responses would.
+ */
+public class SIPCallHoldRequestTest extends TestCase {
+
+  static final long TIMEOUT = 5;
+
+  Mockery mockery = new Mockery() {
+    {
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }
+  };
+
+  MsControlFactory msFactory = mockery.mock(MsControlFactory.class);
+
+  SipFactory sipFactory = mockery.mock(SipFactory.class);
+
+  SdpFactory sdpFactory = mockery.mock(SdpFactory.class);
+
+  SipApplicationSession appSession = mockery.mock(SipApplicationSession.class);
+
+  MockSipSession session = mockery.mock(MockSipSession.class);
+
+  MockSipServletRequest initInviteReq = mockery.mock(MockSipServletRequest.class);
+
+  MockServletContext servletContext = mockery.mock(MockServletContext.class);
+
+  ExecutionContext appContext = new ApplicationContextImpl(null, msFactory, sipFactory, sdpFactory, "test", null, 2);
+
+  SIPInviteEvent initInviteEvent = mockery.mock(SIPInviteEvent.class);
+
+  Address fromAddr = mockery.mock(Address.class, "fromAddr");
+
+  TestCall call;
+
+  TestCallDelegate callDelegate;
+
+  // records the re-INVITEs instead of sending them.
+  static class TestCallDelegate extends SIPCallDelegate {
+    final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected void handleAck(final SIPCallImpl call, final SipServletRequest req) {
+    }
+
+    @Override
+    protected void handleReinvite(final SIPCallImpl call, final SipServletRequest req,
+        final Map<String, String> headers) {
+    }
+
+    @Override
+    protected void hold(final SIPCallImpl call, final boolean send) throws MsControlException, IOException,
+        SdpException {
+      sent.add("hold");
+    }
+
+    @Override
+    protected void unhold(final SIPCallImpl call) throws MsControlException, IOException, SdpException {
+      sent.add("unhold");
+    }
+
+    @Override
+    protected void mute(final SIPCallImpl call) throws IOException, SdpException {
+      sent.add("mute");
+    }
+
+    @Override
+    protected void unmute(final SIPCallImpl call) throws IOException, SdpException {
+      sent.add("unmute");
+    }
+  }
+
+  // a join that stays in progress until the test ends it.
+  static class TestJoinDelegate extends JoinDelegate {
+    @Override
+    protected void doJoin() {
+    }
+  }
+
+  class TestCall extends SIPIncomingCall {
+    final TestJoinDelegate joinDelegate = new TestJoinDelegate();
+
+    TestCall() {
+      super(appContext, initInviteEvent);
+    }
+
+    @Override
+    protected JoinDelegate createJoinDelegate(final Direction direction) {
+      return joinDelegate;
+    }
+
+    @Override
+    protected JoinDelegate createJoinDelegate(final SIPCallImpl other, final JoinType type, final Direction direction) {
+      return joinDelegate;
+    }
+  }
+
+  static class RecordingCompletion implements JoinDelegate.Completion {
+    final List<Exception> calls = new ArrayList<Exception>();
+
+    @Override
+    public void joinDone(final Exception e) {
+      calls.add(e);
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    initInviteReq.setSession(session);
+    initInviteReq.setMethod("INVITE");
+    initInviteReq.setIsInitial(true);
+    session.setServletContext(servletContext);
+
+    mockery.checking(new Expectations() {
+      {
+        allowing(initInviteEvent).getSipRequest();
+        will(returnValue(initInviteReq));
+
+        allowing(session).getRemoteParty();
+        will(returnValue(fromAddr));
+
+        allowing(fromAddr).clone();
+        will(returnValue(fromAddr));
+
+        allowing(session).getApplicationSession();
+        will(returnValue(appSession));
+
+        allowing(session).getCallId();
+        will(returnValue("test"));
+      }
+    });
+
+    call = new TestCall();
+    call.setSIPCallState(SIPCall.State.ANSWERED);
+    callDelegate = new TestCallDelegate();
+    call.setCallDelegate(callDelegate);
+  }
+
+  public void testConcurrentHoldsSendOneReinvite() throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CallOperation[] operations = new CallOperation[2];
+    final Thread[] threads = new Thread[operations.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          }
+          catch (final InterruptedException e) {
+            return;
+          }
+          operations[index] = call.holdAsync();
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+    for (final Thread thread : threads) {
+      thread.join(TIMEOUT * 1000);
+    }
+
+    // the second hold waits for the re-INVITE of the first.
+    assertEquals(Collections.singletonList("hold"), callDelegate.sent);
+    assertEquals(HoldState.Holding, call.getHoldState());
+    assertFalse(operations[0].isDone());
+    assertFalse(operations[1].isDone());
+
+    call.setHoldState(HoldState.Held);
+    operations[0].get(TIMEOUT, TimeUnit.SECONDS);
+    operations[1].get(TIMEOUT, TimeUnit.SECONDS);
+    assertEquals(Collections.singletonList("hold"), callDelegate.sent);
+    assertNull(call._currentHoldRequest);
+    assertFalse(call.isOperationInprocess());
+  }
+
+  public void testHoldThenUnholdCollapse() throws Exception {
+    final CallOperation mute = call.muteAsync();
+    assertEquals(Collections.singletonList("mute"), callDelegate.sent);
+
+    // queued behind the mute, they cancel each other out.
+    final CallOperation hold = call.holdAsync();
+    final CallOperation unhold = call.unholdAsync();
+    hold.get(TIMEOUT, TimeUnit.SECONDS);
+    unhold.get(TIMEOUT, TimeUnit.SECONDS);
+    assertTrue(call._holdRequests.isEmpty());
+    assertFalse(mute.isDone());
+
+    call.setMuteState(HoldState.Muted);
+    mute.get(TIMEOUT, TimeUnit.SECONDS);
+    assertEquals(Collections.singletonList("mute"), callDelegate.sent);
+    assertEquals(HoldState.None, call.getHoldState());
+  }
+
+  public void testHoldQueuedBehindJoin() throws Exception {
+    final RecordingCompletion completion = new RecordingCompletion();
+    call.doJoin(Direction.DUPLEX, true, completion);
+    assertTrue(call.isOperationInprocess());
+
+    final CallOperation hold = call.holdAsync();
+    assertTrue(callDelegate.sent.isEmpty());
+    assertFalse(hold.isDone());
+
+    // the join fails, so the call keeps its delegate and the hold goes on.
+    call.joinDelegate.setError(new MediaException("no media"));
+    call.joinDelegate.done();
+    assertEquals(1, completion.calls.size());
+    assertEquals(Collections.singletonList("hold"), callDelegate.sent);
+    assertSame(call._currentHoldRequest._operation, hold);
+    assertTrue(call.isOperationInprocess());
+
+    call.setHoldState(HoldState.Held);
+    hold.get(TIMEOUT, TimeUnit.SECONDS);
+    assertFalse(call.isOperationInprocess());
+  }
+
+  public void testTerminationFailsPendingRequests() throws Exception {
+    final CallOperation hold = call.holdAsync();
+    final CallOperation mute = call.muteAsync();
+    assertEquals(Collections.singletonList("hold"), callDelegate.sent);
+
+    call.disconnect(true);
+    assertFailedByTermination(hold);
+    assertFailedByTermination(mute);
+    assertEquals(Collections.singletonList("hold"), callDelegate.sent);
+    assertNull(call._currentHoldRequest);
+    assertTrue(call._holdRequests.isEmpty());
+
+    try {
+      call.holdAsync();
+      fail("hold of a terminated call");
+    }
+    catch (final IllegalStateException e) {
+      // expected.
+    }
+  }
+
+  private void assertFailedByTermination(final CallOperation operation) throws Exception {
+    try {
+      operation.get(TIMEOUT, TimeUnit.SECONDS);
+      fail("no exception");
+    }
+    catch (final ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright 2010 Voxeo Corporation Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.mscontrol.MsControlFactory;
+import javax.media.mscontrol.join.Joinable.Direction;
+import javax.sdp.SdpFactory;
+import javax.servlet.sip.Address;
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipFactory;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+
+import com.voxeo.moho.ApplicationContextImpl;
+import com.voxeo.moho.ExecutionContext;
+import com.voxeo.moho.Joint;
+import com.voxeo.moho.MediaException;
+import com.voxeo.moho.Participant.JoinType;
+import com.voxeo.moho.event.JoinCompleteEvent;
+import com.voxeo.moho.sip.fake.MockServletContext;
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+import com.voxeo.moho.sip.fake.MockSipSession;
+
+/**
+ * Drives the event-driven join of a call: the join delegate is started and
+ * left waiting, and the test ends it the way the SIP and SDP events would.
+ */
+public class SIPCallJoinTest extends TestCase {
+
+  Mockery mockery = new Mockery() {
+    {
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }
+  };
+
+  MsControlFactory msFactory = mockery.mock(MsControlFactory.class);
+
+  SipFactory sipFactory = mockery.mock(SipFactory.class);
+
+  SdpFactory sdpFactory = mockery.mock(SdpFactory.class);
+
+  SipApplicationSession appSession = mockery.mock(SipApplicationSession.class);
+
+  MockSipSession session = mockery.mock(MockSipSession.class);
+
+  MockSipServletRequest initInviteReq = mockery.mock(MockSipServletRequest.class);
+
+  MockServletContext servletContext = mockery.mock(MockServletContext.class);
+
+  ExecutionContext appContext = new ApplicationContextImpl(null, msFactory, sipFactory, sdpFactory, "test", null, 2);
+
+  SIPInviteEvent initInviteEvent = mockery.mock(SIPInviteEvent.class);
+
+  Address fromAddr = mockery.mock(Address.class, "fromAddr");
+
+  TestCall call;
+
+  static class TestJoinDelegate extends JoinDelegate {
+    Exception startFailure;
+
+    int started;
+
+    @Override
+    protected void doJoin() throws Exception {
+      started++;
+      if (startFailure != null) {
+        throw startFailure;
+      }
+    }
+  }
+
+  static class RecordingCompletion implements JoinDelegate.Completion {
+    final List<Exception> calls = new ArrayList<Exception>();
+
+    @Override
+    public void joinDone(final Exception e) {
+      calls.add(e);
+    }
+  }
+
+  class TestCall extends SIPIncomingCall {
+    final TestJoinDelegate delegate = new TestJoinDelegate();
+
+    TestCall() {
+      super(appContext, initInviteEvent);
+    }
+
+    @Override
+    protected JoinDelegate createJoinDelegate(final Direction direction) {
+      return delegate;
+    }
+
+    @Override
+    protected JoinDelegate createJoinDelegate(final SIPCallImpl other, final JoinType type, final Direction direction) {
+      return delegate;
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    initInviteReq.setSession(session);
+    initInviteReq.setMethod("INVITE");
+    initInviteReq.setIsInitial(true);
+    session.setServletContext(servletContext);
+
+    mockery.checking(new Expectations() {
+      {
+        allowing(initInviteEvent).getSipRequest();
+        will(returnValue(initInviteReq));
+
+        allowing(session).getRemoteParty();
+        will(returnValue(fromAddr));
+
+        allowing(fromAddr).clone();
+        will(returnValue(fromAddr));
+
+        allowing(session).getApplicationSession();
+        will(returnValue(appSession));
+
+        allowing(session).getCallId();
+        will(returnValue("test"));
+      }
+    });
+
+    call = new TestCall();
+    call.setSIPCallState(SIPCall.State.ANSWERED);
+  }
+
+  public void testJoinCompletedByTheDelegate() {
+    final RecordingCompletion completion = new RecordingCompletion();
+    call.doJoin(Direction.DUPLEX, true, completion);
+
+    // the join is in progress, no thread waits for it.
+    assertEquals(1, call.delegate.started);
+    assertSame(call.delegate, call.getJoinDelegate());
+    assertTrue(call.delegate.isWaiting());
+    assertTrue(call.isOperationInprocess());
+    assertTrue(completion.calls.isEmpty());
+
+    call.delegate.done();
+    assertEquals(1, completion.calls.size());
+    assertNull(completion.calls.get(0));
+    assertNull(call.getJoinDelegate());
+    assertFalse(call.isOperationInprocess());
+    assertTrue(call._callDelegate instanceof SIPCallMediaDelegate);
+
+    // the delegate ends the join once.
+    call.delegate.done();
+    assertEquals(1, completion.calls.size());
+  }
+
+  public void testJoinFailedByTheDelegate() {
+    final RecordingCompletion completion = new RecordingCompletion();
+    call.doJoin(Direction.DUPLEX, true, completion);
+
+    final Exception e = new MediaException("no media");
+    call.delegate.setError(e);
+    call.delegate.done();
+    assertEquals(1, completion.calls.size());
+    assertSame(e, completion.calls.get(0));
+    assertNull(call.getJoinDelegate());
+    assertFalse(call.isOperationInprocess());
+    assertNull(call._callDelegate);
+  }
+
+  public void testJoinFailedToStart() {
+    final RecordingCompletion completion = new RecordingCompletion();
+    final Exception e = new MediaException("no media");
+    call.delegate.startFailure = e;
+    call.doJoin(Direction.DUPLEX, true, completion);
+
+    assertEquals(1, completion.calls.size());
+    assertSame(e, completion.calls.get(0));
+    assertNull(call.getJoinDelegate());
+    assertFalse(call.isOperationInprocess());
+  }
+
+  public void testJoinRejectedWhileAnotherOperationIsInProcess() {
+    final RecordingCompletion first = new RecordingCompletion();
+    call.doJoin(Direction.DUPLEX, true, first);
+
+    final RecordingCompletion second = new RecordingCompletion();
+    call.doJoin(Direction.DUPLEX, true, second);
+    assertEquals(1, second.calls.size());
+    assertTrue(second.calls.get(0) instanceof IllegalStateException);
+    assertEquals(1, call.delegate.started);
+
+    // the join in progress is not disturbed.
+    assertSame(call.delegate, call.getJoinDelegate());
+    assertTrue(call.isOperationInprocess());
+    assertTrue(first.calls.isEmpty());
+  }
+
+  public void testDoneCallbackRestoresThePreviousDelegate() {
+    final JoinDelegate previous = new TestJoinDelegate();
+    call.setJoinDelegate(previous);
+    final RecordingCompletion completion = new RecordingCompletion();
+    call.doJoin(Direction.DUPLEX, false, completion);
+    assertSame(call.delegate, call.getJoinDelegate());
+    assertFalse(call.isOperationInprocess());
+
+    call.delegate.done();
+    assertSame(previous, call.getJoinDelegate());
+    assertFalse(call.isOperationInprocess());
+    assertEquals(1, completion.calls.size());
+  }
+
+  public void testCancelEndsTheJoinInProgress() {
+    final SIPCallImpl.JoinOperation operation = call.new JoinOperation(null);
+    assertFalse(operation.cancel());
+
+    final RecordingCompletion completion = new RecordingCompletion();
+    call.doJoin(Direction.DUPLEX, true, completion);
+    assertTrue(operation.cancel());
+    assertTrue(call.delegate.isDone());
+    assertEquals(1, completion.calls.size());
+    assertNull(call.getJoinDelegate());
+    assertFalse(call.isOperationInprocess());
+  }
+
+  public void testJointCompletedWhenTheJoinIsDone() throws Exception {
+    final SIPCallImpl.JoinOperation operation = call.new JoinOperation(null);
+    final Joint joint = operation.getJoint();
+    assertFalse(joint.isDone());
+
+    call.doJoin(Direction.DUPLEX, true, operation);
+    assertFalse(joint.isDone());
+    call.delegate.done();
+
+    final JoinCompleteEvent event = joint.get(5, TimeUnit.SECONDS);
+    assertEquals(JoinCompleteEvent.Cause.JOINED, event.getCause());
+    assertSame(call, event.getSource());
+    assertFalse(call.isOperationInprocess());
+  }
+}
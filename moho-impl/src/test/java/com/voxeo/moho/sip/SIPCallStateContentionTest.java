@@ -0,0 +1,242 @@
+/**
+ * Copyright 2010 Voxeo Corporation Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.media.mscontrol.MsControlFactory;
+import javax.sdp.SdpFactory;
+import javax.servlet.sip.Address;
+import javax.servlet.sip.SipApplicationSession;
+import javax.servlet.sip.SipFactory;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+
+import com.voxeo.moho.ApplicationContextImpl;
+import com.voxeo.moho.ExecutionContext;
+import com.voxeo.moho.sip.fake.MockServletContext;
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+import com.voxeo.moho.sip.fake.MockSipSession;
+
+/**
+ * Checks that the call state is read without the call monitor, which a SIP
+ * thread holds for the whole of a compound operation, and that the state
+ * transitions are atomic.
+ */
+public class SIPCallStateContentionTest extends TestCase {
+
+  static final int READERS = 4;
+
+  static final long DURATION = 200;
+
+  Mockery mockery = new Mockery() {
+    {
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }
+  };
+
+  MsControlFactory msFactory = mockery.mock(MsControlFactory.class);
+
+  SipFactory sipFactory = mockery.mock(SipFactory.class);
+
+  SdpFactory sdpFactory = mockery.mock(SdpFactory.class);
+
+  SipApplicationSession appSession = mockery.mock(SipApplicationSession.class);
+
+  MockSipSession session = mockery.mock(MockSipSession.class);
+
+  MockSipServletRequest initInviteReq = mockery.mock(MockSipServletRequest.class);
+
+  MockServletContext servletContext = mockery.mock(MockServletContext.class);
+
+  ExecutionContext appContext = new ApplicationContextImpl(null, msFactory, sipFactory, sdpFactory, "test", null, 2);
+
+  SIPInviteEvent initInviteEvent = mockery.mock(SIPInviteEvent.class);
+
+  Address fromAddr = mockery.mock(Address.class, "fromAddr");
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    initInviteReq.setSession(session);
+    initInviteReq.setMethod("INVITE");
+    initInviteReq.setIsInitial(true);
+    session.setServletContext(servletContext);
+
+    mockery.checking(new Expectations() {
+      {
+        allowing(initInviteEvent).getSipRequest();
+        will(returnValue(initInviteReq));
+
+        allowing(session).getRemoteParty();
+        will(returnValue(fromAddr));
+
+        allowing(fromAddr).clone();
+        will(returnValue(fromAddr));
+
+        allowing(session).getApplicationSession();
+        will(returnValue(appSession));
+
+        allowing(session).getCallId();
+        will(returnValue("test"));
+      }
+    });
+  }
+
+  public void testStateReadsDoNotBlockWhileCallIsHeld() throws Exception {
+    final SIPIncomingCall call = new SIPIncomingCall(appContext, initInviteEvent);
+    final CountDownLatch held = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Thread holder = new Thread() {
+      @Override
+      public void run() {
+        synchronized (call) {
+          held.countDown();
+          try {
+            release.await();
+          }
+          catch (final InterruptedException e) {
+            // ends the hold.
+          }
+        }
+      }
+    };
+    holder.start();
+    assertTrue(held.await(5, TimeUnit.SECONDS));
+
+    final AtomicLong reads = new AtomicLong();
+    final long deadline = System.currentTimeMillis() + DURATION;
+    final Thread[] readers = new Thread[READERS];
+    for (int i = 0; i < READERS; i++) {
+      readers[i] = new Thread() {
+        @Override
+        public void run() {
+          long n = 0;
+          while (System.currentTimeMillis() < deadline) {
+            call.getSIPCallState();
+            call.isAnswered();
+            call.isTerminated();
+            call.getMediaObject();
+            call.getAddress();
+            call.getHoldState();
+            call.getMuteState();
+            n++;
+          }
+          reads.addAndGet(n);
+        }
+      };
+      readers[i].start();
+    }
+    for (final Thread reader : readers) {
+      reader.join(DURATION + 5000);
+    }
+    release.countDown();
+    holder.join();
+
+    for (final Thread reader : readers) {
+      assertFalse("state reads blocked on the call monitor", reader.isAlive());
+    }
+    assertTrue(reads.get() > 0);
+  }
+
+  public void testSetStateNeverLeavesTerminatedState() {
+    final SIPIncomingCall call = new SIPIncomingCall(appContext, initInviteEvent);
+    assertTrue(call.setSIPCallState(SIPCall.State.RINGING));
+    assertEquals(SIPCall.State.RINGING, call.getSIPCallState());
+
+    assertTrue(call.setSIPCallState(SIPCall.State.DISCONNECTED));
+    assertFalse(call.setSIPCallState(SIPCall.State.ANSWERED));
+    assertFalse(call.setSIPCallState(SIPCall.State.FAILED));
+    assertEquals(SIPCall.State.DISCONNECTED, call.getSIPCallState());
+  }
+
+  public void testTransitionRacingTerminationLeavesTheCallTerminated() throws Exception {
+    for (int round = 0; round < 100; round++) {
+      final SIPIncomingCall call = new SIPIncomingCall(appContext, initInviteEvent);
+      call.setSIPCallState(SIPCall.State.ANSWERING);
+      final CountDownLatch start = new CountDownLatch(1);
+      final Thread answering = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          }
+          catch (final InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < 100; i++) {
+            call.setSIPCallState(i % 2 == 0 ? SIPCall.State.ANSWERED : SIPCall.State.ANSWERING);
+          }
+        }
+      };
+      answering.start();
+      start.countDown();
+      assertNotNull(call.terminateState(SIPCall.State.DISCONNECTED));
+      answering.join(5000);
+      assertEquals(SIPCall.State.DISCONNECTED, call.getSIPCallState());
+      assertTrue(call.isTerminated());
+    }
+  }
+
+  public void testTerminateStateReturnsThePreviousStateOnce() {
+    final SIPIncomingCall call = new SIPIncomingCall(appContext, initInviteEvent);
+    call.setSIPCallState(SIPCall.State.ANSWERED);
+
+    assertEquals(SIPCall.State.ANSWERED, call.terminateState(SIPCall.State.DISCONNECTED));
+    assertEquals(SIPCall.State.DISCONNECTED, call.getSIPCallState());
+    assertTrue(call.isTerminated());
+
+    // a terminated call stays in its first terminated state.
+    assertNull(call.terminateState(SIPCall.State.FAILED));
+    assertEquals(SIPCall.State.DISCONNECTED, call.getSIPCallState());
+    assertFalse(call.setSIPCallState(SIPCall.State.RINGING));
+  }
+
+  public void testConcurrentTerminationHasOneWinner() throws Exception {
+    final SIPIncomingCall call = new SIPIncomingCall(appContext, initInviteEvent);
+    call.setSIPCallState(SIPCall.State.ANSWERED);
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicLong winners = new AtomicLong();
+    final Thread[] threads = new Thread[READERS];
+    for (int i = 0; i < READERS; i++) {
+      final SIPCall.State terminated = i % 2 == 0 ? SIPCall.State.DISCONNECTED : SIPCall.State.FAILED;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          }
+          catch (final InterruptedException e) {
+            return;
+          }
+          if (call.terminateState(terminated) != null) {
+            winners.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+    for (final Thread thread : threads) {
+      thread.join(5000);
+    }
+    assertEquals(1, winners.get());
+    assertTrue(call.isTerminated());
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+import com.voxeo.moho.sip.fake.MockSipServletResponse;
+import com.voxeo.moho.sip.fake.MockSipSession;
+
+public class SIPDirectForwarderTest extends TestCase {
+
+  Mockery mockery = new Mockery() {
+    {
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }
+  };
+
+  SIPIncomingCall call1 = mockery.mock(SIPIncomingCall.class, "call1");
+
+  SIPOutgoingCall call2 = mockery.mock(SIPOutgoingCall.class, "call2");
+
+  MockSipSession session1 = mockery.mock(MockSipSession.class, "session1");
+
+  MockSipSession session2 = mockery.mock(MockSipSession.class, "session2");
+
+  SIPDirectForwarder forwarder;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mockery.checking(new Expectations() {
+      {
+        allowing(call1).getSipSession();
+        will(returnValue(session1));
+        allowing(call2).getSipSession();
+        will(returnValue(session2));
+      }
+    });
+    forwarder = new SIPDirectForwarder(call1, call2);
+  }
+
+  public void testPeers() {
+    assertSame(call2, forwarder.getPeer(call1));
+    assertSame(call1, forwarder.getPeer(call2));
+    assertSame(session2, forwarder.getPeerSession(call1));
+    assertSame(session1, forwarder.getPeerSession(call2));
+  }
+
+  public void testAckOfLeg1AcknowledgesTheAnswerOfLeg2() throws Exception {
+    final MockSipServletResponse answer = reinvite(call1, session2, "leg1", 200);
+
+    // the ACK of the leg the answer came from has nothing to acknowledge.
+    assertFalse(forwarder.forwardAck(call2, ack("ack2")));
+
+    final MockSipServletRequest newAck = mockery.mock(MockSipServletRequest.class, "newAck");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(answer).createAck();
+        will(returnValue(newAck));
+        oneOf(newAck).send();
+      }
+    });
+    assertTrue(forwarder.forwardAck(call1, ack("ack1")));
+
+    // a retransmitted ACK is not forwarded again.
+    assertFalse(forwarder.forwardAck(call1, ack("ack1-retransmission")));
+    mockery.assertIsSatisfied();
+  }
+
+  public void testAckOfLeg2AcknowledgesTheAnswerOfLeg1() throws Exception {
+    final MockSipServletResponse answer = reinvite(call2, session1, "leg2", 200);
+    assertFalse(forwarder.forwardAck(call1, ack("ack1")));
+
+    final MockSipServletRequest newAck = mockery.mock(MockSipServletRequest.class, "newAck");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(answer).createAck();
+        will(returnValue(newAck));
+        oneOf(newAck).send();
+      }
+    });
+    assertTrue(forwarder.forwardAck(call2, ack("ack2")));
+    mockery.assertIsSatisfied();
+  }
+
+  public void testPendingAcksOfBothLegsAreKeptApart() throws Exception {
+    final MockSipServletResponse answer2 = reinvite(call1, session2, "leg1", 200);
+    final MockSipServletResponse answer1 = reinvite(call2, session1, "leg2", 200);
+
+    final MockSipServletRequest newAck1 = mockery.mock(MockSipServletRequest.class, "newAck1");
+    final MockSipServletRequest newAck2 = mockery.mock(MockSipServletRequest.class, "newAck2");
+    mockery.checking(new Expectations() {
+      {
+        oneOf(answer2).createAck();
+        will(returnValue(newAck2));
+        oneOf(newAck2).send();
+        oneOf(answer1).createAck();
+        will(returnValue(newAck1));
+        oneOf(newAck1).send();
+      }
+    });
+    assertTrue(forwarder.forwardAck(call2, ack("ack2")));
+    assertTrue(forwarder.forwardAck(call1, ack("ack1")));
+    mockery.assertIsSatisfied();
+  }
+
+  public void testErrorAnswerLeavesNothingToAcknowledge() throws Exception {
+    reinvite(call1, session2, "leg1", 488);
+    assertFalse(forwarder.forwardAck(call1, ack("ack1")));
+    assertFalse(forwarder.forwardAck(call2, ack("ack2")));
+    mockery.assertIsSatisfied();
+  }
+
+  public void testResponseToRequestNotForwarded() throws Exception {
+    final MockSipServletRequest req = mockery.mock(MockSipServletRequest.class, "req");
+    req.setMethod("INFO");
+    final MockSipServletResponse res = mockery.mock(MockSipServletResponse.class, "res");
+    res.setRequest(req);
+    res.setStatus(200);
+    assertFalse(forwarder.forwardResponse(call2, res, null));
+    mockery.assertIsSatisfied();
+  }
+
+  /**
+   * Forwards a re-INVITE received on the call to the peer session, and the
+   * answer of the peer back.
+   *
+   * @return the answer of the peer.
+   */
+  private MockSipServletResponse reinvite(final SIPCallImpl call, final MockSipSession peerSession,
+      final String name, final int status) throws Exception {
+    final MockSipServletRequest req = mockery.mock(MockSipServletRequest.class, name + "-reinvite");
+    req.setMethod("INVITE");
+    final MockSipServletRequest newReq = mockery.mock(MockSipServletRequest.class, name + "-forwarded");
+    newReq.setMethod("INVITE");
+    final MockSipServletResponse answer = mockery.mock(MockSipServletResponse.class, name + "-answer");
+    answer.setRequest(newReq);
+    answer.setStatus(status);
+    final MockSipServletResponse newAnswer = mockery.mock(MockSipServletResponse.class, name + "-forwarded-answer");
+    newAnswer.setRequest(req);
+    mockery.checking(new Expectations() {
+      {
+        oneOf(peerSession).createRequest("INVITE");
+        will(returnValue(newReq));
+        oneOf(newReq).send();
+        oneOf(req).createResponse(status);
+        will(returnValue(newAnswer));
+        oneOf(newAnswer).send();
+      }
+    });
+
+    assertSame(newReq, forwarder.forwardRequest(call, req, null));
+    assertTrue(forwarder.forwardResponse(forwarder.getPeer(call), answer, null));
+    assertNull(SIPHelper.getLinkSIPMessage(newReq));
+    return answer;
+  }
+
+  private MockSipServletRequest ack(final String name) {
+    final MockSipServletRequest ack = mockery.mock(MockSipServletRequest.class, name);
+    ack.setMethod("ACK");
+    return ack;
+  }
+}
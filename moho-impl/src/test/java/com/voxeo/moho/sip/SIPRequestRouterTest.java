@@ -0,0 +1,168 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.sip;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.sip.SipServletRequest;
+
+import junit.framework.TestCase;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+
+import com.voxeo.moho.sip.fake.MockSipServletRequest;
+
+public class SIPRequestRouterTest extends TestCase {
+
+  Mockery mockery = new Mockery() {
+    {
+      setImposteriser(ClassImposteriser.INSTANCE);
+    }
+  };
+
+  final List<String> handled = new ArrayList<String>();
+
+  SIPRequestHandler recorder(final String name) {
+    return new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) {
+        handled.add(name);
+      }
+    };
+  }
+
+  MockSipServletRequest request(final String method) {
+    final MockSipServletRequest req = mockery.mock(MockSipServletRequest.class, method);
+    mockery.checking(new Expectations() {
+      {
+        allowing(req).getMethod();
+        will(returnValue(method));
+      }
+    });
+    return req;
+  }
+
+  public void testRouteByMethod() throws Exception {
+    final SIPRequestRouter router = new SIPRequestRouter(recorder("default"));
+    router.setHandler("INFO", recorder("info"));
+
+    router.route(request("INFO"));
+    router.route(request("UPDATE"));
+
+    assertEquals(2, handled.size());
+    assertEquals("info", handled.get(0));
+    assertEquals("default", handled.get(1));
+    assertEquals(1, router.getStatistics("INFO").getRequestCount());
+    assertNull(router.getStatistics("UPDATE"));
+    assertEquals(1, router.getDefaultStatistics().getRequestCount());
+  }
+
+  public void testReplaceHandlerKeepsStatistics() throws Exception {
+    final SIPRequestRouter router = new SIPRequestRouter(recorder("default"));
+    final SIPRequestHandler builtin = recorder("builtin");
+    router.setHandler("INFO", builtin);
+    final MockSipServletRequest info = request("INFO");
+    router.route(info);
+
+    assertSame(builtin, router.setHandler("INFO", recorder("app")));
+    router.route(info);
+
+    assertEquals("app", handled.get(1));
+    final SIPRequestStatistics statistics = router.getStatistics("INFO");
+    assertEquals(2, statistics.getRequestCount());
+    long total = 0;
+    for (final long count : statistics.getLatencyHistogram()) {
+      total += count;
+    }
+    assertEquals(2, total);
+  }
+
+  public void testRemoveHandlerKeepsStatistics() throws Exception {
+    final SIPRequestRouter router = new SIPRequestRouter(recorder("default"));
+    router.setHandler("INFO", recorder("info"));
+    final MockSipServletRequest info = request("INFO");
+    router.route(info);
+
+    router.removeHandler("INFO");
+    router.route(info);
+    assertEquals("default", handled.get(1));
+    assertEquals(1, router.getStatistics("INFO").getRequestCount());
+    assertEquals(2, router.getStatistics().size());
+
+    router.setHandler("INFO", recorder("again"));
+    router.route(info);
+    assertEquals(2, router.getStatistics("INFO").getRequestCount());
+  }
+
+  public void testConcurrentSetHandlerSharesStatistics() throws Exception {
+    final SIPRequestRouter router = new SIPRequestRouter(recorder("default"));
+    final int threads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      final SIPRequestHandler handler = recorder("h" + i);
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < 1000; j++) {
+              router.setHandler("INFO", handler);
+              router.removeHandler("INFO");
+            }
+          }
+          catch (final InterruptedException e) {
+            // ends the thread
+          }
+          finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+
+    final SIPRequestStatistics statistics = router.getStatistics("INFO");
+    router.setHandler("INFO", recorder("last"));
+    assertSame(statistics, router.getStatistics("INFO"));
+    assertEquals(2, router.getStatistics().size());
+  }
+
+  public void testFailureIsCounted() throws Exception {
+    final SIPRequestRouter router = new SIPRequestRouter(recorder("default"));
+    router.setHandler("BYE", new SIPRequestHandler() {
+      public void handle(final SipServletRequest req) throws ServletException, IOException {
+        throw new IOException("send failed");
+      }
+    });
+
+    try {
+      router.route(request("BYE"));
+      fail("no exception");
+    }
+    catch (final IOException e) {
+      // expected
+    }
+    assertEquals(1, router.getStatistics("BYE").getRequestCount());
+    assertEquals(1, router.getStatistics("BYE").getFailureCount());
+  }
+}
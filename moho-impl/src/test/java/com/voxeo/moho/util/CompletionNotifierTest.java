@@ -0,0 +1,111 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.CompletionListener;
+
+public class CompletionNotifierTest extends TestCase {
+
+  static class RecordingListener implements CompletionListener<String> {
+    final List<Object> calls = new ArrayList<Object>();
+
+    public void onComplete(final String result) {
+      calls.add(result);
+    }
+
+    public void onFailure(final Throwable t) {
+      calls.add(t);
+    }
+  }
+
+  public void testCompleteNotifiesListenersOnce() {
+    final CompletionNotifier<String> notifier = new CompletionNotifier<String>();
+    final RecordingListener l1 = new RecordingListener();
+    final RecordingListener l2 = new RecordingListener();
+    notifier.addListener(l1);
+    notifier.addListener(l2);
+    assertFalse(notifier.isDone());
+
+    assertTrue(notifier.complete("result"));
+    assertTrue(notifier.isDone());
+    assertFalse(notifier.complete("again"));
+    assertFalse(notifier.fail(new Exception()));
+
+    assertEquals(1, l1.calls.size());
+    assertEquals("result", l1.calls.get(0));
+    assertEquals(1, l2.calls.size());
+    assertEquals("result", l2.calls.get(0));
+  }
+
+  public void testFailNotifiesFailure() {
+    final CompletionNotifier<String> notifier = new CompletionNotifier<String>();
+    final RecordingListener listener = new RecordingListener();
+    notifier.addListener(listener);
+    final Exception e = new Exception();
+
+    assertTrue(notifier.fail(e));
+    assertFalse(notifier.complete("result"));
+
+    assertEquals(1, listener.calls.size());
+    assertSame(e, listener.calls.get(0));
+  }
+
+  public void testListenerAddedAfterCompletionIsNotifiedImmediately() {
+    final CompletionNotifier<String> notifier = new CompletionNotifier<String>();
+    notifier.complete("result");
+    final RecordingListener listener = new RecordingListener();
+    notifier.addListener(listener);
+    assertEquals(1, listener.calls.size());
+    assertEquals("result", listener.calls.get(0));
+
+    final CompletionNotifier<String> failed = new CompletionNotifier<String>();
+    final Exception e = new Exception();
+    failed.fail(e);
+    final RecordingListener late = new RecordingListener();
+    failed.addListener(late);
+    assertEquals(1, late.calls.size());
+    assertSame(e, late.calls.get(0));
+  }
+
+  public void testFailingListenerDoesNotStopTheOthers() {
+    final CompletionNotifier<String> notifier = new CompletionNotifier<String>();
+    notifier.addListener(new CompletionListener<String>() {
+      public void onComplete(final String result) {
+        throw new RuntimeException("listener failure");
+      }
+
+      public void onFailure(final Throwable t) {
+        throw new RuntimeException("listener failure");
+      }
+    });
+    final RecordingListener listener = new RecordingListener();
+    notifier.addListener(listener);
+
+    assertTrue(notifier.complete("result"));
+    assertEquals(1, listener.calls.size());
+  }
+
+  public void testNullListenerIsIgnored() {
+    final CompletionNotifier<String> notifier = new CompletionNotifier<String>();
+    notifier.addListener(null);
+    assertTrue(notifier.complete("result"));
+    notifier.addListener(null);
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+public class IdGeneratorTest extends TestCase {
+
+  public void testRandomIdsAreVersion4UUIDs() {
+    final IdGenerator generator = new RandomIdGenerator();
+    final Set<String> ids = new HashSet<String>();
+    for (int i = 0; i < 10000; i++) {
+      final String id = generator.nextId();
+      final UUID uuid = UUID.fromString(id);
+      assertEquals(4, uuid.version());
+      assertEquals(2, uuid.variant());
+      assertTrue(ids.add(id));
+    }
+  }
+
+  public void testRandomIdsFromManyThreadsSharingGenerators() throws Exception {
+    // fewer generators than threads, so some threads share one.
+    final IdGenerator generator = new RandomIdGenerator(2);
+    final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+    final Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 2500; j++) {
+            ids.add(generator.nextId());
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(20000, ids.size());
+  }
+
+  public void testSequentialIdsAreUniquePerNode() {
+    final IdGenerator node1 = new SequentialIdGenerator("node1");
+    final IdGenerator node2 = new SequentialIdGenerator("node2");
+    final Set<String> ids = new HashSet<String>();
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(ids.add(node1.nextId()));
+      assertTrue(ids.add(node2.nextId()));
+    }
+    assertTrue(node1.nextId().startsWith("node1-"));
+  }
+
+  public void testSequentialIdsFromManyThreads() throws Exception {
+    final IdGenerator generator = new SequentialIdGenerator();
+    final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+    final Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 5000; j++) {
+            ids.add(generator.nextId());
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(20000, ids.size());
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class NLSMLParserTest extends TestCase {
+
+  static final String NLSML = "<?xml version=\"1.0\"?>\n"
+      + "<result xmlns=\"http://www.ietf.org/xml/ns/mrcpv2\" grammar=\"session:0@example.com\">\n"
+      + "  <interpretation confidence=\"87\">\n"
+      + "    <input mode=\"speech\">sales please</input>\n"
+      + "    sales\n    dept\n"
+      + "    <voxeoresult>\n"
+      + "      <concept> sales </concept>\n"
+      + "      <interpretation>sales</interpretation>\n"
+      + "    </voxeoresult>\n"
+      + "  </interpretation>\n"
+      + "  <interpretation grammar=\"session:12@example.com\" confidence=\"40\">\n"
+      + "    <input mode=\"speech\">support</input>\n"
+      + "  </interpretation>\n"
+      + "</result>";
+
+  static final String NAMESPACED = "<?xml version=\"1.0\"?>\n"
+      + "<result xmlns=\"http://www.ietf.org/xml/ns/mrcpv2\" xmlns:ex=\"http://example.com/ns\"\n"
+      + "    grammar=\"session:3@example.com\">\n"
+      + "  <interpretation confidence=\"75\">\n"
+      + "    <ex:instance><ex:city>Boston</ex:city></ex:instance>\n"
+      + "    city\n"
+      + "    <ex:voxeoresult><concept>ignored</concept></ex:voxeoresult>\n"
+      + "    <voxeoresult>\n"
+      + "      <ex:concept>ignored</ex:concept>\n"
+      + "      <concept>boston</concept>\n"
+      + "    </voxeoresult>\n"
+      + "  </interpretation>\n"
+      + "  <ex:interpretation confidence=\"10\">ignored</ex:interpretation>\n"
+      + "</result>";
+
+  // prefixed NLSML elements are not matched.
+  static final String PREFIXED = "<nlsml:result xmlns:nlsml=\"http://www.ietf.org/xml/ns/mrcpv2\""
+      + " grammar=\"session:1@example.com\">"
+      + "<nlsml:interpretation confidence=\"50\">yes</nlsml:interpretation>" + "</nlsml:result>";
+
+  static final String CDATA = "<result grammar=\"session:5@example.com\">\n"
+      + "  <interpretation confidence=\"66\">\n"
+      + "    <![CDATA[ dropped ]]> one &amp; two\n"
+      + "    <voxeoresult>\n"
+      + "      <concept><![CDATA[ dropped ]]></concept>\n"
+      + "      <concept>second</concept>\n"
+      + "      <interpretation> a <![CDATA[dropped]]> b </interpretation>\n"
+      + "    </voxeoresult>\n"
+      + "  </interpretation>\n"
+      + "</result>";
+
+  static final String MULTIPLE = "<nlsml>\n"
+      + "  <result grammar=\"session:1@example.com\">\n"
+      + "    <interpretation confidence=\"90\">yes</interpretation>\n"
+      + "    <interpretation grammar=\"session:@example.com\" confidence=\"20\">yeah</interpretation>\n"
+      + "  </result>\n"
+      + "  <result>\n"
+      + "    <interpretation confidence=\"5\">\n"
+      + "      <voxeoresult><interpretation> </interpretation><interpretation>no</interpretation></voxeoresult>\n"
+      + "    </interpretation>\n"
+      + "  </result>\n"
+      + "</nlsml>";
+
+  static final String[] DOCUMENTS = {NLSML, NAMESPACED, PREFIXED, CDATA, MULTIPLE, "<nlsml/>"};
+
+  public void testSameResultsAsTheDOMParser() throws Exception {
+    for (final String document : DOCUMENTS) {
+      assertEquals(document, DOMNLSMLParser.parse(document), NLSMLParser.parse(document));
+    }
+  }
+
+  public void testNamespacedResult() throws Exception {
+    final List<NLSMLResult> results = NLSMLParser.parseResults(NAMESPACED);
+    assertEquals(1, results.size());
+    assertEquals("city", results.get(0).getTag());
+    assertEquals("boston", results.get(0).getConcept());
+    assertTrue(NLSMLParser.parse(PREFIXED).isEmpty());
+  }
+
+  public void testCDATAIsIgnored() throws Exception {
+    final NLSMLResult result = NLSMLParser.parseResults(CDATA).get(0);
+    assertEquals("one&two", result.getTag());
+    // only the first concept counts, even if it has no text.
+    assertNull(result.getConcept());
+    assertEquals("a  b", result.getInterpretation());
+  }
+
+  public void testMultipleResults() throws Exception {
+    final List<NLSMLResult> results = NLSMLParser.parseResults(MULTIPLE);
+    assertEquals(3, results.size());
+    assertEquals("1", results.get(0).getGrammarId());
+    assertEquals("@", results.get(1).getGrammarId());
+    assertNull(results.get(2).getGrammarId());
+    assertNull(results.get(2).getInterpretation());
+  }
+
+  public void testParseResults() throws Exception {
+    final List<NLSMLResult> results = NLSMLParser.parseResults(NLSML);
+    assertEquals(2, results.size());
+
+    final NLSMLResult first = results.get(0);
+    assertEquals("0", first.getGrammarId());
+    assertEquals("0@example.com", first.getGrammar());
+    assertEquals(0.87F, first.getConfidence());
+    assertEquals("salesdept", first.getTag());
+    assertEquals("sales", first.getConcept());
+    assertEquals("sales", first.getInterpretation());
+
+    final NLSMLResult second = results.get(1);
+    assertEquals("12", second.getGrammarId());
+    assertEquals("12@example.com", second.getGrammar());
+    assertEquals(0.4F, second.getConfidence());
+    assertNull(second.getTag());
+    assertNull(second.getConcept());
+    assertNull(second.getInterpretation());
+  }
+
+  public void testParseKeepsTheMapKeys() throws Exception {
+    final List<Map<String, String>> results = NLSMLParser.parse(NLSML);
+    assertEquals(2, results.size());
+
+    final Map<String, String> reco = results.get(0);
+    assertEquals("0", reco.get("_grammar_id"));
+    assertEquals("0@example.com", reco.get("_grammar"));
+    assertEquals("0.87", reco.get("_confidence"));
+    assertEquals("0.87", reco.get("_interpretationconfidence"));
+    assertEquals("salesdept", reco.get("_tag"));
+    assertEquals("sales", reco.get("_concept"));
+    assertEquals("sales", reco.get("_interpretation"));
+
+    assertFalse(results.get(1).containsKey("_tag"));
+  }
+
+  public void testNoResult() throws Exception {
+    assertTrue(NLSMLParser.parse("<nlsml/>").isEmpty());
+  }
+
+  public void testMissingConfidence() {
+    try {
+      NLSMLParser.parseResults("<result><interpretation/></result>");
+      fail("Parsed an interpretation without confidence");
+    }
+    catch (final Exception e) {
+      // expected
+    }
+  }
+}
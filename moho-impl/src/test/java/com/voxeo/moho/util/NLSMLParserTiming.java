@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+/**
+ * Times {@link NLSMLParser} against {@link DOMNLSMLParser} on the documents of
+ * {@link NLSMLParserTest}. It is not a test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes com.voxeo.moho.util.NLSMLParserTiming [iterations]
+ * </pre>
+ *
+ * The figures are rough: there is no fork, the only guard against dead code
+ * elimination is a checksum, and a single warm-up round is run for the JIT.
+ */
+public class NLSMLParserTiming {
+
+  // keeps the results alive so the parsing is not optimized away.
+  static volatile int sink;
+
+  interface Parser {
+    int parse(String xml) throws Exception;
+  }
+
+  static final Parser STAX = new Parser() {
+    @Override
+    public int parse(final String xml) throws Exception {
+      return NLSMLParser.parse(xml).size();
+    }
+  };
+
+  static final Parser DOM = new Parser() {
+    @Override
+    public int parse(final String xml) throws Exception {
+      return DOMNLSMLParser.parse(xml).size();
+    }
+  };
+
+  public static void main(final String[] args) throws Exception {
+    final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    for (int round = 0; round < 2; round++) {
+      final boolean warmup = round == 0;
+      final long dom = time(DOM, iterations);
+      final long stax = time(STAX, iterations);
+      if (!warmup) {
+        final int parses = iterations * NLSMLParserTest.DOCUMENTS.length;
+        System.out.println("DOM:  " + dom / parses + " ns/parse");
+        System.out.println("StAX: " + stax / parses + " ns/parse");
+      }
+    }
+  }
+
+  static long time(final Parser parser, final int iterations) throws Exception {
+    int checksum = 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      for (final String document : NLSMLParserTest.DOCUMENTS) {
+        checksum += parser.parse(document);
+      }
+    }
+    final long elapsed = System.nanoTime() - start;
+    sink += checksum;
+    return elapsed;
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2010 Voxeo Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.voxeo.moho.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import com.voxeo.moho.CompletionListener;
+
+public class ResultFutureTest extends TestCase {
+
+  static class RecordingListener implements CompletionListener<String> {
+
+    String _result;
+
+    Throwable _failure;
+
+    int _calls;
+
+    @Override
+    public void onComplete(final String result) {
+      _result = result;
+      _calls++;
+    }
+
+    @Override
+    public void onFailure(final Throwable t) {
+      _failure = t;
+      _calls++;
+    }
+  }
+
+  public void testComplete() throws Exception {
+    final ResultFuture<String> future = new ResultFuture<String>();
+    final RecordingListener listener = new RecordingListener();
+    future.addCompletionListener(listener);
+    assertFalse(future.isDone());
+
+    future.complete("done");
+    future.complete("again");
+
+    assertTrue(future.isDone());
+    assertEquals("done", future.get());
+    assertEquals("done", listener._result);
+    assertEquals(1, listener._calls);
+  }
+
+  public void testFail() throws Exception {
+    final ResultFuture<String> future = new ResultFuture<String>();
+    final RecordingListener listener = new RecordingListener();
+    final IllegalStateException failure = new IllegalStateException();
+
+    future.fail(failure);
+    future.addCompletionListener(listener);
+
+    try {
+      future.get();
+      fail("get() returned on a failed future");
+    }
+    catch (final ExecutionException e) {
+      assertSame(failure, e.getCause());
+    }
+    assertSame(failure, listener._failure);
+  }
+
+  public void testCancel() throws Exception {
+    final ResultFuture<String> future = new ResultFuture<String>();
+    final RecordingListener listener = new RecordingListener();
+    future.addCompletionListener(listener);
+
+    assertTrue(future.cancel(false));
+    future.complete("late");
+
+    assertTrue(future.isCancelled());
+    assertTrue(listener._failure instanceof CancellationException);
+    assertEquals(1, listener._calls);
+  }
+
+  public void testPendingGetTimesOut() throws Exception {
+    final ResultFuture<String> future = new ResultFuture<String>();
+    assertFalse(future.isDone());
+    try {
+      future.get(10, TimeUnit.MILLISECONDS);
+      fail("get() returned on a pending future");
+    }
+    catch (final TimeoutException e) {
+      // expected
+    }
+    assertFalse(future.isDone());
+  }
+
+  public void testCompletionAfterCancelIsIgnored() throws Exception {
+    final ResultFuture<String> future = new ResultFuture<String>();
+    assertTrue(future.cancel(true));
+
+    assertFalse(future.complete("late"));
+    assertFalse(future.fail(new IllegalStateException()));
+    assertFalse(future.cancel(true));
+    try {
+      future.get();
+      fail("get() returned on a cancelled future");
+    }
+    catch (final CancellationException e) {
+      // expected
+    }
+  }
+
+  public void testFailAfterCompleteIsIgnored() throws Exception {
+    final ResultFuture<String> future = new ResultFuture<String>();
+    final RecordingListener listener = new RecordingListener();
+    future.addCompletionListener(listener);
+
+    assertTrue(future.complete("done"));
+    assertFalse(future.fail(new IllegalStateException()));
+    assertFalse(future.cancel(false));
+
+    assertFalse(future.isCancelled());
+    assertEquals("done", future.get(10, TimeUnit.MILLISECONDS));
+    assertNull(listener._failure);
+    assertEquals(1, listener._calls);
+  }
+
+  public void testGetWaitsForTheCompletion() throws Exception {
+    final ResultFuture<String> future = new ResultFuture<String>();
+    final Thread completer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        }
+        catch (final InterruptedException e) {
+          // completes anyway.
+        }
+        future.complete("done");
+      }
+    };
+    completer.start();
+    assertEquals("done", future.get(5, TimeUnit.SECONDS));
+    completer.join();
+  }
+}